@@ -5,17 +5,26 @@ package org.uom.cse.distributed;
 
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
+import org.uom.cse.distributed.peer.NioUDPServer;
 import org.uom.cse.distributed.peer.Node;
 import org.uom.cse.distributed.peer.UDPCommunicationProvider;
 import org.uom.cse.distributed.peer.UDPServer;
 import org.uom.cse.distributed.peer.api.CommunicationProvider;
+import org.uom.cse.distributed.peer.api.EntryTable;
+import org.uom.cse.distributed.peer.api.MessageCodec;
 import org.uom.cse.distributed.peer.api.NodeServer;
+import org.uom.cse.distributed.peer.rest.PooledConnectorProvider;
 import org.uom.cse.distributed.peer.rest.RestCommunicationProvider;
 import org.uom.cse.distributed.peer.rest.RestNodeServer;
+import org.uom.cse.distributed.peer.rest.RestServerConfig;
+import org.uom.cse.distributed.peer.utils.RequestUtils;
 
+import javax.ws.rs.core.MediaType;
+import java.io.File;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Scanner;
+import java.util.TreeMap;
 import java.util.UUID;
 
 /**
@@ -38,22 +47,64 @@ public class CLI {
             return;
         }
 
+        if (options.getWeight() <= 0) {
+            System.err.println("Weight should be positive");
+            parser.printUsage(System.err);
+            return;
+        }
+
+        if (options.getRingBits() < 1 || options.getRingBits() > Constants.MAX_RING_BITS) {
+            System.err.println("Ring bits should be within 1 - " + Constants.MAX_RING_BITS);
+            parser.printUsage(System.err);
+            return;
+        }
+
+        if (options.getPrefixRouting() < 0) {
+            System.err.println("Prefix routing length should not be negative");
+            parser.printUsage(System.err);
+            return;
+        }
+
+        MessageCodec codec;
+        try {
+            codec = RequestUtils.getCodec(options.getCodec());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Codec should be one of " + RequestUtils.getCodecNames());
+            parser.printUsage(System.err);
+            return;
+        }
+
         Constants.BOOTSTRAP_PORT = options.getBsPort();
         Constants.BOOTSTRAP_IP = options.getBsIpAddress();
+        Constants.RING_BITS = options.getRingBits();
+        Constants.ROUTING_PREFIX_LENGTH = options.getPrefixRouting();
 
         Node node;
         try {
             CommunicationProvider cp;
             NodeServer ns;
             if (options.isRest()) {
-                cp = new RestCommunicationProvider();
-                ns = new RestNodeServer();
+                MediaType mediaType = options.isRestJson() ? MediaType.APPLICATION_JSON_TYPE
+                        : MediaType.APPLICATION_OCTET_STREAM_TYPE;
+                cp = new RestCommunicationProvider(Constants.REST_MAX_CONNECTIONS_PER_PEER,
+                        Constants.REST_CONNECT_TIMEOUT_MS, Constants.REST_READ_TIMEOUT_MS, mediaType);
+                ns = new RestNodeServer(options.getRestServerConfig());
+            } else if (options.isNio()) {
+                cp = new UDPCommunicationProvider();
+                ns = new NioUDPServer(options.getPort(), options.getNioWorkers(), Constants.NIO_WORKER_QUEUE_SIZE);
             } else {
                 cp = new UDPCommunicationProvider();
                 ns = new UDPServer(options.getPort());
             }
 
             node = new Node(options.getPort(), options.getIpAddress(), options.getUsername(), cp, ns);
+            node.setCodec(codec);
+            node.setFingerRouting(options.isFingerRouting());
+            node.setVirtualNodes(options.getVirtualNodeCount());
+            node.setRebalancing(options.isRebalancing());
+            if (options.getDataDirectory() != null) {
+                node.setDataDirectory(new File(options.getDataDirectory()));
+            }
             node.start();
             System.out.println("Node started ...");
             Runtime.getRuntime().addShutdownHook(new Thread(node::stop));
@@ -91,33 +142,70 @@ public class CLI {
                         node.getRoutingTable().getEntries()
                                 .forEach(entry -> System.out.println(entry.getNodeId() + " -> " + entry.getAddress().toString()));
                         break;
+                    case "positions":
+                        System.out.println(node.getPositions());
+                        break;
+                    case "load":
+                        node.getLoad().forEach(load -> System.out.println("(" + load.getFrom() + ", " + load.getNodeId()
+                                + "] -> " + load.getEntries() + " entries"));
+                        break;
+                    case "fingers":
+                        node.getFingerTable().getFingers()
+                                .forEach(entry -> System.out.println(entry.getNodeId() + " -> " + entry.getAddress()));
+                        break;
+                    case "heap":
+                        EntryTable table = node.getEntryTable();
+                        System.out.println(String.format("Entry table: %d keywords, %d files, %d entries in ~%d bytes",
+                                table.getKeywordCount(), table.getFileCount(), table.getEntryCount(),
+                                table.getHeapFootprint()));
+                        node.getPredecessorEntries().forEach((predecessor, replica) -> System.out.println(
+                                String.format("Replica of %s: %d entries in ~%d bytes", predecessor,
+                                        replica.getEntryCount(), replica.getHeapFootprint())));
+                        break;
+                    case "checkpoint":
+                        if (node.getDataDirectory() != null) {
+                            node.getEntryTable().checkpoint();
+                            System.out.println("Entries persisted in " + node.getDataDirectory());
+                        } else {
+                            System.out.println("Entries are kept in memory only. Start with -data to persist them");
+                        }
+                        break;
                     case "myFiles":
                         System.out.println(node.getMyFiles());
                         break;
                     case "entryTable":
                         StringBuilder sb = new StringBuilder();
-                        node.getEntryTable().getEntries().forEach(((character, stringListMap) -> {
+                        new TreeMap<>(node.getEntryTable().getEntries()).forEach((keyword, entries) -> {
                             sb.append("\n");
-                            sb.append(character);
+                            sb.append(keyword);
                             sb.append("\t-> ");
-                            if (stringListMap.size() > 0) {
-                                sb.append("\n");
-                            }
-
-                            stringListMap.forEach((keyword, entries) -> {
-                                if (entries.size() > 0) {
-                                    sb.append("\t");
-                                    sb.append(keyword);
-                                    sb.append("\t-> ");
-                                    sb.append(entries);
-                                    sb.append("\n");
-                                }
-                            });
-                        }));
+                            sb.append(entries);
+                        });
                         System.out.println(sb.toString());
                         break;
+                    case "rtt":
+                        if (node.getCommunicationProvider() instanceof UDPCommunicationProvider) {
+                            ((UDPCommunicationProvider) node.getCommunicationProvider()).getRttEstimator()
+                                    .getEstimates()
+                                    .forEach((peer, estimate) -> System.out.println(peer + " -> " + estimate));
+                        } else {
+                            System.out.println("Round trip times are measured for UDP only");
+                        }
+                        break;
+                    case "http":
+                        if (node.getCommunicationProvider() instanceof RestCommunicationProvider) {
+                            PooledConnectorProvider connectors = ((RestCommunicationProvider)
+                                    node.getCommunicationProvider()).getConnectorProvider();
+                            System.out.println(connectors);
+                            connectors.getPeerStats().forEach((peer, stats) -> System.out.println(peer + " -> " + stats));
+                        } else {
+                            System.out.println("HTTP connections are pooled for REST only");
+                        }
+                        break;
                     case "help":
-                        System.out.println("stop | node | state | search | routingTable | myFiles | entryTable");
+                        System.out.println("stop | node | state | search | searchK <keyword|prefix*|*infix*> | "
+                                + "routingTable | positions | load | fingers | myFiles | entryTable | heap | "
+                                + "checkpoint | rtt | http");
                         break;
                     default:
                         System.out.println("Command not identified");
@@ -150,6 +238,66 @@ public class CLI {
         @Option(name = "-rest", usage = "Use REST services over UDP sockets if this option is given")
         private boolean isRest = false;
 
+        @Option(name = "-nio", usage = "Use the selector based UDP server with a bounded worker pool")
+        private boolean isNio = false;
+
+        @Option(name = "-nio-workers", usage = "Worker threads of the selector based UDP server. (default: 8)")
+        private int nioWorkers = Constants.NIO_WORKER_THREADS;
+
+        @Option(name = "-rest-json", usage = "Exchange JSON instead of objects encoded by the codec in REST calls")
+        private boolean isRestJson = false;
+
+        @Option(name = "-rest-threads", usage = "Jetty threads of the REST server. (default: 32)")
+        private int restThreads = Constants.REST_SERVER_MAX_THREADS;
+
+        @Option(name = "-rest-queue", usage = "Connections which may wait for a Jetty thread. (default: 256)")
+        private int restQueueSize = Constants.REST_SERVER_QUEUE_SIZE;
+
+        @Option(name = "-rest-acceptors", usage = "Acceptor threads of the REST server. (default: 1)")
+        private int restAcceptors = Constants.REST_SERVER_ACCEPTORS;
+
+        @Option(name = "-rest-selectors", usage = "Selector threads of the REST server. (default: 2)")
+        private int restSelectors = Constants.REST_SERVER_SELECTORS;
+
+        @Option(name = "-rest-idle-timeout", usage = "Idle timeout of REST server connections in ms. (default: 60000)")
+        private int restIdleTimeoutMs = Constants.REST_SERVER_IDLE_TIMEOUT_MS;
+
+        @Option(name = "-rest-workers", usage = "Worker threads serving lookups of the REST server. (default: 8)")
+        private int restWorkers = Constants.REST_WORKER_THREADS;
+
+        @Option(name = "-fingers", usage = "Keep fingers and neighbours only and route lookups through them, instead "
+                + "of knowing every node. All the nodes should use the same mode")
+        private boolean isFingerRouting = false;
+
+        @Option(name = "-vnodes", usage = "Positions taken by the node in the ring. More positions spread the keywords "
+                + "more evenly among the nodes. (default: 1)")
+        private int virtualNodes = Constants.DEFAULT_VIRTUAL_NODES;
+
+        @Option(name = "-weight", usage = "Scales the positions taken by the node. e.g: Relative CPU or memory of this "
+                + "machine, so that larger machines index more keywords. (default: 1)")
+        private double weight = 1;
+
+        @Option(name = "-rebalance", usage = "Periodically move a virtual node to split a range of another node which "
+                + "holds many times the keywords of this node. Needs more than one position")
+        private boolean isRebalancing = false;
+
+        @Option(name = "-data", usage = "Directory in which the node persists its entries, positions and files. A node "
+                + "restarted with the same directory serves its entries right away. (default: kept in memory only)")
+        private String dataDirectory = null;
+
+        @Option(name = "-ring-bits", usage = "Node IDs and keywords are hashed onto a ring of 2^bits positions. All the "
+                + "nodes should use the same size. (default: 30, max: 30)")
+        private int ringBits = Constants.RING_BITS;
+
+        @Option(name = "-prefix-routing", usage = "Hash keywords by their first n characters only, so that a search for "
+                + "a prefix of at least n characters is routed to a single node rather than to all. All the nodes "
+                + "should use the same length. (default: 0, whole keywords)")
+        private int prefixRouting = Constants.ROUTING_PREFIX_LENGTH;
+
+        @Option(name = "-codec", usage = "Codec used for routing tables, entries and query results: BIN or JAVA. " +
+                "(default: BIN)")
+        private String codec = Constants.DEFAULT_CODEC;
+
         private CmdLineOptions() throws UnknownHostException { }
 
         public int getPort() {
@@ -175,5 +323,65 @@ public class CLI {
         public boolean isRest() {
             return isRest;
         }
+
+        public boolean isNio() {
+            return isNio;
+        }
+
+        public int getNioWorkers() {
+            return nioWorkers;
+        }
+
+        public String getCodec() {
+            return codec;
+        }
+
+        public boolean isFingerRouting() {
+            return isFingerRouting;
+        }
+
+        /**
+         * @return positions scaled by the weight. At least one and at most {@link Constants#MAX_VIRTUAL_NODES}
+         */
+        public int getVirtualNodeCount() {
+            long count = Math.round(virtualNodes * weight);
+            return (int) Math.max(1, Math.min(Constants.MAX_VIRTUAL_NODES, count));
+        }
+
+        public boolean isRebalancing() {
+            return isRebalancing;
+        }
+
+        public String getDataDirectory() {
+            return dataDirectory;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        public int getRingBits() {
+            return ringBits;
+        }
+
+        public int getPrefixRouting() {
+            return prefixRouting;
+        }
+
+        public boolean isRestJson() {
+            return isRestJson;
+        }
+
+        public RestServerConfig getRestServerConfig() {
+            RestServerConfig config = new RestServerConfig();
+            config.setMaxThreads(restThreads);
+            config.setMinThreads(Math.min(config.getMinThreads(), restThreads));
+            config.setQueueSize(restQueueSize);
+            config.setAcceptors(restAcceptors);
+            config.setSelectors(restSelectors);
+            config.setIdleTimeoutMs(restIdleTimeoutMs);
+            config.setWorkerThreads(restWorkers);
+            return config;
+        }
     }
 }
@@ -14,35 +14,160 @@ public class Constants {
     /** How many times a given UDP request be retried */
     public static final int RETRIES_COUNT = 5;
     public static final int RETRY_TIMEOUT_MS = 5000;
+    /** Bounds of the retransmission timeout derived from the measured round trip time of a peer */
+    public static final int MIN_RTO_MS = 100;
+    public static final int INITIAL_RTO_MS = 1000;
+    public static final int MAX_RTO_MS = RETRY_TIMEOUT_MS;
+    /** Fraction of the retransmission timeout added at random to spread out retries */
+    public static final double RTO_JITTER = 0.1;
     public static final int GRACE_PERIOD_MS = 5000;
     public static final int HEARTBEAT_FREQUENCY_MS = 20000;
     public static final int HEARTBEAT_INITIAL_DELAY = 30000;
+    /** Number of successors holding a replica of a node's entries. i.e: the ones pinging it */
+    public static final int REPLICAS = 2;
 
-    public static final int ADDRESS_SPACE_SIZE = 36;
-    public static final int CHARACTER_SPACE_SIZE = 36;
-    public static final int ADDRESSES_PER_CHARACTER = ADDRESS_SPACE_SIZE / CHARACTER_SPACE_SIZE;
+    /** Number of responses remembered for answering retried requests and for how long. Covers all the retries */
+    public static final int RESPONSE_CACHE_SIZE = 512;
+    public static final int RESPONSE_CACHE_TTL_MS = RETRIES_COUNT * RETRY_TIMEOUT_MS;
+
+    /** Maximum size of a single UDP datagram we are going to receive */
+    public static final int DATAGRAM_BUFFER_SIZE = 65536;
+    /** Messages larger than this many bytes are split into fragments */
+    public static final int DATAGRAM_FRAGMENT_SIZE = 8192;
+    /** Largest number of fragments accepted for a single message */
+    public static final int FRAGMENT_MAX_COUNT = 1024;
+    /** Time without new fragments after which the receiver asks for the missing ones, and how many times it asks */
+    public static final int FRAGMENT_NAK_DELAY_MS = 250;
+    public static final int FRAGMENT_MAX_NAKS = 5;
+    /** Time for which incomplete messages and fragments sent are kept around */
+    public static final int FRAGMENT_TIMEOUT_MS = RETRY_TIMEOUT_MS;
+    /** Worker threads and pending request queue size of the NIO based UDP server */
+    public static final int NIO_WORKER_THREADS = 8;
+    public static final int NIO_WORKER_QUEUE_SIZE = 1024;
+    /** Number of receive buffers kept pooled by the NIO based UDP server */
+    public static final int NIO_BUFFER_POOL_SIZE = 64;
+    public static final int NIO_SELECT_TIMEOUT_MS = 1000;
+    /** Persistent HTTP connections kept open by the REST client to a single peer and altogether */
+    public static final int REST_MAX_CONNECTIONS_PER_PEER = 4;
+    public static final int REST_MAX_CONNECTIONS = 64;
+    /** Timeouts of the REST client. Connections idle for longer than REST_IDLE_TIMEOUT_MS are closed */
+    public static final int REST_CONNECT_TIMEOUT_MS = RETRY_TIMEOUT_MS;
+    public static final int REST_READ_TIMEOUT_MS = RETRIES_COUNT * RETRY_TIMEOUT_MS;
+    public static final int REST_IDLE_TIMEOUT_MS = 30000;
+    /** Jetty threads of the REST server and the number of requests which may wait for one. Rejected once full */
+    public static final int REST_SERVER_MAX_THREADS = 32;
+    public static final int REST_SERVER_MIN_THREADS = 4;
+    public static final int REST_SERVER_QUEUE_SIZE = 256;
+    /** Acceptor and selector threads of the REST server's connector. Taken out of REST_SERVER_MAX_THREADS */
+    public static final int REST_SERVER_ACCEPTORS = 1;
+    public static final int REST_SERVER_SELECTORS = 2;
+    /** Kept above the client's idle timeout so that clients close idle connections before the server does */
+    public static final int REST_SERVER_IDLE_TIMEOUT_MS = 2 * REST_IDLE_TIMEOUT_MS;
+    /** Worker threads and pending request queue size of the lookup endpoints of the REST server */
+    public static final int REST_WORKER_THREADS = 8;
+    public static final int REST_WORKER_QUEUE_SIZE = 1024;
+    /** Lookups not completed within this time are answered with 503. The client would have given up by then */
+    public static final int REST_REQUEST_TIMEOUT_MS = REST_READ_TIMEOUT_MS;
+    /** Payloads (encoded objects) larger than this many bytes are fetched over TCP instead of being sent over UDP */
+    public static final int BULK_TRANSFER_THRESHOLD = 64 * 1024;
+    /** Time for which a payload offered over TCP is kept around. Covers all the retries of the message referring to it */
+    public static final int BULK_TRANSFER_TTL_MS = RETRIES_COUNT * RETRY_TIMEOUT_MS;
+    /** Time a bulk transfer may go without progress before it is abandoned */
+    public static final int BULK_TRANSFER_IDLE_TIMEOUT_MS = RETRY_TIMEOUT_MS;
+    /** Largest payload offered or fetched over TCP. Bounds the buffer allocated for a length read from a reference */
+    public static final int BULK_TRANSFER_MAX_BYTES = 64 * 1024 * 1024;
+
+    /** Number of changes an entry table remembers for serving delta heartbeats */
+    public static final int ENTRY_TABLE_CHANGE_LOG_SIZE = 4096;
+    /**
+     * Changes logged by an entry table beyond this many bytes are compacted into a snapshot. Bounds the changes replayed
+     * when recovering
+     */
+    public static final long ENTRY_TABLE_CHECKPOINT_LOG_BYTES = 4 * 1024 * 1024;
+    /** Where a node persists its entries and its positions and files, within its data directory */
+    public static final String ENTRIES_DIRECTORY = "entries";
+    public static final String IDENTITY_FILE = "node.properties";
+
+    /**
+     * Node IDs and keyword hashes fall in [1, 2^RING_BITS]. Should be the same on all the nodes. Node IDs are sent as
+     * positive ints, hence up to MAX_RING_BITS. Also the number of fingers of a node in finger routing mode
+     */
+    public static int RING_BITS = 30;
+    public static final int MAX_RING_BITS = 30;
+    /**
+     * Keywords are hashed by their first this many characters only, if positive. Hence all the keywords sharing such a
+     * prefix are owned by the same node and a prefix search is routed to that node alone. Whole keywords are hashed
+     * otherwise, which spreads them more evenly. Should be the same on all the nodes
+     */
+    public static int ROUTING_PREFIX_LENGTH = 0;
+    /** Length of the n-grams indexed for finding keywords containing a given text */
+    public static final int KEYWORD_NGRAM_LENGTH = 3;
+    /** Nodes kept on either side of a node in finger routing mode. Covers the replicas and the nodes pinging them */
+    public static final int SUCCESSOR_LIST_SIZE = REPLICAS + 1;
+    /** Hops after which a lookup routed through fingers gives up */
+    public static final int MAX_LOOKUP_HOPS = 2 * MAX_RING_BITS;
+    /** Positions a node takes in the ring unless configured otherwise. More positions spread the keywords evenly */
+    public static final int DEFAULT_VIRTUAL_NODES = 1;
+    public static final int MAX_VIRTUAL_NODES = 64;
+    /** Peers asked for the loads of their ranges when picking a position to join at or to move to */
+    public static final int LOAD_SAMPLE_SIZE = 8;
+    /** A position is moved to split a range once the range holds this many times the entries of my lightest range */
+    public static final int REBALANCE_THRESHOLD = 4;
+    /** Ranges holding fewer entries are never split by moving a position */
+    public static final int REBALANCE_MIN_ENTRIES = 16;
+    public static final int REBALANCE_FREQUENCY_MS = 3 * HEARTBEAT_FREQUENCY_MS;
 
     /** REG ${ip} ${port} ${username} */
     public static final String REG_MSG_FORMAT = "REG %s %d %s";
     /** UNREG ${ip} ${port} ${username} */
     public static final String UNREG_MSG_FORMAT = "UNREG %s %d %s";
-    /** NEWNODE ${ip} ${port} ${nodeId} */
-    public static final String NEWNODE_MSG_FORMAT = "NEWNODE %s %d %d";
+    /** NEWNODE ${ip} ${port} ${nodeId1},${nodeId2},... - Node IDs of all the positions of the new node */
+    public static final String NEWNODE_MSG_FORMAT = "NEWNODE %s %d %s";
     /** NEWENTRY ${keyword} ${node} ${file} */
     public static final String NEWENTRY_MSG_FORMAT = "NEWENTRY %s %d %s";
+    /** NEWENTRIES ${serialized_entries} - Offers many keyword -> entries mappings to their owner at once */
+    public static final String NEWENTRIES_MSG_FORMAT = "NEWENTRIES %s";
     /** QUERY ${keyword} ${filename} */
     public static final String QUERY_MSG_FORMAT = "QUERY %s %s";
     /** QUERY ${keyword} ${filename} */
     public static final String KEYWORD_MSG_FORMAT = "KEYWORD %s";
-    /** PING - Pings and gets the entries of the corresponding node */
-    public static final String PING_MSG_FORMAT = "PING %d %s";
+    /** PING ${nodeId} ${epoch} ${version} ${entries_to_hand_over} - Pings and gets the entries changed since version */
+    public static final String PING_MSG_FORMAT = "PING %d %d %d %s";
+    /** FINDSUCC ${nodeId} - Asks for the owner of the node ID, or for a node closer to it */
+    public static final String FINDSUCC_MSG_FORMAT = "FINDSUCC %d";
     /** SYNC ${type} ${serialized_object} - For syncing table entries and routing tables */
     public static final String SYNC_MSG_FORMAT = "SYNC %s %s";
 
-    /** Message format to be used when sending a request to the bootstrap server. ${length} ${msg} */
-    public static final String MSG_FORMAT = "%04d %s";
+    /** FRAG ${messageId} ${index} ${count} ${bytes} - A fragment of a message too large for a single datagram */
+    public static final String FRAG_MSG_FORMAT = "FRAG %d %d %d ";
+    /** FRAGNAK ${messageId} ${index1},${index2},... - Asks the sender to resend the missing fragments */
+    public static final String FRAGNAK_MSG_FORMAT = "FRAGNAK %d %s";
+    /** @BULK:${port}:${id}:${length} - Sent in place of a payload to be fetched from ${port} of the sender over TCP */
+    public static final String BULK_REF_PREFIX = "@BULK:";
+    public static final String BULK_REF_FORMAT = BULK_REF_PREFIX + "%d:%d:%d";
+
+    /**
+     * Correlation header of requests sent between nodes and of their responses. Requests carry the codec the
+     * requester understands as well. #${requestId}:${codec} ${msg} | Responses: #${requestId} ${msg}
+     */
+    public static final String CORRELATION_PREFIX = "#";
+    /** Separates the codec name from the request ID in headers and from the payload in encoded objects */
+    public static final char CODEC_SEPARATOR = ':';
+    /** HTTP header used by REST requests to name the codec understood by the requester */
+    public static final String CODEC_HEADER = "X-Codec";
+    /** Codec used by nodes unless configured otherwise */
+    public static final String DEFAULT_CODEC = "BIN";
+    /** Longest string and largest collection the binary codec accepts. Guards against malformed sizes on the wire */
+    public static final int CODEC_MAX_STRING_BYTES = 64 * 1024;
+    public static final int CODEC_MAX_ELEMENTS = 16 * 1024 * 1024;
+
+    /** Bootstrap server commands */
+    public static final String REG = "REG";
     public static final String REGOK = "REGOK";
+    public static final String UNREG = "UNREG";
     public static final String UNROK = "UNROK";
+    public static final String ECHO = "ECHO";
+    public static final String ECHOK = "ECHOK";
 
     /** Types of syncs */
     public static final String TYPE_ROUTING = "RTBL";
@@ -54,11 +179,17 @@ public class Constants {
     public static final String QUERY = "QUERY";
     public static final String KEYWORD = "KEYWORD";
     public static final String NEW_ENTRY = "NEWENTRY";
+    public static final String NEW_ENTRIES = "NEWENTRIES";
     public static final String RESPONSE_OK = "OK";
     public static final String RESPONSE_FAILURE = "FAILED";
     /** SYNC - sync the entry table entries by handing over anything that should belong to that node */
     public static final String SYNC = "SYNC";
     public static final String PING = "PING";
+    public static final String FIND_SUCCESSOR = "FINDSUCC";
+    /** LOAD - Asks for the entries held in the range of each position of a node */
+    public static final String LOAD = "LOAD";
+    public static final String FRAG = "FRAG";
+    public static final String FRAGNAK = "FRAGNAK";
 
     /** File name generation and relevant constants **/
     public static final int MIN_FILE_COUNT = 3;
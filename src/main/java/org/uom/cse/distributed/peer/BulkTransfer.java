@@ -0,0 +1,420 @@
+package org.uom.cse.distributed.peer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uom.cse.distributed.peer.api.MessageCodec;
+import org.uom.cse.distributed.peer.utils.RequestUtils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.uom.cse.distributed.Constants.BULK_REF_FORMAT;
+import static org.uom.cse.distributed.Constants.BULK_REF_PREFIX;
+import static org.uom.cse.distributed.Constants.BULK_TRANSFER_IDLE_TIMEOUT_MS;
+import static org.uom.cse.distributed.Constants.BULK_TRANSFER_MAX_BYTES;
+import static org.uom.cse.distributed.Constants.BULK_TRANSFER_THRESHOLD;
+import static org.uom.cse.distributed.Constants.BULK_TRANSFER_TTL_MS;
+import static org.uom.cse.distributed.Constants.NIO_SELECT_TIMEOUT_MS;
+
+/**
+ * Moves payloads too large for the UDP control channel over short lived TCP streams. Instead of a large payload, the
+ * sender puts a reference (<pre>@BULK:${port}:${id}:${length}</pre>) in its UDP message and keeps the payload for
+ * {@link org.uom.cse.distributed.Constants#BULK_TRANSFER_TTL_MS}. The receiver resolves the reference by connecting to
+ * ${port} of the sender, writing the ID and reading the payload. Hence the transfer is paced by TCP flow control
+ * instead of by datagram retries, and a retried UDP message carrying the same reference fetches the same payload.
+ * <p>
+ * Each node serves its payloads from a single selector thread on an ephemeral port, which also drops the payloads
+ * kept for longer than the TTL.
+ */
+public class BulkTransfer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkTransfer.class);
+
+    private static final byte[] REF_PREFIX = BULK_REF_PREFIX.getBytes(StandardCharsets.US_ASCII);
+
+    private final Map<Long, Outgoing> outbox = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong(new Random().nextInt(Integer.MAX_VALUE));
+    private final String name;
+    private final int threshold;
+
+    private volatile boolean started = false;
+    private volatile int port;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread eventLoop;
+
+    /**
+     * @param name name used for the serving thread
+     */
+    public BulkTransfer(String name) {
+        this(name, BULK_TRANSFER_THRESHOLD);
+    }
+
+    /**
+     * @param name      name used for the serving thread
+     * @param threshold objects taking more than this many bytes in Base64 are sent over TCP
+     */
+    public BulkTransfer(String name, int threshold) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("Threshold should be positive");
+        }
+
+        this.name = name;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Starts serving payloads on an ephemeral port
+     *
+     * @throws IOException if the server socket couldn't be opened
+     */
+    public synchronized void start() throws IOException {
+        if (started) {
+            return;
+        }
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.bind(new InetSocketAddress(0));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        port = serverChannel.socket().getLocalPort();
+        started = true;
+
+        eventLoop = new Thread(this::serve, "bulk-" + name);
+        eventLoop.setDaemon(true);
+        eventLoop.start();
+        logger.info("Serving bulk transfers on port {}", port);
+    }
+
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+
+        started = false;
+        selector.wakeup();
+        try {
+            eventLoop.join(1000);
+        } catch (InterruptedException ignored) { }
+        outbox.clear();
+        logger.info("Bulk transfers stopped");
+    }
+
+    /**
+     * Encodes the object and keeps it to be fetched over TCP if it is larger than the threshold. Objects kept are
+     * fetched as raw bytes (see {@link RequestUtils#encodeObject(Object, MessageCodec)}). Only the ones sent over UDP
+     * are inflated by Base64, by a third, to fit within text messages.
+     *
+     * @param object object to be sent
+     * @param codec  codec to encode the object with
+     * @return a reference to the object to be sent in its place | the object encoded as by {@link
+     * RequestUtils#buildObjectRequest(Object, MessageCodec)} if it is small enough to be sent over UDP or if not
+     * started
+     * @throws IOException              encoding failures
+     * @throws IllegalArgumentException if the object takes more than {@link
+     *                                  org.uom.cse.distributed.Constants#BULK_TRANSFER_MAX_BYTES}
+     */
+    public String offer(Object object, MessageCodec codec) throws IOException {
+        byte[] encoded = RequestUtils.encodeObject(object, codec);
+        // Base64 takes 4 bytes for every 3
+        if (!started || 4L * ((encoded.length + 2) / 3) <= threshold) {
+            return RequestUtils.toBase64(encoded);
+        } else if (encoded.length > BULK_TRANSFER_MAX_BYTES) {
+            throw new IllegalArgumentException(String.format("Payload of %d bytes is larger than %d bytes",
+                    encoded.length, BULK_TRANSFER_MAX_BYTES));
+        }
+
+        long id = ids.incrementAndGet();
+        outbox.put(id, new Outgoing(encoded, System.currentTimeMillis()));
+        logger.debug("Offering payload {} of {} bytes over TCP", id, encoded.length);
+        return String.format(BULK_REF_FORMAT, port, id, encoded.length);
+    }
+
+    /**
+     * Decodes the object sent in place of the given payload by {@link #offer(Object, MessageCodec)}. Fetches it from
+     * the sender first if the payload is a reference.
+     *
+     * @param payload payload received. Its position is not changed
+     * @param sender  address of the node which sent the payload
+     * @return decoded object | null if decoding failed
+     * @throws IOException if the object couldn't be fetched
+     */
+    public static Object decode(ByteBuffer payload, InetAddress sender) throws IOException {
+        if (!isReference(payload)) {
+            return RequestUtils.base64ToObject(payload);
+        }
+        return RequestUtils.decodeObject(resolve(payload, sender));
+    }
+
+    /**
+     * @param payload payload received. Its position is not changed
+     * @return true if the payload is a reference to an object to be fetched by {@link #decode(ByteBuffer, InetAddress)}
+     */
+    public static boolean isReference(ByteBuffer payload) {
+        if (payload.remaining() < REF_PREFIX.length) {
+            return false;
+        }
+
+        for (int i = 0; i < REF_PREFIX.length; i++) {
+            if (payload.get(payload.position() + i) != REF_PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fetches the payload referred to by the given reference
+     *
+     * @param payload reference received
+     * @param sender  address of the node which sent the reference
+     * @return the payload fetched over TCP
+     * @throws IOException if the payload couldn't be fetched
+     */
+    private static ByteBuffer resolve(ByteBuffer payload, InetAddress sender) throws IOException {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        String reference = new String(bytes, StandardCharsets.US_ASCII);
+        String[] parts = reference.substring(BULK_REF_PREFIX.length()).trim().split(":");
+        if (parts.length != 3) {
+            throw new IOException("Malformed bulk transfer reference: " + reference);
+        }
+
+        InetSocketAddress address;
+        long id;
+        int length;
+        try {
+            address = new InetSocketAddress(sender, Integer.parseInt(parts[0]));
+            id = Long.parseLong(parts[1]);
+            length = Integer.parseInt(parts[2]);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed bulk transfer reference: " + reference, e);
+        }
+        if (length < 0 || length > BULK_TRANSFER_MAX_BYTES) {
+            throw new IOException(String.format("Refusing to fetch %d bytes referred to by %s", length, reference));
+        }
+
+        long start = System.currentTimeMillis();
+        ByteBuffer fetched = fetch(address, id, length);
+        logger.debug("Fetched payload {} of {} bytes from {} in {}ms", id, length, address,
+                System.currentTimeMillis() - start);
+        return fetched;
+    }
+
+    private static ByteBuffer fetch(InetSocketAddress address, long id, int length) throws IOException {
+        try (Selector selector = Selector.open(); SocketChannel channel = SocketChannel.open()) {
+            channel.configureBlocking(false);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+            if (!channel.connect(address)) {
+                await(selector, address);
+                channel.finishConnect();
+            }
+
+            ByteBuffer request = ByteBuffer.allocate(Long.BYTES);
+            request.putLong(id).flip();
+            key.interestOps(SelectionKey.OP_WRITE);
+            while (request.hasRemaining()) {
+                if (channel.write(request) == 0) {
+                    await(selector, address);
+                }
+            }
+
+            key.interestOps(SelectionKey.OP_READ);
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+            readFully(channel, selector, header, address);
+            long available = header.getLong(0);
+            if (available < 0) {
+                throw new IOException(String.format("Payload %d is no longer available at %s", id, address));
+            } else if (available != length) {
+                throw new IOException(String.format("Expected %d bytes of payload %d from %s but found %d", length,
+                        id, address, available));
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(channel, selector, payload, address);
+            payload.flip();
+            return payload;
+        }
+    }
+
+    private static void readFully(SocketChannel channel, Selector selector, ByteBuffer buffer,
+            InetSocketAddress address) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                throw new EOFException("Connection to " + address + " closed before the payload was received");
+            } else if (read == 0) {
+                await(selector, address);
+            }
+        }
+    }
+
+    /**
+     * Waits until the single channel registered with the selector is ready. The timeout applies to each wait, hence
+     * large payloads can take as long as needed as long as they keep progressing.
+     */
+    private static void await(Selector selector, InetSocketAddress address) throws IOException {
+        if (selector.select(BULK_TRANSFER_IDLE_TIMEOUT_MS) == 0) {
+            throw new SocketTimeoutException("Bulk transfer from " + address + " timed out");
+        }
+        selector.selectedKeys().clear();
+    }
+
+    private void serve() {
+        try {
+            while (started) {
+                selector.select(NIO_SELECT_TIMEOUT_MS);
+                long now = System.currentTimeMillis();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+
+                        if (key.isAcceptable()) {
+                            accept(now);
+                        } else if (key.isReadable()) {
+                            read(key, now);
+                        } else if (key.isWritable()) {
+                            write(key, now);
+                        }
+                    } catch (IOException e) {
+                        logger.warn("Error occurred when serving a bulk transfer: {}", e.getMessage());
+                        close(key);
+                    }
+                }
+
+                closeIdle(now);
+                expire(now);
+            }
+        } catch (IOException e) {
+            logger.error("Error occurred when serving bulk transfers", e);
+        } finally {
+            selector.keys().forEach(this::close);
+            try {
+                selector.close();
+            } catch (IOException ignored) { }
+        }
+    }
+
+    private void accept(long now) throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(now));
+        }
+    }
+
+    private void read(SelectionKey key, long now) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(connection.request) < 0) {
+            throw new EOFException("Connection closed before the request was received");
+        }
+        connection.lastActive = now;
+        if (connection.request.hasRemaining()) {
+            return;
+        }
+
+        long id = connection.request.getLong(0);
+        Outgoing outgoing = outbox.get(id);
+        ByteBuffer header = ByteBuffer.allocate(Long.BYTES);
+        if (outgoing == null) {
+            logger.warn("Payload {} requested by {} is no longer available", id, channel.getRemoteAddress());
+            header.putLong(-1).flip();
+            connection.response = new ByteBuffer[]{header};
+        } else {
+            logger.debug("Sending payload {} to -> {}", id, channel.getRemoteAddress());
+            header.putLong(outgoing.data.length).flip();
+            connection.response = new ByteBuffer[]{header, ByteBuffer.wrap(outgoing.data)};
+        }
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private void write(SelectionKey key, long now) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        ((SocketChannel) key.channel()).write(connection.response);
+        connection.lastActive = now;
+        if (!connection.response[connection.response.length - 1].hasRemaining()) {
+            close(key);
+        }
+    }
+
+    private void closeIdle(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection
+                    && now - ((Connection) attachment).lastActive > BULK_TRANSFER_IDLE_TIMEOUT_MS) {
+                logger.warn("Closing idle bulk transfer connection");
+                close(key);
+            }
+        }
+    }
+
+    /**
+     * Drops the payloads kept for longer than {@link org.uom.cse.distributed.Constants#BULK_TRANSFER_TTL_MS}. The
+     * messages referring to them have been given up on by then.
+     */
+    private void expire(long now) {
+        outbox.values().removeIf(outgoing -> now - outgoing.createdAt > BULK_TRANSFER_TTL_MS);
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * @return port on which payloads are served | 0 if not started
+     */
+    public int getPort() {
+        return started ? port : 0;
+    }
+
+    public int getPendingCount() {
+        return outbox.size();
+    }
+
+    private static class Outgoing {
+
+        private final byte[] data;
+        private final long createdAt;
+
+        private Outgoing(byte[] data, long createdAt) {
+            this.data = data;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private static class Connection {
+
+        private final ByteBuffer request = ByteBuffer.allocate(Long.BYTES);
+        private ByteBuffer[] response;
+        private long lastActive;
+
+        private Connection(long lastActive) {
+            this.lastActive = lastActive;
+        }
+    }
+}
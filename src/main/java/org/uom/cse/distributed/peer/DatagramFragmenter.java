@@ -0,0 +1,362 @@
+package org.uom.cse.distributed.peer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.uom.cse.distributed.Constants.DATAGRAM_FRAGMENT_SIZE;
+import static org.uom.cse.distributed.Constants.FRAG;
+import static org.uom.cse.distributed.Constants.FRAGMENT_MAX_COUNT;
+import static org.uom.cse.distributed.Constants.FRAGMENT_MAX_NAKS;
+import static org.uom.cse.distributed.Constants.FRAGMENT_NAK_DELAY_MS;
+import static org.uom.cse.distributed.Constants.FRAGMENT_TIMEOUT_MS;
+import static org.uom.cse.distributed.Constants.FRAGNAK;
+import static org.uom.cse.distributed.Constants.FRAGNAK_MSG_FORMAT;
+import static org.uom.cse.distributed.Constants.FRAG_MSG_FORMAT;
+
+/**
+ * Splits messages which don't fit in {@link org.uom.cse.distributed.Constants#DATAGRAM_FRAGMENT_SIZE} bytes into
+ * sequence numbered fragments (<pre>FRAG ${messageId} ${index} ${count} ${bytes}</pre>) and reassembles them on the
+ * receiving side. Smaller messages are sent as they are.
+ * <p>
+ * When no fragment of an incomplete message has arrived for {@link org.uom.cse.distributed.Constants#FRAGMENT_NAK_DELAY_MS},
+ * the receiver asks for the missing fragments only (<pre>FRAGNAK ${messageId} ${index1},${index2},...</pre>). Hence the
+ * sender keeps the fragments it sent for {@link org.uom.cse.distributed.Constants#FRAGMENT_TIMEOUT_MS}. Incomplete
+ * messages are dropped after the same timeout.
+ */
+public class DatagramFragmenter {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatagramFragmenter.class);
+
+    private static final byte[] FRAG_PREFIX = (FRAG + " ").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FRAGNAK_PREFIX = (FRAGNAK + " ").getBytes(StandardCharsets.UTF_8);
+
+    private final Map<Long, Outgoing> outbox = new ConcurrentHashMap<>();
+    private final Map<String, Incoming> inbox = new ConcurrentHashMap<>();
+    /** Messages reassembled recently. Used to ignore fragments which were retransmitted unnecessarily */
+    private final Map<String, Long> completed = new ConcurrentHashMap<>();
+    private final AtomicLong messageIds = new AtomicLong(new Random().nextInt(Integer.MAX_VALUE));
+    private final DatagramSender sender;
+    private final String name;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param name   name used for the housekeeping thread
+     * @param sender used to put datagrams on the wire
+     */
+    public DatagramFragmenter(String name, DatagramSender sender) {
+        this.name = name;
+        this.sender = sender;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fragmenter-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkIncomplete, FRAGMENT_NAK_DELAY_MS, FRAGMENT_NAK_DELAY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        outbox.clear();
+        inbox.clear();
+        completed.clear();
+    }
+
+    /**
+     * Sends the message to the given peer, in fragments if it is too large for a single datagram.
+     *
+     * @param message message to be sent
+     * @param peer    to whom the message is sent
+     * @throws IOException if sending failed
+     */
+    public void send(String message, InetSocketAddress peer) throws IOException {
+        byte[] data = message.getBytes(StandardCharsets.UTF_8);
+        if (data.length <= DATAGRAM_FRAGMENT_SIZE) {
+            sender.send(data, peer);
+            return;
+        }
+
+        int count = (data.length + DATAGRAM_FRAGMENT_SIZE - 1) / DATAGRAM_FRAGMENT_SIZE;
+        if (count > FRAGMENT_MAX_COUNT) {
+            throw new IOException(String.format("Message of %d bytes is too large to be sent", data.length));
+        }
+
+        long messageId = messageIds.incrementAndGet();
+        byte[][] fragments = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            int offset = i * DATAGRAM_FRAGMENT_SIZE;
+            byte[] header = String.format(FRAG_MSG_FORMAT, messageId, i, count).getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(DATAGRAM_FRAGMENT_SIZE, data.length - offset);
+            fragments[i] = new byte[header.length + length];
+            System.arraycopy(header, 0, fragments[i], 0, header.length);
+            System.arraycopy(data, offset, fragments[i], header.length, length);
+        }
+
+        logger.debug("Sending message {} of {} bytes to {} in {} fragments", messageId, data.length, peer, count);
+        outbox.put(messageId, new Outgoing(fragments));
+        for (byte[] fragment : fragments) {
+            sender.send(fragment, peer);
+        }
+    }
+
+    /**
+     * Handles a datagram received from the given peer.
+     *
+     * @param data   buffer holding the datagram
+     * @param offset offset of the datagram in the buffer
+     * @param length length of the datagram
+     * @param peer   who sent the datagram
+     * @return the complete message. Wraps the given buffer unless the message was reassembled from fragments, hence it
+     * is valid only as long as the buffer is | null if the datagram was a fragment of an incomplete message or a FRAGNAK
+     */
+    public ByteBuffer receive(byte[] data, int offset, int length, InetSocketAddress peer) {
+        try {
+            if (startsWith(data, offset, length, FRAG_PREFIX)) {
+                return receiveFragment(data, offset, length, peer);
+            } else if (startsWith(data, offset, length, FRAGNAK_PREFIX)) {
+                resend(new String(data, offset, length, StandardCharsets.UTF_8), peer);
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            logger.warn("Discarding malformed fragment from {}: {}", peer, e.getMessage());
+            return null;
+        }
+
+        return ByteBuffer.wrap(data, offset, length);
+    }
+
+    private ByteBuffer receiveFragment(byte[] data, int offset, int length, InetSocketAddress peer) {
+        // FRAG ${messageId} ${index} ${count} ${bytes}
+        long[] fields = new long[3];
+        int position = offset + FRAG_PREFIX.length;
+        int end = offset + length;
+        for (int i = 0; i < fields.length; i++) {
+            int start = position;
+            while (position < end && data[position] != ' ') {
+                position++;
+            }
+            if (position == end || position == start) {
+                logger.warn("Discarding malformed fragment from -> {}", peer);
+                return null;
+            }
+            fields[i] = parseLong(data, start, position);
+            position++;
+        }
+
+        long messageId = fields[0];
+        int index = (int) fields[1];
+        int count = (int) fields[2];
+        if (count <= 0 || count > FRAGMENT_MAX_COUNT || index < 0 || index >= count) {
+            logger.warn("Discarding fragment {}/{} of message {} from -> {}", index, count, messageId, peer);
+            return null;
+        }
+
+        String key = peer + "/" + messageId;
+        if (completed.containsKey(key)) {
+            logger.debug("Discarding fragment {} of already reassembled message {}", index, key);
+            return null;
+        }
+
+        Incoming incoming = inbox.computeIfAbsent(key, k -> new Incoming(messageId, peer, count));
+        synchronized (incoming) {
+            if (incoming.fragments.length != count) {
+                logger.warn("Fragment count of message {} changed from {} to {}", key, incoming.fragments.length,
+                        count);
+                return null;
+            }
+
+            if (incoming.fragments[index] == null) {
+                byte[] fragment = new byte[end - position];
+                System.arraycopy(data, position, fragment, 0, fragment.length);
+                incoming.fragments[index] = fragment;
+                incoming.size += fragment.length;
+                incoming.received++;
+            }
+            incoming.lastSeen = System.currentTimeMillis();
+
+            if (incoming.received < count || inbox.remove(key) == null) {
+                return null;
+            }
+
+            completed.put(key, incoming.lastSeen);
+            byte[] message = new byte[incoming.size];
+            int copied = 0;
+            for (byte[] fragment : incoming.fragments) {
+                System.arraycopy(fragment, 0, message, copied, fragment.length);
+                copied += fragment.length;
+            }
+            logger.debug("Reassembled message {} of {} bytes from {} fragments", key, message.length, count);
+            return ByteBuffer.wrap(message);
+        }
+    }
+
+    private void resend(String nak, InetSocketAddress peer) {
+        // FRAGNAK ${messageId} ${index1},${index2},...
+        String[] parts = nak.trim().split(" ");
+        if (parts.length != 3) {
+            logger.warn("Discarding malformed FRAGNAK from {} -> {}", peer, nak);
+            return;
+        }
+
+        Outgoing outgoing = outbox.get(Long.parseLong(parts[1]));
+        if (outgoing == null) {
+            logger.warn("Fragments of message {} requested by {} are no longer available", parts[1], peer);
+            return;
+        }
+
+        logger.debug("Resending fragments [{}] of message {} to -> {}", parts[2], parts[1], peer);
+        for (String index : parts[2].split(",")) {
+            int i = Integer.parseInt(index);
+            if (i < 0 || i >= outgoing.fragments.length) {
+                continue;
+            }
+
+            try {
+                sender.send(outgoing.fragments[i], peer);
+            } catch (IOException e) {
+                logger.error("Error occurred when resending fragment {} of message {} to -> {}", i, parts[1], peer, e);
+                return;
+            }
+        }
+    }
+
+    private void checkIncomplete() {
+        checkIncomplete(System.currentTimeMillis());
+    }
+
+    /**
+     * Drops expired state and asks for the missing fragments of messages which haven't progressed for a while
+     *
+     * @param now current time in milliseconds
+     */
+    void checkIncomplete(long now) {
+        outbox.values().removeIf(outgoing -> now - outgoing.sentAt > FRAGMENT_TIMEOUT_MS);
+        completed.values().removeIf(completedAt -> now - completedAt > FRAGMENT_TIMEOUT_MS);
+
+        inbox.forEach((key, incoming) -> {
+            String nak;
+            synchronized (incoming) {
+                if (now - incoming.createdAt > FRAGMENT_TIMEOUT_MS || incoming.naks >= FRAGMENT_MAX_NAKS) {
+                    if (now - incoming.lastSeen > FRAGMENT_NAK_DELAY_MS) {
+                        logger.warn("Dropping incomplete message {}. Received {}/{} fragments", key,
+                                incoming.received, incoming.fragments.length);
+                        inbox.remove(key, incoming);
+                    }
+                    return;
+                }
+
+                if (now - incoming.lastSeen < FRAGMENT_NAK_DELAY_MS) {
+                    return;
+                }
+
+                List<Integer> missing = new ArrayList<>();
+                for (int i = 0; i < incoming.fragments.length; i++) {
+                    if (incoming.fragments[i] == null) {
+                        missing.add(i);
+                    }
+                }
+
+                incoming.naks++;
+                incoming.lastSeen = now;
+                nak = String.format(FRAGNAK_MSG_FORMAT, incoming.messageId,
+                        missing.stream().map(String::valueOf).collect(Collectors.joining(",")));
+            }
+
+            logger.debug("Requesting missing fragments of {} -> {}", key, nak);
+            try {
+                sender.send(nak.getBytes(StandardCharsets.UTF_8), incoming.peer);
+            } catch (IOException e) {
+                logger.error("Error occurred when requesting missing fragments of {}", key, e);
+            }
+        });
+    }
+
+    private static long parseLong(byte[] data, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("For input string: " + new String(data, start, end - start,
+                        StandardCharsets.UTF_8));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Puts a single datagram on the wire
+     */
+    @FunctionalInterface
+    public interface DatagramSender {
+
+        void send(byte[] data, InetSocketAddress peer) throws IOException;
+    }
+
+    private static class Outgoing {
+
+        private final byte[][] fragments;
+        private final long sentAt = System.currentTimeMillis();
+
+        private Outgoing(byte[][] fragments) {
+            this.fragments = fragments;
+        }
+    }
+
+    private static class Incoming {
+
+        private final long messageId;
+        private final InetSocketAddress peer;
+        private final byte[][] fragments;
+        private final long createdAt = System.currentTimeMillis();
+        private long lastSeen = createdAt;
+        private int received = 0;
+        private int size = 0;
+        private int naks = 0;
+
+        private Incoming(long messageId, InetSocketAddress peer, int count) {
+            this.messageId = messageId;
+            this.peer = peer;
+            this.fragments = new byte[count][];
+        }
+    }
+}
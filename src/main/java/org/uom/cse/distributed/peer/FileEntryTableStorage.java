@@ -0,0 +1,430 @@
+package org.uom.cse.distributed.peer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uom.cse.distributed.peer.api.EntryTableEntry;
+import org.uom.cse.distributed.peer.api.EntryTableSnapshot;
+import org.uom.cse.distributed.peer.api.EntryTableStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * {@link EntryTableStorage} keeping a snapshot of the entries in a memory mapped file, along with the changes made since
+ * in append only log segments. A new segment is started at each checkpoint and the segments covered by a snapshot are
+ * deleted once it is in place.
+ * <pre>
+ *     directory/
+ *          entries.snapshot        - entries as of the end of the segments it covers
+ *          entries-0000000004.log  - changes made since, in order
+ *          entries-0000000005.log
+ * </pre>
+ * The snapshot and each log record carry a CRC32 checksum. A log record failing it, i.e: one torn by a crash, ends the
+ * replay of its segment. A snapshot failing it, or a file which can't be read at all, is renamed aside with a {@value
+ * #CORRUPT_SUFFIX} suffix for inspection, and the recovery goes on with the other files. Hence what can be recovered is
+ * never deleted, and the entries lost are fetched from the other nodes as usual.
+ * <p>
+ * Records appended are buffered and written to the file at once when flushed, hence a batch of changes takes a single
+ * write and survives the node being killed from then on. Records are not forced to the disk until the next checkpoint.
+ */
+public class FileEntryTableStorage implements EntryTableStorage {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileEntryTableStorage.class);
+
+    private static final String SNAPSHOT = "entries.snapshot";
+    private static final String SEGMENT_PREFIX = "entries-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+    /** ETS1 */
+    private static final int SNAPSHOT_MAGIC = 0x45545331;
+    /** Magic, last segment covered, keyword count, body length and checksum */
+    private static final int SNAPSHOT_HEADER = 4 + 8 + 4 + 8 + 4;
+    /** Length and checksum of a log record */
+    private static final int RECORD_HEADER = 4 + 4;
+    /** Initial size of the buffer of records to be flushed. A buffer grown beyond 64 times this is dropped once flushed */
+    private static final int BATCH_BUFFER_SIZE = 16 * 1024;
+
+    private final File directory;
+    /** Held while a snapshot is written or everything is cleared */
+    private final Object compactLock = new Object();
+
+    private FileChannel log;
+    /** Records appended but not flushed yet */
+    private ByteBuffer batch = ByteBuffer.allocate(BATCH_BUFFER_SIZE);
+    private long segment = 0;
+    private long logSize = 0;
+    /** Last segment covered by the snapshot to be written. -1 if none is due */
+    private long covered = -1;
+
+    public FileEntryTableStorage(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public void recover(ChangeVisitor visitor) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory: " + directory);
+        }
+
+        long start = System.currentTimeMillis();
+        long lastCovered = 0;
+        File snapshot = new File(directory, SNAPSHOT);
+        if (snapshot.exists()) {
+            try {
+                lastCovered = readSnapshot(snapshot, visitor);
+            } catch (IOException e) {
+                // The segments it covered are gone. Still, the changes logged after it are replayed
+                logger.error("Unable to read the entry table snapshot. Moved it to {}", setAside(snapshot), e);
+            }
+        }
+
+        long lastSegment = lastCovered;
+        int replayed = 0;
+        for (Map.Entry<Long, File> entry : listSegments().entrySet()) {
+            if (entry.getKey() <= lastCovered) {
+                // Left behind by a crash after the snapshot covering it was written
+                Files.deleteIfExists(entry.getValue().toPath());
+                continue;
+            }
+
+            try {
+                replayed += replaySegment(entry.getValue(), visitor);
+            } catch (IOException e) {
+                logger.error("Unable to read entry table log. Moved it to {}", setAside(entry.getValue()), e);
+            }
+            lastSegment = entry.getKey();
+        }
+        logger.info("Recovered entries from {} replaying {} logged changes in {} ms", directory, replayed,
+                System.currentTimeMillis() - start);
+
+        synchronized (this) {
+            openSegment(lastSegment + 1);
+        }
+    }
+
+    @Override
+    public synchronized void append(boolean added, String keyword, EntryTableEntry entry) throws IOException {
+        if (log == null) {
+            throw new IllegalStateException("Storage is not recovered yet");
+        }
+
+        byte[] keywordBytes = keyword.getBytes(StandardCharsets.UTF_8);
+        byte[] nodeBytes = entry.getNodeName().getBytes(StandardCharsets.UTF_8);
+        byte[] fileBytes = entry.getFileName().getBytes(StandardCharsets.UTF_8);
+        int length = 1 + 3 * 4 + keywordBytes.length + nodeBytes.length + fileBytes.length;
+        int needed = batch.position() + RECORD_HEADER + length;
+        if (needed > batch.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(batch.capacity() * 2, needed));
+            batch.flip();
+            batch = grown.put(batch);
+        }
+
+        int offset = batch.position();
+        batch.putInt(length).putInt(0).put((byte) (added ? 1 : 0));
+        putBytes(batch, keywordBytes);
+        putBytes(batch, nodeBytes);
+        putBytes(batch, fileBytes);
+        batch.putInt(offset + 4, checksum(batch, offset + RECORD_HEADER, length));
+        logSize += RECORD_HEADER + length;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (log == null) {
+            throw new IllegalStateException("Storage is not recovered yet");
+        }
+
+        batch.flip();
+        try {
+            while (batch.hasRemaining()) {
+                log.write(batch);
+            }
+        } finally {
+            // Records which couldn't be written are dropped. The table takes a checkpoint instead
+            if (batch.capacity() > 64 * BATCH_BUFFER_SIZE) {
+                batch = ByteBuffer.allocate(BATCH_BUFFER_SIZE);
+            } else {
+                batch.clear();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void rotate() throws IOException {
+        if (log == null) {
+            throw new IllegalStateException("Storage is not recovered yet");
+        }
+
+        flush();
+        covered = segment;
+        log.force(false);
+        log.close();
+        openSegment(segment + 1);
+    }
+
+    @Override
+    public void compact(EntryTableSnapshot snapshot) throws IOException {
+        synchronized (compactLock) {
+            long upTo;
+            synchronized (this) {
+                upTo = covered;
+                covered = -1;
+            }
+            if (upTo < 0) {
+                logger.debug("No snapshot is due. Cleared since rotated");
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            long bytes = writeSnapshot(snapshot, upTo);
+            for (Map.Entry<Long, File> entry : listSegments().entrySet()) {
+                if (entry.getKey() <= upTo) {
+                    Files.deleteIfExists(entry.getValue().toPath());
+                }
+            }
+            logger.info("Wrote snapshot of {} keywords as of version {} ({} bytes) in {} ms",
+                    snapshot.getKeywordCount(), snapshot.getVersion(), bytes, System.currentTimeMillis() - start);
+        }
+    }
+
+    @Override
+    public synchronized long getLogSize() {
+        return logSize;
+    }
+
+    @Override
+    public void clear() throws IOException {
+        synchronized (compactLock) {
+            synchronized (this) {
+                covered = -1;
+                batch.clear();
+                if (log != null) {
+                    log.close();
+                }
+                Files.deleteIfExists(new File(directory, SNAPSHOT).toPath());
+                for (File file : listSegments().values()) {
+                    Files.deleteIfExists(file.toPath());
+                }
+                openSegment(segment + 1);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            flush();
+            log.force(false);
+            log.close();
+            log = null;
+        }
+    }
+
+    private void openSegment(long segment) throws IOException {
+        this.segment = segment;
+        this.logSize = 0;
+        this.log = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return the file renamed, replacing any other set aside before
+     */
+    private static File setAside(File file) throws IOException {
+        File aside = new File(file.getPath() + CORRUPT_SUFFIX);
+        Files.move(file.toPath(), aside.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return aside;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, String.format("%s%010d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @return log segments in the directory by number
+     */
+    private TreeMap<Long, File> listSegments() {
+        TreeMap<Long, File> segments = new TreeMap<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX)
+                && name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unknown file -> {}", file);
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * @return number of changes replayed
+     */
+    private int replaySegment(File file, ChangeVisitor visitor) throws IOException {
+        int replayed = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() == 0) {
+                return 0;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= RECORD_HEADER) {
+                int offset = buffer.position();
+                int length = buffer.getInt();
+                int crc = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()
+                        || checksum(buffer, offset + RECORD_HEADER, length) != crc) {
+                    buffer.position(offset);
+                    break;
+                }
+
+                // Fields are read within the record, which is known to be whole
+                ByteBuffer record = buffer.slice();
+                record.limit(length);
+                buffer.position(buffer.position() + length);
+                boolean added = record.get() == 1;
+                String keyword = getString(record);
+                EntryTableEntry entry = new EntryTableEntry(getString(record), getString(record));
+                visitor.visit(added, keyword, entry);
+                replayed++;
+            }
+
+            if (buffer.hasRemaining()) {
+                logger.warn("Ignoring {} bytes of torn records at the end of {}", buffer.remaining(), file);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * @return last segment covered by the snapshot
+     */
+    private long readSnapshot(File file, ChangeVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < SNAPSHOT_HEADER || buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not an entry table snapshot: " + file);
+            }
+
+            long lastCovered = buffer.getLong();
+            int keywords = buffer.getInt();
+            long length = buffer.getLong();
+            int crc = buffer.getInt();
+            if (length != buffer.remaining() || checksum(buffer, SNAPSHOT_HEADER, (int) length) != crc) {
+                throw new IOException("Checksum of the snapshot doesn't match: " + file);
+            }
+
+            for (int i = 0; i < keywords; i++) {
+                String keyword = getString(buffer);
+                if (buffer.remaining() < 4) {
+                    throw new IOException("Snapshot ends within keyword " + keyword + ": " + file);
+                }
+                int entries = buffer.getInt();
+                for (int j = 0; j < entries; j++) {
+                    visitor.visit(true, keyword, new EntryTableEntry(getString(buffer), getString(buffer)));
+                }
+            }
+            return lastCovered;
+        }
+    }
+
+    /**
+     * Writes the snapshot into a mapped temporary file, which then replaces the current snapshot.
+     *
+     * @return bytes written
+     */
+    private long writeSnapshot(EntryTableSnapshot snapshot, long upTo) throws IOException {
+        long[] length = {0};
+        snapshot.forEach((keyword, entries) -> {
+            length[0] += 4 + utf8Length(keyword) + 4;
+            entries.forEach(entry -> length[0] += 8 + utf8Length(entry.getNodeName())
+                    + utf8Length(entry.getFileName()));
+        });
+        if (SNAPSHOT_HEADER + length[0] > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot is too large to be mapped: " + length[0] + " bytes");
+        }
+
+        File temp = new File(directory, SNAPSHOT + ".tmp");
+        int size = (int) (SNAPSHOT_HEADER + length[0]);
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(SNAPSHOT_MAGIC).putLong(upTo).putInt(snapshot.getKeywordCount()).putLong(length[0]).putInt(0);
+            snapshot.forEach((keyword, entries) -> {
+                putBytes(buffer, keyword.getBytes(StandardCharsets.UTF_8));
+                buffer.putInt(entries.size());
+                entries.forEach(entry -> {
+                    putBytes(buffer, entry.getNodeName().getBytes(StandardCharsets.UTF_8));
+                    putBytes(buffer, entry.getFileName().getBytes(StandardCharsets.UTF_8));
+                });
+            });
+            buffer.putInt(24, checksum(buffer, SNAPSHOT_HEADER, (int) length[0]));
+            buffer.force();
+        }
+
+        Files.move(temp.toPath(), new File(directory, SNAPSHOT).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        CRC32 crc = new CRC32();
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            throw new IOException("Malformed string at " + buffer.position());
+        }
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Malformed string of " + length + " bytes at " + buffer.position());
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int utf8Length(String string) {
+        int length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired. Encoded as '?'
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,280 @@
+package org.uom.cse.distributed.peer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uom.cse.distributed.peer.api.RoutingTable;
+import org.uom.cse.distributed.peer.api.RoutingTableEntry;
+import org.uom.cse.distributed.peer.utils.HashUtils;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+import static org.uom.cse.distributed.Constants.MAX_LOOKUP_HOPS;
+import static org.uom.cse.distributed.Constants.RING_BITS;
+import static org.uom.cse.distributed.Constants.SUCCESSOR_LIST_SIZE;
+
+/**
+ * Routes lookups through fingers when the {@link Node} runs in finger routing mode, instead of knowing every node in
+ * the network. The {@link RoutingTable} of such a node holds the node itself, {@link
+ * org.uom.cse.distributed.Constants#RING_BITS} fingers, the i th being the owner of the node ID 2^i ahead, and {@link
+ * org.uom.cse.distributed.Constants#SUCCESSOR_LIST_SIZE} nodes on either side of each of its positions. A lookup is
+ * forwarded to the closest node preceding the ID known at each hop, which at least halves the distance to the
+ * owner. Hence a lookup takes O(log N) hops and a node keeps O(log N) entries. A joining node notifies its neighbours
+ * only, while the others pick it up as they look up their fingers again, one finger per refresh.
+ * <p>
+ * Answers lookups of other nodes ({@link #nextHop(int)}) in the default mode as well, in which the routing table holds
+ * every node and always knows the owner.
+ */
+public class FingerTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FingerTable.class);
+
+    private Node node;
+    private volatile List<RoutingTableEntry> fingers = Collections.emptyList();
+    /** The i th finger | null if not found */
+    private RoutingTableEntry[] slots = new RoutingTableEntry[0];
+    /** Index of the finger to be looked up by the next refresh */
+    private int next = 0;
+
+    public synchronized void initialize(Node node) {
+        this.node = node;
+        this.fingers = Collections.emptyList();
+        this.slots = new RoutingTableEntry[RING_BITS];
+        this.next = 0;
+    }
+
+    /**
+     * Answers a lookup for the owner of the given node ID with what I know.
+     *
+     * @param nodeId node ID of which the owner is looked up
+     * @return me followed by the owner if I know it | else the closest node preceding the ID that I know of, to be
+     * asked next
+     */
+    public List<RoutingTableEntry> nextHop(int nodeId) {
+        RoutingTable routingTable = node.getRoutingTable();
+        Optional<RoutingTableEntry> me = routingTable.findByNodeId(node.getNodeId());
+        Optional<RoutingTableEntry> owner = routingTable.findByNodeId(nodeId);
+        if (!owner.isPresent()) {
+            // I know the successors of my positions. Hence the owner, if one of my positions is the closest preceding
+            Optional<RoutingTableEntry> predecessor = routingTable.findPredecessorOf(nodeId);
+            if (!node.isFingerRouting() || !predecessor.isPresent() || node.isMe(predecessor.get())) {
+                owner = routingTable.findNodeOrSuccessor(nodeId);
+            }
+        }
+
+        List<RoutingTableEntry> hop = new ArrayList<>(2);
+        if (owner.isPresent() && me.isPresent()) {
+            hop.add(me.get());
+            hop.add(owner.get());
+        } else {
+            routingTable.findPredecessorOf(nodeId).ifPresent(hop::add);
+        }
+        return hop;
+    }
+
+    /**
+     * Looks up the owner of the given node ID. i.e: The first node at or after that ID in the ring.
+     *
+     * @param nodeId node ID of which the owner is looked up
+     * @return owner | empty if I don't know any node
+     */
+    public Optional<RoutingTableEntry> findOwnerOf(int nodeId) {
+        return route(nodeId, nextHop(nodeId));
+    }
+
+    /**
+     * Asks the nodes named by each hop until one of them knows the owner. Falls back to the closest node in my routing
+     * table if a node can't be reached or the lookup doesn't get any closer.
+     */
+    private Optional<RoutingTableEntry> route(int nodeId, List<RoutingTableEntry> hop) {
+        RoutingTableEntry asked = null;
+        for (int hops = 0; hops < MAX_LOOKUP_HOPS && !hop.isEmpty(); hops++) {
+            if (hop.size() > 1) {
+                logger.debug("Found owner {} of {} in {} hops", hop.get(1), nodeId, hops);
+                return Optional.of(hop.get(1));
+            }
+
+            RoutingTableEntry next = hop.get(0);
+            if (next.equals(asked) || node.isMe(next)) {
+                break;
+            }
+
+            asked = next;
+            hop = node.getCommunicationProvider().findSuccessor(next.getAddress(), nodeId);
+        }
+
+        logger.warn("Unable to route the lookup of {}. Falling back to my routing table", nodeId);
+        return node.getRoutingTable().findNodeOrSuccessor(nodeId);
+    }
+
+    /**
+     * Checks whether a node already has the given ID, asking the nodes known before joining.
+     *
+     * @param nodeId node ID to be checked
+     * @return true if a node has that ID
+     */
+    public boolean isTaken(int nodeId) {
+        Optional<RoutingTableEntry> seed = node.getRoutingTable().findPredecessorOf(nodeId);
+        return seed.isPresent() && route(nodeId, Collections.singletonList(seed.get()))
+                .map(owner -> owner.getNodeId() == nodeId)
+                .orElse(false);
+    }
+
+    /**
+     * Finds the successor of each of my positions through the nodes known before joining, learns my neighbours from
+     * them and builds my fingers. Should be called once my entries are in the routing table.
+     */
+    public void join() {
+        Set<InetSocketAddress> me = Collections.singleton(node.getAddress());
+        for (int position : node.getPositions()) {
+            Optional<RoutingTableEntry> seed = node.findPeerPrecedingOf(position, me);
+            if (!seed.isPresent()) {
+                logger.info("No other node is known. Nothing to join");
+                return;
+            }
+
+            // My ID is not taken. Hence its owner is the node which is going to be my successor
+            Optional<RoutingTableEntry> successor = route(position, Collections.singletonList(seed.get()));
+            logger.info("Successor of my position {} is -> {}", position, successor);
+            successor.filter(entry -> !node.isMe(entry)).ifPresent(entry -> {
+                learn(entry);
+                learnNeighboursOf(entry);
+            });
+        }
+
+        synchronized (this) {
+            next = 0;
+            update(RING_BITS);
+        }
+    }
+
+    /**
+     * Learns the nodes after my successor from it, looks up the next one of my fingers again and forgets the nodes
+     * which are neither fingers nor neighbours. Run periodically, so that nodes which joined later become fingers and
+     * dead neighbours are replaced. Fingers are looked up one per run, in turns, as Chord's <i>fix_fingers</i> does,
+     * rather than {@link org.uom.cse.distributed.Constants#RING_BITS} lookups per run.
+     */
+    public void refresh() {
+        RoutingTable routingTable = node.getRoutingTable();
+        node.getPositions().stream()
+                .map(routingTable::findSuccessorOf)
+                .filter(successor -> successor.isPresent() && !node.isMe(successor.get()))
+                .map(Optional::get)
+                .distinct()
+                .forEach(this::learnNeighboursOf);
+
+        synchronized (this) {
+            update(1);
+        }
+    }
+
+    /**
+     * Looks up the given number of fingers, in turns starting from {@link #next}, and then forgets the nodes which are
+     * neither fingers nor neighbours. A finger whose start falls between the start of the previous finger and the
+     * previous finger is owned by that finger as well. Hence it is taken from the previous one without a lookup, and
+     * the nodes of a small network are looked up once each rather than once per finger.
+     */
+    private void update(int lookups) {
+        int myId = node.getNodeId();
+        for (int i = 0; i < slots.length && lookups > 0; i++) {
+            int index = next;
+            next = (next + 1) % slots.length;
+
+            int start = startOf(myId, index);
+            RoutingTableEntry previous = index > 0 ? slots[index - 1] : null;
+            if (previous != null && previous.getNodeId() != startOf(myId, index - 1)
+                    && HashUtils.isBetween(start, startOf(myId, index - 1), previous.getNodeId())) {
+                slots[index] = previous;
+                continue;
+            }
+
+            lookups--;
+            Optional<RoutingTableEntry> finger = findOwnerOf(start);
+            finger.ifPresent(this::learn);
+            slots[index] = finger.orElse(null);
+        }
+
+        List<RoutingTableEntry> fingers = new ArrayList<>(slots.length);
+        for (RoutingTableEntry finger : slots) {
+            if (finger != null) {
+                fingers.add(finger);
+            }
+        }
+        this.fingers = Collections.unmodifiableList(fingers);
+        logger.debug("My fingers are -> {}", fingers);
+
+        RoutingTable routingTable = node.getRoutingTable();
+        Set<RoutingTableEntry> needed = new HashSet<>(fingers);
+        needed.addAll(getNeighbours());
+        routingTable.getEntries().stream()
+                .filter(entry -> !node.isMe(entry) && !needed.contains(entry))
+                .forEach(routingTable::removeEntry);
+    }
+
+    private void learnNeighboursOf(RoutingTableEntry entry) {
+        Set<RoutingTableEntry> entries = node.getCommunicationProvider().connect(entry.getAddress());
+        logger.debug("Learnt routing table entries {} from -> {}", entries, entry);
+        if (entries != null) {
+            entries.forEach(this::learn);
+        }
+    }
+
+    private void learn(RoutingTableEntry entry) {
+        if (!node.getRoutingTable().getEntries().contains(entry)) {
+            node.getRoutingTable().addEntry(entry);
+        }
+    }
+
+    /**
+     * @return up to {@link org.uom.cse.distributed.Constants#SUCCESSOR_LIST_SIZE} other nodes known on either side of
+     * each of my positions
+     */
+    public Set<RoutingTableEntry> getNeighbours() {
+        RoutingTable routingTable = node.getRoutingTable();
+        Set<RoutingTableEntry> neighbours = new HashSet<>();
+        for (int position : node.getPositions()) {
+            collectNeighbours(position, routingTable::findSuccessorOf, neighbours);
+            collectNeighbours(position, routingTable::findPredecessorOf, neighbours);
+        }
+        return neighbours;
+    }
+
+    /**
+     * Walks the ring from the given position, skipping my other positions, until enough neighbours are found or the
+     * walk comes back to the position.
+     */
+    private void collectNeighbours(int position, IntFunction<Optional<RoutingTableEntry>> step,
+            Set<RoutingTableEntry> neighbours) {
+        int size = node.getRoutingTable().getEntries().size();
+        int found = 0;
+        Optional<RoutingTableEntry> next = step.apply(position);
+        for (int i = 0; i < size && found < SUCCESSOR_LIST_SIZE && next.isPresent()
+                && next.get().getNodeId() != position; i++) {
+            if (!node.isMe(next.get())) {
+                neighbours.add(next.get());
+                found++;
+            }
+            next = step.apply(next.get().getNodeId());
+        }
+    }
+
+    /**
+     * @return fingers found by the last refresh. The i th finger owns the node ID 2^i ahead of me
+     */
+    public List<RoutingTableEntry> getFingers() {
+        return fingers;
+    }
+
+    /**
+     * @return the node ID 2^i ahead of the given one, wrapping around the ring
+     */
+    public static int startOf(int nodeId, int i) {
+        return HashUtils.moveAhead(nodeId, 1L << i);
+    }
+}
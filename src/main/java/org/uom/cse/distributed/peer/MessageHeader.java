@@ -0,0 +1,58 @@
+package org.uom.cse.distributed.peer;
+
+import org.uom.cse.distributed.peer.api.MessageCodec;
+import org.uom.cse.distributed.peer.utils.RequestUtils;
+
+import static org.uom.cse.distributed.Constants.CORRELATION_PREFIX;
+
+/**
+ * Represents the correlation header of a request received by a {@link UDPServer}; the ID to be echoed back with the
+ * response and the codec to be used when encoding objects into the response.
+ */
+public final class MessageHeader {
+
+    /** Header of requests which didn't carry one. i.e: Uncorrelated and Java serialized */
+    public static final MessageHeader NONE = new MessageHeader(null, RequestUtils.getCodec(null));
+
+    private final String requestId;
+    private final MessageCodec codec;
+
+    private MessageHeader(String requestId, MessageCodec codec) {
+        this.requestId = requestId;
+        this.codec = codec;
+    }
+
+    public static MessageHeader of(String requestId, MessageCodec codec) {
+        return new MessageHeader(requestId, codec);
+    }
+
+    /**
+     * @return a header with the same codec but without a request ID. To be used for messages which aren't responses
+     */
+    public MessageHeader uncorrelated() {
+        return requestId == null ? this : new MessageHeader(null, codec);
+    }
+
+    /**
+     * Prefixes the response with the request ID if present
+     *
+     * @param response response to be sent
+     * @return response to be put on the wire
+     */
+    public String stamp(String response) {
+        return requestId == null ? response : CORRELATION_PREFIX + requestId + " " + response;
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%s -> %s]", requestId, codec.getName());
+    }
+}
@@ -0,0 +1,185 @@
+package org.uom.cse.distributed.peer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uom.cse.distributed.peer.utils.BufferPool;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.uom.cse.distributed.Constants.DATAGRAM_BUFFER_SIZE;
+import static org.uom.cse.distributed.Constants.GRACE_PERIOD_MS;
+import static org.uom.cse.distributed.Constants.NIO_BUFFER_POOL_SIZE;
+import static org.uom.cse.distributed.Constants.NIO_SELECT_TIMEOUT_MS;
+import static org.uom.cse.distributed.Constants.NIO_WORKER_QUEUE_SIZE;
+import static org.uom.cse.distributed.Constants.NIO_WORKER_THREADS;
+
+/**
+ * A {@link UDPServer} which listens through a non-blocking {@link DatagramChannel} registered with a {@link Selector}.
+ * Datagrams are received into pooled buffers and handled by a fixed size worker pool with a bounded queue. Requests
+ * arriving while the queue is full are dropped and will be retried by the client.
+ */
+public class NioUDPServer extends UDPServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(NioUDPServer.class);
+
+    private final AtomicInteger workerCount = new AtomicInteger(0);
+    private final BufferPool bufferPool = new BufferPool(NIO_BUFFER_POOL_SIZE, DATAGRAM_BUFFER_SIZE);
+    private final int workerThreads;
+    private final int queueSize;
+
+    private ExecutorService eventLoop;
+    private volatile DatagramChannel channel;
+    private volatile Selector selector;
+
+    public NioUDPServer(int port) {
+        this(port, NIO_WORKER_THREADS, NIO_WORKER_QUEUE_SIZE);
+    }
+
+    public NioUDPServer(int port, int workerThreads, int queueSize) {
+        super(port);
+        if (workerThreads <= 0 || queueSize <= 0) {
+            throw new IllegalArgumentException("Worker threads and queue size should be positive");
+        }
+
+        this.workerThreads = workerThreads;
+        this.queueSize = queueSize;
+    }
+
+    @Override
+    protected ExecutorService createExecutorService() {
+        return new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> new Thread(r, "udp-worker-" + port + "-" + workerCount.getAndIncrement()));
+    }
+
+    @Override
+    protected void startListening() {
+        eventLoop = Executors.newSingleThreadExecutor(r -> new Thread(r, "udp-event-loop-" + port));
+        eventLoop.submit(() -> {
+            try {
+                listen();
+            } catch (Exception e) {
+                logger.error("Error occurred when listening", e);
+            }
+        });
+    }
+
+    @Override
+    public void listen() {
+        try (Selector selector = Selector.open(); DatagramChannel channel = DatagramChannel.open()) {
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(port));
+            channel.register(selector, SelectionKey.OP_READ);
+            this.selector = selector;
+            this.channel = channel;
+            logger.debug("Node is listening to incoming requests using a selector");
+
+            while (started) {
+                if (selector.select(NIO_SELECT_TIMEOUT_MS) == 0) {
+                    continue;
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable()) {
+                        drain(channel);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Error occurred when listening on port {}", port, e);
+            throw new IllegalStateException("Error occurred when listening", e);
+        } finally {
+            this.channel = null;
+            this.selector = null;
+        }
+    }
+
+    /**
+     * Reads all the datagrams currently available in the channel and hands them over to the worker pool. Each buffer
+     * is returned to the pool once the request has been handled.
+     *
+     * @param channel channel to be read from
+     * @throws IOException when receiving fails
+     */
+    private void drain(DatagramChannel channel) throws IOException {
+        while (true) {
+            ByteBuffer buffer = bufferPool.acquire();
+            SocketAddress sender = channel.receive(buffer);
+            if (sender == null) {
+                bufferPool.release(buffer);
+                return;
+            }
+
+            buffer.flip();
+            InetSocketAddress recipient = (InetSocketAddress) sender;
+            try {
+                executorService.execute(() -> {
+                    try {
+                        ByteBuffer request = fragmenter.receive(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                                buffer.remaining(), recipient);
+                        if (request != null) {
+                            dispatch(request, recipient);
+                        }
+                    } finally {
+                        bufferPool.release(buffer);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.warn("Worker queue is full. Dropping request from -> {}", recipient);
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Datagrams are sent straight through the listening channel. Hence no additional threads or sockets are needed.
+     */
+    @Override
+    protected void sendDatagram(byte[] data, InetSocketAddress peer) throws IOException {
+        DatagramChannel channel = this.channel;
+        if (channel == null) {
+            throw new IOException("Channel is not open");
+        }
+
+        if (channel.send(ByteBuffer.wrap(data), peer) == 0) {
+            throw new IOException("Send buffer is full");
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+
+        Selector selector = this.selector;
+        if (selector != null) {
+            selector.wakeup();
+        }
+
+        if (eventLoop != null) {
+            eventLoop.shutdownNow();
+            try {
+                eventLoop.awaitTermination(GRACE_PERIOD_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                eventLoop.shutdownNow();
+            }
+            eventLoop = null;
+        }
+    }
+}
@@ -4,9 +4,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.uom.cse.distributed.peer.api.*;
 import org.uom.cse.distributed.peer.utils.HashUtils;
+import org.uom.cse.distributed.peer.utils.RequestUtils;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -15,13 +23,17 @@ import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import static org.uom.cse.distributed.Constants.ADDRESSES_PER_CHARACTER;
-import static org.uom.cse.distributed.Constants.ADDRESS_SPACE_SIZE;
+import static org.uom.cse.distributed.Constants.DEFAULT_CODEC;
+import static org.uom.cse.distributed.Constants.DEFAULT_VIRTUAL_NODES;
+import static org.uom.cse.distributed.Constants.ENTRIES_DIRECTORY;
 import static org.uom.cse.distributed.Constants.FILE_NAME_ARRAY;
 import static org.uom.cse.distributed.Constants.GRACE_PERIOD_MS;
 import static org.uom.cse.distributed.Constants.HEARTBEAT_FREQUENCY_MS;
 import static org.uom.cse.distributed.Constants.HEARTBEAT_INITIAL_DELAY;
+import static org.uom.cse.distributed.Constants.IDENTITY_FILE;
+import static org.uom.cse.distributed.Constants.LOAD_SAMPLE_SIZE;
 import static org.uom.cse.distributed.Constants.MAX_FILE_COUNT;
+import static org.uom.cse.distributed.Constants.MAX_VIRTUAL_NODES;
 import static org.uom.cse.distributed.Constants.MIN_FILE_COUNT;
 import static org.uom.cse.distributed.peer.api.State.CONFIGURED;
 import static org.uom.cse.distributed.peer.api.State.CONNECTED;
@@ -45,6 +57,8 @@ public class Node implements RoutingTableListener {
     private final List<String> myFiles = new ArrayList<>();
     private final UDPQuery udpQuery = new UDPQuery();
     private final RestQuery restQuery = new RestQuery();
+    private final FingerTable fingerTable = new FingerTable();
+    private final Rebalancer rebalancer = new Rebalancer();
 
     private final CommunicationProvider communicationProvider;
     private final NodeServer server;
@@ -52,13 +66,21 @@ public class Node implements RoutingTableListener {
     private final String ipAddress;
     private final int port;
 
-    private Map<Integer, Map<Character, Map<String, List<EntryTableEntry>>>> predecessorEntries = new HashMap<>();
+    private Map<InetSocketAddress, EntryTableReplica> predecessorEntries = new HashMap<>();
+    private InetSocketAddress address;
     private int nodeId;
-    private char myChar;
+    private volatile List<Integer> positions = Collections.emptyList();
     private ScheduledExecutorService executorService;
     private ScheduledFuture<?> periodicTask;
 
     private BootstrapProvider bootstrapProvider = new UDPBootstrapProvider();
+    private MessageCodec codec = RequestUtils.getCodec(DEFAULT_CODEC);
+    private boolean fingerRouting = false;
+    private int virtualNodes = DEFAULT_VIRTUAL_NODES;
+    private boolean rebalancing = false;
+    private File dataDirectory;
+    /** Positions taken before restarting. Taken back if still free, since the entries recovered refer to them */
+    private List<Integer> restoredPositions = Collections.emptyList();
 
     public Node(int port) {
         this(port, new UDPCommunicationProvider(), new UDPServer(port));
@@ -92,7 +114,12 @@ public class Node implements RoutingTableListener {
         communicationProvider.start(this);
         udpQuery.initialize(this);
         restQuery.initialize(this);
-
+        fingerTable.initialize(this);
+        rebalancer.initialize(this);
+        if (dataDirectory != null) {
+            entryTable.open(new FileEntryTableStorage(new File(dataDirectory, ENTRIES_DIRECTORY)));
+            restoreIdentity();
+        }
 
         logger.debug("Connecting to the distributed network");
         while (!stateManager.isState(CONNECTING)) {
@@ -113,20 +140,29 @@ public class Node implements RoutingTableListener {
             }
         }
 
-        // 1. Select a Node Name
-        this.nodeId = selectNodeName();
-        logger.info("Selected node ID -> {}", this.nodeId);
+        // 1. Select a Node Name for each of my positions in the ring. The first one identifies me. A restarted node takes
+        // its previous positions back if none is taken meanwhile
+        this.address = new InetSocketAddress(ipAddress, port);
+        this.positions = canRestorePositions() ? restoredPositions : selectNodeNames(virtualNodes);
+        this.nodeId = positions.get(0);
+        logger.info("Selected node IDs -> {}", this.positions);
 
         // 2. Add my node to my routing table
-        routingTable.addEntry(new RoutingTableEntry(new InetSocketAddress(ipAddress, port), this.nodeId));
+        routingTable.replaceEntries(address, positions.stream()
+                .map(position -> new RoutingTableEntry(address, position))
+                .collect(Collectors.toList()));
+        if (fingerRouting) {
+            fingerTable.join();
+        }
         logger.info("My routing table is -> {}", routingTable.getEntries());
         stateManager.setState(State.CONNECTED);
 
-        // 3. Select my character
-        myChar = HashUtils.nodeIdToChar(this.nodeId);
-        logger.info("My char is -> {}", myChar);
-
         configure();
+        if (dataDirectory != null) {
+            // Entries recovered may belong to nodes joined while I was away
+            releaseEntries();
+            saveIdentity();
+        }
         stateManager.setState(CONFIGURED);
 
         // TODO: 10/24/17 Periodic synchronization
@@ -144,107 +180,157 @@ public class Node implements RoutingTableListener {
     }
 
     private void configure() {
-        // Calculate my characters
-        Optional<RoutingTableEntry> myPredecessor = routingTable.findPredecessorOf(this.nodeId);
-        logger.debug("My predecessor is -> {}", myPredecessor);
-        Set<Character> characters = HashUtils.findCharactersOf(this.nodeId,
-                myPredecessor.map(RoutingTableEntry::getNodeId).orElse(this.nodeId));
-        characters.add(myChar);
-        characters.forEach(entryTable::addCharacter);
-
         // TODO: 11/1/17 If majority fails in this operation, we need to retry entirely?
-        // 5. Broadcast that I have joined the network to all entries in the routing table
-        this.routingTable.getEntries().parallelStream()
-                .filter(entry -> entry.getNodeId() != this.nodeId)
-                .forEach(entry -> {
-                    Map<Character, Map<String, List<EntryTableEntry>>> toBeUndertaken =
-                            communicationProvider.notifyNewNode(
-                                    entry.getAddress(), new InetSocketAddress(ipAddress, port), this.nodeId);
-                    this.takeOverEntries(toBeUndertaken);
-                });
+        // 5. Broadcast that I have joined the network to all entries in the routing table. Only to my neighbours when
+        // routing through fingers
+        announce(fingerRouting ? fingerTable.getNeighbours() : this.routingTable.getEntries());
 
-        // 7. Send my files to corresponding nodes.
-        myFiles.addAll(generateMyFiles());
+        // 7. Send my files to corresponding nodes. Keywords are grouped by their owner and sent in one request per owner
+        if (myFiles.isEmpty()) {
+            myFiles.addAll(generateMyFiles());
+        }
+        Map<InetSocketAddress, Map<String, List<EntryTableEntry>>> offers = new HashMap<>();
         myFiles.forEach(file -> {
             String keywords[] = file.split(" ");
             Stream.of(keywords).forEach(keyword -> {
                 int nodeId = HashUtils.keywordToNodeId(keyword);
                 logger.debug("NodeId -> {} to index keyword -> {}", nodeId, keyword);
-                Optional<RoutingTableEntry> entry = routingTable.findNodeOrSuccessor(nodeId);
+                Optional<RoutingTableEntry> entry = findOwnerOf(nodeId);
                 logger.debug("Searching for node or successor in routing table -> {}", entry);
 
+                EntryTableEntry entryTableEntry = new EntryTableEntry(String.valueOf(this.nodeId), file);
                 // Usually an entry should be present.
-                if (entry.isPresent() && entry.get().getNodeId() != this.nodeId) {
-                    logger.info("Offering keyword ({}-{}) to Node -> {}", keyword, file, entry.get());
-
-                    // Couldn't notify the actual owner. Keeping with myself
-                    if (!communicationProvider.offerFile(entry.get().getAddress(), keyword, this.nodeId, file)) {
-                        logger.warn("Unable to offer file ({} -> {}) to node -> {}. Keeping with me",
-                                keyword, file, entry.get());
-                        entryTable.addEntry(keyword, new EntryTableEntry(String.valueOf(this.nodeId), file));
-                    }
+                if (entry.isPresent() && !isMe(entry.get())) {
+                    logger.debug("Will offer keyword ({}-{}) to Node -> {}", keyword, file, entry.get());
+                    offers.computeIfAbsent(entry.get().getAddress(), address -> new HashMap<>())
+                            .computeIfAbsent(keyword, k -> new ArrayList<>())
+                            .add(entryTableEntry);
                 } else {
                     // I should take over this file name
                     logger.debug("I'm indexing ({}-{})", keyword, file);
-                    entryTable.addEntry(keyword, new EntryTableEntry(String.valueOf(this.nodeId), file));
+                    entryTable.addEntry(keyword, entryTableEntry);
                 }
             });
         });
+
+        offers.entrySet().parallelStream().forEach(offer -> {
+            logger.info("Offering keywords {} to Node -> {}", offer.getValue().keySet(), offer.getKey());
+
+            // Couldn't notify the actual owner. Keeping with myself
+            if (!communicationProvider.offerFiles(offer.getKey(), offer.getValue())) {
+                logger.warn("Unable to offer keywords {} to node -> {}. Keeping with me", offer.getValue().keySet(),
+                        offer.getKey());
+                offer.getValue().forEach((keyword, entries) -> entries.forEach(e -> entryTable.addEntry(keyword, e)));
+            }
+        });
     }
 
-    private void runPeriodically() {
-        // 1. Select 2 predecessors of mine
-        Optional<RoutingTableEntry> predecessor1 = routingTable.findPredecessorOf(this.nodeId);
-        logger.info("Pinging my predecessor for status -> {}", predecessor1);
-
-        if (predecessor1.isPresent()) {
-            RoutingTableEntry p1 = predecessor1.get();
-            Optional<RoutingTableEntry> predecessor2 = routingTable.findPredecessorOf(p1.getNodeId());
-
-            Map<Character, Map<String, List<EntryTableEntry>>> toBeHandedOver = this.getEntriesToHandoverTo(p1.getNodeId());
-            logger.info("Handing over {} to -> {}", toBeHandedOver, p1.getNodeId());
-            Map<Character, Map<String, List<EntryTableEntry>>> entries = communicationProvider.ping(p1.getAddress(), toBeHandedOver);
-
-            boolean immediateSuccessorDead = false;
-            if (entries == null) {
-                logger.warn("My immediate successor -> {} is dead. Taking over", p1);
-                immediateSuccessorDead = true;
-                this.removeNode(p1.getAddress());
-                this.entryTable.addAll(this.predecessorEntries.get(predecessor1.get().getNodeId()));
+    /**
+     * Notifies the given nodes of all my positions, taking over the entries they hand over in return. i.e: The
+     * keywords within the ranges of my positions.
+     *
+     * @param notified nodes to be notified. Each peer is notified once
+     */
+    private void announce(Collection<RoutingTableEntry> notified) {
+        notified.stream()
+                .map(RoutingTableEntry::getAddress)
+                .filter(peer -> !peer.equals(this.address))
+                .distinct()
+                .collect(Collectors.toList())
+                .parallelStream()
+                .forEach(peer -> {
+                    Map<String, List<EntryTableEntry>> toBeUndertaken =
+                            communicationProvider.notifyNewNode(peer, this.address, this.positions);
+                    this.takeOverEntries(toBeUndertaken);
+                });
+    }
+
+    /**
+     * Offers the keywords which are no longer owned by any of my positions to their owners, keeping the ones which
+     * couldn't be offered. e.g: The keywords of the range left behind by a position which moved.
+     */
+    private void releaseEntries() {
+        Map<InetSocketAddress, Map<String, List<EntryTableEntry>>> offers = new HashMap<>();
+        entryTable.getKeywordsMatching(position -> !isOwnedByMe(position)).forEach((keyword, entries) ->
+                findOwnerOf(HashUtils.keywordToNodeId(keyword))
+                        .filter(owner -> !isMe(owner))
+                        .ifPresent(owner -> offers.computeIfAbsent(owner.getAddress(), address -> new HashMap<>())
+                                .put(keyword, entries)));
+
+        offers.forEach((peer, offer) -> {
+            logger.info("Releasing keywords {} to Node -> {}", offer.keySet(), peer);
+            if (communicationProvider.offerFiles(peer, offer)) {
+                entryTable.removeAll(offer);
             } else {
-                logger.debug("Found my immediate successor -> {}", p1);
-                this.removeEntries(toBeHandedOver.keySet());
-                this.predecessorEntries.put(predecessor1.get().getNodeId(), entries);
+                logger.warn("Unable to release keywords {} to node -> {}. Keeping with me", offer.keySet(), peer);
             }
+        });
+    }
 
-            logger.info("Pinging SECOND immediate predecessor -> {}", predecessor2);
-            if (predecessor2.isPresent() && predecessor2.get().getNodeId() != this.nodeId) {
-                RoutingTableEntry p2 = predecessor2.get();
+    private void runPeriodically() {
+        // 1. Select 2 predecessors of each of my positions. The immediate ones go first, since keywords of a dead node
+        // are taken over by the next node alive. Nodes preceding many of my positions are pinged once
+        Map<InetSocketAddress, RoutingTableEntry> predecessors = new LinkedHashMap<>();
+        List<RoutingTableEntry> immediatePredecessors = new ArrayList<>();
+        for (int position : positions) {
+            findPeerPrecedingOf(position, Collections.singleton(this.address)).ifPresent(immediatePredecessors::add);
+        }
+        immediatePredecessors.forEach(p1 -> predecessors.putIfAbsent(p1.getAddress(), p1));
+        for (RoutingTableEntry p1 : immediatePredecessors) {
+            findPeerPrecedingOf(p1.getNodeId(), Arrays.asList(this.address, p1.getAddress()))
+                    .ifPresent(p2 -> predecessors.putIfAbsent(p2.getAddress(), p2));
+        }
 
-                toBeHandedOver = this.getEntriesToHandoverTo(p2.getNodeId());
-                logger.info("Handing over {} to -> {}", toBeHandedOver, p2.getNodeId());
-                entries = communicationProvider.ping(p2.getAddress(), toBeHandedOver);
-                if (entries == null) {
-                    logger.warn("My SECOND immediate successor -> {} is dead", p2);
-                    this.removeNode(p2.getAddress());
+        if (predecessors.isEmpty()) {
+            logger.warn("No immediate predecessor is present");
+        }
+        predecessors.values().forEach(this::synchronizeWith);
+        this.predecessorEntries.keySet().retainAll(predecessors.keySet());
 
-                    if (immediateSuccessorDead) {
-                        logger.info("Taking over {} which is my SECOND immediate successor", p2);
-                        this.entryTable.addAll(this.predecessorEntries.get(p2.getNodeId()));
-                    }
-                } else {
-                    logger.debug("Found my SECOND immediate successor -> {}", p2);
-                    this.removeEntries(toBeHandedOver.keySet());
-                    this.predecessorEntries.put(predecessor2.get().getNodeId(), entries);
-                }
-            } else {
-                logger.warn("No SECOND immediate predecessor is present");
-            }
+        // 2. Pick up the nodes joined since, as fingers
+        if (fingerRouting) {
+            fingerTable.refresh();
+        }
+
+        // 3. Move a virtual node of mine to split a range holding many times my entries
+        if (rebalancing) {
+            rebalancer.rebalance();
+        }
+
+        // 4. Compact the changes persisted since the last checkpoint, if many
+        entryTable.checkpointIfDue();
+    }
+
+    /**
+     * Pings a predecessor, handing over the keywords it owns and fetching the changes made to its entries. Takes over
+     * the keywords of that predecessor which belong to me from now on, if it is dead.
+     *
+     * @param predecessor node preceding one of my positions
+     */
+    private void synchronizeWith(RoutingTableEntry predecessor) {
+        Map<String, List<EntryTableEntry>> toBeHandedOver =
+                this.getEntriesToHandoverTo(predecessor.getAddress());
+        logger.info("Pinging predecessor {} and handing over -> {}", predecessor, toBeHandedOver);
+        EntryTableReplica replica = getPredecessorEntries(predecessor.getAddress());
+        EntryTableDelta delta = communicationProvider.ping(predecessor.getAddress(), replica.getEpoch(),
+                replica.getVersion(), toBeHandedOver);
+
+        if (delta == null) {
+            logger.warn("My predecessor -> {} is dead. Taking over", predecessor);
+            this.removeNode(predecessor.getAddress());
+            this.entryTable.addAll(replica.getEntries(), this::isOwnedByMe);
+            this.predecessorEntries.remove(predecessor.getAddress());
         } else {
-            logger.warn("No immediate predecessor is present");
+            logger.debug("Found my predecessor -> {}", predecessor);
+            this.removeEntries(toBeHandedOver);
+            replica.apply(delta);
         }
     }
 
+    private EntryTableReplica getPredecessorEntries(InetSocketAddress predecessor) {
+        return this.predecessorEntries.computeIfAbsent(predecessor, address -> new EntryTableReplica());
+    }
+
     /**
      * Register and fetch 2 random peers from Bootstrap Server. Also retries until registration becomes successful.
      *
@@ -307,24 +393,40 @@ public class Node implements RoutingTableListener {
     }
 
     /**
-     * Selects a Node Name for the newly connected node (this one). When selecting, we chose a random node name within
-     * <strong>1 - 180</strong> which maps from <strong>[A-Z0-9] -> [1-180]</strong>.
+     * Selects Node Names for the newly connected node (this one), one per position it takes in the ring. The most
+     * loaded ranges among a sample of peers are split first, so that this node takes over about half of their entries.
+     * The rest are random positions of the ring which are not taken by another node. i.e: Within
+     * <strong>[1, 2^RING_BITS]</strong>.
      *
-     * @return The selected node name
+     * @param count number of positions
+     * @return The selected node names
      */
-    private int selectNodeName() {
+    private List<Integer> selectNodeNames(int count) {
         Set<Integer> usedNodes = this.routingTable.getEntries().stream()
-                .map(entry -> entry.getNodeId() / ADDRESSES_PER_CHARACTER)
+                .map(RoutingTableEntry::getNodeId)
                 .collect(Collectors.toSet());
 
+        List<Integer> selected = new ArrayList<>(count);
+        for (RangeLoad load : sampleLoads()) {
+            if (selected.size() == count) {
+                break;
+            }
+            if (usedNodes.add(load.getSplitPoint()) && !(fingerRouting && fingerTable.isTaken(load.getSplitPoint()))) {
+                logger.info("Splitting range ({}, {}] holding {} entries at -> {}", load.getFrom(), load.getNodeId(),
+                        load.getEntries(), load.getSplitPoint());
+                selected.add(load.getSplitPoint());
+            }
+        }
+
         Random random = new Random();
-        // We can allow up to 36 Nodes in our network this way.
-        while (true) {
-            int candidate = 1 + random.nextInt(ADDRESS_SPACE_SIZE);
-            if (!usedNodes.contains(candidate)) {
-                return candidate;
+        while (selected.size() < count) {
+            int candidate = 1 + random.nextInt(HashUtils.ringSize());
+            // Only a part of the network is known when routing through fingers. Others are asked about the rest
+            if (usedNodes.add(candidate) && !(fingerRouting && fingerTable.isTaken(candidate))) {
+                selected.add(candidate);
             }
         }
+        return Collections.unmodifiableList(selected);
     }
 
     /**
@@ -345,6 +447,80 @@ public class Node implements RoutingTableListener {
         return myFiles;
     }
 
+    /**
+     * @return true if positions were taken before restarting and no other node has taken any of them meanwhile
+     */
+    private boolean canRestorePositions() {
+        if (restoredPositions.isEmpty()) {
+            return false;
+        }
+
+        Set<Integer> usedNodes = this.routingTable.getEntries().stream()
+                .filter(entry -> !isMe(entry))
+                .map(RoutingTableEntry::getNodeId)
+                .collect(Collectors.toSet());
+        for (int position : restoredPositions) {
+            if (usedNodes.contains(position) || (fingerRouting && fingerTable.isTaken(position))) {
+                logger.warn("My previous position {} is taken. Selecting new positions", position);
+                return false;
+            }
+        }
+        logger.info("Taking my previous positions back -> {}", restoredPositions);
+        return true;
+    }
+
+    /**
+     * Loads my positions and files saved before restarting, if any. See {@link #saveIdentity()}
+     */
+    private void restoreIdentity() {
+        File file = new File(dataDirectory, IDENTITY_FILE);
+        if (!file.exists()) {
+            return;
+        }
+
+        Properties identity = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            identity.load(in);
+            List<Integer> restored = new ArrayList<>();
+            for (String position : identity.getProperty("positions", "").split(",")) {
+                if (!position.isEmpty()) {
+                    restored.add(Integer.parseInt(position));
+                }
+            }
+            for (int i = 0; identity.containsKey("file." + i); i++) {
+                myFiles.add(identity.getProperty("file." + i));
+            }
+            this.restoredPositions = Collections.unmodifiableList(restored);
+            logger.info("Restored positions {} and files {}", restoredPositions, myFiles);
+        } catch (IOException | NumberFormatException e) {
+            logger.error("Unable to restore my identity from {}. Joining as a new node", file, e);
+            myFiles.clear();
+        }
+    }
+
+    /**
+     * Saves my positions and files, so that a restarted node takes them back along with the entries it recovers.
+     */
+    private void saveIdentity() {
+        Properties identity = new Properties();
+        identity.setProperty("positions", positions.stream().map(String::valueOf).collect(Collectors.joining(",")));
+        for (int i = 0; i < myFiles.size(); i++) {
+            identity.setProperty("file." + i, myFiles.get(i));
+        }
+
+        File file = new File(dataDirectory, IDENTITY_FILE);
+        File temp = new File(dataDirectory, IDENTITY_FILE + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                identity.store(out, "Positions and files of node " + nodeId);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Unable to save my identity to {}", file, e);
+        }
+    }
+
     /**
      * Removes the given entry from the routing table
      *
@@ -356,48 +532,206 @@ public class Node implements RoutingTableListener {
         this.routingTable.removeEntry(node);
     }
 
-    public void addNewNode(String ipAddress, int newNodePort, int newNodeId) {
+    /**
+     * Asks up to {@link org.uom.cse.distributed.Constants#LOAD_SAMPLE_SIZE} random peers known to me for the loads of
+     * their ranges.
+     *
+     * @return ranges of those peers which can be split, the most loaded first
+     */
+    public List<RangeLoad> sampleLoads() {
+        List<InetSocketAddress> peers = routingTable.getEntries().stream()
+                .map(RoutingTableEntry::getAddress)
+                .filter(peer -> !peer.equals(this.address))
+                .distinct()
+                .collect(Collectors.toList());
+        Collections.shuffle(peers);
+
+        return peers.subList(0, Math.min(LOAD_SAMPLE_SIZE, peers.size())).parallelStream()
+                .flatMap(peer -> communicationProvider.getLoad(peer).stream())
+                .filter(RangeLoad::isSplittable)
+                .sorted(Comparator.comparingInt(RangeLoad::getEntries).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return number of entries I hold in the range of each of my positions
+     */
+    public List<RangeLoad> getLoad() {
+        return positions.stream()
+                .map(position -> entryTable.getLoadBetween(routingTable.findPredecessorOf(position)
+                        .map(RoutingTableEntry::getNodeId)
+                        .orElse(position), position))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Moves one of my positions to another node ID. The keywords of the range left behind are handed to their new
+     * owners, while the ones of the new range are taken over from the nodes holding them, the same way as joining.
+     *
+     * @param position    one of my positions other than my node ID, which identifies me in the entries of my files
+     * @param newPosition node ID not taken by another node
+     */
+    public void movePosition(int position, int newPosition) {
+        stateManager.checkState(CONFIGURED);
+        if (position == nodeId || !positions.contains(position)) {
+            throw new IllegalArgumentException("Position " + position + " is not one of my virtual nodes");
+        }
+
+        Set<RoutingTableEntry> notified = new HashSet<>(fingerRouting ? fingerTable.getNeighbours() :
+                routingTable.getEntries());
+        List<Integer> moved = new ArrayList<>(positions);
+        moved.set(moved.indexOf(position), newPosition);
+        this.positions = Collections.unmodifiableList(moved);
+        routingTable.replaceEntries(address, positions.stream()
+                .map(p -> new RoutingTableEntry(address, p))
+                .collect(Collectors.toList()));
+        logger.info("Moved my position {} to {}. My positions are -> {}", position, newPosition, positions);
+        if (dataDirectory != null) {
+            saveIdentity();
+        }
+
+        // Both the old and the new neighbours should know. Others pick it up when refreshing their fingers
+        if (fingerRouting) {
+            fingerTable.join();
+            notified.addAll(fingerTable.getNeighbours());
+        }
+        announce(notified);
+        releaseEntries();
+    }
+
+    /**
+     * Finds the owner of the given node ID. i.e: The first node at or after it in the ring. Looked up through fingers
+     * in finger routing mode and in my routing table otherwise.
+     *
+     * @param nodeId node ID of which the owner is looked up
+     * @return owner | empty if no node is known
+     */
+    public Optional<RoutingTableEntry> findOwnerOf(int nodeId) {
+        return fingerRouting ? fingerTable.findOwnerOf(nodeId) : routingTable.findNodeOrSuccessor(nodeId);
+    }
+
+    /**
+     * Finds the first node after the given node ID in the ring. Looked up through fingers in finger routing mode.
+     *
+     * @param nodeId node ID of which the successor is looked up
+     * @return successor | empty if there's no node other than the given one
+     * @see RoutingTable#findSuccessorOf(int)
+     */
+    public Optional<RoutingTableEntry> findSuccessorOf(int nodeId) {
+        if (!fingerRouting) {
+            return routingTable.findSuccessorOf(nodeId);
+        }
+        return fingerTable.findOwnerOf(FingerTable.startOf(nodeId, 0)).filter(entry -> entry.getNodeId() != nodeId);
+    }
+
+    /**
+     * Finds the first node after the given one in the ring, which is a different peer. i.e: Skips the other positions
+     * of the given node and of the nodes already visited. Used to find the nodes holding replicas of a node's entries.
+     *
+     * @param entry   node of which the successor is looked up
+     * @param visited nodes to be skipped as well
+     * @return successor | empty if no other peer is found
+     */
+    public Optional<RoutingTableEntry> findNextPeerOf(RoutingTableEntry entry, Collection<RoutingTableEntry> visited) {
+        Set<InetSocketAddress> skipped = visited.stream().map(RoutingTableEntry::getAddress).collect(Collectors.toSet());
+        skipped.add(entry.getAddress());
+
+        Optional<RoutingTableEntry> next = findSuccessorOf(entry.getNodeId());
+        for (int i = 0; i < MAX_VIRTUAL_NODES * skipped.size() && next.isPresent()
+                && skipped.contains(next.get().getAddress()); i++) {
+            next = findSuccessorOf(next.get().getNodeId());
+        }
+        return next.filter(successor -> !skipped.contains(successor.getAddress()));
+    }
+
+    /**
+     * Finds all the other peers in the network. i.e: The ones in my routing table, or the ones found by walking the
+     * ring from me through fingers in finger routing mode, since my routing table may not know all of them then.
+     *
+     * @return addresses of the other peers, in no particular order
+     */
+    public Set<InetSocketAddress> findAllPeers() {
+        if (!fingerRouting) {
+            return routingTable.getEntries().stream()
+                    .map(RoutingTableEntry::getAddress)
+                    .filter(peer -> !peer.equals(address))
+                    .collect(Collectors.toSet());
+        }
+
+        List<RoutingTableEntry> visited = new ArrayList<>();
+        visited.add(new RoutingTableEntry(address, getNodeId()));
+        Optional<RoutingTableEntry> next = findNextPeerOf(visited.get(0), visited);
+        while (next.isPresent()) {
+            visited.add(next.get());
+            next = findNextPeerOf(next.get(), visited);
+        }
+        return visited.stream().skip(1).map(RoutingTableEntry::getAddress).collect(Collectors.toSet());
+    }
+
+    /**
+     * Finds the closest node preceding the given node ID in my routing table, which is not one of the given peers.
+     *
+     * @param nodeId  node ID of which the predecessor is looked up
+     * @param skipped peers of which the positions are skipped
+     * @return predecessor | empty if no other peer is known
+     */
+    public Optional<RoutingTableEntry> findPeerPrecedingOf(int nodeId, Collection<InetSocketAddress> skipped) {
+        Optional<RoutingTableEntry> previous = routingTable.findPredecessorOf(nodeId);
+        int size = routingTable.getEntries().size();
+        for (int i = 0; i < size && previous.isPresent() && skipped.contains(previous.get().getAddress()); i++) {
+            previous = routingTable.findPredecessorOf(previous.get().getNodeId());
+        }
+        return previous.filter(predecessor -> !skipped.contains(predecessor.getAddress()));
+    }
+
+    /**
+     * Finds the address of the node having the given ID. Looked up through fingers if that node is not in my routing
+     * table in finger routing mode.
+     *
+     * @param nodeId ID of the node
+     * @return address | empty if no node has that ID
+     */
+    public Optional<InetSocketAddress> findAddressOf(int nodeId) {
+        Optional<RoutingTableEntry> entry = routingTable.findByNodeId(nodeId);
+        if (!entry.isPresent() && fingerRouting) {
+            entry = fingerTable.findOwnerOf(nodeId).filter(owner -> owner.getNodeId() == nodeId);
+        }
+        return entry.map(RoutingTableEntry::getAddress);
+    }
+
+    /**
+     * Adds a node which joined the network to my {@link #routingTable}, replacing any positions known for it before
+     *
+     * @param newNode    address of the new node
+     * @param newNodeIds node IDs of all the positions of the new node
+     */
+    public void addNewNode(InetSocketAddress newNode, List<Integer> newNodeIds) {
         stateManager.checkState(State.CONNECTED, State.CONFIGURED);
-        InetSocketAddress inetSocketAddress = new InetSocketAddress(ipAddress, newNodePort);
-        RoutingTableEntry routingTableEntry = new RoutingTableEntry(inetSocketAddress, newNodeId);
-        routingTable.addEntry(routingTableEntry);
+        routingTable.replaceEntries(newNode, newNodeIds.stream()
+                .map(newNodeId -> new RoutingTableEntry(newNode, newNodeId))
+                .collect(Collectors.toList()));
     }
 
 
     /**
-     * Returns the entries to be handed over to the newNode when a new node comes. This is based on the predecessor
-     * relationship
+     * Returns the entries to be handed over to the given node. i.e: The keywords owned by one of its positions according
+     * to my routing table, which is based on the predecessor relationship
      *
-     * @param nodeId new node's ID
-     * @return entries to be handed over
+     * @param node address of the node. Usually a new node or a successor of mine
+     * @return entries to be handed over | null if the node is not in my routing table
      */
-    public Map<Character, Map<String, List<EntryTableEntry>>> getEntriesToHandoverTo(int nodeId) {
+    public Map<String, List<EntryTableEntry>> getEntriesToHandoverTo(InetSocketAddress node) {
         stateManager.checkState(State.CONFIGURED, State.CONNECTED);
 
-        // Find the predecessor of the node given
-        Optional<RoutingTableEntry> entryOptional = routingTable.findPredecessorOf(nodeId);
-        if (!entryOptional.isPresent()) {
-            logger.warn("No predecessor found for node -> {}", nodeId);
+        if (routingTable.findByAddress(node).isEmpty()) {
+            logger.warn("No routing table entry found for node -> {}", node);
             return null;
         }
 
-        // 2. Now find the characters which should be handled by the new node. i.e: From its predecessor to new node
-        RoutingTableEntry predecessor = entryOptional.get();
-        logger.debug("Found predecessor {} for node -> {}", predecessor, nodeId);
-        Set<Character> characters = HashUtils.findCharactersOf(nodeId, predecessor.getNodeId());
-        // Adding the new node as well.
-        characters.add(HashUtils.nodeIdToChar(nodeId));
-
-        // 3. Collect the entries for those characters
-        Map<Character, Map<String, List<EntryTableEntry>>> toBeHandedOver = new HashMap<>();
-        characters.forEach(character -> {
-            Map<String, List<EntryTableEntry>> keywords = entryTable.getKeywordsFor(character);
-            if (keywords != null) {
-                toBeHandedOver.put(character, keywords);
-            }
-        });
-
-        return toBeHandedOver;
+        // Keywords hashed from the predecessor (excluded) up to any of the positions of the node
+        return entryTable.getKeywordsMatching(position -> routingTable.findNodeOrSuccessor(position)
+                .map(owner -> owner.getAddress().equals(node))
+                .orElse(false));
     }
 
     /**
@@ -405,21 +739,13 @@ public class Node implements RoutingTableListener {
      *
      * @param toBeUndertaken entries to be taken over
      */
-    public void takeOverEntries(Map<Character, Map<String, List<EntryTableEntry>>> toBeUndertaken) {
+    public void takeOverEntries(Map<String, List<EntryTableEntry>> toBeUndertaken) {
         logger.debug("Undertaking entries -> {}", toBeUndertaken);
 
-        toBeUndertaken.forEach((letter, keywordMap) -> {
-            logger.debug("Undertaking letter [{}] and keywords -> {}", letter, keywordMap);
-
-            // First put the letter [A-Z0-9]
-            entryTable.addCharacter(letter);
-
-            // Then put the keywords under each letter
-            keywordMap.forEach((keyword, entryTableEntries) -> {
-                entryTableEntries.forEach(entryTableEntry -> {
-                    logger.debug("Adding entry-{} for keyword: {} to entry table", entryTableEntry, keyword);
-                    entryTable.addEntry(keyword, entryTableEntry);
-                });
+        toBeUndertaken.forEach((keyword, entryTableEntries) -> {
+            entryTableEntries.forEach(entryTableEntry -> {
+                logger.debug("Adding entry-{} for keyword: {} to entry table", entryTableEntry, keyword);
+                entryTable.addEntry(keyword, entryTableEntry);
             });
         });
     }
@@ -435,25 +761,32 @@ public class Node implements RoutingTableListener {
         entries.forEach(routingTable::addEntry);
     }
 
-    public void removeEntries(Set<Character> characters) {
+    /**
+     * Removes the entries handed over to another node from my {@link #entryTable}
+     *
+     * @param handedOver entries which were handed over
+     */
+    public void removeEntries(Map<String, List<EntryTableEntry>> handedOver) {
         stateManager.checkState(State.CONNECTED, State.CONFIGURED);
-        characters.forEach(entryTable::removeCharacter);
+        entryTable.removeAll(handedOver);
     }
 
 
     public void stop() {
         // TODO: graceful departure
         logger.debug("Stopping node");
+        // Persisted entries are kept for the next start. Only the ones in memory are cleared below
+        this.entryTable.close();
         if (stateManager.getState().compareTo(REGISTERED) >= 0) {
 
             if (stateManager.getState().compareTo(CONNECTED) >= 0) {
                 // TODO: 10/21/17 Notify all the indexed nodes that I'm leaving
                 // TODO: 10/20/17 Should we disconnect from the peers or all entries in the routing table?
-                this.routingTable.getEntries().forEach(entry -> {
-                    if (communicationProvider.disconnect(entry.getAddress())) {
-                        logger.debug("Successfully disconnected from {}", entry);
+                this.routingTable.getEntries().stream().map(RoutingTableEntry::getAddress).distinct().forEach(peer -> {
+                    if (communicationProvider.disconnect(peer)) {
+                        logger.debug("Successfully disconnected from {}", peer);
                     } else {
-                        logger.warn("Unable to disconnect from {}", entry);
+                        logger.warn("Unable to disconnect from {}", peer);
                     }
                 });
 
@@ -507,10 +840,53 @@ public class Node implements RoutingTableListener {
         return entryTable;
     }
 
+    /**
+     * @return copies of the entry tables of my predecessors, kept to take over their keywords if they die
+     */
+    public Map<InetSocketAddress, EntryTableReplica> getPredecessorEntries() {
+        return Collections.unmodifiableMap(predecessorEntries);
+    }
+
     public State getState() {
         return stateManager.getState();
     }
 
+    /**
+     * @return codec used by this node when sending objects to other nodes
+     */
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Sets the codec to be used when sending objects to other nodes. Should be set before starting the node.
+     *
+     * @param codec codec to be used
+     */
+    public void setCodec(MessageCodec codec) {
+        stateManager.checkState(IDLE);
+        this.codec = codec;
+    }
+
+    public boolean isFingerRouting() {
+        return fingerRouting;
+    }
+
+    /**
+     * Keeps O(log N) fingers and neighbours in the routing table and routes lookups through them, instead of keeping
+     * every node. Should be set before starting the node, the same way on all the nodes.
+     *
+     * @param fingerRouting true to route through fingers
+     */
+    public void setFingerRouting(boolean fingerRouting) {
+        stateManager.checkState(IDLE);
+        this.fingerRouting = fingerRouting;
+    }
+
+    public FingerTable getFingerTable() {
+        return fingerTable;
+    }
+
     public CommunicationProvider getCommunicationProvider() {
         return communicationProvider;
     }
@@ -519,8 +895,84 @@ public class Node implements RoutingTableListener {
         return nodeId;
     }
 
-    public char getMyChar() {
-        return myChar;
+    /**
+     * @return node IDs of all my positions in the ring. The first one is {@link #getNodeId()}
+     */
+    public List<Integer> getPositions() {
+        return positions;
+    }
+
+    /**
+     * @return my address | null if not started yet
+     */
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * @param entry a routing table entry
+     * @return true if the entry is one of my positions
+     */
+    public boolean isMe(RoutingTableEntry entry) {
+        return entry.getAddress().equals(address);
+    }
+
+    /**
+     * @param position a position in the ring. e.g: Hash of a keyword
+     * @return true if one of my positions owns it according to my routing table
+     */
+    private boolean isOwnedByMe(int position) {
+        return routingTable.findNodeOrSuccessor(position).map(this::isMe).orElse(false);
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    /**
+     * Sets the number of positions this node takes in the ring. A node owns a share of the keywords proportional to
+     * its positions. Hence a larger machine may take more. Should be set before starting the node.
+     *
+     * @param virtualNodes number of positions. 1 - {@link org.uom.cse.distributed.Constants#MAX_VIRTUAL_NODES}
+     */
+    public void setVirtualNodes(int virtualNodes) {
+        stateManager.checkState(IDLE);
+        if (virtualNodes < 1 || virtualNodes > MAX_VIRTUAL_NODES) {
+            throw new IllegalArgumentException("Virtual nodes should be within 1 - " + MAX_VIRTUAL_NODES);
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    public boolean isRebalancing() {
+        return rebalancing;
+    }
+
+    /**
+     * Periodically moves a virtual node of this node to split a range of another node, which holds many times the
+     * entries of the lightest range of this node. Has no effect with a single position. Should be set before starting
+     * the node.
+     *
+     * @param rebalancing true to rebalance
+     */
+    public void setRebalancing(boolean rebalancing) {
+        stateManager.checkState(IDLE);
+        this.rebalancing = rebalancing;
+    }
+
+    public File getDataDirectory() {
+        return dataDirectory;
+    }
+
+    /**
+     * Persists the entries indexed by this node along with its positions and files in the given directory, so that the
+     * node takes them back when restarted with the same directory, instead of fetching all its entries from the other
+     * nodes. Should be set before starting the node.
+     *
+     * @param dataDirectory directory of this node only | null to keep everything in memory
+     */
+    public void setDataDirectory(File dataDirectory) {
+        stateManager.checkState(IDLE);
+        this.dataDirectory = dataDirectory;
     }
 
     public UDPQuery getUdpQuery() {
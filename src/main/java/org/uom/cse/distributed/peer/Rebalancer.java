@@ -0,0 +1,84 @@
+package org.uom.cse.distributed.peer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uom.cse.distributed.peer.api.RangeLoad;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import static org.uom.cse.distributed.Constants.REBALANCE_FREQUENCY_MS;
+import static org.uom.cse.distributed.Constants.REBALANCE_MIN_ENTRIES;
+import static org.uom.cse.distributed.Constants.REBALANCE_THRESHOLD;
+
+/**
+ * Moves a virtual node of the {@link Node} to split the most loaded range among a sample of its peers, once that range
+ * holds at least {@link org.uom.cse.distributed.Constants#REBALANCE_THRESHOLD} times the entries of the lightest range
+ * of the node and {@link org.uom.cse.distributed.Constants#REBALANCE_MIN_ENTRIES} at least. The entries of the range
+ * left behind go to the next position, while about half of the entries of the split range are taken over the same way
+ * as when joining.
+ * <p>
+ * The first position of a node is never moved, since it identifies the node in the entries of its files. Hence a node
+ * with a single position doesn't rebalance.
+ */
+public class Rebalancer {
+
+    private static final Logger logger = LoggerFactory.getLogger(Rebalancer.class);
+
+    private Node node;
+    private long lastRun;
+
+    public void initialize(Node node) {
+        this.node = node;
+        this.lastRun = System.currentTimeMillis();
+    }
+
+    /**
+     * Moves my lightest virtual node if the imbalance crosses the threshold. Does nothing if already checked within
+     * the last {@link org.uom.cse.distributed.Constants#REBALANCE_FREQUENCY_MS}, so that the entries moved settle in
+     * before the next move.
+     *
+     * @return true if a position was moved
+     */
+    public boolean rebalance() {
+        long now = System.currentTimeMillis();
+        if (now - lastRun < REBALANCE_FREQUENCY_MS) {
+            return false;
+        }
+        lastRun = now;
+
+        Optional<RangeLoad> lightest = node.getLoad().stream()
+                .filter(load -> load.getNodeId() != node.getNodeId())
+                .min(Comparator.comparingInt(RangeLoad::getEntries));
+        if (!lightest.isPresent()) {
+            logger.debug("I have no virtual node to be moved");
+            return false;
+        }
+
+        List<RangeLoad> loads = node.sampleLoads();
+        if (loads.isEmpty()) {
+            logger.debug("No range of my peers can be split");
+            return false;
+        }
+
+        RangeLoad heaviest = loads.get(0);
+        int threshold = Math.max(REBALANCE_MIN_ENTRIES, REBALANCE_THRESHOLD * Math.max(1, lightest.get().getEntries()));
+        if (heaviest.getEntries() < threshold) {
+            logger.debug("Heaviest range {} is within the threshold {} of my lightest range {}", heaviest, threshold,
+                    lightest.get());
+            return false;
+        }
+
+        if (node.getRoutingTable().findByNodeId(heaviest.getSplitPoint()).isPresent()) {
+            logger.debug("Split point of {} is already taken", heaviest);
+            return false;
+        }
+
+        logger.info("Moving my position {} holding {} entries to split range ({}, {}] holding {} entries at -> {}",
+                lightest.get().getNodeId(), lightest.get().getEntries(), heaviest.getFrom(), heaviest.getNodeId(),
+                heaviest.getEntries(), heaviest.getSplitPoint());
+        node.movePosition(lightest.get().getNodeId(), heaviest.getSplitPoint());
+        return true;
+    }
+}
@@ -0,0 +1,131 @@
+package org.uom.cse.distributed.peer;
+
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the responses sent to correlated requests so that a retried request (same sender and request ID) is
+ * answered with the response already encoded instead of being handled again. Entries expire after a given time and
+ * the oldest entries are evicted once the cache is full.
+ */
+public class ResponseCache {
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final int maxEntries;
+    private final long ttlMs;
+
+    /**
+     * @param maxEntries maximum number of requests remembered
+     * @param ttlMs      time for which a request is remembered. Should cover the whole retry window of a client
+     */
+    public ResponseCache(int maxEntries, long ttlMs) {
+        if (maxEntries <= 0 || ttlMs <= 0) {
+            throw new IllegalArgumentException("Cache size and TTL should be positive");
+        }
+
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Marks the given request as being handled, unless it has been seen already.
+     *
+     * @param sender    who sent the request
+     * @param requestId request ID given by the sender
+     * @return null if the request is new | else the entry of the earlier attempt. Which may not have been responded yet
+     */
+    public Entry begin(InetSocketAddress sender, String requestId) {
+        return begin(sender, requestId, System.currentTimeMillis());
+    }
+
+    /**
+     * See {@link #begin(InetSocketAddress, String)}
+     *
+     * @param now current time in milliseconds
+     */
+    synchronized Entry begin(InetSocketAddress sender, String requestId, long now) {
+        expire(now);
+
+        String key = key(sender, requestId);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            return entry;
+        }
+
+        entries.put(key, new Entry(now));
+        if (entries.size() > maxEntries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            iterator.next();
+            iterator.remove();
+        }
+        return null;
+    }
+
+    /**
+     * Remembers the response sent to the given request. Only the first response is kept since that is the one the
+     * sender waits for.
+     *
+     * @param sender    who sent the request
+     * @param requestId request ID given by the sender
+     * @param response  response as sent on the wire
+     */
+    public synchronized void complete(InetSocketAddress sender, String requestId, String response) {
+        Entry entry = entries.get(key(sender, requestId));
+        if (entry != null && entry.response == null) {
+            entry.response = response;
+        }
+    }
+
+    /**
+     * Called once the request has been handled. Requests which didn't receive a response are forgotten so that a retry
+     * is handled from scratch.
+     *
+     * @param sender    who sent the request
+     * @param requestId request ID given by the sender
+     */
+    public synchronized void finish(InetSocketAddress sender, String requestId) {
+        String key = key(sender, requestId);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.response == null) {
+            entries.remove(key);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void expire(long now) {
+        // Entries are kept in the order they were added. Hence the expired ones are at the head
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().createdAt <= ttlMs) {
+                return;
+            }
+            iterator.remove();
+        }
+    }
+
+    private static String key(InetSocketAddress sender, String requestId) {
+        return sender + "/" + requestId;
+    }
+
+    public static class Entry {
+
+        private final long createdAt;
+        private volatile String response;
+
+        private Entry(long createdAt) {
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * @return response sent for the request | null if the request is still being handled
+         */
+        public String getResponse() {
+            return response;
+        }
+    }
+}
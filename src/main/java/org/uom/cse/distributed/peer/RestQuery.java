@@ -3,13 +3,16 @@ package org.uom.cse.distributed.peer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.uom.cse.distributed.peer.api.EntryTableEntry;
+import org.uom.cse.distributed.peer.api.KeywordPattern;
 import org.uom.cse.distributed.peer.api.QueryInterface;
 import org.uom.cse.distributed.peer.api.RoutingTableEntry;
 import org.uom.cse.distributed.peer.utils.HashUtils;
 
 import java.net.InetSocketAddress;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.stream.Collectors;
+
+import static org.uom.cse.distributed.Constants.REPLICAS;
 
 /**
  * Created by Keetmalin on 11/9/2017
@@ -36,39 +39,51 @@ public class RestQuery implements QueryInterface{
             return inetSocketAddresses;
         }
 
-        String keywords[] = fileName.split(" ");
-
-        Stream.of(keywords).forEach(keyword -> {
-            int nodeId = HashUtils.keywordToNodeId(keyword);
-
-            Optional<RoutingTableEntry> entry = this.node.getRoutingTable().findNodeOrSuccessor(nodeId);
-            Optional<RoutingTableEntry> entrySuccessor1 = this.node.getRoutingTable().findSuccessorOf(nodeId);
-            Optional<RoutingTableEntry> entrySuccessor2 = this.node.getRoutingTable().findSuccessorOf(entrySuccessor1.get().getNodeId());
-
-            boolean temp = false;
-            //if the next node is pointing to the current node
-            if (entry.isPresent() && entry.get().getNodeId() == node.getNodeId()) {
-                logger.info("searching for the node in Node {}", entry.get().getNodeId());
-                inetSocketAddresses = getNodeListSafely(keyword, fileName);
-                temp = true;
-
-            } else if (entry.isPresent() && entry.get().getNodeId() != node.getNodeId()) {
-                logger.info("searching for the node in Node {}", entry.get().getNodeId());
-                inetSocketAddresses = this.node.getCommunicationProvider().searchFullFile(entry.get().getAddress(), fileName, keyword);
-                hopCount++;
-            } if (inetSocketAddresses.size() == 0 && temp && entrySuccessor1.get().getNodeId() != node.getNodeId()) {
-                logger.info("searching for the node in Node {}", entrySuccessor1.get().getNodeId());
-                inetSocketAddresses = this.node.getCommunicationProvider().searchFullFile(entrySuccessor1.get().getAddress(), fileName, keyword);
-                hopCount++;
-            } if (entrySuccessor2.isPresent() && inetSocketAddresses.size() == 0 && entrySuccessor2.get().getNodeId() != node.getNodeId()) {
-                logger.info("searching for the node in Node {}", entrySuccessor2.get().getNodeId());
-                inetSocketAddresses = this.node.getCommunicationProvider().searchFullFile(entrySuccessor2.get().getAddress(), fileName, keyword);
-                hopCount++;
-            } else if (inetSocketAddresses.size() != 0){
-                logger.info("Entry is not present in the Network");
+        // 2. Ask the owner of each keyword, and then its successors which hold replicas, if the owner didn't have it.
+        // Keywords owned by the same node, through any of its positions, are looked up in a single request
+        Map<String, List<RoutingTableEntry>> candidates = new LinkedHashMap<>();
+        for (String keyword : fileName.split(" ")) {
+            if (keyword.isEmpty()) {
+                continue;
+            }
+
+            List<RoutingTableEntry> nodes = new ArrayList<>();
+            Optional<RoutingTableEntry> entry =
+                    this.node.findOwnerOf(HashUtils.keywordToNodeId(keyword));
+            for (int i = 0; i <= REPLICAS && entry.isPresent(); i++) {
+                nodes.add(entry.get());
+                entry = this.node.findNextPeerOf(entry.get(), nodes);
             }
-        });
+            candidates.put(keyword, nodes);
+        }
 
+        Map<String, Set<InetSocketAddress>> results = new HashMap<>();
+        for (int round = 0; round <= REPLICAS; round++) {
+            Map<InetSocketAddress, List<String>> keywordsByNode = new LinkedHashMap<>();
+            for (Map.Entry<String, List<RoutingTableEntry>> candidate : candidates.entrySet()) {
+                Set<InetSocketAddress> found = results.get(candidate.getKey());
+                if ((found == null || found.isEmpty()) && round < candidate.getValue().size()) {
+                    RoutingTableEntry entry = candidate.getValue().get(round);
+                    keywordsByNode.computeIfAbsent(entry.getAddress(), k -> new ArrayList<>()).add(candidate.getKey());
+                }
+            }
+
+            keywordsByNode.forEach((address, keywords) -> {
+                logger.info("searching for keywords {} in Node {}", keywords, address);
+                if (address.equals(node.getAddress())) {
+                    keywords.forEach(keyword -> results.put(keyword, getNodeListSafely(keyword, fileName)));
+                } else {
+                    results.putAll(this.node.getCommunicationProvider()
+                            .searchFullFile(address, fileName, keywords));
+                    hopCount++;
+                }
+            });
+        }
+
+        results.values().forEach(inetSocketAddresses::addAll);
+        if (inetSocketAddresses.isEmpty()) {
+            logger.info("Entry is not present in the Network");
+        }
 
         logger.info("Search results -> {}", inetSocketAddresses);
         return inetSocketAddresses;
@@ -109,58 +124,61 @@ public class RestQuery implements QueryInterface{
     }
 
     private List<String> searchEntryTable(String keyword, String fileName) {
-        char c = Character.toUpperCase(keyword.charAt(0));
-        List<EntryTableEntry> entryList = this.node.getEntryTable().getEntries().get(c).get(keyword);
-        List<String> results = new ArrayList<String>();
-
-        for (EntryTableEntry entry : entryList) {
-            if (fileName.toLowerCase().equals(entry.getFileName().toLowerCase())) {
-                results.add(entry.getNodeName());
-            }
-        }
-        return results;
+        return this.node.getEntryTable().findEntries(keyword, fileName).stream()
+                .map(EntryTableEntry::getNodeName)
+                .collect(Collectors.toList());
     }
 
     private InetSocketAddress[] getNodeList(List<String> nodeNameList) {
-        Set<RoutingTableEntry> entries = this.node.getRoutingTable().getEntries();
-        InetSocketAddress[] inetSocketAddresses = new InetSocketAddress[nodeNameList.size()];
-
-        int i = 0;
-        for (RoutingTableEntry routingTableEntry : entries) {
-            if (nodeNameList.contains(Integer.toString(routingTableEntry.getNodeId()))) {
-                inetSocketAddresses[i] = routingTableEntry.getAddress();
-                i++;
-            }
-        }
-        return inetSocketAddresses;
+        // Nodes having the file may not be in my routing table when routing through fingers
+        return nodeNameList.stream()
+                .map(nodeName -> this.node.findAddressOf(Integer.parseInt(nodeName)))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .toArray(InetSocketAddress[]::new);
     }
 
+    /**
+     * Searches the files having a keyword matching the given pattern. A pattern whose keywords are owned by a single
+     * node (see {@link KeywordPattern#getPosition()}) is looked up in that node, falling back to its successors.
+     * Otherwise every node is asked for the matching keywords it owns.
+     *
+     * @param keyword keyword, <code>prefix*</code> or <code>*infix*</code>
+     * @return files found as <code>file:host:port</code>
+     * @throws IllegalArgumentException if the pattern is nothing but wildcards
+     */
     public Set<String> searchKeyword(String keyword) {
-        keyword = newKeywordGenerator(keyword);
+        KeywordPattern pattern = KeywordPattern.parse(keyword);
         queryResultSet.clear();
         hopCount = 0;
 
-        int nodeId = HashUtils.keywordToNodeId(keyword);
+        OptionalInt position = pattern.getPosition();
+        if (!position.isPresent()) {
+            return searchAllPeers(pattern);
+        }
+
+        keyword = pattern.toString();
+        int nodeId = position.getAsInt();
 
-        Optional<RoutingTableEntry> entry = this.node.getRoutingTable().findNodeOrSuccessor(nodeId);
-        Optional<RoutingTableEntry> entrySuccessor1 = this.node.getRoutingTable().findSuccessorOf(nodeId);
-        Optional<RoutingTableEntry> entrySuccessor2 = this.node.getRoutingTable().findSuccessorOf(entrySuccessor1.get().getNodeId());
+        Optional<RoutingTableEntry> entry = this.node.findOwnerOf(nodeId);
+        Optional<RoutingTableEntry> entrySuccessor1 = this.node.findSuccessorOf(nodeId);
+        Optional<RoutingTableEntry> entrySuccessor2 = this.node.findSuccessorOf(entrySuccessor1.get().getNodeId());
 
         boolean temp = false;
         //if the next node is pointing to the current node
-        if (entry.isPresent() && entry.get().getNodeId() == node.getNodeId()) {
+        if (entry.isPresent() && node.isMe(entry.get())) {
             queryResultSet = getResultListSafely(keyword);
             temp = true;
 
-        } else if (entry.isPresent() && entry.get().getNodeId() != node.getNodeId()) {
+        } else if (entry.isPresent() && !node.isMe(entry.get())) {
             logger.info("searching for the node in Node {}", entry.get().getNodeId());
             queryResultSet = (this.node.getCommunicationProvider().searchKeywordFile(entry.get().getAddress(), keyword));
             hopCount++;
-        } if (queryResultSet.size() == 0 && temp && entrySuccessor1.get().getNodeId() != node.getNodeId()) {
+        } if (queryResultSet.size() == 0 && temp && !node.isMe(entrySuccessor1.get())) {
             logger.info("searching for the node in Node {}", entrySuccessor1.get().getNodeId());
             queryResultSet = (this.node.getCommunicationProvider().searchKeywordFile(entrySuccessor1.get().getAddress(), keyword));
             hopCount++;
-        } if (entrySuccessor2.isPresent() && queryResultSet.size() == 0 && entrySuccessor2.get().getNodeId() != node.getNodeId()) {
+        } if (entrySuccessor2.isPresent() && queryResultSet.size() == 0 && !node.isMe(entrySuccessor2.get())) {
             logger.info("searching for the node in Node {}", entrySuccessor2.get().getNodeId());
             queryResultSet = (this.node.getCommunicationProvider().searchKeywordFile(entrySuccessor2.get().getAddress(), keyword));
             hopCount++;
@@ -175,6 +193,22 @@ public class RestQuery implements QueryInterface{
 
     }
 
+    private Set<String> searchAllPeers(KeywordPattern pattern) {
+        Set<String> results = getResultListSafely(pattern.toString());
+        for (InetSocketAddress peer : this.node.findAllPeers()) {
+            logger.info("searching for {} in Node {}", pattern, peer);
+            Set<String> found = this.node.getCommunicationProvider().searchKeywordFile(peer, pattern.toString());
+            if (found != null) {
+                results.addAll(found);
+            }
+            hopCount++;
+        }
+
+        queryResultSet = results;
+        logger.info("Search results -> {}", queryResultSet);
+        return queryResultSet;
+    }
+
     HashSet<String> getResultListSafely(String keyword) {
         try {
             return new HashSet<String>(Arrays.asList(searchEntryTableForKeyword(keyword)));
@@ -184,43 +218,20 @@ public class RestQuery implements QueryInterface{
     }
 
     private String[] searchEntryTableForKeyword(String keyword) {
-        char c = Character.toUpperCase(keyword.charAt(0));
-        List<EntryTableEntry> entryList = this.node.getEntryTable().getEntries().get(c).get(keyword);
+        List<EntryTableEntry> entryList = this.node.getEntryTable().searchEntries(keyword);
         String[] resultArray = new String[entryList.size()];
 
         int i = 0;
         for (EntryTableEntry entry : entryList) {
-
-
-            for (RoutingTableEntry routingTableEntry : this.node.getRoutingTable().getEntries()) {
-
-                if (entry.getNodeName().equals(Integer.toString(routingTableEntry.getNodeId()))){
-                    resultArray[i] = entry.getFileName() + ":" + routingTableEntry.getAddress().getHostName() + ":" + routingTableEntry.getAddress().getPort();
-                    i++;
-                    break;
-                }
+            Optional<InetSocketAddress> address = this.node.findAddressOf(Integer.parseInt(entry.getNodeName()));
+            if (address.isPresent()) {
+                resultArray[i] = entry.getFileName() + ":" + address.get().getHostName() + ":" + address.get().getPort();
+                i++;
             }
-
         }
 
 
         return resultArray;
     }
 
-    private String newKeywordGenerator(String keyword){
-        if (keyword.toLowerCase().equals("xp")){
-            return "XP";
-        }
-        else if (keyword.toLowerCase().equals("of")){
-            return "of";
-        }
-        else if (keyword.toLowerCase().equals("and")){
-            return "and";
-        } else if (keyword.toLowerCase().equals("for")){
-            return "for";
-        } else {
-            return keyword.substring(0,1).toUpperCase() + keyword.substring(1);
-        }
-    }
-
 }
@@ -0,0 +1,135 @@
+package org.uom.cse.distributed.peer;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.uom.cse.distributed.Constants.INITIAL_RTO_MS;
+import static org.uom.cse.distributed.Constants.MAX_RTO_MS;
+import static org.uom.cse.distributed.Constants.MIN_RTO_MS;
+import static org.uom.cse.distributed.Constants.RTO_JITTER;
+
+/**
+ * Keeps a smoothed round trip time and its variance per peer (Jacobson/Karels) and derives the retransmission timeout
+ * for each attempt of a request from them.
+ * <pre>
+ *     RTTVAR = 3/4 * RTTVAR + 1/4 * |SRTT - R|
+ *     SRTT   = 7/8 * SRTT + 1/8 * R
+ *     RTO    = SRTT + 4 * RTTVAR    (bounded by MIN_RTO_MS and MAX_RTO_MS)
+ * </pre>
+ * Each retry doubles the timeout and adds a random jitter so that peers retrying at the same time spread out, the
+ * result being capped at {@link org.uom.cse.distributed.Constants#MAX_RTO_MS}. Peers which haven't been measured yet
+ * get {@link org.uom.cse.distributed.Constants#INITIAL_RTO_MS}.
+ */
+public class RttEstimator {
+
+    private final Map<InetSocketAddress, Estimate> estimates = new ConcurrentHashMap<>();
+
+    /**
+     * Records a round trip time measured for the given peer. Following Karn's rule, only requests answered on their
+     * first attempt are measured since the response of a retried request can't be matched to an attempt.
+     *
+     * @param peer          peer measured
+     * @param rtt           round trip time in milliseconds, since the last attempt was sent
+     * @param transmissions number of times the request was sent
+     * @return true if recorded | false if ignored
+     */
+    public boolean record(InetSocketAddress peer, double rtt, int transmissions) {
+        if (transmissions != 1) {
+            return false;
+        }
+        estimates.computeIfAbsent(peer, p -> new Estimate()).update(rtt);
+        return true;
+    }
+
+    /**
+     * @param peer    peer to whom the request is sent
+     * @param attempt number of attempts made before this one. i.e: 0 for the first attempt
+     * @return milliseconds to wait for a response before retrying
+     */
+    public long getTimeout(InetSocketAddress peer, int attempt) {
+        double timeout = getRto(peer) * Math.pow(2, Math.min(attempt, 30));
+        timeout += ThreadLocalRandom.current().nextDouble() * timeout * RTO_JITTER;
+        return (long) Math.min(timeout, MAX_RTO_MS);
+    }
+
+    /**
+     * @param peer peer
+     * @return current retransmission timeout (without backoff or jitter) of the given peer
+     */
+    public long getRto(InetSocketAddress peer) {
+        Estimate estimate = estimates.get(peer);
+        return estimate == null ? INITIAL_RTO_MS : estimate.getRto();
+    }
+
+    /**
+     * @return a snapshot of the estimates of all the peers measured so far. For diagnostics
+     */
+    public Map<InetSocketAddress, Estimate> getEstimates() {
+        Map<InetSocketAddress, Estimate> snapshot = new HashMap<>();
+        estimates.forEach((peer, estimate) -> snapshot.put(peer, estimate.copy()));
+        return snapshot;
+    }
+
+    public void remove(InetSocketAddress peer) {
+        estimates.remove(peer);
+    }
+
+    public static class Estimate {
+
+        private double srtt;
+        private double rttvar;
+        private double lastRtt;
+        private long samples = 0;
+
+        private synchronized void update(double rtt) {
+            if (samples == 0) {
+                srtt = rtt;
+                rttvar = rtt / 2;
+            } else {
+                rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rtt);
+                srtt = 0.875 * srtt + 0.125 * rtt;
+            }
+            lastRtt = rtt;
+            samples++;
+        }
+
+        private synchronized Estimate copy() {
+            Estimate copy = new Estimate();
+            copy.srtt = srtt;
+            copy.rttvar = rttvar;
+            copy.lastRtt = lastRtt;
+            copy.samples = samples;
+            return copy;
+        }
+
+        public synchronized long getRto() {
+            long rto = (long) Math.ceil(srtt + 4 * rttvar);
+            return Math.max(MIN_RTO_MS, Math.min(rto, MAX_RTO_MS));
+        }
+
+        public synchronized double getSrtt() {
+            return srtt;
+        }
+
+        public synchronized double getRttvar() {
+            return rttvar;
+        }
+
+        public synchronized double getLastRtt() {
+            return lastRtt;
+        }
+
+        public synchronized long getSamples() {
+            return samples;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("[srtt: %.2fms, rttvar: %.2fms, last: %.2fms, rto: %dms, samples: %d]", getSrtt(),
+                    getRttvar(), getLastRtt(), getRto(), getSamples());
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.uom.cse.distributed.Constants;
 import org.uom.cse.distributed.peer.api.BootstrapProvider;
+import org.uom.cse.distributed.peer.utils.MessageFrame;
 import org.uom.cse.distributed.peer.utils.RequestUtils;
 
 import java.io.IOException;
@@ -43,7 +44,7 @@ public class UDPBootstrapProvider implements BootstrapProvider {
         int retriesLeft = numOfRetries;
         while (retriesLeft > 0) {
             try (DatagramSocket datagramSocket = new DatagramSocket()) {
-                String response = RequestUtils.sendRequest(datagramSocket, request, InetAddress.getByName(BOOTSTRAP_IP),
+                MessageFrame response = RequestUtils.sendRequest(datagramSocket, request, InetAddress.getByName(BOOTSTRAP_IP),
                         BOOTSTRAP_PORT);
                 logger.debug("Response received : {}", response);
                 return RequestUtils.processRegisterResponse(response);
@@ -67,7 +68,7 @@ public class UDPBootstrapProvider implements BootstrapProvider {
         int retriesLeft = numOfRetries;
         while (retriesLeft > 0) {
             try (DatagramSocket datagramSocket = new DatagramSocket()) {
-                String response = RequestUtils.sendRequest(datagramSocket, request,
+                MessageFrame response = RequestUtils.sendRequest(datagramSocket, request,
                         InetAddress.getByName(Constants.BOOTSTRAP_IP), Constants.BOOTSTRAP_PORT);
                 logger.debug("Response received : {}", response);
                 if (RequestUtils.processUnregisterResponse(response)) {
@@ -0,0 +1,205 @@
+package org.uom.cse.distributed.peer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.uom.cse.distributed.peer.api.MessageCodec;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.uom.cse.distributed.Constants.CODEC_SEPARATOR;
+import static org.uom.cse.distributed.Constants.CORRELATION_PREFIX;
+import static org.uom.cse.distributed.Constants.DATAGRAM_BUFFER_SIZE;
+
+/**
+ * A long lived UDP socket shared by all the outgoing requests of a node. Each request is stamped with a correlation ID
+ * (<pre>#${requestId}:${codec} ${request}</pre>) and the responses, which echo the same ID, are handed over to the
+ * caller waiting on that ID. Hence any number of requests to any number of peers can be outstanding on the same socket.
+ * Requests and responses too large for a single datagram are fragmented by a {@link DatagramFragmenter}.
+ */
+public class UDPClientChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(UDPClientChannel.class);
+
+    private final Map<Long, CompletableFuture<ByteBuffer>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong requestIds = new AtomicLong(new Random().nextInt(Integer.MAX_VALUE));
+    private final DatagramFragmenter fragmenter = new DatagramFragmenter("client", this::sendDatagram);
+
+    private volatile boolean started = false;
+    private MessageCodec codec;
+    private DatagramSocket socket;
+    private Thread receiver;
+
+    /**
+     * Opens the socket and starts receiving responses.
+     *
+     * @param codec codec advertised to peers with each request. Peers encode the objects in their responses with it
+     * @throws SocketException if the socket couldn't be opened
+     */
+    public synchronized void start(MessageCodec codec) throws SocketException {
+        if (started) {
+            logger.warn("Client channel already started");
+            return;
+        }
+
+        this.codec = codec;
+        socket = new DatagramSocket();
+        started = true;
+        fragmenter.start();
+        receiver = new Thread(this::receive, "udp-client-" + socket.getLocalPort());
+        receiver.setDaemon(true);
+        receiver.start();
+        logger.info("Client channel started on port {}", socket.getLocalPort());
+    }
+
+    /**
+     * @return a new correlation ID to be used with {@link #send(long, String, InetSocketAddress, long)}
+     */
+    public long nextRequestId() {
+        return requestIds.incrementAndGet();
+    }
+
+    /**
+     * Sends the request stamped with the given request ID and waits for the matching response. The same request ID can
+     * be used for retries, in which case a late response to an earlier attempt completes the retry as well. {@link
+     * #release(long)} should be called once the caller is done with the request ID.
+     *
+     * @param requestId correlation ID of the request
+     * @param request   request to be sent
+     * @param peer      to whom the request is sent
+     * @param timeoutMs time to wait for a response
+     * @return response without the correlation header. Owned by the caller
+     * @throws IOException          if sending failed
+     * @throws TimeoutException     if no response arrived within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public ByteBuffer send(long requestId, String request, InetSocketAddress peer, long timeoutMs)
+            throws IOException, TimeoutException, InterruptedException {
+        if (!started) {
+            throw new IOException("Client channel is not started");
+        }
+
+        CompletableFuture<ByteBuffer> future = pending.computeIfAbsent(requestId, id -> new CompletableFuture<>());
+        fragmenter.send(CORRELATION_PREFIX + requestId + CODEC_SEPARATOR + codec.getName() + " " + request, peer);
+
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("Request failed", e.getCause());
+        }
+    }
+
+    /**
+     * Forgets the given request ID. Responses arriving afterwards for that ID are discarded.
+     *
+     * @param requestId correlation ID
+     */
+    public void release(long requestId) {
+        pending.remove(requestId);
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[DATAGRAM_BUFFER_SIZE];
+        DatagramPacket incoming = new DatagramPacket(buffer, buffer.length);
+
+        while (started) {
+            try {
+                incoming.setLength(buffer.length);
+                socket.receive(incoming);
+                InetSocketAddress peer = new InetSocketAddress(incoming.getAddress(), incoming.getPort());
+                ByteBuffer response = fragmenter.receive(incoming.getData(), 0, incoming.getLength(), peer);
+                if (response != null) {
+                    complete(response, peer, response.array() == buffer);
+                }
+            } catch (IOException e) {
+                if (started) {
+                    logger.error("Error occurred when receiving responses", e);
+                }
+            } catch (Exception e) {
+                logger.error("Error occurred when handling a response", e);
+            }
+        }
+    }
+
+    /**
+     * Hands the response over to the caller waiting on its correlation ID
+     *
+     * @param response response as received. <pre>#${requestId} ${response}</pre>
+     * @param peer     who sent the response
+     * @param shared   whether the response shares the receive buffer, in which case it is copied before being handed
+     *                 over since the buffer is reused for the next datagram
+     */
+    private void complete(ByteBuffer response, InetSocketAddress peer, boolean shared) {
+        int position = response.position();
+        int limit = response.limit();
+        if (limit == position || response.get(position) != CORRELATION_PREFIX.charAt(0)) {
+            logger.warn("Discarding uncorrelated response from -> {}", peer);
+            return;
+        }
+
+        long requestId = 0;
+        int index = position + CORRELATION_PREFIX.length();
+        for (; index < limit && response.get(index) != ' '; index++) {
+            int digit = response.get(index) - '0';
+            if (digit < 0 || digit > 9) {
+                logger.warn("Discarding response with a malformed correlation ID from -> {}", peer);
+                return;
+            }
+            requestId = requestId * 10 + digit;
+        }
+        if (index == limit) {
+            logger.warn("Discarding uncorrelated response from -> {}", peer);
+            return;
+        }
+
+        CompletableFuture<ByteBuffer> future = pending.get(requestId);
+        if (future == null) {
+            logger.debug("Discarding response to released request {}", requestId);
+            return;
+        }
+
+        response.position(index + 1);
+        if (shared) {
+            ByteBuffer copy = ByteBuffer.allocate(response.remaining());
+            copy.put(response).flip();
+            response = copy;
+        }
+        future.complete(response.slice());
+    }
+
+    private void sendDatagram(byte[] data, InetSocketAddress peer) throws IOException {
+        socket.send(new DatagramPacket(data, data.length, peer.getAddress(), peer.getPort()));
+    }
+
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+
+        started = false;
+        fragmenter.stop();
+        socket.close();
+        pending.values().forEach(future -> future.completeExceptionally(new IOException("Client channel stopped")));
+        pending.clear();
+        try {
+            receiver.join(1000);
+        } catch (InterruptedException ignored) { }
+        logger.info("Client channel stopped");
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+}
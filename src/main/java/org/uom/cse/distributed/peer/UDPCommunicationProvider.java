@@ -3,31 +3,31 @@ package org.uom.cse.distributed.peer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.uom.cse.distributed.peer.api.CommunicationProvider;
+import org.uom.cse.distributed.peer.api.EntryTableDelta;
 import org.uom.cse.distributed.peer.api.EntryTableEntry;
+import org.uom.cse.distributed.peer.api.RangeLoad;
 import org.uom.cse.distributed.peer.api.RoutingTableEntry;
+import org.uom.cse.distributed.peer.utils.MessageFrame;
 import org.uom.cse.distributed.peer.utils.RequestUtils;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.uom.cse.distributed.Constants.*;
 
 /**
- * Provides UDP Socket Based communication with Peers
+ * Provides UDP Socket Based communication with Peers. All the requests are sent through a single {@link
+ * UDPClientChannel} which correlates responses to requests.
  *
  * @author Imesha Sudasingha
  * @author Keet Sugathadasa
@@ -36,14 +36,28 @@ public class UDPCommunicationProvider extends CommunicationProvider {
 
     private static final Logger logger = LoggerFactory.getLogger(Node.class);
     private final int numOfRetries = RETRIES_COUNT;
-    private boolean started = false;
-    private ExecutorService executorService;
+    private volatile boolean started = false;
+    private final UDPClientChannel clientChannel = new UDPClientChannel();
+    private final RttEstimator rttEstimator = new RttEstimator();
+    private final BulkTransfer bulkTransfer = new BulkTransfer("client");
     private Node node;
 
     @Override
     public void start(Node node) {
         this.node = node;
-        executorService = Executors.newCachedThreadPool();
+        try {
+            clientChannel.start(node.getCodec());
+        } catch (SocketException e) {
+            logger.error("Error occurred when opening the client channel", e);
+            throw new IllegalStateException("Unable to open the client channel", e);
+        }
+
+        try {
+            bulkTransfer.start();
+        } catch (IOException e) {
+            logger.error("Unable to serve bulk transfers. Large payloads will be sent over UDP", e);
+        }
+
         started = true;
         logger.info("Communication provider started");
     }
@@ -53,13 +67,15 @@ public class UDPCommunicationProvider extends CommunicationProvider {
     public Set<RoutingTableEntry> connect(InetSocketAddress peer) {
         String request = RequestUtils.buildRequest(GET_ROUTING_TABLE);
         logger.debug("Sending request ({}) to get routing table from {}", request, peer);
-        String response = retryOrTimeout(request, peer);
+        MessageFrame response = parseFrame(retryOrTimeout(request, peer), peer);
         logger.debug("Received response : {}", response);
         if (response != null) {
-            Object obj = RequestUtils.base64StringToObject(response.split(" ")[3]);
+            // SYNC RTBL ${base64}
+            response.nextToken();
+            Object obj = decode(response.remaining(), peer);
             logger.debug("Received routing table entries -> {}", obj);
             if (obj != null) {
-                return (HashSet<RoutingTableEntry>) obj;
+                return (Set<RoutingTableEntry>) obj;
             }
         }
 
@@ -67,6 +83,41 @@ public class UDPCommunicationProvider extends CommunicationProvider {
         return new HashSet<>();
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<RoutingTableEntry> findSuccessor(InetSocketAddress peer, int nodeId) {
+        String request = RequestUtils.buildRequest(String.format(FINDSUCC_MSG_FORMAT, nodeId));
+        logger.debug("Looking up the owner of {} through -> {}", nodeId, peer);
+        ByteBuffer response = retryOrTimeout(request, peer);
+        if (response != null) {
+            Object obj = decode(response, peer);
+            logger.debug("Received next hop to the owner of {} -> {}", nodeId, obj);
+            if (obj != null) {
+                return (List<RoutingTableEntry>) obj;
+            }
+        }
+
+        return new ArrayList<>();
+    }
+
+    /** {@inheritDoc} */
+    @SuppressWarnings("unchecked")
+    @Override
+    public List<RangeLoad> getLoad(InetSocketAddress peer) {
+        String request = RequestUtils.buildRequest(LOAD);
+        logger.debug("Asking for the load of -> {}", peer);
+        ByteBuffer response = retryOrTimeout(request, peer);
+        if (response != null) {
+            Object obj = decode(response, peer);
+            logger.debug("Received load of {} -> {}", peer, obj);
+            if (obj != null) {
+                return (List<RangeLoad>) obj;
+            }
+        }
+
+        return new ArrayList<>();
+    }
+
     @Override
     public boolean disconnect(InetSocketAddress peer) {
         return false;
@@ -75,18 +126,21 @@ public class UDPCommunicationProvider extends CommunicationProvider {
     /** {@inheritDoc} */
     @SuppressWarnings("unchecked")
     @Override
-    public Map<Character, Map<String, List<EntryTableEntry>>> notifyNewNode(InetSocketAddress peer,
-            InetSocketAddress me, int nodeId) {
-        String msg = String.format(NEWNODE_MSG_FORMAT, me.getHostName(), me.getPort(), nodeId);
+    public Map<String, List<EntryTableEntry>> notifyNewNode(InetSocketAddress peer,
+            InetSocketAddress me, List<Integer> nodeIds) {
+        String msg = String.format(NEWNODE_MSG_FORMAT, me.getHostName(), me.getPort(),
+                RequestUtils.joinNodeIds(nodeIds));
         String request = RequestUtils.buildRequest(msg);
         logger.debug("Notifying new node to {} as message: {}", peer, request);
-        String response = retryOrTimeout(request, peer);
+        MessageFrame response = parseFrame(retryOrTimeout(request, peer), peer);
         logger.debug("Received response : {}", response);
         if (response != null) {
-            Object obj = RequestUtils.base64StringToObject(response.split(" ")[3]);
-            logger.debug("Received characters to be taken over -> {}", obj);
+            // SYNC ETBL ${base64}
+            response.nextToken();
+            Object obj = decode(response.remaining(), peer);
+            logger.debug("Received entries to be taken over -> {}", obj);
             if (obj != null) {
-                return (Map<Character, Map<String, List<EntryTableEntry>>>) obj;
+                return (Map<String, List<EntryTableEntry>>) obj;
             }
         }
 
@@ -98,8 +152,25 @@ public class UDPCommunicationProvider extends CommunicationProvider {
         String msg = String.format(NEWENTRY_MSG_FORMAT, keyword, nodeId, file);
         String request = RequestUtils.buildRequest(msg);
         logger.debug("Offering file with request: {}", request);
-        String response = retryOrTimeout(request, peer);
-        logger.debug("Received response: {}", response);
+        ByteBuffer response = retryOrTimeout(request, peer);
+        logger.debug("Received response of {} bytes", response == null ? 0 : response.remaining());
+        return response != null;
+    }
+
+    @Override
+    public boolean offerFiles(InetSocketAddress peer, Map<String, List<EntryTableEntry>> entries) {
+        String base64;
+        try {
+            base64 = bulkTransfer.offer(entries, node.getCodec());
+        } catch (IOException e) {
+            logger.error("Error occurred when encoding entries to be offered to -> {}", peer, e);
+            throw new IllegalArgumentException("Unable to encode entries", e);
+        }
+
+        String request = RequestUtils.buildRequest(String.format(NEWENTRIES_MSG_FORMAT, base64));
+        logger.debug("Offering {} keywords to -> {}", entries.size(), peer);
+        ByteBuffer response = retryOrTimeout(request, peer);
+        logger.debug("Received response of {} bytes", response == null ? 0 : response.remaining());
         return response != null;
     }
 
@@ -109,18 +180,14 @@ public class UDPCommunicationProvider extends CommunicationProvider {
         String msg = String.format(QUERY_MSG_FORMAT, keyword, fileName);
         String request = RequestUtils.buildRequest(msg);
         logger.debug("Searching filename: {} , with keyword: {} in the network", fileName, keyword);
-        String response = retryOrTimeout(request, targetNode);
-        logger.debug("Received response: {}", response);
+        ByteBuffer response = retryOrTimeout(request, targetNode);
+        logger.debug("Received response of {} bytes", response == null ? 0 : response.remaining());
 
         if (response != null) {
-            byte[] received = Base64.getDecoder().decode(response);
-            ByteArrayInputStream bais = new ByteArrayInputStream(received);
-            try (ObjectInputStream in = new ObjectInputStream(bais)) {
-                Object obj = in.readObject();
-                logger.debug("Received the Set of addresses that contains the file {}. {} - {}", fileName, obj.getClass(), obj);
+            Object obj = decode(response, targetNode);
+            logger.debug("Received the Set of addresses that contains the file {} -> {}", fileName, obj);
+            if (obj != null) {
                 return new HashSet<InetSocketAddress>(Arrays.asList((InetSocketAddress[]) obj));
-            } catch (Exception e) {
-                logger.error("Error occurred when obtaining routing table", e);
             }
         }
 
@@ -133,17 +200,13 @@ public class UDPCommunicationProvider extends CommunicationProvider {
 
         String msg = String.format(KEYWORD_MSG_FORMAT, keyword);
         String request = RequestUtils.buildRequest(msg);
-        String response = retryOrTimeout(request, targetNode);
-        logger.debug("Received response: {}", response);
+        ByteBuffer response = retryOrTimeout(request, targetNode);
+        logger.debug("Received response of {} bytes", response == null ? 0 : response.remaining());
 
         if (response != null) {
-            byte[] received = Base64.getDecoder().decode(response);
-            ByteArrayInputStream bais = new ByteArrayInputStream(received);
-            try (ObjectInputStream in = new ObjectInputStream(bais)) {
-                Object obj = in.readObject();
+            Object obj = decode(response, targetNode);
+            if (obj != null) {
                 return new HashSet<String>(Arrays.asList((String[]) obj));
-            } catch (Exception e) {
-                logger.error("Error occurred when obtaining routing table", e);
             }
         }
 
@@ -153,26 +216,26 @@ public class UDPCommunicationProvider extends CommunicationProvider {
 
     /** {@inheritDoc} */
     @SuppressWarnings("unchecked")
-    public Map<Character, Map<String, List<EntryTableEntry>>> ping(InetSocketAddress peer,
-            Map<Character, Map<String, List<EntryTableEntry>>> toBeHandedOver) {
+    public EntryTableDelta ping(InetSocketAddress peer, long epoch, long version,
+            Map<String, List<EntryTableEntry>> toBeHandedOver) {
         String base64 = null;
         try {
-            base64 = RequestUtils.buildObjectRequest(toBeHandedOver);
+            base64 = bulkTransfer.offer(toBeHandedOver, node.getCodec());
         } catch (IOException e) {
             logger.error("Error occurred when encoding entries to be handed over to -> {}", peer, e);
             throw new IllegalArgumentException("Unable to encode entries", e);
         }
 
-        String msg = String.format(PING_MSG_FORMAT, this.node.getNodeId(), base64);
+        String msg = String.format(PING_MSG_FORMAT, this.node.getNodeId(), epoch, version, base64);
         String request = RequestUtils.buildRequest(msg);
         logger.debug("Pinging -> {}", peer);
-        String response = retryOrTimeout(1, request, peer);
-        logger.debug("Received response : {}", response);
+        ByteBuffer response = retryOrTimeout(1, request, peer);
+        logger.debug("Received response of {} bytes", response == null ? 0 : response.remaining());
         if (response != null) {
-            Object obj = RequestUtils.base64StringToObject(response);
-            logger.debug("Received entry table of ({}) -> {}", peer, obj);
+            Object obj = decode(response, peer);
+            logger.debug("Received entry table changes of ({}) -> {}", peer, obj);
             if (obj != null) {
-                return (Map<Character, Map<String, List<EntryTableEntry>>>) obj;
+                return (EntryTableDelta) obj;
             }
         }
 
@@ -180,64 +243,120 @@ public class UDPCommunicationProvider extends CommunicationProvider {
     }
 
 
+    /**
+     * Decodes the object carried by a response. Fetches it from the peer first if it was offered over TCP.
+     *
+     * @param payload payload of the response
+     * @param peer    who sent the response
+     * @return decoded object | null if it couldn't be fetched or decoded
+     */
+    private Object decode(ByteBuffer payload, InetSocketAddress peer) {
+        try {
+            return BulkTransfer.decode(payload, peer.getAddress());
+        } catch (IOException e) {
+            logger.error("Unable to fetch the payload offered by -> {}", peer, e);
+            return null;
+        }
+    }
+
+    /**
+     * Parses a response which is expected to be a frame. i.e: <pre>${length} SYNC ${type} ${base64}</pre>
+     *
+     * @param response response received | null if the request failed
+     * @param peer     who sent the response
+     * @return parsed frame | null if the request failed or the response was malformed
+     */
+    private MessageFrame parseFrame(ByteBuffer response, InetSocketAddress peer) {
+        if (response == null) {
+            return null;
+        }
+
+        try {
+            return MessageFrame.parse(response);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Discarding malformed response from {}: {}", peer, e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * @see #retryOrTimeout(int, String, InetSocketAddress)
      */
-    private String retryOrTimeout(String request, InetSocketAddress peer) {
+    private ByteBuffer retryOrTimeout(String request, InetSocketAddress peer) {
         return retryOrTimeout(numOfRetries, request, peer);
     }
 
     /**
      * This method retries a given requests or times out of that request fails. Tries for maximum of {@link
-     * UDPCommunicationProvider#numOfRetries}
+     * UDPCommunicationProvider#numOfRetries}. Each attempt waits for the timeout given by the {@link #rttEstimator} of
+     * the peer, which backs off exponentially with the attempts made.
      *
      * @param retries Number of times should be retried
      * @param request request to be sent
      * @param peer    to whom the request is sent
      * @return null | response
      */
-    private String retryOrTimeout(int retries, String request, InetSocketAddress peer) {
+    private ByteBuffer retryOrTimeout(int retries, String request, InetSocketAddress peer) {
         int retriesLeft = retries;
+        long requestId = clientChannel.nextRequestId();
+        boolean responded = false;
+        // Number of times the current request ID has been sent. RTT is measured only if it was sent once
+        int transmissions = 0;
 
-        while (retriesLeft > 0 && started) {
-            Future<String> task = executorService.submit(() -> {
-                try (DatagramSocket datagramSocket = new DatagramSocket()) {
-                    return RequestUtils.sendRequest(datagramSocket, request, peer.getAddress(), peer.getPort());
-                }
-            });
-
-            try {
-                String response = task.get(RETRY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                if (!response.contains(RESPONSE_FAILURE)) {
-                    return response;
+        try {
+            while (retriesLeft > 0 && started) {
+                try {
+                    long timeout = rttEstimator.getTimeout(peer, retries - retriesLeft);
+                    long sentAt = System.nanoTime();
+                    transmissions++;
+                    ByteBuffer response = clientChannel.send(requestId, request, peer, timeout);
+                    rttEstimator.record(peer, (System.nanoTime() - sentAt) / 1e6, transmissions);
+
+                    if (!MessageFrame.equalsAscii(response, RESPONSE_FAILURE)) {
+                        return response;
+                    }
+
+                    // The peer failed to handle it. Retry as a fresh request rather than receiving the same failure
+                    responded = true;
+                    logger.warn("Peer -> {} failed to handle request({})", peer, request);
+                    clientChannel.release(requestId);
+                    requestId = clientChannel.nextRequestId();
+                    transmissions = 0;
+                } catch (TimeoutException e) {
+                    logger.warn("Request({}) to peer -> {} timed out", request, peer);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    logger.error("Error occurred when completing request({}) to peer -> {}. Error: {}", request, peer, e);
                 }
-            } catch (Exception e) {
-                logger.error("Error occurred when completing request({}) to peer -> {}. Error: {}", request, peer, e);
-                task.cancel(true);
                 retriesLeft--;
             }
+        } finally {
+            clientChannel.release(requestId);
         }
 
         logger.error("REQUEST FAILED !!! ({} -> {})", request, peer);
-        if (retries == numOfRetries) {
+        // Only a peer which never responded is considered dead
+        if (retries == numOfRetries && !responded) {
             this.node.removeNode(peer);
+            rttEstimator.remove(peer);
         }
         return null;
     }
 
-    public void stop() {
-        if (executorService != null) {
-            executorService.shutdownNow();
-            try {
-                executorService.awaitTermination(GRACE_PERIOD_MS, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
-                executorService.shutdownNow();
-            }
-
-            executorService = null;
-        }
+    /**
+     * @return round trip time estimates of the peers. For diagnostics
+     */
+    public RttEstimator getRttEstimator() {
+        return rttEstimator;
+    }
 
+    public void stop() {
         started = false;
+        clientChannel.stop();
+        bulkTransfer.stop();
+
         logger.info("Communication provider stopped");
     }
 
@@ -2,21 +2,26 @@ package org.uom.cse.distributed.peer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.uom.cse.distributed.peer.api.Command;
+import org.uom.cse.distributed.peer.api.EntryTableDelta;
 import org.uom.cse.distributed.peer.api.EntryTableEntry;
 import org.uom.cse.distributed.peer.api.NodeServer;
+import org.uom.cse.distributed.peer.api.RangeLoad;
 import org.uom.cse.distributed.peer.api.RoutingTableEntry;
 import org.uom.cse.distributed.peer.api.State;
+import org.uom.cse.distributed.peer.utils.MessageFrame;
 import org.uom.cse.distributed.peer.utils.RequestUtils;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static org.uom.cse.distributed.Constants.*;
 
@@ -32,13 +37,20 @@ public class UDPServer implements NodeServer {
     private static final Logger logger = LoggerFactory.getLogger(Node.class);
 
     private final int numOfRetries = RETRIES_COUNT;
-    private ExecutorService executorService;
-    private boolean started = false;
-    private final int port;
-    private Node node;
+    protected ExecutorService executorService;
+    protected volatile boolean started = false;
+    protected final int port;
+    protected final DatagramFragmenter fragmenter;
+    protected final BulkTransfer bulkTransfer;
+    protected final ResponseCache responseCache = new ResponseCache(RESPONSE_CACHE_SIZE, RESPONSE_CACHE_TTL_MS);
+    protected Node node;
+
+    private volatile DatagramSocket socket;
 
     public UDPServer(int port) {
         this.port = port;
+        this.fragmenter = new DatagramFragmenter("server-" + port, this::sendDatagram);
+        this.bulkTransfer = new BulkTransfer("server-" + port);
     }
 
     @Override
@@ -49,7 +61,33 @@ public class UDPServer implements NodeServer {
         }
 
         this.node = node;
-        executorService = Executors.newCachedThreadPool();
+        executorService = createExecutorService();
+        started = true;
+        fragmenter.start();
+        try {
+            bulkTransfer.start();
+        } catch (IOException e) {
+            logger.error("Unable to serve bulk transfers. Large payloads will be sent over UDP", e);
+        }
+        startListening();
+
+        logger.info("Server started");
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+    }
+
+    /**
+     * Creates the executor service used to handle incoming requests and to send responses.
+     *
+     * @return executor service
+     */
+    protected ExecutorService createExecutorService() {
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Starts the listening loop given by {@link #listen()} in the background.
+     */
+    protected void startListening() {
         executorService.submit(() -> {
             try {
                 listen();
@@ -57,55 +95,140 @@ public class UDPServer implements NodeServer {
                 logger.error("Error occurred when listening", e);
             }
         });
-
-        started = true;
-        logger.info("Server started");
-        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
     }
 
     @Override
     public void listen() {
         try (DatagramSocket datagramSocket = new DatagramSocket(port)) {
+            this.socket = datagramSocket;
             logger.debug("Node is Listening to incoming requests");
 
+            // The receive buffer is reused. Only the bytes received are copied out for the request to be handled
+            byte[] buffer = new byte[DATAGRAM_BUFFER_SIZE];
+            DatagramPacket incoming = new DatagramPacket(buffer, buffer.length);
             while (started) {
-                byte[] buffer = new byte[65536];
-                DatagramPacket incoming = new DatagramPacket(buffer, buffer.length);
+                incoming.setLength(buffer.length);
                 datagramSocket.receive(incoming);
 
-                byte[] data = incoming.getData();
-                String request = new String(data, 0, incoming.getLength());
-                logger.debug("Received from {}:{} -> {}", incoming.getAddress(), incoming.getPort(), request);
-
-                executorService.submit(() -> {
-                    try {
-                        handleRequest(request, incoming);
-                    } catch (Exception e) {
-                        logger.error("Error occurred when handling request ({})", request, e);
-                        retryOrTimeout(RESPONSE_FAILURE, new InetSocketAddress(incoming.getAddress(), incoming.getPort()));
-                    }
-                });
+                InetSocketAddress recipient = new InetSocketAddress(incoming.getAddress(), incoming.getPort());
+                ByteBuffer request = fragmenter.receive(incoming.getData(), 0, incoming.getLength(), recipient);
+                if (request != null) {
+                    ByteBuffer copy = request.array() == buffer ? copyOf(request) : request;
+                    executorService.submit(() -> dispatch(copy, recipient));
+                }
             }
         } catch (IOException e) {
+            if (!started) {
+                logger.debug("Stopped listening on port {}", port);
+                return;
+            }
             logger.error("Error occurred when listening on port {}", port, e);
             throw new IllegalStateException("Error occurred when listening", e);
+        } finally {
+            this.socket = null;
+        }
+    }
+
+    private static ByteBuffer copyOf(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate()).flip();
+        return copy;
+    }
+
+    /**
+     * Handles a single request received from the given recipient. Responds with {@link
+     * org.uom.cse.distributed.Constants#RESPONSE_FAILURE} if the request couldn't be handled. A retry of a correlated
+     * request which has been responded already gets the same response from the {@link #responseCache}, while a retry
+     * of a request still being handled is ignored. A correlated request naming an unknown codec is rejected. Bare {@link org.uom.cse.distributed.Constants#RESPONSE_OK} and
+     * {@link org.uom.cse.distributed.Constants#RESPONSE_FAILURE} responses to the requests sent from this server are
+     * dropped.
+     *
+     * @param request   Request received. Parsed in place, hence must not be modified until this returns
+     * @param recipient the client who sent the request
+     */
+    protected void dispatch(ByteBuffer request, InetSocketAddress recipient) {
+        // Peers answer the requests we send from this socket, such as uncorrelated handovers, with a bare status
+        if (MessageFrame.equalsAscii(request, RESPONSE_OK) || MessageFrame.equalsAscii(request, RESPONSE_FAILURE)) {
+            logger.debug("Received a bare response from {}", recipient);
+            return;
+        }
+
+        MessageFrame frame;
+        try {
+            frame = MessageFrame.parse(request);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Discarding malformed request from {}: {}", recipient, e.getMessage());
+            return;
+        }
+        logger.debug("Received from {} -> {}", recipient, frame);
+
+        // Requests sent through a multiplexed client carry a correlation ID which we echo back with the response
+        MessageHeader header = MessageHeader.NONE;
+        if (frame.isCorrelated()) {
+            try {
+                header = MessageHeader.of(frame.getRequestId(), RequestUtils.getCodec(frame.getCodecName()));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Rejecting request ({}) from {}: {}", frame, recipient, e.getMessage());
+                retryOrTimeout(RESPONSE_FAILURE, recipient, MessageHeader.of(frame.getRequestId(),
+                        MessageHeader.NONE.getCodec()));
+                return;
+            }
+        }
+
+        String requestId = header.getRequestId();
+        if (requestId != null) {
+            ResponseCache.Entry earlier = responseCache.begin(recipient, requestId);
+            if (earlier != null) {
+                replay(earlier, recipient, requestId);
+                return;
+            }
+        }
+
+        try {
+            handleRequest(frame, recipient, header);
+        } catch (Exception e) {
+            logger.error("Error occurred when handling request ({})", frame, e);
+            retryOrTimeout(RESPONSE_FAILURE, recipient, header);
+        } finally {
+            if (requestId != null) {
+                responseCache.finish(recipient, requestId);
+            }
+        }
+    }
+
+    private void replay(ResponseCache.Entry earlier, InetSocketAddress recipient, String requestId) {
+        String response = earlier.getResponse();
+        if (response == null) {
+            logger.debug("Request {} from {} is still being handled. Ignoring the retry", requestId, recipient);
+            return;
+        }
+
+        logger.debug("Replaying the response to request {} from -> {}", requestId, recipient);
+        try {
+            send(response, recipient);
+        } catch (IOException e) {
+            logger.error("Error occurred when replaying the response to request {} from -> {}", requestId, recipient,
+                    e);
         }
     }
 
     /**
      * Handles requests coming to this node.
      *
-     * @param request  Request received
-     * @param incoming incoming datagram packet
+     * @param request   Request received
+     * @param recipient the client who sent the request
+     * @param header    correlation header of the request
      * @throws IOException
      */
-    private void handleRequest(String request, DatagramPacket incoming) throws IOException {
-        String[] incomingResult = request.split(" ", 3);
-        logger.debug("Request length -> {}", incomingResult[0]);
-        String command = incomingResult[1];
+    private void handleRequest(MessageFrame request, InetSocketAddress recipient, MessageHeader header)
+            throws IOException {
+        Command command = request.getCommand();
+        if (command == null) {
+            logger.warn("Ignoring unknown command '{}' from -> {}", request.getCommandName(), recipient);
+            return;
+        }
         logger.debug("Command -> {}", command);
 
-        InetSocketAddress recipient = new InetSocketAddress(incoming.getAddress(), incoming.getPort());
         switch (command) {
             case GET_ROUTING_TABLE:
                 // Here, we are purposefully preventing sending a response if I'm not configured yet
@@ -113,41 +236,53 @@ public class UDPServer implements NodeServer {
                     logger.warn("Not responding to request '{}' because I'm at state -> {}", request, node.getState());
                     return;
                 }
-                provideRoutingTable(recipient);
+                provideRoutingTable(recipient, header);
                 break;
             case NEW_NODE:
-                handleNewNodeRequest(incomingResult[2], recipient);
+                handleNewNodeRequest(request, recipient, header);
                 break;
             case NEW_ENTRY:
-                String[] list = incomingResult[2].split(" ", 3);
-                logger.debug("Adding entry to entry table -> {}", list);
-                this.node.getEntryTable().addEntry(list[0], new EntryTableEntry(list[1], list[2]));
-                retryOrTimeout(RESPONSE_OK, recipient);
+                String entryKeyword = request.nextToken();
+                String nodeName = request.nextToken();
+                String file = request.remainingAsString();
+                logger.debug("Adding entry to entry table -> {}: {} ({})", entryKeyword, file, nodeName);
+                this.node.getEntryTable().addEntry(entryKeyword, new EntryTableEntry(nodeName, file));
+                retryOrTimeout(RESPONSE_OK, recipient, header);
+                break;
+            case NEW_ENTRIES:
+                handleNewEntriesRequest(request, recipient, header);
                 break;
             case QUERY:
-                String[] parts = incomingResult[2].split(" ", 2);
-                InetSocketAddress[] inetSocketAddresses = new InetSocketAddress[0];
-                inetSocketAddresses = getNodeListSafely(parts[0], parts[1]);
+                String queryKeyword = request.nextToken();
+                InetSocketAddress[] inetSocketAddresses = getNodeListSafely(queryKeyword,
+                        request.remainingAsString());
 
-                provideAddressArray(recipient, inetSocketAddresses);
+                provideAddressArray(recipient, header, inetSocketAddresses);
 
                 break;
 
             case KEYWORD:
-                String keyword = incomingResult[2];
-                String[] results = new String[0];
-                results = searchEntryTableForKeyword(keyword);
+                String keyword = request.remainingAsString();
+                String[] results = searchEntryTableForKeyword(keyword);
 
-                provideAddressArray(recipient, results);
+                provideAddressArray(recipient, header, results);
 
                 break;
 
             case PING:
-                respondToPing(incomingResult[2], recipient);
+                respondToPing(request, recipient, header);
+                break;
+            case FIND_SUCCESSOR:
+                provideNextHop(request, recipient, header);
+                break;
+            case LOAD:
+                provideLoad(recipient, header);
                 break;
             case SYNC:
-                handleSyncRequest(incomingResult[2], recipient);
+                handleSyncRequest(request, recipient, header);
                 break;
+            default:
+                logger.warn("Ignoring command {} not meant for nodes from -> {}", command, recipient);
         }
     }
 
@@ -161,110 +296,162 @@ public class UDPServer implements NodeServer {
 
 
     private String[] searchEntryTableForKeyword(String keyword) {
-        char c = Character.toUpperCase(keyword.charAt(0));
-        List<EntryTableEntry> entryList = this.node.getEntryTable().getEntries().get(c).get(keyword);
+        List<EntryTableEntry> entryList;
+        try {
+            entryList = this.node.getEntryTable().searchEntries(keyword);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring invalid keyword pattern [{}]", keyword);
+            return new String[0];
+        }
         String[] resultArray = new String[entryList.size()];
         int i = 0;
         for (EntryTableEntry entry : entryList) {
-
-
-            for (RoutingTableEntry routingTableEntry : this.node.getRoutingTable().getEntries()) {
-
-                if (entry.getNodeName().equals(Integer.toString(routingTableEntry.getNodeId()))){
-                    resultArray[i] = entry.getFileName() + ":" + routingTableEntry.getAddress().getHostName() + ":" + routingTableEntry.getAddress().getPort();
-                    i++;
-                    break;
-                }
+            Optional<InetSocketAddress> address = this.node.findAddressOf(Integer.parseInt(entry.getNodeName()));
+            if (address.isPresent()) {
+                resultArray[i] = entry.getFileName() + ":" + address.get().getHostName() + ":" + address.get().getPort();
+                i++;
             }
-
         }
         return resultArray;
     }
 
-    private void provideRoutingTable(InetSocketAddress recipient) throws IOException {
+    private void provideRoutingTable(InetSocketAddress recipient, MessageHeader header) throws IOException {
         logger.debug("Returning routing table to -> {}", recipient);
         String response;
         try {
             String msg = String.format(SYNC_MSG_FORMAT, TYPE_ROUTING,
-                    RequestUtils.buildObjectRequest(this.node.getRoutingTable().getEntries()));
+                    bulkTransfer.offer(this.node.getRoutingTable().getEntries(), header.getCodec()));
             response = RequestUtils.buildRequest(msg);
         } catch (IOException e) {
             logger.error("Error occurred when building object request: {}", e);
             throw e;
         }
 
-        retryOrTimeout(response, recipient);
+        retryOrTimeout(response, recipient, header);
         logger.debug("Routing table entries provided to the recipient: {}", recipient);
     }
 
-    @SuppressWarnings("unchecked")
-    private void respondToPing(String request, InetSocketAddress recipient) throws IOException {
-        logger.debug("Responding to ping with my table entries to -> {}", request);
-        String[] parts = request.split(" ");
+    private void provideNextHop(MessageFrame request, InetSocketAddress recipient, MessageHeader header)
+            throws IOException {
+        // FINDSUCC ${nodeId}
+        int nodeId = request.nextInt();
+        List<RoutingTableEntry> hop = this.node.getFingerTable().nextHop(nodeId);
+        logger.debug("Returning next hop to the owner of {} -> {} to -> {}", nodeId, hop, recipient);
+        String response;
+        try {
+            response = bulkTransfer.offer(hop, header.getCodec());
+        } catch (IOException e) {
+            logger.error("Error occurred when building object request: {}", e);
+            throw e;
+        }
+
+        retryOrTimeout(response, recipient, header);
+    }
 
-        Map<Character, Map<String, List<EntryTableEntry>>> toBeTakenOver;
-        Object obj = RequestUtils.base64StringToObject(parts[1]);
-        logger.info("Received characters to be taken over -> {}", obj);
+    private void provideLoad(InetSocketAddress recipient, MessageHeader header) throws IOException {
+        List<RangeLoad> load = this.node.getLoad();
+        logger.debug("Returning my load {} to -> {}", load, recipient);
+        String response;
+        try {
+            response = bulkTransfer.offer(load, header.getCodec());
+        } catch (IOException e) {
+            logger.error("Error occurred when building object request: {}", e);
+            throw e;
+        }
+
+        retryOrTimeout(response, recipient, header);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void respondToPing(MessageFrame request, InetSocketAddress recipient, MessageHeader header)
+            throws IOException {
+        logger.debug("Responding to ping with changes to my table entries to -> {}", recipient);
+        // PING ${nodeId} ${epoch} ${version} ${base64}
+        int nodeId = request.nextInt();
+        long epoch = request.nextLong();
+        long version = request.nextLong();
+
+        Map<String, List<EntryTableEntry>> toBeTakenOver;
+        Object obj = decode(request, recipient);
+        logger.info("Received entries to be taken over -> {}", obj);
         if (obj != null) {
-            toBeTakenOver = (Map<Character, Map<String, List<EntryTableEntry>>>) obj;
+            toBeTakenOver = (Map<String, List<EntryTableEntry>>) obj;
             this.node.takeOverEntries(toBeTakenOver);
         }
 
-        int nodeId = Integer.parseInt(parts[0]);
-
         String response;
         try {
-            response = RequestUtils.buildObjectRequest(node.getEntryTable().getEntries());
+            EntryTableDelta delta = node.getEntryTable().getChangesSince(epoch, version);
+            logger.debug("Changes since version {} -> {}", version, delta);
+            response = bulkTransfer.offer(delta, header.getCodec());
         } catch (IOException e) {
             logger.error("Error occurred when building object request: {}", e);
             throw e;
         }
 
-        // 1. Send my entries to this node
-        if (!retryOrTimeout(response, recipient)) {
+        // 1. Send the changes to my entries to this node
+        if (!retryOrTimeout(response, recipient, header)) {
             logger.error("Unable to respond to Ping request -> {}", recipient);
         }
 
         // TODO: 11/2/17 Add the calling node to my routing table if not present
 
-        // 2. Also send any characters to be taken over to this one as well. If present
+        // 2. Also send any entries to be taken over to this one as well. If present
         Optional<RoutingTableEntry> tableEntryOptional = this.node.getRoutingTable().findByNodeId(nodeId);
         if (tableEntryOptional.isPresent()) {
-            handoverEntries(nodeId, tableEntryOptional.get().getAddress());
+            InetSocketAddress pinger = tableEntryOptional.get().getAddress();
+            handoverEntries(pinger, pinger, header.uncorrelated());
 
             // 3. Send my routing table to that node as well
-            provideRoutingTable(tableEntryOptional.get().getAddress());
+            provideRoutingTable(tableEntryOptional.get().getAddress(), header.uncorrelated());
         }
     }
 
-    private void handleNewNodeRequest(String request, InetSocketAddress recipient) throws IOException {
-        String[] parts = request.split(" ");
-        String ipAddress = parts[0];
-        int port = Integer.parseInt(parts[1]);
-        int newNodeId = Integer.parseInt(parts[2]);
+    private void handleNewNodeRequest(MessageFrame request, InetSocketAddress recipient, MessageHeader header)
+            throws IOException {
+        InetSocketAddress newNode = new InetSocketAddress(request.nextToken(), request.nextInt());
+        List<Integer> newNodeIds = RequestUtils.parseNodeIds(request.nextToken());
 
-        this.node.addNewNode(ipAddress, port, newNodeId);
+        this.node.addNewNode(newNode, newNodeIds);
 
-        if (handoverEntries(newNodeId, recipient)) {
-            logger.info("Handed over entries to -> {}", newNodeId);
+        if (handoverEntries(newNode, recipient, header)) {
+            logger.info("Handed over entries to -> {}{}", newNode, newNodeIds);
         } else {
-            logger.warn("Unable to hand over entries to -> {}", newNodeId);
-            retryOrTimeout(RESPONSE_FAILURE, recipient);
+            logger.warn("Unable to hand over entries to -> {}{}", newNode, newNodeIds);
+            retryOrTimeout(RESPONSE_FAILURE, recipient, header);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handleNewEntriesRequest(MessageFrame request, InetSocketAddress recipient, MessageHeader header)
+            throws IOException {
+        Object obj = decode(request, recipient);
+        if (obj == null) {
+            logger.warn("Unable to decode entries offered by -> {}", recipient);
+            retryOrTimeout(RESPONSE_FAILURE, recipient, header);
+            return;
         }
+
+        Map<String, List<EntryTableEntry>> entries = (Map<String, List<EntryTableEntry>>) obj;
+        logger.debug("Adding {} keywords offered by {} to entry table", entries.size(), recipient);
+        entries.forEach((keyword, list) -> list.forEach(entry -> this.node.getEntryTable().addEntry(keyword, entry)));
+        retryOrTimeout(RESPONSE_OK, recipient, header);
     }
 
     @SuppressWarnings("unchecked")
-    private void handleSyncRequest(String request, InetSocketAddress recipient) {
+    private void handleSyncRequest(MessageFrame request, InetSocketAddress recipient, MessageHeader header)
+            throws IOException {
         logger.debug("Received sync request -> {}", request);
-        String[] parts = request.split(" ");
+        // SYNC ${type} ${base64}
+        String type = request.nextToken();
 
-        Object obj = RequestUtils.base64StringToObject(parts[1]);
-        switch (parts[0]) {
+        Object obj = decode(request, recipient);
+        switch (type) {
             case TYPE_ENTRIES:
-                logger.debug("Received characters to be taken over -> {}", obj);
+                logger.debug("Received entries to be taken over -> {}", obj);
                 if (obj != null) {
-                    Map<Character, Map<String, List<EntryTableEntry>>> toBeTakenOver =
-                            (Map<Character, Map<String, List<EntryTableEntry>>>) obj;
+                    Map<String, List<EntryTableEntry>> toBeTakenOver =
+                            (Map<String, List<EntryTableEntry>>) obj;
                     this.node.takeOverEntries(toBeTakenOver);
                 }
                 break;
@@ -273,31 +460,46 @@ public class UDPServer implements NodeServer {
                 break;
         }
 
-        retryOrTimeout(RESPONSE_OK, recipient);
+        retryOrTimeout(RESPONSE_OK, recipient, header);
     }
 
-    private boolean handoverEntries(int nodeId, InetSocketAddress recipient) throws IOException {
-        Map<Character, Map<String, List<EntryTableEntry>>> entriesToHandover = this.node.getEntriesToHandoverTo(nodeId);
+    /**
+     * Decodes the object carried by the remaining arguments of the request. Fetches it from the sender first if it was
+     * offered over TCP.
+     *
+     * @param request   request received
+     * @param recipient the client who sent the request
+     * @return decoded object | null if decoding failed
+     * @throws IOException if the object couldn't be fetched
+     */
+    private Object decode(MessageFrame request, InetSocketAddress recipient) throws IOException {
+        return BulkTransfer.decode(request.remaining(), recipient.getAddress());
+    }
+
+    private boolean handoverEntries(InetSocketAddress peer, InetSocketAddress recipient, MessageHeader header)
+            throws IOException {
+        Map<String, List<EntryTableEntry>> entriesToHandover = this.node.getEntriesToHandoverTo(peer);
 
         if (entriesToHandover == null) {
-            logger.warn("Couldn't find characters to be handed over to node -> {}", nodeId);
+            logger.warn("Couldn't find entries to be handed over to node -> {}", peer);
             return false;
         }
 
         // Send the entries to new node. Only if that's successful, we remove them from myself
-        logger.debug("Notifying characters belonging to node -> {} : {}", nodeId, entriesToHandover.keySet());
+        logger.debug("Notifying keywords belonging to node -> {} : {}", peer, entriesToHandover.keySet());
         String response;
         try {
-            String msg = String.format(SYNC_MSG_FORMAT, TYPE_ENTRIES, RequestUtils.buildObjectRequest(entriesToHandover));
+            String msg = String.format(SYNC_MSG_FORMAT, TYPE_ENTRIES,
+                    bulkTransfer.offer(entriesToHandover, header.getCodec()));
             response = RequestUtils.buildRequest(msg);
         } catch (IOException e) {
             logger.error("Error occurred when building object request: {}", e);
             throw e;
         }
 
-        if (retryOrTimeout(response, recipient)) {
-            logger.debug("Successfully notified characters ({}) to node -> {}", entriesToHandover.keySet(), nodeId);
-            node.removeEntries(entriesToHandover.keySet());
+        if (retryOrTimeout(response, recipient, header)) {
+            logger.debug("Successfully notified keywords ({}) to node -> {}", entriesToHandover.keySet(), peer);
+            node.removeEntries(entriesToHandover);
             return true;
         }
 
@@ -308,26 +510,24 @@ public class UDPServer implements NodeServer {
      * This method retries a given response or times out of that response fails. Tries for maximum of {@link
      * UDPCommunicationProvider#numOfRetries}
      *
-     * @param response response to be sent
-     * @param peer     to whom the response is sent
+     * @param response  response to be sent
+     * @param peer      to whom the response is sent
+     * @param header    correlation header of the request being responded to
      * @return true if successful | false if failed
      */
-    private boolean retryOrTimeout(String response, InetSocketAddress peer) {
+    private boolean retryOrTimeout(String response, InetSocketAddress peer, MessageHeader header) {
+        response = header.stamp(response);
+        if (header.getRequestId() != null) {
+            responseCache.complete(peer, header.getRequestId(), response);
+        }
+
         int retriesLeft = numOfRetries;
         while (retriesLeft > 0 && started) {
-            Future<Void> task = executorService.submit(() -> {
-                try (DatagramSocket datagramSocket = new DatagramSocket()) {
-                    RequestUtils.sendResponse(datagramSocket, response, peer.getAddress(), peer.getPort());
-                    return null;
-                }
-            });
-
             try {
-                task.get(RETRY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                send(response, peer);
                 return true;
             } catch (Exception e) {
                 logger.error("Error occurred when completing response({}) to peer- {}. Error: {}", response, peer, e);
-                task.cancel(true);
                 retriesLeft--;
             }
         }
@@ -335,52 +535,76 @@ public class UDPServer implements NodeServer {
         return false;
     }
 
+    /**
+     * Sends a single response to the given peer through the listening socket, in fragments if it doesn't fit in a
+     * single datagram. Since the response leaves from the listening socket, the peer's requests for missing fragments
+     * come back to us.
+     *
+     * @param response response to be sent
+     * @param peer     to whom the response is sent
+     * @throws IOException if sending failed
+     */
+    protected void send(String response, InetSocketAddress peer) throws IOException {
+        fragmenter.send(response, peer);
+    }
+
+    /**
+     * Puts a single datagram on the wire through the listening socket
+     *
+     * @param data datagram to be sent
+     * @param peer to whom the datagram is sent
+     * @throws IOException if sending failed
+     */
+    protected void sendDatagram(byte[] data, InetSocketAddress peer) throws IOException {
+        DatagramSocket socket = this.socket;
+        if (socket == null) {
+            throw new IOException("Socket is not open");
+        }
+
+        socket.send(new DatagramPacket(data, data.length, peer.getAddress(), peer.getPort()));
+    }
+
 
-    private void provideAddressArray(InetSocketAddress recipient, Object[] objects) throws IOException {
+    private void provideAddressArray(InetSocketAddress recipient, MessageHeader header, Object[] objects)
+            throws IOException {
         logger.debug("Returning addresses {} to -> {}", objects, recipient);
         String response;
         try {
-            response = RequestUtils.buildObjectRequest(objects);
+            response = bulkTransfer.offer(objects, header.getCodec());
         } catch (IOException e) {
             logger.error("Error occurred when building object request: {}", e);
             throw e;
         }
 
-        retryOrTimeout(response, recipient);
+        retryOrTimeout(response, recipient, header);
         logger.debug("Array of node addresses provided to the recipient: {}", recipient);
     }
 
     private List<String> searchEntryTable(String keyword, String fileName) {
-        char c = Character.toUpperCase(keyword.charAt(0));
-        List<EntryTableEntry> entryList = this.node.getEntryTable().getEntries().get(c).get(keyword);
-        List<String> results = new ArrayList<String>();
-
-        for (EntryTableEntry entry : entryList) {
-            if (fileName.toLowerCase().equals(entry.getFileName().toLowerCase())) {
-                results.add(entry.getNodeName());
-            }
-        }
-        return results;
+        return this.node.getEntryTable().findEntries(keyword, fileName).stream()
+                .map(EntryTableEntry::getNodeName)
+                .collect(Collectors.toList());
     }
 
     private InetSocketAddress[] getNodeList(List<String> nodeNameList) {
-        Set<RoutingTableEntry> entries = this.node.getRoutingTable().getEntries();
-        InetSocketAddress[] inetSocketAddresses = new InetSocketAddress[nodeNameList.size()];
-
-        int i = 0;
-        for (RoutingTableEntry routingTableEntry : entries) {
-            if (nodeNameList.contains(Integer.toString(routingTableEntry.getNodeId()))) {
-                inetSocketAddresses[i] = routingTableEntry.getAddress();
-                i++;
-            }
-        }
-        return inetSocketAddresses;
+        // Nodes having the file may not be in my routing table when routing through fingers
+        return nodeNameList.stream()
+                .map(nodeName -> this.node.findAddressOf(Integer.parseInt(nodeName)))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .toArray(InetSocketAddress[]::new);
     }
 
     @Override
     public void stop() {
         if (started) {
             started = false;
+            fragmenter.stop();
+            bulkTransfer.stop();
+            DatagramSocket socket = this.socket;
+            if (socket != null) {
+                socket.close();
+            }
             executorService.shutdownNow();
             try {
                 executorService.awaitTermination(GRACE_PERIOD_MS, TimeUnit.MILLISECONDS);
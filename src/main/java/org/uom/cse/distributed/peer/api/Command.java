@@ -0,0 +1,108 @@
+package org.uom.cse.distributed.peer.api;
+
+import org.uom.cse.distributed.Constants;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The commands which can appear in a <pre>%04d CMD args</pre> frame, whether exchanged between nodes or with the
+ * bootstrap server. A command can be matched straight from the bytes of a received datagram using {@link
+ * #match(ByteBuffer, int, int)}, hence requests can be dispatched without decoding the frame into a string first.
+ */
+public enum Command {
+    REG(Constants.REG),
+    REGOK(Constants.REGOK),
+    UNREG(Constants.UNREG),
+    UNROK(Constants.UNROK),
+    ECHO(Constants.ECHO),
+    ECHOK(Constants.ECHOK),
+    GET_ROUTING_TABLE(Constants.GET_ROUTING_TABLE),
+    NEW_NODE(Constants.NEW_NODE),
+    NEW_ENTRY(Constants.NEW_ENTRY),
+    NEW_ENTRIES(Constants.NEW_ENTRIES),
+    QUERY(Constants.QUERY),
+    KEYWORD(Constants.KEYWORD),
+    PING(Constants.PING),
+    FIND_SUCCESSOR(Constants.FIND_SUCCESSOR),
+    LOAD(Constants.LOAD),
+    SYNC(Constants.SYNC);
+
+    /** Commands indexed by the first byte of their name. Names are ASCII */
+    private static final Command[][] BY_FIRST_BYTE = new Command[128][];
+
+    static {
+        List<List<Command>> index = new ArrayList<>();
+        for (int i = 0; i < BY_FIRST_BYTE.length; i++) {
+            index.add(new ArrayList<>());
+        }
+        for (Command command : values()) {
+            index.get(command.name[0]).add(command);
+        }
+        for (int i = 0; i < BY_FIRST_BYTE.length; i++) {
+            BY_FIRST_BYTE[i] = index.get(i).toArray(new Command[0]);
+        }
+    }
+
+    private final String command;
+    private final byte[] name;
+
+    Command(String command) {
+        this.command = command;
+        this.name = command.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Finds the command whose name is given by the bytes of the buffer in range [start, end). Doesn't change the
+     * position of the buffer.
+     *
+     * @param buffer buffer holding the frame
+     * @param start  absolute index of the first byte of the name
+     * @param end    absolute index just after the last byte of the name
+     * @return matching command | null if unknown
+     */
+    public static Command match(ByteBuffer buffer, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+
+        int first = buffer.get(start);
+        if (first < 0) {
+            return null;
+        }
+
+        for (Command candidate : BY_FIRST_BYTE[first]) {
+            if (candidate.matches(buffer, start, end)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(ByteBuffer buffer, int start, int end) {
+        if (end - start != name.length) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the command as it appears on the wire
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    @Override
+    public String toString() {
+        return command;
+    }
+}
@@ -6,6 +6,8 @@ package org.uom.cse.distributed.peer.api;
 import org.uom.cse.distributed.peer.Node;
 
 import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,6 +33,25 @@ public abstract class CommunicationProvider {
      */
     public abstract Set<RoutingTableEntry> connect(InetSocketAddress peer);
 
+    /**
+     * Asks the peer for the owner of the given node ID, i.e. the first node at or after that ID in the ring. A peer
+     * which doesn't know the owner names the node closest to that ID it knows of, to be asked next.
+     *
+     * @param peer   peer to be asked
+     * @param nodeId node ID of which the owner is looked up
+     * @return the closest node preceding the ID known to the peer, followed by the owner if the peer knows it | empty
+     * list if the peer couldn't be reached
+     */
+    public abstract List<RoutingTableEntry> findSuccessor(InetSocketAddress peer, int nodeId);
+
+    /**
+     * Asks the peer for the number of entries it holds in the range owned by each of its positions.
+     *
+     * @param peer peer to be asked
+     * @return load of each position of the peer | empty list if the peer couldn't be reached
+     */
+    public abstract List<RangeLoad> getLoad(InetSocketAddress peer);
+
     /**
      * Disconnects from the given peer after notifying that node that I'm disconnecting.
      *
@@ -44,11 +65,12 @@ public abstract class CommunicationProvider {
      *
      * @param peer   Node to which I'm notifying my presence
      * @param me     My ip and port info
-     * @param nodeId My node ID. This is used to determine what are the keywords that I'm going to look at.
+     * @param nodeIds My node IDs, one per position in the ring. These are used to determine what are the keywords
+     *                that I'm going to look at.
      * @return Map of keyword and node mappings which should be undertaken by me from this point onwards.
      */
-    public abstract Map<Character, Map<String, List<EntryTableEntry>>> notifyNewNode(InetSocketAddress peer,
-            InetSocketAddress me, int nodeId);
+    public abstract Map<String, List<EntryTableEntry>> notifyNewNode(InetSocketAddress peer,
+            InetSocketAddress me, List<Integer> nodeIds);
 
     /**
      * Sends the given file and keyword to the node given by {@link InetSocketAddress} to be indexed.
@@ -60,6 +82,15 @@ public abstract class CommunicationProvider {
      */
     public abstract boolean offerFile(InetSocketAddress peer, String keyword, int node, String file);
 
+    /**
+     * Sends many keyword and file mappings owned by the given peer to be indexed, in a single request.
+     *
+     * @param peer    Owner who indexes all the given keywords
+     * @param entries keyword -> entries (node containing the file and file name) to be indexed
+     * @return true if the peer accepted the entries
+     */
+    public abstract boolean offerFiles(InetSocketAddress peer, Map<String, List<EntryTableEntry>> entries);
+
     /**
      * This will search for a file name in the entire system and return the list of nodes {@link InetSocketAddress}
      *
@@ -70,15 +101,39 @@ public abstract class CommunicationProvider {
      */
     public abstract Set<InetSocketAddress> searchFullFile(InetSocketAddress targetNode, String fileName, String keyword);
 
+    /**
+     * Searches for a file name using many of its keywords, all owned by the same node. Sends a {@link
+     * #searchFullFile(InetSocketAddress, String, String)} per keyword unless overridden to do it in a single request.
+     *
+     * @param targetNode the node that needs to be searched
+     * @param fileName   the name of the file that needs to be searched
+     * @param keywords   keywords of the file owned by the target node
+     * @return keyword -> set of nodes having the file. Keywords whose lookup failed are left out
+     */
+    public Map<String, Set<InetSocketAddress>> searchFullFile(InetSocketAddress targetNode, String fileName,
+            Collection<String> keywords) {
+        Map<String, Set<InetSocketAddress>> results = new HashMap<>();
+        for (String keyword : keywords) {
+            Set<InetSocketAddress> addresses = searchFullFile(targetNode, fileName, keyword);
+            if (addresses != null) {
+                results.put(keyword, addresses);
+            }
+        }
+        return results;
+    }
+
     public abstract Set<String> searchKeywordFile(InetSocketAddress targetNode,String keyword);
 
     /**
-     * Pings the given node and returns the {@link EntryTable#entries} of that node.
+     * Pings the given node and returns the changes made to the {@link EntryTable} of that node since the given version.
      *
-     * @param peer peer to be pinged
-     * @return null if the peer couldn't be found | else entries
+     * @param peer           peer to be pinged
+     * @param epoch          epoch of the peer's entry table the version belongs to
+     * @param version        version of the peer's entry table last seen by us
+     * @param toBeHandedOver entries to be taken over by the peer
+     * @return null if the peer couldn't be found | else changes since the given version
      */
-    public abstract Map<Character, Map<String, List<EntryTableEntry>>> ping(InetSocketAddress peer,
-            Map<Character, Map<String, List<EntryTableEntry>>> toBeHandedOver);
+    public abstract EntryTableDelta ping(InetSocketAddress peer, long epoch, long version,
+            Map<String, List<EntryTableEntry>> toBeHandedOver);
 
 }
@@ -0,0 +1,502 @@
+package org.uom.cse.distributed.peer.api;
+
+import org.uom.cse.distributed.peer.utils.HashUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memory compact storage of keyword -> entries mappings, backing both the {@link EntryTable} and the {@link
+ * EntryTableReplica}s of a node. File names are interned into a dictionary, hence each distinct name is kept once and
+ * entries refer to it, while node names, which are node IDs, are kept as ints. The entries of a term are kept sorted by
+ * file name and node ID in a pair of arrays. The entries of a given file are found by a binary search within the
+ * arrays of the term.
+ * <p>
+ * Terms and file names are normalized to lower case. The spelling a term or a file was first stored with is used when
+ * the entries are read back.
+ * <p>
+ * Terms may also be indexed by a {@link KeywordIndex}, for looking them up by a {@link KeywordPattern} rather than by
+ * the whole term.
+ * <p>
+ * Thread safe. The {@link Postings} of a term are immutable and so are the {@link TermMap}s holding them. Each change
+ * publishes a new map, sharing all but the path to the term with the previous one. Hence readers never lock, and the
+ * map read at any time is a consistent view of all the terms, which is kept as it is for as long as it is referred to.
+ * See {@link #getTerms()}. Changes compute the new postings of a term without locking and publish them one at a time,
+ * retrying if the term was changed meanwhile. A {@link ChangeListener} is told of each change as it is published.
+ */
+class EntryStore {
+
+    /** Rough sizes in bytes on a 64 bit JVM with compressed references. Used to estimate the heap footprint */
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int MAP_ENTRY = 32;
+
+    /** Held while a change is published, so that changes are published and listened to one at a time */
+    private final Object publishLock = new Object();
+    private volatile TermMap terms = TermMap.EMPTY;
+    private final FileDictionary files = new FileDictionary();
+    private final AtomicInteger entryCount = new AtomicInteger();
+    /** null if terms are looked up by the whole term only */
+    private final KeywordIndex index;
+    /** null if no one listens */
+    private final ChangeListener listener;
+
+    /**
+     * @param indexed whether terms should be indexed for {@link #search(KeywordPattern)}
+     */
+    EntryStore(boolean indexed) {
+        this(indexed, null);
+    }
+
+    /**
+     * @param indexed  whether terms should be indexed for {@link #search(KeywordPattern)}
+     * @param listener told of each change as it is published
+     */
+    EntryStore(boolean indexed, ChangeListener listener) {
+        this.index = indexed ? new KeywordIndex() : null;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the spelling of the keyword the entry is added under | null if it was already there
+     * @throws IllegalArgumentException if the node name of the entry is not a node ID
+     */
+    String add(String keyword, EntryTableEntry entry) {
+        int nodeId = toNodeId(entry);
+        String normalized = normalize(keyword);
+        String file = files.intern(entry.getFileName());
+        while (true) {
+            Postings postings = terms.get(normalized);
+            Postings current = postings == null ? new Postings(share(keyword, normalized)) : postings;
+            Postings next = current.with(file, nodeId);
+            if (next == current) {
+                files.release(file);
+                return null;
+            }
+
+            synchronized (publishLock) {
+                if (terms.get(normalized) != postings) {
+                    continue;
+                }
+                if (postings == null && index != null) {
+                    index.add(normalized);
+                }
+                publish(terms.with(normalized, next), true, next.keyword, entry);
+                entryCount.incrementAndGet();
+            }
+            return next.keyword;
+        }
+    }
+
+    /**
+     * @return the spelling of the keyword the entry is removed from | null if it was not there
+     */
+    String remove(String keyword, EntryTableEntry entry) {
+        String file = files.find(entry.getFileName());
+        if (file == null || !isNodeId(entry.getNodeName())) {
+            return null;
+        }
+
+        int nodeId = Integer.parseInt(entry.getNodeName());
+        String normalized = normalize(keyword);
+        while (true) {
+            Postings postings = terms.get(normalized);
+            Postings next = postings == null ? null : postings.without(file, nodeId);
+            if (next == postings) {
+                return null;
+            }
+
+            synchronized (publishLock) {
+                if (terms.get(normalized) != postings) {
+                    continue;
+                }
+                if (next.size() > 0) {
+                    publish(terms.with(normalized, next), false, next.keyword, entry);
+                } else {
+                    if (index != null) {
+                        index.remove(normalized);
+                    }
+                    publish(terms.without(normalized), false, next.keyword, entry);
+                }
+                entryCount.decrementAndGet();
+            }
+            files.release(file);
+            return next.keyword;
+        }
+    }
+
+    private void publish(TermMap terms, boolean added, String keyword, EntryTableEntry entry) {
+        this.terms = terms;
+        if (listener != null) {
+            listener.changed(terms, added, keyword, entry);
+        }
+    }
+
+    /**
+     * @return entries stored under the keyword | null if none
+     */
+    List<EntryTableEntry> get(String keyword) {
+        Postings postings = terms.get(normalize(keyword));
+        return postings == null ? null : postings.toEntries();
+    }
+
+    /**
+     * @return entries stored under each keyword matching the pattern, by the spelling of the keyword
+     * @throws IllegalStateException if terms are not indexed and the pattern is not a whole keyword
+     */
+    Map<String, List<EntryTableEntry>> search(KeywordPattern pattern) {
+        Collection<String> matching;
+        if (pattern.getKind() == KeywordPattern.Kind.EXACT) {
+            matching = Collections.singletonList(pattern.getText());
+        } else if (index != null) {
+            matching = index.find(pattern);
+        } else {
+            throw new IllegalStateException("Keywords are not indexed for searching " + pattern);
+        }
+
+        Map<String, List<EntryTableEntry>> found = new HashMap<>();
+        for (String term : matching) {
+            // The term may have been removed since it was found
+            Postings postings = terms.get(term);
+            if (postings != null) {
+                found.put(postings.keyword, postings.toEntries());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return entries of the file stored under the keyword
+     */
+    List<EntryTableEntry> find(String keyword, String fileName) {
+        Postings postings = terms.get(normalize(keyword));
+        String file = files.find(fileName);
+        if (postings == null || file == null) {
+            return Collections.emptyList();
+        }
+        return postings.entriesOf(file);
+    }
+
+    /**
+     * @return the terms as of the last change published. Immutable
+     */
+    TermMap getTerms() {
+        return terms;
+    }
+
+    /**
+     * Visits each keyword with its position in the ring and its number of entries
+     */
+    void forEachTerm(TermVisitor visitor) {
+        terms.forEach((term, postings) -> visitor.visit(postings.keyword, postings.position, postings.size()));
+    }
+
+    /**
+     * Drops all the terms without telling the listener. The file names of changes running concurrently may be dropped
+     * too, hence the user should make sure none runs meanwhile.
+     */
+    void clear() {
+        synchronized (publishLock) {
+            terms = TermMap.EMPTY;
+            files.clear();
+            if (index != null) {
+                index.clear();
+            }
+            entryCount.set(0);
+        }
+    }
+
+    int getEntryCount() {
+        return entryCount.get();
+    }
+
+    int getTermCount() {
+        return terms.size();
+    }
+
+    int getFileCount() {
+        return files.names.size();
+    }
+
+    /**
+     * Estimates the heap retained by the stored entries. i.e: The terms, the arrays of entries and the dictionary of
+     * file names, including the strings and the map entries holding them, plus the index of the terms if any.
+     *
+     * @return estimated bytes
+     */
+    long getHeapFootprint() {
+        TermMap terms = this.terms;
+        long[] bytes = {align(OBJECT_HEADER + 5 * REFERENCE) + terms.getHeapFootprint()};
+        terms.forEach((term, postings) -> {
+            bytes[0] += align(OBJECT_HEADER + 3 * REFERENCE + Integer.BYTES);
+            bytes[0] += align(ARRAY_HEADER + (long) REFERENCE * postings.size());
+            bytes[0] += align(ARRAY_HEADER + (long) Integer.BYTES * postings.size());
+            bytes[0] += stringBytes(postings.keyword);
+            if (term != postings.keyword) {
+                bytes[0] += stringBytes(term);
+            }
+        });
+        if (index != null) {
+            bytes[0] += index.getHeapFootprint();
+        }
+        return bytes[0] + files.getHeapFootprint();
+    }
+
+    static String normalize(String term) {
+        return term.toLowerCase(Locale.ROOT);
+    }
+
+    static boolean isNodeId(String nodeName) {
+        if (nodeName.isEmpty() || nodeName.length() > 10) {
+            return false;
+        }
+        for (int i = 0; i < nodeName.length(); i++) {
+            if (nodeName.charAt(i) < '0' || nodeName.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return Long.parseLong(nodeName) <= Integer.MAX_VALUE;
+    }
+
+    private static int toNodeId(EntryTableEntry entry) {
+        if (!isNodeId(entry.getNodeName())) {
+            throw new IllegalArgumentException("Node name should be a node ID: " + entry.getNodeName());
+        }
+        return Integer.parseInt(entry.getNodeName());
+    }
+
+    /**
+     * @return the normalized form itself if the spelling is already normalized, so that a single string is kept
+     */
+    private static String share(String spelling, String normalized) {
+        return spelling.equals(normalized) ? normalized : spelling;
+    }
+
+    private static long stringBytes(String string) {
+        return align(OBJECT_HEADER + REFERENCE + Integer.BYTES) + align(ARRAY_HEADER + 2L * string.length());
+    }
+
+    private static long mapBytes(int size) {
+        // Table of the next power of two above size / 0.75, plus an entry per mapping
+        int capacity = Integer.highestOneBit(Math.max(1, (int) (size / 0.75f)) * 2 - 1);
+        return align(OBJECT_HEADER + 3 * REFERENCE + 4 * Integer.BYTES) + align(ARRAY_HEADER + REFERENCE * capacity)
+                + (long) MAP_ENTRY * size;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    interface TermVisitor {
+
+        void visit(String keyword, int position, int entries);
+    }
+
+    interface ChangeListener {
+
+        /**
+         * Called right after a change is published, while the next one waits.
+         *
+         * @param terms   terms as of the change
+         * @param added   whether the entry was added or removed
+         * @param keyword spelling of the keyword the entry was added under or removed from
+         */
+        void changed(TermMap terms, boolean added, String keyword, EntryTableEntry entry);
+    }
+
+    /**
+     * Immutable entries of a term as (file, nodeId) pairs sorted by file and then by node ID, along with the spelling
+     * the term was first stored with and its position in the ring. Files are the names interned by the {@link
+     * FileDictionary}, hence a single name is compared and kept per file.
+     */
+    static final class Postings {
+
+        private static final String[] NO_FILES = new String[0];
+        private static final int[] NO_NODES = new int[0];
+
+        private final String keyword;
+        private final int position;
+        private final String[] files;
+        private final int[] nodeIds;
+
+        Postings(String keyword) {
+            this(keyword, HashUtils.keywordToNodeId(keyword), NO_FILES, NO_NODES);
+        }
+
+        private Postings(String keyword, int position, String[] files, int[] nodeIds) {
+            this.keyword = keyword;
+            this.position = position;
+            this.files = files;
+            this.nodeIds = nodeIds;
+        }
+
+        /**
+         * @return postings with the entry added | this if already present
+         */
+        private Postings with(String file, int nodeId) {
+            int index = indexOf(file, nodeId);
+            if (index >= 0) {
+                return this;
+            }
+
+            index = -index - 1;
+            String[] newFiles = new String[files.length + 1];
+            int[] newNodeIds = new int[nodeIds.length + 1];
+            System.arraycopy(files, 0, newFiles, 0, index);
+            System.arraycopy(nodeIds, 0, newNodeIds, 0, index);
+            newFiles[index] = file;
+            newNodeIds[index] = nodeId;
+            System.arraycopy(files, index, newFiles, index + 1, files.length - index);
+            System.arraycopy(nodeIds, index, newNodeIds, index + 1, nodeIds.length - index);
+            return new Postings(keyword, position, newFiles, newNodeIds);
+        }
+
+        /**
+         * @return postings without the entry | this if not present
+         */
+        private Postings without(String file, int nodeId) {
+            int index = indexOf(file, nodeId);
+            if (index < 0) {
+                return this;
+            }
+
+            String[] newFiles = new String[files.length - 1];
+            int[] newNodeIds = new int[nodeIds.length - 1];
+            System.arraycopy(files, 0, newFiles, 0, index);
+            System.arraycopy(nodeIds, 0, newNodeIds, 0, index);
+            System.arraycopy(files, index + 1, newFiles, index, newFiles.length - index);
+            System.arraycopy(nodeIds, index + 1, newNodeIds, index, newNodeIds.length - index);
+            return new Postings(keyword, position, newFiles, newNodeIds);
+        }
+
+        /**
+         * @return index of the entry | (-(insertion point) - 1) if not present, as {@link Arrays#binarySearch(int[],
+         * int)} does
+         */
+        private int indexOf(String file, int nodeId) {
+            int low = 0;
+            int high = files.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int compared = files[mid].compareTo(file);
+                if (compared == 0) {
+                    compared = Integer.compare(nodeIds[mid], nodeId);
+                }
+
+                if (compared < 0) {
+                    low = mid + 1;
+                } else if (compared > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private List<EntryTableEntry> entriesOf(String file) {
+            // Entries are sorted by file first. Hence the ones of the file are contiguous
+            int from = -indexOf(file, Integer.MIN_VALUE) - 1;
+            int to = from;
+            while (to < files.length && files[to].equals(file)) {
+                to++;
+            }
+            return toEntries(from, to);
+        }
+
+        String getKeyword() {
+            return keyword;
+        }
+
+        int getPosition() {
+            return position;
+        }
+
+        int size() {
+            return files.length;
+        }
+
+        List<EntryTableEntry> toEntries() {
+            return toEntries(0, files.length);
+        }
+
+        private List<EntryTableEntry> toEntries(int from, int to) {
+            List<EntryTableEntry> list = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                list.add(new EntryTableEntry(String.valueOf(nodeIds[i]), files[i]));
+            }
+            return list;
+        }
+    }
+
+    /**
+     * Interns file names, counting the entries referring to each. A name is dropped once no entry refers to it. Since
+     * entries refer to the names themselves rather than to IDs, a reader holding dropped postings still resolves them.
+     */
+    private static class FileDictionary {
+
+        private final ConcurrentMap<String, FileName> names = new ConcurrentHashMap<>();
+
+        /**
+         * @return the interned name. i.e: The spelling the file was first stored with
+         */
+        private String intern(String name) {
+            return names.compute(normalize(name), (normalized, file) -> {
+                FileName interned = file == null ? new FileName(share(name, normalized)) : file;
+                interned.references++;
+                return interned;
+            }).name;
+        }
+
+        /**
+         * @return the interned name | null if no entry refers to the file
+         */
+        private String find(String name) {
+            FileName file = names.get(normalize(name));
+            return file == null ? null : file.name;
+        }
+
+        private void release(String name) {
+            names.computeIfPresent(normalize(name), (normalized, file) -> --file.references == 0 ? null : file);
+        }
+
+        private void clear() {
+            names.clear();
+        }
+
+        private long getHeapFootprint() {
+            long bytes = align(OBJECT_HEADER + REFERENCE) + mapBytes(names.size());
+            for (Map.Entry<String, FileName> entry : names.entrySet()) {
+                String name = entry.getValue().name;
+                bytes += stringBytes(name) + align(OBJECT_HEADER + REFERENCE + Integer.BYTES);
+                if (entry.getKey() != name) {
+                    bytes += stringBytes(entry.getKey());
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * An interned file name. References are only updated within the atomic computations of the dictionary.
+     */
+    private static class FileName {
+
+        private final String name;
+        private int references = 0;
+
+        private FileName(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -2,21 +2,61 @@ package org.uom.cse.distributed.peer.api;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.uom.cse.distributed.peer.utils.HashUtils;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+import static org.uom.cse.distributed.Constants.ENTRY_TABLE_CHANGE_LOG_SIZE;
+import static org.uom.cse.distributed.Constants.ENTRY_TABLE_CHECKPOINT_LOG_BYTES;
 
 /**
- * Represents the entry table of a given node. Entries are kept as
+ * Represents the entry table of a given node. A node owns the keywords hashed within (predecessor, node] of the ring
+ * for each of its positions (see {@link HashUtils}). Entries are kept in an inverted index of normalized (lower case)
+ * terms, each mapping to the entries indexed under it. File names are interned into a dictionary, hence an entry is a
+ * (file, node ID) pair and the entries of a file are matched directly, no matter how many files share the keyword. See
+ * {@link EntryStore}. Terms are also indexed for searching keywords by a prefix or by a text within them. See {@link
+ * #search(KeywordPattern)}.
  * <pre>
- *     letter -> {
- *          keyword1 -> [{node1, file1}, {node2, file2},...],
- *          keyword2 -> [{node1, file1}, {node2, file2},...]
- *          keyword3 -> [{node1, file1}, {node2, file2},...]
+ *     terms -> {
+ *          keyword1 -> [(file1, node1), (file2, node2),...],
+ *          keyword2 -> [(file1, node1), (file3, node3),...]
  *     }
+ *     files -> {file1, file2, file3}
  * </pre>
+ * Entries are exchanged with other nodes by keyword, as <code>{keyword -> [entries]}</code>. Such maps returned by
+ * this table are copies.
+ * <p>
+ * Every change bumps the {@link #version} of the table and is kept in a bounded change log so that peers replicating
+ * this table can fetch only what changed since the version they have seen. See {@link #getChangesSince(long, long)}.
+ * <p>
+ * Reads never lock. Each change publishes a new immutable {@link TermMap} of the terms, which shares all but the path to
+ * the changed term with the previous one, along with the {@link #snapshot()} of the version it makes. Hence taking a
+ * snapshot is reading a reference, and operations spanning the whole table work on one without holding off changes.
+ * Changes compute their postings in parallel and are published, versioned and logged one at a time.
+ * <p>
+ * Entries are kept in memory only, unless the table is opened on an {@link EntryTableStorage}. See {@link
+ * #open(EntryTableStorage)}. Changes are then queued in the order of their versions as they are published, and written
+ * to the storage in batches by whichever change finds the storage idle. Hence changes never wait for the disk while
+ * being versioned, and a batch is written at once. i.e: A group commit.
  *
  * @author Imesha Sudasingha
  * @author Keet Sugathadasa
@@ -25,98 +65,542 @@ public class EntryTable {
 
     private static final Logger logger = LoggerFactory.getLogger(EntryTable.class);
 
-    private final Map<Character, Map<String, List<EntryTableEntry>>> entries = new HashMap<>();
+    /** Marks where the storage should start a new log, in between the changes pending */
+    private static final Change ROTATE = new Change(-1, false, null, null);
 
-    public synchronized void addCharacter(Character c) {
-        c = Character.toUpperCase(c);
-        logger.info("Adding character [{}] to my entry table", c);
-        entries.putIfAbsent(c, new HashMap<>());
-    }
+    private final EntryStore store = new EntryStore(true, this::changed);
+    /** Changes share the read lock. Clearing and opening the table, which start a new epoch, take the write lock */
+    private final ReadWriteLock epochLock = new ReentrantReadWriteLock();
+
+    /** Guards the change log along with the log floor. Changes to the head are made holding it too */
+    private final Deque<Change> changeLog = new ArrayDeque<>();
+    /** Version from which onwards the change log is complete */
+    private long logFloor = 0;
+    /** Entries as of the last change */
+    private volatile EntryTableSnapshot head = new EntryTableSnapshot(newEpoch(), 0, TermMap.EMPTY);
 
-    public synchronized void addEntry(String keyword, EntryTableEntry entry) {
+    /** Held while checkpointing, so that a snapshot is persisted at a time */
+    private final Object checkpointLock = new Object();
+    private volatile EntryTableStorage storage;
+    /** Changes yet to be written to the storage, in the order of their versions, along with {@link #ROTATE}s */
+    private final Queue<Change> pending = new ConcurrentLinkedQueue<>();
+    /** Held while writing to the storage, so that the pending changes are written in order */
+    private final ReentrantLock writeLock = new ReentrantLock();
+    /** Whether the last rotation of the storage succeeded. Guarded by the write lock */
+    private boolean rotated = false;
+    /** Set when a change couldn't be persisted, so that the next checkpoint persists all the entries anyway */
+    private volatile boolean checkpointDue = false;
+
+    public void addEntry(String keyword, EntryTableEntry entry) {
         if (keyword == null || entry == null) {
             throw new IllegalArgumentException("Keyword and entry cannot be null");
         }
 
-        char c = keyword.toUpperCase().charAt(0);
-
-        if (!entries.containsKey(c)) {
-            logger.warn("[{}] not in my characters. But adding for consistency", c);
-            addCharacter(c);
+        logger.debug("Adding entry -> {}", entry);
+        String spelling;
+        epochLock.readLock().lock();
+        try {
+            spelling = store.add(keyword, entry);
+        } finally {
+            epochLock.readLock().unlock();
         }
+        persist();
 
-        logger.debug("Adding entry -> {}", entry);
-        if (entries.get(c).containsKey(keyword)) {
-            if (entries.get(c).get(keyword).contains(entry)) {
-                logger.warn("{} already exists", entry);
-            } else {
-                entries.get(c).get(keyword).add(entry);
-                logger.info("Added entry -> {}", entry);
-            }
+        if (spelling != null) {
+            logger.info("Added keyword [{}] and entry -> {}", spelling, entry);
         } else {
-            List<EntryTableEntry> list = new ArrayList<>();
-            list.add(entry);
-            logger.info("Adding keyword [{}] and entry -> {}", keyword, entry);
-            entries.get(c).put(keyword, list);
+            logger.warn("{} already exists", entry);
         }
     }
 
-    public synchronized boolean removeEntry(String keyword, EntryTableEntry entry) {
+    public boolean removeEntry(String keyword, EntryTableEntry entry) {
         logger.debug("Removing entry {}->{}", keyword, entry);
-        if (keyword != null) {
-            char c = keyword.toUpperCase().charAt(0);
-            return entries.containsKey(c) &&
-                    this.entries.get(c).containsKey(keyword) &&
-                    this.entries.get(c).get(keyword).remove(entry);
+        if (keyword == null) {
+            return false;
+        }
+
+        boolean removed;
+        epochLock.readLock().lock();
+        try {
+            removed = store.remove(keyword, entry) != null;
+        } finally {
+            epochLock.readLock().unlock();
         }
-        return false;
+        persist();
+        return removed;
+    }
+
+    public void addAll(Map<String, List<EntryTableEntry>> table) {
+        addAll(table, position -> true);
     }
 
     /**
-     * Removes all the mappings for the given character
+     * Adds the entries of the keywords whose position in the ring matches the given filter. e.g: The keywords of a dead
+     * node which are owned by me from now on.
      *
-     * @param c character to be removed
-     * @return true if the character was in our entries
+     * @param table          entries to be added
+     * @param positionFilter tests the position (hash) of each keyword
      */
-    public synchronized boolean removeCharacter(char c) {
-        c = Character.toUpperCase(c);
-        if (entries.containsKey(c)) {
-            logger.info("Removing character [{}] from entries", c);
-            entries.remove(c);
-        }
+    public void addAll(Map<String, List<EntryTableEntry>> table, IntPredicate positionFilter) {
+        if (table == null) return;
 
-        return false;
+        table.forEach((keyword, entries) -> {
+            if (positionFilter.test(HashUtils.keywordToNodeId(keyword))) {
+                entries.forEach(entry -> this.addEntry(keyword, entry));
+            }
+        });
     }
 
-    public synchronized void addAll(Map<Character, Map<String, List<EntryTableEntry>>> table) {
+    /**
+     * Removes the given entries. Counterpart of {@link #addAll(Map)}. Entries added meanwhile are left as they are.
+     *
+     * @param table entries to be removed. Usually the ones handed over to another node
+     */
+    public void removeAll(Map<String, List<EntryTableEntry>> table) {
         if (table == null) return;
 
-        table.forEach((character, keywordMap) -> keywordMap.forEach((keyword, entries) -> {
-            entries.forEach(entry -> this.addEntry(keyword, entry));
-        }));
+        table.forEach((keyword, entries) -> entries.forEach(entry -> this.removeEntry(keyword, entry)));
+    }
+
+    /**
+     * Takes an immutable view of the entries as of the current version. Neither taking nor reading it holds off
+     * changes.
+     *
+     * @return snapshot of the table
+     */
+    public EntryTableSnapshot snapshot() {
+        return head;
+    }
+
+    /**
+     * Recovers the entries persisted in the given storage and persists each change made from now on. A checkpoint is
+     * taken right after, so that the next recovery reads a single snapshot. Starts a new epoch, hence replicas of this
+     * table receive a full delta next time. Entries the storage can't recover are left to be fetched from the other
+     * nodes as usual. If the storage can't be opened at all, the entries recovered so far are kept in memory only.
+     *
+     * @param storage storage of the entries of this node
+     */
+    public void open(EntryTableStorage storage) {
+        long start = System.currentTimeMillis();
+        epochLock.writeLock().lock();
+        try {
+            if (this.storage != null) {
+                throw new IllegalStateException("Entry table is already opened on a storage");
+            }
+
+            EntryTableStorage opened = storage;
+            try {
+                storage.recover((added, keyword, entry) -> {
+                    try {
+                        if (added) {
+                            store.add(keyword, entry);
+                        } else {
+                            store.remove(keyword, entry);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        logger.warn("Skipping recovered change {}->{}: {}", keyword, entry, e.getMessage());
+                    }
+                });
+                logger.info("Recovered {} entries in {} ms", store.getEntryCount(), System.currentTimeMillis() - start);
+            } catch (IOException e) {
+                logger.error("Unable to open the entry table storage. Entries are kept in memory only", e);
+                opened = null;
+            }
+
+            startEpoch();
+            this.storage = opened;
+        } finally {
+            epochLock.writeLock().unlock();
+        }
+        checkpoint();
+    }
+
+    /**
+     * Persists a snapshot of the table, replacing the changes logged so far. Changes wait only while the snapshot is
+     * taken. Does nothing unless opened on a storage.
+     */
+    public void checkpoint() {
+        synchronized (checkpointLock) {
+            EntryTableStorage storage = this.storage;
+            if (storage == null) {
+                return;
+            }
+
+            // Changes up to the version of the snapshot are queued before the rotation, and the ones after, after it
+            EntryTableSnapshot snapshot;
+            synchronized (changeLog) {
+                snapshot = head;
+                pending.add(ROTATE);
+            }
+            writeLock.lock();
+            try {
+                write(storage);
+                if (!rotated) {
+                    return;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            checkpointDue = false;
+
+            try {
+                storage.compact(snapshot);
+            } catch (IOException e) {
+                logger.error("Unable to write entry table snapshot of version {}", snapshot.getVersion(), e);
+                checkpointDue = true;
+            }
+        }
+    }
+
+    /**
+     * Takes a checkpoint if the changes logged since the last one exceed {@link
+     * org.uom.cse.distributed.Constants#ENTRY_TABLE_CHECKPOINT_LOG_BYTES}, which bounds the time taken to recover. Also
+     * if a change or the last checkpoint couldn't be persisted.
+     */
+    public void checkpointIfDue() {
+        EntryTableStorage storage = this.storage;
+        if (storage != null && (checkpointDue || storage.getLogSize() >= ENTRY_TABLE_CHECKPOINT_LOG_BYTES)) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Takes a last checkpoint and stops persisting changes. The table is kept in memory as it is.
+     */
+    public void close() {
+        synchronized (checkpointLock) {
+            checkpoint();
+            epochLock.writeLock().lock();
+            writeLock.lock();
+            try {
+                if (storage != null) {
+                    write(storage);
+                    storage.close();
+                    storage = null;
+                }
+            } catch (IOException e) {
+                logger.error("Unable to close the entry table storage", e);
+                storage = null;
+            } finally {
+                writeLock.unlock();
+                epochLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Collects the keywords whose position in the ring matches the given filter. e.g: The keywords owned by another
+     * node.
+     *
+     * @param positionFilter tests the position (hash) of each keyword. See {@link HashUtils#keywordToNodeId(String)}
+     * @return copy of the entries of those keywords as of a single version, by keyword
+     */
+    public Map<String, List<EntryTableEntry>> getKeywordsMatching(IntPredicate positionFilter) {
+        return snapshot().getKeywordsMatching(positionFilter);
+    }
+
+    /**
+     * Counts the entries of the keywords within the range owned by a position and finds the keyword at which the range
+     * splits them most evenly. Keywords changed meanwhile may be counted either way.
+     *
+     * @param from predecessor of the position. Excluded
+     * @param to   the position. Included
+     * @return load of the range
+     */
+    public RangeLoad getLoadBetween(int from, int to) {
+        // Entries per keyword position, ordered clockwise starting from the predecessor
+        TreeMap<Long, Integer> counts = new TreeMap<>();
+        store.forEachTerm((keyword, position, entries) -> {
+            if (HashUtils.isBetween(position, from, to)) {
+                counts.merge(HashUtils.distance(from, position), entries, Integer::sum);
+            }
+        });
+
+        int total = counts.values().stream().mapToInt(Integer::intValue).sum();
+        int splitPoint = 0;
+        int best = total;
+        int below = 0;
+        for (Map.Entry<Long, Integer> count : counts.entrySet()) {
+            below += count.getValue();
+            int larger = Math.max(below, total - below);
+            // Splitting at the position itself or after the last keyword leaves the entries where they are
+            int position = HashUtils.moveAhead(from, count.getKey());
+            if (below < total && position != to && larger < best) {
+                best = larger;
+                splitPoint = position;
+            }
+        }
+        return new RangeLoad(to, from, total, splitPoint);
     }
 
     /**
      * Gets all the keywords for a given character
      *
      * @param c character
-     * @return keywords under that character
+     * @return copy of the keywords starting with that character, in any case | null if none
      */
-    public synchronized Map<String, List<EntryTableEntry>> getKeywordsFor(char c) {
-        c = Character.toUpperCase(c);
-        return entries.get(c);
+    public Map<String, List<EntryTableEntry>> getKeywordsFor(char c) {
+        Map<String, List<EntryTableEntry>> keywords = new HashMap<>();
+        snapshot().forEach((keyword, entries) -> {
+            if (Character.toUpperCase(keyword.charAt(0)) == Character.toUpperCase(c)) {
+                keywords.put(keyword, entries);
+            }
+        });
+        return keywords.isEmpty() ? null : keywords;
     }
 
-    public synchronized void clear() {
-        entries.clear();
+    /**
+     * Clears the table, along with its storage if any, and starts a new epoch. Hence replicas of this table will receive
+     * a full delta next time.
+     */
+    public void clear() {
+        synchronized (checkpointLock) {
+            epochLock.writeLock().lock();
+            writeLock.lock();
+            try {
+                store.clear();
+                startEpoch();
+                pending.clear();
+                if (storage != null) {
+                    storage.clear();
+                }
+            } catch (IOException e) {
+                logger.error("Unable to clear the entry table storage", e);
+                checkpointDue = true;
+            } finally {
+                writeLock.unlock();
+                epochLock.writeLock().unlock();
+            }
+        }
         logger.info("Cleared entry table");
     }
 
-    public synchronized Map<Character, Map<String, List<EntryTableEntry>>> getEntries() {
-        return entries;
+    /**
+     * Returns the changes made to this table after the given version. If the changes can't be served from the change
+     * log (i.e: a different epoch, an unknown version or a version older than the log) a full delta containing all the
+     * entries of a {@link #snapshot()} is returned instead.
+     *
+     * @param epoch epoch of the table the version belongs to
+     * @param since version the requester is at
+     * @return delta which brings the requester up to the current version
+     */
+    public EntryTableDelta getChangesSince(long epoch, long since) {
+        EntryTableSnapshot snapshot;
+        List<Change> changes = null;
+        synchronized (changeLog) {
+            snapshot = head;
+            if (epoch == snapshot.getEpoch() && since >= logFloor && since <= snapshot.getVersion()) {
+                // Newest first. Only the ones made after the given version are copied
+                changes = new ArrayList<>();
+                for (Iterator<Change> it = changeLog.descendingIterator(); it.hasNext(); ) {
+                    Change change = it.next();
+                    if (change.version <= since) {
+                        break;
+                    }
+                    changes.add(change);
+                }
+            }
+        }
+
+        if (changes == null) {
+            return new EntryTableDelta(snapshot.getEpoch(), snapshot.getVersion(), true, snapshot.getEntries(), null);
+        }
+        Collections.reverse(changes);
+        return collect(snapshot, changes);
+    }
+
+    public long getEpoch() {
+        return head.getEpoch();
+    }
+
+    public long getVersion() {
+        return head.getVersion();
+    }
+
+    private static EntryTableDelta collect(EntryTableSnapshot snapshot, List<Change> log) {
+        // Only the last change made to a given keyword -> entry mapping matters, in whichever case it was spelled
+        Map<String, Map<String, Change>> changes = new HashMap<>();
+        log.forEach(change -> changes.computeIfAbsent(EntryStore.normalize(change.keyword),
+                        k -> new LinkedHashMap<>())
+                        .put(change.entry.getNodeName() + ':' + EntryStore.normalize(change.entry.getFileName()),
+                                change));
+
+        Map<String, List<EntryTableEntry>> added = new HashMap<>();
+        Map<String, List<EntryTableEntry>> removed = new HashMap<>();
+        changes.values().forEach(entryChanges -> entryChanges.values().forEach(change ->
+                (change.added ? added : removed).computeIfAbsent(change.keyword, k -> new ArrayList<>())
+                        .add(change.entry)));
+        return new EntryTableDelta(snapshot.getEpoch(), snapshot.getVersion(), false, added, removed);
+    }
+
+    /**
+     * Versions and logs a change as it is published by the store, and queues it to be persisted. Changes are published
+     * one at a time.
+     */
+    private void changed(TermMap terms, boolean added, String keyword, EntryTableEntry entry) {
+        synchronized (changeLog) {
+            EntryTableSnapshot previous = head;
+            head = new EntryTableSnapshot(previous.getEpoch(), previous.getVersion() + 1, terms);
+            changeLog.addLast(new Change(head.getVersion(), added, keyword, entry));
+            if (changeLog.size() > ENTRY_TABLE_CHANGE_LOG_SIZE) {
+                logFloor = changeLog.removeFirst().version;
+            }
+
+            if (storage != null) {
+                pending.add(changeLog.peekLast());
+            }
+        }
     }
 
-    public synchronized List<EntryTableEntry> getEntriesByKyeword(String key) {
-        return getKeywordsFor(Character.toUpperCase(key.charAt(0))).get(key);
+    /**
+     * Writes the pending changes unless another thread is writing them already. That thread then writes the ones queued
+     * meanwhile too, since it checks for more after letting the lock go.
+     */
+    private void persist() {
+        while (!pending.isEmpty() && writeLock.tryLock()) {
+            try {
+                write(storage);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the pending changes as a batch. Called holding the write lock.
+     */
+    private void write(EntryTableStorage storage) {
+        int appended = 0;
+        Change change;
+        while ((change = pending.poll()) != null) {
+            if (storage == null) {
+                continue;
+            }
+
+            try {
+                if (change == ROTATE) {
+                    if (appended > 0) {
+                        storage.flush();
+                        appended = 0;
+                    }
+                    rotated = false;
+                    storage.rotate();
+                    rotated = true;
+                } else {
+                    storage.append(change.added, change.keyword, change.entry);
+                    appended++;
+                }
+            } catch (IOException e) {
+                if (change == ROTATE) {
+                    logger.error("Unable to start a new entry table log", e);
+                } else {
+                    logger.error("Unable to persist change {}->{}", change.keyword, change.entry, e);
+                }
+                checkpointDue = true;
+            }
+        }
+
+        if (appended > 0) {
+            try {
+                storage.flush();
+            } catch (IOException e) {
+                logger.error("Unable to persist {} changes", appended, e);
+                checkpointDue = true;
+            }
+        }
+    }
+
+    /**
+     * Starts a new epoch as of the entries in the store. Called while no change is made.
+     */
+    private void startEpoch() {
+        synchronized (changeLog) {
+            changeLog.clear();
+            logFloor = head.getVersion();
+            head = new EntryTableSnapshot(newEpoch(), logFloor, store.getTerms());
+        }
+    }
+
+    private static long newEpoch() {
+        return ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return copy of all the entries as of a single version, by keyword
+     */
+    public Map<String, List<EntryTableEntry>> getEntries() {
+        return snapshot().getEntries();
+    }
+
+    /**
+     * @param key keyword, in any case
+     * @return copy of the entries indexed under the keyword | null if none
+     */
+    public List<EntryTableEntry> getEntriesByKyeword(String key) {
+        return store.get(key);
+    }
+
+    /**
+     * @param pattern keyword, <code>prefix*</code> or <code>*infix*</code>, in any case. See {@link KeywordPattern}
+     * @return copy of the entries indexed under each keyword matching the pattern, by keyword
+     */
+    public Map<String, List<EntryTableEntry>> search(KeywordPattern pattern) {
+        return store.search(pattern);
+    }
+
+    /**
+     * @param pattern keyword, <code>prefix*</code> or <code>*infix*</code>, in any case. See {@link KeywordPattern}
+     * @return distinct entries indexed under the keywords matching the pattern | empty if none
+     * @throws IllegalArgumentException if the pattern is nothing but wildcards
+     */
+    public List<EntryTableEntry> searchEntries(String pattern) {
+        Set<EntryTableEntry> entries = new LinkedHashSet<>();
+        search(KeywordPattern.parse(pattern)).values().forEach(entries::addAll);
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * Finds the entries of a file indexed under the given keyword. Only the entries of that file are looked at.
+     *
+     * @param keyword  keyword, in any case
+     * @param fileName full name of the file, in any case
+     * @return entries of the file. i.e: One per node having the file
+     */
+    public List<EntryTableEntry> findEntries(String keyword, String fileName) {
+        return store.find(keyword, fileName);
+    }
+
+    public int getEntryCount() {
+        return store.getEntryCount();
+    }
+
+    public int getKeywordCount() {
+        return store.getTermCount();
+    }
+
+    public int getFileCount() {
+        return store.getFileCount();
+    }
+
+    /**
+     * @return estimated bytes of heap retained by the entries of this table, excluding the change log
+     */
+    public long getHeapFootprint() {
+        return store.getHeapFootprint();
+    }
+
+    private static class Change {
+
+        private final long version;
+        private final boolean added;
+        private final String keyword;
+        private final EntryTableEntry entry;
+
+        private Change(long version, boolean added, String keyword, EntryTableEntry entry) {
+            this.version = version;
+            this.added = added;
+            this.keyword = keyword;
+            this.entry = entry;
+        }
     }
 }
@@ -0,0 +1,65 @@
+package org.uom.cse.distributed.peer.api;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Changes made to an {@link EntryTable} since a given version. A delta is <strong>full</strong> when the requester's
+ * version couldn't be served from the change log (first ping, restarted table or a log that has been trimmed). In that
+ * case {@link #getAdded()} contains every entry of the table and the requester should discard whatever it had.
+ */
+public class EntryTableDelta implements Serializable {
+
+    private final long epoch;
+    private final long version;
+    private final boolean full;
+    private final Map<String, List<EntryTableEntry>> added;
+    private final Map<String, List<EntryTableEntry>> removed;
+
+    public EntryTableDelta(long epoch, long version, boolean full, Map<String, List<EntryTableEntry>> added,
+            Map<String, List<EntryTableEntry>> removed) {
+        this.epoch = epoch;
+        this.version = version;
+        this.full = full;
+        this.added = added == null ? new HashMap<>() : added;
+        this.removed = removed == null ? new HashMap<>() : removed;
+    }
+
+    /**
+     * @return epoch of the table. Changes whenever the table starts over, which invalidates versions seen before
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return version of the table this delta brings the requester up to
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public Map<String, List<EntryTableEntry>> getAdded() {
+        return added;
+    }
+
+    public Map<String, List<EntryTableEntry>> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return !full && added.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[epoch: %d, version: %d, full: %s, added: %s, removed: %s]", epoch, version, full, added,
+                removed);
+    }
+}
@@ -2,6 +2,7 @@ package org.uom.cse.distributed.peer.api;
 
 import javax.xml.bind.annotation.XmlRootElement;
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
  * This class represents the entry to be stored inside the entry table
@@ -49,6 +50,11 @@ public class EntryTableEntry implements Serializable {
                 this.getFileName().equals(((EntryTableEntry) o).getFileName());
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(nodeName, file);
+    }
+
     @Override
     public String toString() {
         return String.format("[%s -> %s]", nodeName, file);
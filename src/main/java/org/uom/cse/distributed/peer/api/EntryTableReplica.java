@@ -0,0 +1,91 @@
+package org.uom.cse.distributed.peer.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A copy of another node's {@link EntryTable} kept up to date by applying the {@link EntryTableDelta}s received with
+ * heartbeats. The {@link #epoch} and {@link #version} are sent with the next ping so that only the changes made since
+ * then are returned. Entries are kept in the same compact form as in the entry table. See {@link EntryStore}.
+ */
+public class EntryTableReplica {
+
+    private static final Logger logger = LoggerFactory.getLogger(EntryTableReplica.class);
+
+    private final EntryStore store = new EntryStore(false);
+
+    /** 0 is never used as an epoch. Hence the first ping always receives a full delta */
+    private long epoch = 0;
+    private long version = 0;
+
+    /**
+     * Applies the changes of a delta. Entries which can't be stored, i.e: Ones whose node name is not a node ID, are
+     * skipped, so that the rest of the delta is applied anyway.
+     *
+     * @param delta changes received from the node
+     */
+    public synchronized void apply(EntryTableDelta delta) {
+        if (delta.isFull()) {
+            store.clear();
+        }
+
+        delta.getRemoved().forEach((keyword, list) -> list.forEach(entry -> {
+            if (isValid(keyword, entry)) {
+                store.remove(keyword, entry);
+            }
+        }));
+        delta.getAdded().forEach((keyword, list) -> list.forEach(entry -> {
+            if (isValid(keyword, entry)) {
+                store.add(keyword, entry);
+            }
+        }));
+
+        this.epoch = delta.getEpoch();
+        this.version = delta.getVersion();
+    }
+
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return copy of the entries by keyword
+     */
+    public synchronized Map<String, List<EntryTableEntry>> getEntries() {
+        return snapshot().getEntries();
+    }
+
+    /**
+     * @return immutable view of the entries as of the last delta applied
+     */
+    public synchronized EntryTableSnapshot snapshot() {
+        return new EntryTableSnapshot(epoch, version, store.getTerms());
+    }
+
+    public synchronized int getEntryCount() {
+        return store.getEntryCount();
+    }
+
+    /**
+     * @return estimated bytes of heap retained by the entries of this replica
+     */
+    public synchronized long getHeapFootprint() {
+        return store.getHeapFootprint();
+    }
+
+    private static boolean isValid(String keyword, EntryTableEntry entry) {
+        if (keyword == null || entry == null || entry.getFileName() == null || entry.getNodeName() == null
+                || !EntryStore.isNodeId(entry.getNodeName())) {
+            logger.warn("Skipping malformed entry {} of keyword [{}]", entry, keyword);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package org.uom.cse.distributed.peer.api;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable view of the entries of an {@link EntryTable} as of a given version. It refers to the immutable {@link
+ * TermMap} published by the change which made that version, hence taking one copies nothing, and it stays the same
+ * while the table keeps changing. Used to serialize the table (i.e: Full deltas sent to replicas) and to hand entries
+ * over to other nodes.
+ */
+public class EntryTableSnapshot {
+
+    private final long epoch;
+    private final long version;
+    private final TermMap terms;
+
+    EntryTableSnapshot(long epoch, long version, TermMap terms) {
+        this.epoch = epoch;
+        this.version = version;
+        this.terms = terms;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param key keyword, in any case
+     * @return copy of the entries indexed under the keyword | null if none
+     */
+    public List<EntryTableEntry> getEntriesByKeyword(String key) {
+        EntryStore.Postings postings = terms.get(EntryStore.normalize(key));
+        return postings == null ? null : postings.toEntries();
+    }
+
+    /**
+     * @param positionFilter tests the position (hash) of each keyword
+     * @return copy of the entries of the matching keywords, by keyword
+     */
+    public Map<String, List<EntryTableEntry>> getKeywordsMatching(IntPredicate positionFilter) {
+        Map<String, List<EntryTableEntry>> keywords = new HashMap<>();
+        terms.forEach((term, postings) -> {
+            if (positionFilter.test(postings.getPosition())) {
+                keywords.put(postings.getKeyword(), postings.toEntries());
+            }
+        });
+        return keywords;
+    }
+
+    /**
+     * @return copy of all the entries by keyword
+     */
+    public Map<String, List<EntryTableEntry>> getEntries() {
+        Map<String, List<EntryTableEntry>> keywords = new HashMap<>();
+        terms.forEach((term, postings) -> keywords.put(postings.getKeyword(), postings.toEntries()));
+        return keywords;
+    }
+
+    /**
+     * Visits the entries of each keyword. Entries of a keyword are copied only when it is visited
+     *
+     * @param visitor receives each keyword along with its entries
+     */
+    public void forEach(BiConsumer<String, List<EntryTableEntry>> visitor) {
+        terms.forEach((term, postings) -> visitor.accept(postings.getKeyword(), postings.toEntries()));
+    }
+
+    public int getKeywordCount() {
+        return terms.size();
+    }
+
+    public int getEntryCount() {
+        int[] entries = {0};
+        terms.forEach((term, postings) -> entries[0] += postings.size());
+        return entries[0];
+    }
+}
@@ -0,0 +1,61 @@
+package org.uom.cse.distributed.peer.api;
+
+import java.io.IOException;
+
+/**
+ * Persists the entries of an {@link EntryTable}, so that a restarted node serves the keywords it indexed without
+ * fetching them from other nodes. Changes are appended to a log as they are made, while a checkpoint replaces the log
+ * written so far with a snapshot of the table. Hence recovery replays a snapshot and the changes made since the last
+ * checkpoint only.
+ * <p>
+ * The table calls {@link #append(boolean, String, EntryTableEntry)}, {@link #flush()} and {@link #rotate()} one at a
+ * time, in the order of its versions. {@link #compact(EntryTableSnapshot)} may run along with appends.
+ */
+public interface EntryTableStorage {
+
+    /**
+     * Replays the persisted entries, as additions, followed by the changes logged since.
+     *
+     * @param visitor receives each entry or change
+     * @throws IOException if the storage can't be read
+     */
+    void recover(ChangeVisitor visitor) throws IOException;
+
+    /**
+     * Logs a change made to the table. The change may be buffered until the next {@link #flush()}.
+     */
+    void append(boolean added, String keyword, EntryTableEntry entry) throws IOException;
+
+    /**
+     * Writes the changes appended so far to the log. Called after each batch of changes.
+     */
+    void flush() throws IOException;
+
+    /**
+     * Starts logging to a new log, after the changes appended so far. The changes appended from then on are the ones
+     * made after the snapshot to be persisted by the next {@link #compact(EntryTableSnapshot)}.
+     */
+    void rotate() throws IOException;
+
+    /**
+     * Persists the snapshot taken at the last {@link #rotate()}, dropping the logs it covers.
+     */
+    void compact(EntryTableSnapshot snapshot) throws IOException;
+
+    /**
+     * @return bytes logged since the last {@link #rotate()}
+     */
+    long getLogSize();
+
+    /**
+     * Drops everything persisted. Called while no change is made.
+     */
+    void clear() throws IOException;
+
+    void close() throws IOException;
+
+    interface ChangeVisitor {
+
+        void visit(boolean added, String keyword, EntryTableEntry entry);
+    }
+}
@@ -0,0 +1,147 @@
+package org.uom.cse.distributed.peer.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import static org.uom.cse.distributed.Constants.KEYWORD_NGRAM_LENGTH;
+
+/**
+ * Index of the normalized keywords of an {@link EntryStore}, for finding the ones matching a {@link KeywordPattern}.
+ * Keywords are kept sorted, hence the ones starting with a prefix are a contiguous range. Each keyword is also indexed
+ * under its n-grams of {@link org.uom.cse.distributed.Constants#KEYWORD_NGRAM_LENGTH} characters, hence the keywords
+ * containing a text are looked for among the ones sharing its rarest n-gram only.
+ * <pre>
+ *     keywords -> [harrison, harry, potter]
+ *     grams    -> {har -> [harrison, harry], arr -> [harrison, harry], ott -> [potter],...}
+ * </pre>
+ * Thread safe. Changes to a given keyword are expected to be made one at a time.
+ */
+class KeywordIndex {
+
+    /** Rough bytes taken by a skip list node and by a set entry, for estimating the heap footprint */
+    private static final int SKIP_LIST_NODE = 40;
+    private static final int SET_ENTRY = 40;
+
+    private final NavigableSet<String> keywords = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<String, Set<String>> grams = new ConcurrentHashMap<>();
+
+    void add(String keyword) {
+        if (keywords.add(keyword)) {
+            for (String gram : gramsOf(keyword)) {
+                grams.compute(gram, (g, indexed) -> {
+                    Set<String> set = indexed == null ? ConcurrentHashMap.newKeySet() : indexed;
+                    set.add(keyword);
+                    return set;
+                });
+            }
+        }
+    }
+
+    void remove(String keyword) {
+        if (keywords.remove(keyword)) {
+            for (String gram : gramsOf(keyword)) {
+                grams.computeIfPresent(gram, (g, indexed) -> {
+                    indexed.remove(keyword);
+                    return indexed.isEmpty() ? null : indexed;
+                });
+            }
+        }
+    }
+
+    /**
+     * @return normalized keywords matching the pattern
+     */
+    Collection<String> find(KeywordPattern pattern) {
+        String text = pattern.getText();
+        switch (pattern.getKind()) {
+            case PREFIX:
+                String next = successorOf(text);
+                return next == null ? keywords.tailSet(text, true) : keywords.subSet(text, true, next, false);
+            case INFIX:
+                return findContaining(text);
+            default:
+                return keywords.contains(text) ? Collections.singletonList(text) : Collections.emptyList();
+        }
+    }
+
+    void clear() {
+        keywords.clear();
+        grams.clear();
+    }
+
+    long getHeapFootprint() {
+        long bytes = (long) SKIP_LIST_NODE * keywords.size();
+        for (Map.Entry<String, Set<String>> entry : grams.entrySet()) {
+            bytes += SET_ENTRY + (long) SET_ENTRY * entry.getValue().size();
+        }
+        return bytes;
+    }
+
+    private Collection<String> findContaining(String text) {
+        if (text.length() < KEYWORD_NGRAM_LENGTH) {
+            List<String> found = new ArrayList<>();
+            keywords.forEach(keyword -> {
+                if (keyword.contains(text)) {
+                    found.add(keyword);
+                }
+            });
+            return found;
+        }
+
+        // Every keyword containing the text contains all its n-grams. Hence the smallest set of them is scanned
+        Set<String> candidates = null;
+        for (String gram : gramsOf(text)) {
+            Set<String> indexed = grams.get(gram);
+            if (indexed == null) {
+                return Collections.emptyList();
+            }
+            if (candidates == null || indexed.size() < candidates.size()) {
+                candidates = indexed;
+            }
+        }
+
+        List<String> found = new ArrayList<>();
+        for (String keyword : candidates) {
+            if (keyword.contains(text)) {
+                found.add(keyword);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the least string greater than every string starting with the prefix | null if there's none. i.e: The
+     * prefix is nothing but {@link Character#MAX_VALUE}s
+     */
+    static String successorOf(String prefix) {
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            last--;
+        }
+        if (last < 0) {
+            return null;
+        }
+        return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    }
+
+    private static Set<String> gramsOf(String keyword) {
+        if (keyword.length() < KEYWORD_NGRAM_LENGTH) {
+            return Collections.emptySet();
+        }
+
+        Set<String> set = new HashSet<>();
+        for (int i = 0; i + KEYWORD_NGRAM_LENGTH <= keyword.length(); i++) {
+            set.add(keyword.substring(i, i + KEYWORD_NGRAM_LENGTH));
+        }
+        return set;
+    }
+}
@@ -0,0 +1,110 @@
+package org.uom.cse.distributed.peer.api;
+
+import org.uom.cse.distributed.peer.utils.HashUtils;
+
+import java.util.Locale;
+import java.util.OptionalInt;
+
+import static org.uom.cse.distributed.Constants.ROUTING_PREFIX_LENGTH;
+
+/**
+ * A keyword to be searched, in any case. Either a whole keyword, a prefix ending with <strong>*</strong> (e.g:
+ * <code>Harr*</code>) or a text within keywords, starting with <strong>*</strong> (e.g: <code>*otte*</code>). Keywords
+ * are not indexed by their suffixes, hence a text with a leading wildcard only is looked for anywhere within keywords
+ * too. i.e: <code>*otter</code> is <code>*otter*</code> and matches <code>Potters</code>.
+ * <p>
+ * Keywords matching a prefix are owned by a single node in prefix routing mode only, if the prefix is long enough. See
+ * {@link org.uom.cse.distributed.Constants#ROUTING_PREFIX_LENGTH}. Otherwise every node holds some of them.
+ */
+public class KeywordPattern {
+
+    public static final char WILDCARD = '*';
+
+    public enum Kind {
+        EXACT, PREFIX, INFIX
+    }
+
+    private final Kind kind;
+    /** Normalized (lower case) text without wildcards */
+    private final String text;
+
+    private KeywordPattern(Kind kind, String text) {
+        this.kind = kind;
+        this.text = text;
+    }
+
+    /**
+     * @param pattern keyword, <code>prefix*</code> or <code>*infix*</code>. Any number of wildcards may be at either
+     *                end. <code>*infix</code> is taken as <code>*infix*</code>
+     * @return parsed pattern
+     * @throws IllegalArgumentException if there's nothing but wildcards
+     */
+    public static KeywordPattern parse(String pattern) {
+        String trimmed = pattern == null ? "" : pattern.trim();
+        int from = 0;
+        int to = trimmed.length();
+        while (from < to && trimmed.charAt(from) == WILDCARD) {
+            from++;
+        }
+        while (to > from && trimmed.charAt(to - 1) == WILDCARD) {
+            to--;
+        }
+        if (from == to) {
+            throw new IllegalArgumentException("Keyword pattern should have a character other than " + WILDCARD);
+        }
+
+        Kind kind = from > 0 ? Kind.INFIX : to < trimmed.length() ? Kind.PREFIX : Kind.EXACT;
+        return new KeywordPattern(kind, EntryStore.normalize(trimmed.substring(from, to)));
+    }
+
+    /**
+     * @param keyword a keyword, in any case
+     * @return true if the keyword matches this pattern
+     */
+    public boolean matches(String keyword) {
+        String normalized = keyword.toLowerCase(Locale.ROOT);
+        switch (kind) {
+            case PREFIX:
+                return normalized.startsWith(text);
+            case INFIX:
+                return normalized.contains(text);
+            default:
+                return normalized.equals(text);
+        }
+    }
+
+    /**
+     * @return position in the ring owning all the keywords matching this pattern | empty if they may be owned by any
+     * node
+     */
+    public OptionalInt getPosition() {
+        if (kind == Kind.EXACT || (kind == Kind.PREFIX && ROUTING_PREFIX_LENGTH > 0
+                && text.length() >= ROUTING_PREFIX_LENGTH)) {
+            return OptionalInt.of(HashUtils.keywordToNodeId(text));
+        }
+        return OptionalInt.empty();
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the pattern as parsed by {@link #parse(String)}. i.e: In requests to other nodes
+     */
+    @Override
+    public String toString() {
+        switch (kind) {
+            case PREFIX:
+                return text + WILDCARD;
+            case INFIX:
+                return WILDCARD + text + WILDCARD;
+            default:
+                return text;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.uom.cse.distributed.peer.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encodes and decodes the objects exchanged between nodes, i.e: routing tables, entry tables and query results. The
+ * name of the codec is sent along with each request so that the receiving node can decode the payload and respond with
+ * a codec understood by the requester.
+ */
+public interface MessageCodec {
+
+    /**
+     * @return name used to identify this codec on the wire
+     */
+    String getName();
+
+    /**
+     * Writes the given object to the output stream
+     *
+     * @param object object to be encoded
+     * @param out    stream to be written to
+     * @throws IOException if the object couldn't be encoded
+     */
+    void encode(Object object, OutputStream out) throws IOException;
+
+    /**
+     * Reads an object written by {@link #encode(Object, OutputStream)} from the input stream
+     *
+     * @param in stream to be read from
+     * @return decoded object
+     * @throws IOException if the object couldn't be decoded
+     */
+    Object decode(InputStream in) throws IOException;
+}
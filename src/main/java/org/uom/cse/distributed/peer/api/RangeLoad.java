@@ -0,0 +1,63 @@
+package org.uom.cse.distributed.peer.api;
+
+import java.io.Serializable;
+
+/**
+ * Number of entries a node holds for the range of the ring owned by one of its positions. i.e: <strong>(from,
+ * nodeId]</strong>. Along with the position which splits those entries most evenly, at which a joining or a
+ * rebalancing node can take over about half of them.
+ */
+public class RangeLoad implements Serializable {
+
+    private final int nodeId;
+    private final int from;
+    private final int entries;
+    private final int splitPoint;
+
+    public RangeLoad(int nodeId, int from, int entries, int splitPoint) {
+        this.nodeId = nodeId;
+        this.from = from;
+        this.entries = entries;
+        this.splitPoint = splitPoint;
+    }
+
+    /**
+     * @return the position owning the range
+     */
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return the predecessor of the position. Excluded from the range
+     */
+    public int getFrom() {
+        return from;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return position within the range, a node taking which would own the entries up to it | 0 if the entries can't
+     * be split. e.g: All of them belong to a single keyword
+     */
+    public int getSplitPoint() {
+        return splitPoint;
+    }
+
+    public boolean isSplittable() {
+        return splitPoint > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "RangeLoad{" +
+                "nodeId=" + nodeId +
+                ", from=" + from +
+                ", entries=" + entries +
+                ", splitPoint=" + splitPoint +
+                '}';
+    }
+}
@@ -8,12 +8,17 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 /**
  * Represents the routing table of a given node. Each entry wil have 3 items;
@@ -24,6 +29,7 @@ import java.util.stream.Collectors;
  *         <li>Node Name - This is a number which indicates the location in the DHT</li>
  *     </ul>
  * </pre>
+ * A node taking several positions (virtual nodes) in the ring has an entry per position, all with the same address.
  *
  * @author Imesha Sudasingha
  * @author Keet Sugathadasa
@@ -32,35 +38,67 @@ public class RoutingTable {
 
     private static final Logger logger = LoggerFactory.getLogger(RoutingTable.class);
 
-    private final Set<RoutingTableEntry> entries = new HashSet<>();
     private final List<RoutingTableListener> listeners = new ArrayList<>();
+    /** Replaced as a whole on each change. Hence readers never lock and never see a half updated table */
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
 
+    /**
+     * @return an immutable view of the entries at the time of the call
+     */
     public Set<RoutingTableEntry> getEntries() {
-        return new HashSet<>(entries);
+        return snapshot.entrySet;
     }
 
     public synchronized void addEntry(RoutingTableEntry entry) {
-        List<RoutingTableEntry> duplicates = this.entries.stream()
-                .filter(e -> e.getAddress().equals(entry.getAddress()))
-                .collect(Collectors.toList());
+        Snapshot current = this.snapshot;
+        RoutingTableEntry duplicate = current.byNodeId.get(entry.getNodeId());
 
-        if (duplicates.size() == 0) {
+        if (duplicate == null) {
             logger.debug("Adding entry: {} to the routing table", entry);
-            this.entries.add(entry);
+            this.snapshot = current.with(Collections.singleton(entry), Collections.emptySet());
             notifyListeners(entry, true);
-        } else if (duplicates.stream().filter(e -> e.getNodeId() == entry.getNodeId()).count() == 1) {
+        } else if (duplicate.equals(entry)) {
             logger.warn("Entry : {} already exists", entry);
         } else {
-            // We have an erroneous entry. Correct it.
-            RoutingTableEntry e = duplicates.get(0);
-            logger.warn("Correcting entry {} to {}", e, entry);
-            e.setNodeId(entry.getNodeId());
+            // We have an erroneous entry. Correct it. Entries are not mutated since they are hashed and shared
+            logger.warn("Correcting entry {} to {}", duplicate, entry);
+            this.snapshot = current.with(Collections.singleton(entry), Collections.singleton(duplicate));
             notifyListeners(entry, true);
         }
     }
 
+    /**
+     * Sets the positions of the node at the given address, replacing the ones known so far. Hence the stale positions
+     * of a node which joined again are dropped.
+     *
+     * @param address address of the node
+     * @param entries an entry for each position of that node
+     */
+    public synchronized void replaceEntries(InetSocketAddress address, Collection<RoutingTableEntry> entries) {
+        Snapshot current = this.snapshot;
+        Set<RoutingTableEntry> removed = new HashSet<>(current.byAddress.getOrDefault(address,
+                Collections.emptyList()));
+        entries.stream().map(entry -> current.byNodeId.get(entry.getNodeId())).filter(Objects::nonNull)
+                .forEach(removed::add);
+        removed.removeAll(entries);
+
+        Set<RoutingTableEntry> added = new HashSet<>(entries);
+        added.removeAll(current.entrySet);
+        if (added.isEmpty() && removed.isEmpty()) {
+            logger.debug("Entries of {} are up to date", address);
+            return;
+        }
+
+        logger.debug("Replacing entries {} of the routing table with -> {}", removed, added);
+        this.snapshot = current.with(added, removed);
+        removed.forEach(entry -> notifyListeners(entry, false));
+        added.forEach(entry -> notifyListeners(entry, true));
+    }
+
     public synchronized boolean removeEntry(RoutingTableEntry e) {
-        if (this.entries.remove(e)) {
+        Snapshot current = this.snapshot;
+        if (current.entrySet.contains(e)) {
+            this.snapshot = current.with(Collections.emptySet(), Collections.singleton(e));
             logger.info("Removed entry -> {}", e);
             notifyListeners(e, false);
             return true;
@@ -69,16 +107,20 @@ public class RoutingTable {
         return false;
     }
 
+    /**
+     * Removes all the positions of the node at the given address
+     *
+     * @param node address of the node
+     * @return true if the node was in the routing table
+     */
     public synchronized boolean removeEntry(InetSocketAddress node) {
-        Optional<RoutingTableEntry> entry = this.entries.stream()
-                .filter(e -> e.getAddress().getAddress().equals(node.getAddress()) &&
-                        e.getAddress().getPort() == node.getPort())
-                .findFirst();
-
-        if (entry.isPresent()) {
-            this.entries.remove(entry.get());
-            logger.info("Removed entry -> {}", entry);
-            notifyListeners(entry.get(), false);
+        Snapshot current = this.snapshot;
+        List<RoutingTableEntry> entries = current.byAddress.get(node);
+
+        if (entries != null) {
+            this.snapshot = current.with(Collections.emptySet(), entries);
+            logger.info("Removed entries -> {}", entries);
+            entries.forEach(entry -> notifyListeners(entry, false));
             return true;
         }
 
@@ -89,7 +131,7 @@ public class RoutingTable {
      * Removes all the entries in the routing table and clears it.
      */
     public synchronized void clear() {
-        this.entries.clear();
+        this.snapshot = Snapshot.EMPTY;
     }
 
     /**
@@ -99,9 +141,15 @@ public class RoutingTable {
      * @return Optional of {@link InetSocketAddress}
      */
     public Optional<RoutingTableEntry> findByNodeId(int nodeId) {
-        return this.entries.stream()
-                .filter(e -> e.getNodeId() == nodeId)
-                .findFirst();
+        return Optional.ofNullable(snapshot.byNodeId.get(nodeId));
+    }
+
+    /**
+     * @param address address of a node
+     * @return entries of all the positions of that node | empty if the node is not known
+     */
+    public List<RoutingTableEntry> findByAddress(InetSocketAddress address) {
+        return snapshot.byAddress.getOrDefault(address, Collections.emptyList());
     }
 
     /**
@@ -112,21 +160,13 @@ public class RoutingTable {
      * @return optional of entry
      */
     public Optional<RoutingTableEntry> findNodeOrSuccessor(int nodeId) {
-        List<RoutingTableEntry> sortedEntries = this.entries.stream()
-                .sorted(Comparator.comparingInt(RoutingTableEntry::getNodeId))
-                .collect(Collectors.toList());
-
-        Optional<RoutingTableEntry> successor = sortedEntries.stream()
-                .filter(e -> e.getNodeId() >= nodeId)
-                .findFirst();
-
-        if (successor.isPresent()) {
-            return successor;
-        } else if (sortedEntries.size() > 0) {
-            return Optional.of(sortedEntries.get(0));
-        } else {
+        Snapshot current = this.snapshot;
+        if (current.size() == 0) {
             return Optional.empty();
         }
+
+        int index = current.indexOfFirst(nodeId);
+        return Optional.of(current.sorted[index < current.size() ? index : 0]);
     }
 
     /**
@@ -136,18 +176,13 @@ public class RoutingTable {
      * @return Optional
      */
     public Optional<RoutingTableEntry> findSuccessorOf(int nodeId) {
-        List<RoutingTableEntry> sortedEntries = this.entries.stream()
-                .sorted(Comparator.comparingInt(RoutingTableEntry::getNodeId))
-                .collect(Collectors.toList());
-
-        Optional<RoutingTableEntry> successor = sortedEntries.stream()
-                .filter(e -> e.getNodeId() > nodeId)
-                .findFirst();
-
-        if (successor.isPresent() && successor.get().getNodeId() != nodeId) {
-            return successor;
-        } else if (sortedEntries.size() > 0 && sortedEntries.get(0).getNodeId() != nodeId) {
-            return Optional.of(sortedEntries.get(0));
+        Snapshot current = this.snapshot;
+        int index = nodeId == Integer.MAX_VALUE ? current.size() : current.indexOfFirst(nodeId + 1);
+
+        if (index < current.size()) {
+            return Optional.of(current.sorted[index]);
+        } else if (current.size() > 0 && current.nodeIds[0] != nodeId) {
+            return Optional.of(current.sorted[0]);
         }
 
         return Optional.empty();
@@ -160,18 +195,14 @@ public class RoutingTable {
      * @return Optional
      */
     public Optional<RoutingTableEntry> findPredecessorOf(int nodeId) {
-        List<RoutingTableEntry> sortedEntries = this.entries.stream()
-                .sorted(Comparator.comparingInt(e -> ((RoutingTableEntry) e).getNodeId()).reversed())
-                .collect(Collectors.toList());
-
-        Optional<RoutingTableEntry> predecessor = sortedEntries.stream()
-                .filter(e -> e.getNodeId() < nodeId)
-                .findFirst();
-
-        if (predecessor.isPresent() && predecessor.get().getNodeId() != nodeId) {
-            return predecessor;
-        } else if (sortedEntries.size() > 0 && sortedEntries.get(0).getNodeId() != nodeId) {
-            return Optional.of(sortedEntries.get(0));
+        Snapshot current = this.snapshot;
+        int index = current.indexOfFirst(nodeId) - 1;
+        int last = current.size() - 1;
+
+        if (index >= 0) {
+            return Optional.of(current.sorted[index]);
+        } else if (last >= 0 && current.nodeIds[last] != nodeId) {
+            return Optional.of(current.sorted[last]);
         }
 
         return Optional.empty();
@@ -196,4 +227,70 @@ public class RoutingTable {
     public void removeListener(RoutingTableListener listener) {
         this.listeners.remove(listener);
     }
+
+    /**
+     * An immutable state of the routing table. Entries are kept sorted by their node IDs along with a plain array of
+     * those IDs, so that successors and predecessors are found with a binary search. Built in O(n) on each change,
+     * which is rare compared to lookups.
+     */
+    private static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(new RoutingTableEntry[0]);
+
+        private final RoutingTableEntry[] sorted;
+        private final int[] nodeIds;
+        private final Map<Integer, RoutingTableEntry> byNodeId = new HashMap<>();
+        private final Map<InetSocketAddress, List<RoutingTableEntry>> byAddress = new HashMap<>();
+        private final Set<RoutingTableEntry> entrySet;
+
+        private Snapshot(RoutingTableEntry[] sorted) {
+            this.sorted = sorted;
+            this.nodeIds = new int[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                nodeIds[i] = sorted[i].getNodeId();
+                byNodeId.putIfAbsent(nodeIds[i], sorted[i]);
+                byAddress.computeIfAbsent(sorted[i].getAddress(), address -> new ArrayList<>()).add(sorted[i]);
+            }
+            byAddress.replaceAll((address, entries) -> Collections.unmodifiableList(entries));
+            this.entrySet = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(sorted)));
+        }
+
+        /**
+         * @param added   entries to be added
+         * @param removed entries to be removed
+         * @return a new snapshot with the change applied
+         */
+        private Snapshot with(Collection<RoutingTableEntry> added, Collection<RoutingTableEntry> removed) {
+            List<RoutingTableEntry> entries = new ArrayList<>(sorted.length + added.size());
+            for (RoutingTableEntry entry : sorted) {
+                if (!removed.contains(entry)) {
+                    entries.add(entry);
+                }
+            }
+            entries.addAll(added);
+            entries.sort(Comparator.comparingInt(RoutingTableEntry::getNodeId));
+            return new Snapshot(entries.toArray(new RoutingTableEntry[entries.size()]));
+        }
+
+        private int size() {
+            return sorted.length;
+        }
+
+        /**
+         * @return index of the first entry having an ID greater than or equal to the given one. Size if there's none
+         */
+        private int indexOfFirst(int nodeId) {
+            int low = 0;
+            int high = nodeIds.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (nodeIds[mid] < nodeId) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
 }
@@ -6,9 +6,11 @@ package org.uom.cse.distributed.peer.api;
 import javax.xml.bind.annotation.XmlRootElement;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
+import java.util.Objects;
 
 /**
- * Represents an entry in the routing table. Consists of IP, port and Node name.
+ * Represents an entry in the routing table. Consists of IP, port and Node name. Entries are hashed by both. Hence an
+ * entry should not be modified once added to a {@link RoutingTable} or any other set.
  */
 @XmlRootElement
 public class RoutingTableEntry implements Serializable {
@@ -51,6 +53,11 @@ public class RoutingTableEntry implements Serializable {
                 this.getAddress().equals(((RoutingTableEntry) o).getAddress());
     }
 
+    @Override
+    public int hashCode() {
+        return Objects.hash(nodeId, address);
+    }
+
     @Override
     public String toString() {
         return String.format("[%d -> %s]", nodeId, address);
@@ -0,0 +1,347 @@
+package org.uom.cse.distributed.peer.api;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable map of normalized terms to their {@link EntryStore.Postings}, as a hash array mapped trie. A change copies
+ * the path from the root to the term only, i.e: a handful of small arrays, and shares the rest with the map it was
+ * made from. Hence each version of the terms of a store is kept as a map of its own at little cost, and reading one
+ * never waits for changes.
+ * <pre>
+ *     Branch[bitmap: 0b1010] -> [Leaf(harry), Branch[...] -> [Leaf(potter), Leaf(glee)]]
+ * </pre>
+ * Each level of the trie consumes 5 bits of the hash of the term. Terms whose hashes are equal share a bucket.
+ */
+final class TermMap {
+
+    static final TermMap EMPTY = new TermMap(Branch.EMPTY, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    /** Rough sizes in bytes on a 64 bit JVM with compressed references. Used to estimate the heap footprint */
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    private final Branch root;
+    private final int size;
+
+    private TermMap(Branch root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @return postings of the term | null if none
+     */
+    EntryStore.Postings get(String term) {
+        int hash = hash(term);
+        Object slot = root;
+        for (int shift = 0; slot instanceof Branch; shift += BITS) {
+            Branch branch = (Branch) slot;
+            int bit = bitOf(hash, shift);
+            if ((branch.bitmap & bit) == 0) {
+                return null;
+            }
+            slot = branch.slots[branch.indexOf(bit)];
+        }
+
+        if (slot instanceof Leaf) {
+            Leaf leaf = (Leaf) slot;
+            return leaf.hash == hash && leaf.term.equals(term) ? leaf.postings : null;
+        }
+        return ((Bucket) slot).get(term);
+    }
+
+    /**
+     * @return map with the term mapped to the postings | this if already so
+     */
+    TermMap with(String term, EntryStore.Postings postings) {
+        boolean[] added = {false};
+        Branch with = root.with(new Leaf(term, hash(term), postings), 0, added);
+        return with == root ? this : new TermMap(with, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @return map without the term | this if not there
+     */
+    TermMap without(String term) {
+        Object without = root.without(term, hash(term), 0);
+        if (without == root) {
+            return this;
+        }
+        return size == 1 ? EMPTY : new TermMap((Branch) without, size - 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Visits each term along with its postings, in no particular order
+     */
+    void forEach(BiConsumer<String, EntryStore.Postings> visitor) {
+        root.forEach(visitor);
+    }
+
+    /**
+     * @return estimated bytes retained by the trie itself. i.e: Excluding the terms and the postings
+     */
+    long getHeapFootprint() {
+        return align(OBJECT_HEADER + REFERENCE + Integer.BYTES) + root.getHeapFootprint();
+    }
+
+    static int hash(String term) {
+        int hash = term.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int fragmentOf(int hash, int shift) {
+        return (hash >>> shift) & MASK;
+    }
+
+    private static int bitOf(int hash, int shift) {
+        return 1 << fragmentOf(hash, shift);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Builds the smallest subtrie holding both, starting at the given level.
+     *
+     * @param first      a leaf of another term or a bucket
+     * @param firstHash  hash of the term(s) of the first
+     * @param second     leaf to be added
+     */
+    private static Object merge(Object first, int firstHash, Leaf second, int shift) {
+        if (firstHash == second.hash) {
+            return new Bucket(firstHash, new Leaf[]{(Leaf) first, second});
+        }
+
+        // Hashes differ. Hence they differ in some fragment before the 32 bits run out
+        int firstFragment = fragmentOf(firstHash, shift);
+        int secondFragment = fragmentOf(second.hash, shift);
+        if (firstFragment == secondFragment) {
+            return new Branch(1 << firstFragment, new Object[]{merge(first, firstHash, second, shift + BITS)});
+        }
+        return new Branch((1 << firstFragment) | (1 << secondFragment), firstFragment < secondFragment
+                ? new Object[]{first, second} : new Object[]{second, first});
+    }
+
+    private static final class Leaf {
+
+        private final String term;
+        private final int hash;
+        private final EntryStore.Postings postings;
+
+        private Leaf(String term, int hash, EntryStore.Postings postings) {
+            this.term = term;
+            this.hash = hash;
+            this.postings = postings;
+        }
+    }
+
+    /**
+     * Slots of the fragments set in the bitmap, in order. Each slot is a {@link Leaf}, a {@link Bucket} or a branch of
+     * the next level.
+     */
+    private static final class Branch {
+
+        private static final Branch EMPTY = new Branch(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        private Branch(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private int indexOf(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private Branch with(Leaf leaf, int shift, boolean[] added) {
+            int bit = bitOf(leaf.hash, shift);
+            int index = indexOf(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                Object[] inserted = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, inserted, 0, index);
+                inserted[index] = leaf;
+                System.arraycopy(slots, index, inserted, index + 1, slots.length - index);
+                return new Branch(bitmap | bit, inserted);
+            }
+
+            Object slot = slots[index];
+            Object replaced;
+            if (slot instanceof Branch) {
+                replaced = ((Branch) slot).with(leaf, shift + BITS, added);
+            } else if (slot instanceof Bucket) {
+                Bucket bucket = (Bucket) slot;
+                if (bucket.hash == leaf.hash) {
+                    replaced = bucket.with(leaf, added);
+                } else {
+                    added[0] = true;
+                    replaced = merge(bucket, bucket.hash, leaf, shift + BITS);
+                }
+            } else {
+                Leaf existing = (Leaf) slot;
+                if (existing.hash == leaf.hash && existing.term.equals(leaf.term)) {
+                    replaced = existing.postings == leaf.postings ? existing : leaf;
+                } else {
+                    added[0] = true;
+                    replaced = merge(existing, existing.hash, leaf, shift + BITS);
+                }
+            }
+            return replaced == slot ? this : replace(index, replaced);
+        }
+
+        /**
+         * @return this if the term is not there | null if nothing is left | the only leaf left below the root level |
+         * branch without the term
+         */
+        private Object without(String term, int hash, int shift) {
+            int bit = bitOf(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+
+            int index = indexOf(bit);
+            Object slot = slots[index];
+            Object replaced;
+            if (slot instanceof Branch) {
+                replaced = ((Branch) slot).without(term, hash, shift + BITS);
+            } else if (slot instanceof Bucket) {
+                replaced = ((Bucket) slot).without(term);
+            } else {
+                Leaf leaf = (Leaf) slot;
+                replaced = leaf.hash == hash && leaf.term.equals(term) ? null : leaf;
+            }
+
+            if (replaced == slot) {
+                return this;
+            }
+            if (replaced != null) {
+                // A leaf pulled up from below keeps rising while it is alone in its branch
+                return shift > 0 && slots.length == 1 && replaced instanceof Leaf ? replaced
+                        : replace(index, replaced);
+            }
+            if (slots.length == 1) {
+                return shift == 0 ? EMPTY : null;
+            }
+
+            Object[] removed = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, removed, 0, index);
+            System.arraycopy(slots, index + 1, removed, index, removed.length - index);
+            if (shift > 0 && removed.length == 1 && removed[0] instanceof Leaf) {
+                // Pulled up into the parent, so that a term is always found at the shallowest level it can be. Buckets
+                // stay where they are, since a leaf added next to one is told apart by the hash fragment of its level
+                return removed[0];
+            }
+            return new Branch(bitmap & ~bit, removed);
+        }
+
+        private Branch replace(int index, Object slot) {
+            Object[] replaced = slots.clone();
+            replaced[index] = slot;
+            return new Branch(bitmap, replaced);
+        }
+
+        private void forEach(BiConsumer<String, EntryStore.Postings> visitor) {
+            for (Object slot : slots) {
+                if (slot instanceof Branch) {
+                    ((Branch) slot).forEach(visitor);
+                } else if (slot instanceof Bucket) {
+                    for (Leaf leaf : ((Bucket) slot).leaves) {
+                        visitor.accept(leaf.term, leaf.postings);
+                    }
+                } else {
+                    Leaf leaf = (Leaf) slot;
+                    visitor.accept(leaf.term, leaf.postings);
+                }
+            }
+        }
+
+        private long getHeapFootprint() {
+            long bytes = align(OBJECT_HEADER + Integer.BYTES + REFERENCE) + align(ARRAY_HEADER
+                    + (long) REFERENCE * slots.length);
+            for (Object slot : slots) {
+                if (slot instanceof Branch) {
+                    bytes += ((Branch) slot).getHeapFootprint();
+                } else if (slot instanceof Bucket) {
+                    Leaf[] leaves = ((Bucket) slot).leaves;
+                    bytes += align(OBJECT_HEADER + Integer.BYTES + REFERENCE)
+                            + align(ARRAY_HEADER + (long) REFERENCE * leaves.length)
+                            + leaves.length * align(OBJECT_HEADER + 2 * REFERENCE + Integer.BYTES);
+                } else {
+                    bytes += align(OBJECT_HEADER + 2 * REFERENCE + Integer.BYTES);
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Leaves of distinct terms having the same hash
+     */
+    private static final class Bucket {
+
+        private final int hash;
+        private final Leaf[] leaves;
+
+        private Bucket(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        private EntryStore.Postings get(String term) {
+            for (Leaf leaf : leaves) {
+                if (leaf.term.equals(term)) {
+                    return leaf.postings;
+                }
+            }
+            return null;
+        }
+
+        private Bucket with(Leaf leaf, boolean[] added) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].term.equals(leaf.term)) {
+                    if (leaves[i].postings == leaf.postings) {
+                        return this;
+                    }
+                    Leaf[] replaced = leaves.clone();
+                    replaced[i] = leaf;
+                    return new Bucket(hash, replaced);
+                }
+            }
+
+            added[0] = true;
+            Leaf[] appended = new Leaf[leaves.length + 1];
+            System.arraycopy(leaves, 0, appended, 0, leaves.length);
+            appended[leaves.length] = leaf;
+            return new Bucket(hash, appended);
+        }
+
+        /**
+         * @return this if the term is not there | the only leaf left | bucket without the term
+         */
+        private Object without(String term) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].term.equals(term)) {
+                    if (leaves.length == 2) {
+                        return leaves[1 - i];
+                    }
+                    Leaf[] removed = new Leaf[leaves.length - 1];
+                    System.arraycopy(leaves, 0, removed, 0, i);
+                    System.arraycopy(leaves, i + 1, removed, i, removed.length - i);
+                    return new Bucket(hash, removed);
+                }
+            }
+            return this;
+        }
+    }
+}
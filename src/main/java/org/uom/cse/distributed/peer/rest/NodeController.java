@@ -3,209 +3,473 @@ package org.uom.cse.distributed.peer.rest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.uom.cse.distributed.peer.Node;
+import org.uom.cse.distributed.peer.api.EntryTableDelta;
 import org.uom.cse.distributed.peer.api.EntryTableEntry;
+import org.uom.cse.distributed.peer.api.MessageCodec;
+import org.uom.cse.distributed.peer.api.RangeLoad;
 import org.uom.cse.distributed.peer.api.RoutingTableEntry;
+import org.uom.cse.distributed.peer.rest.dto.AddressDto;
+import org.uom.cse.distributed.peer.rest.dto.EntryDto;
+import org.uom.cse.distributed.peer.rest.dto.NodeDto;
+import org.uom.cse.distributed.peer.rest.dto.RangeLoadDto;
 import org.uom.cse.distributed.peer.utils.RequestUtils;
 
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.Variant;
 import javax.xml.bind.annotation.XmlType;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import static org.uom.cse.distributed.Constants.CODEC_HEADER;
 import static org.uom.cse.distributed.Constants.RETRIES_COUNT;
 import static org.uom.cse.distributed.Constants.TYPE_ENTRIES;
 import static org.uom.cse.distributed.Constants.TYPE_ROUTING;
 
 @Path("/")
 @Consumes(MediaType.APPLICATION_JSON)
-@Produces(MediaType.APPLICATION_JSON)
+@Produces({MediaType.APPLICATION_JSON, MediaType.APPLICATION_OCTET_STREAM})
 public class NodeController {
 
     private static final Logger logger = LoggerFactory.getLogger(NodeController.class);
 
+    /** Media types a result can be sent in. JSON unless the client prefers the binary form */
+    private static final List<Variant> VARIANTS = Variant.mediaTypes(MediaType.APPLICATION_JSON_TYPE,
+            MediaType.APPLICATION_OCTET_STREAM_TYPE).build();
+
     private Node node;
     private final int numOfRetries = RETRIES_COUNT;
+    private final ExecutorService workers;
+    private final int requestTimeoutMs;
 
-    public NodeController(Node node) {
+    /**
+     * @param node             node being served
+     * @param workers          bounded executor handling the lookups
+     * @param requestTimeoutMs time after which a pending lookup is answered with 503
+     */
+    public NodeController(Node node, ExecutorService workers, int requestTimeoutMs) {
         this.node = node;
+        this.workers = workers;
+        this.requestTimeoutMs = requestTimeoutMs;
     }
 
     @GET
     @Path("/getRoutingTable")
-    public Response routeTable() {
-        try {
-            Set<RoutingTableEntry> routingTable = node.getRoutingTable().getEntries();
-            logger.debug("Returning routing table: {}", routingTable);
-            return Response.ok(RequestUtils.buildObjectRequest(routingTable)).build();
-        } catch (Exception e) {
-            logger.error("Error occurred when building object request: {}", e);
-            return Response.status(500).build();
-        }
+    public Response routeTable(@HeaderParam(CODEC_HEADER) String codec, @Context Request request) {
+        Set<RoutingTableEntry> routingTable = node.getRoutingTable().getEntries();
+        logger.debug("Returning routing table: {}", routingTable);
+        return respond(request.selectVariant(VARIANTS), codecOf(codec), routingTable,
+                () -> routingTable.stream().map(NodeDto::from).collect(Collectors.toList()));
     }
 
+    /**
+     * Answers a lookup routed through fingers with me and the owner of the given node ID, if I know the owner. Else
+     * with the closest node preceding that ID which I know of.
+     */
     @GET
-    @Path("/NotifyNewNode/{ip}/{port}/{id}")
-    public Response newNode(@PathParam("ip") String ip, @PathParam("port") int port, @PathParam("id") int id) {
+    @Path("/FindSuccessor/{id}")
+    public Response findSuccessor(@PathParam("id") int id, @HeaderParam(CODEC_HEADER) String codec,
+            @Context Request request) {
+        List<RoutingTableEntry> hop = node.getFingerTable().nextHop(id);
+        logger.debug("Returning next hop to the owner of {} -> {}", id, hop);
+        return respond(request.selectVariant(VARIANTS), codecOf(codec), hop,
+                () -> hop.stream().map(NodeDto::from).collect(Collectors.toList()));
+    }
+
+    /**
+     * Answers with the number of entries I hold in the range of each of my positions.
+     */
+    @GET
+    @Path("/Load")
+    public Response load(@HeaderParam(CODEC_HEADER) String codec, @Context Request request) {
+        List<RangeLoad> load = node.getLoad();
+        logger.debug("Returning my load -> {}", load);
+        return respond(request.selectVariant(VARIANTS), codecOf(codec), load,
+                () -> load.stream().map(RangeLoadDto::from).collect(Collectors.toList()));
+    }
+
+    @GET
+    @Path("/NotifyNewNode/{ip}/{port}/{ids}")
+    public Response newNode(@PathParam("ip") String ip, @PathParam("port") int port, @PathParam("ids") String ids,
+            @HeaderParam(CODEC_HEADER) String codec, @Context Request request) {
+        Variant variant = request.selectVariant(VARIANTS);
+        MessageCodec messageCodec = codecOf(codec);
         try {
-            node.addNewNode(ip, port, id);
-            Map<Character, Map<String, List<EntryTableEntry>>> entriesToHandover = this.node.getEntriesToHandoverTo(id);
+            InetSocketAddress newNode = new InetSocketAddress(ip, port);
+            node.addNewNode(newNode, RequestUtils.parseNodeIds(ids));
+            Map<String, List<EntryTableEntry>> entriesToHandover =
+                    this.node.getEntriesToHandoverTo(newNode);
             if (entriesToHandover == null) {
-                logger.warn("Couldn't find characters to be handed over to node -> {}", id);
+                logger.warn("Couldn't find entries to be handed over to node -> {}", newNode);
                 return Response.status(500).build();
             }
             // Send the entries to new node. Only if that's successful, we remove them from myself
-            logger.debug("Notifying characters belonging to node -> {} : {}", id, entriesToHandover.keySet());
+            logger.debug("Notifying keywords belonging to node -> {} : {}", newNode, entriesToHandover.keySet());
             //TODO : Imesha need to verify relevant client got the response
-            node.removeEntries(entriesToHandover.keySet());
-            return Response.ok(RequestUtils.buildObjectRequest(entriesToHandover)).build();
+            node.removeEntries(entriesToHandover);
+            return respond(variant, messageCodec, entriesToHandover, () -> EntryDto.fromKeywords(entriesToHandover));
         } catch (Exception e) {
-            logger.error("Couldn't find characters to be handed over to node -> {}", id);
+            logger.error("Couldn't find entries to be handed over to node -> {}:{}", ip, port);
             return Response.status(500).build();
         }
     }
 
     @POST
     @Path("/NewEntry/{keyWord}")
-    public Response newEntry(String base64, @PathParam("keyWord") String key) {
-        if (base64 != null) {
-            Object obj = RequestUtils.base64StringToObject(base64);
-            logger.debug("Received entry to take over -> {}", obj);
-            if (obj != null) {
-                EntryTableEntry entry = (EntryTableEntry) obj;
-                node.getEntryTable().addEntry(key, entry);
-                return Response.status(200).build();
-            }
+    public Response newEntry(EntryDto entry, @PathParam("keyWord") String key) {
+        logger.debug("Received entry to take over -> {}", entry);
+        if (entry != null) {
+            node.getEntryTable().addEntry(key, entry.toEntry());
         }
         return Response.status(200).build();
     }
 
-
-    @GET
-    @Path("/Query/{keyWord}")
-    public Response query(@PathParam("keyWord") String key) {
+    @POST
+    @Path("/NewEntry/{keyWord}")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public Response newEntry(InputStream body, @PathParam("keyWord") String key,
+            @HeaderParam(CODEC_HEADER) String codecName) {
+        Object obj;
         try {
-            List<EntryTableEntry> entries = node.getEntryTable().getEntriesByKyeword(key);
-            Set<InetSocketAddress> addresses = entries.stream()
-                    .filter(entry -> node.getRoutingTable()
-                            .findByNodeId(Integer.parseInt(entry.getNodeName()))
-                            .isPresent())
-                    .map(entry -> node.getRoutingTable()
-                            .findByNodeId(Integer.parseInt(entry.getNodeName()))
-                            .get()
-                            .getAddress())
-                    .collect(Collectors.toSet());
-            return Response.ok(RequestUtils.buildObjectRequest(addresses)).build();
+            obj = decode(codecOf(codecName), body);
         } catch (IOException e) {
-            logger.error("Error occurred when searching for keyword -> {} : {}", e);
-            return Response.serverError().build();
+            logger.warn("Unable to decode offered entry for keyword -> {}", key, e);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        logger.debug("Received entry to take over -> {}", obj);
+        if (obj instanceof EntryTableEntry) {
+            node.getEntryTable().addEntry(key, (EntryTableEntry) obj);
         }
+        return Response.status(200).build();
+    }
+
+    @POST
+    @Path("/NewEntries")
+    public Response newEntries(Map<String, List<EntryDto>> entries) {
+        if (entries == null) {
+            logger.warn("Unable to decode offered entries");
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        addEntries(EntryDto.toKeywords(entries));
+        return Response.status(200).build();
     }
 
     @SuppressWarnings("unchecked")
-    @GET
-    @Path("/Ping/{id}/{base64}")
-    public Response ping(@PathParam("base64") String base64, @PathParam("id") int id) {
-        Map<Character, Map<String, List<EntryTableEntry>>> toBeTakenOver;
-        logger.info("Received characters to be taken over -> {}", base64);
-
-        if (base64 != null) {
-            Object obj = RequestUtils.base64StringToObject(base64);
-            logger.debug("Received entry to take over -> {}", obj);
-            if (obj != null) {
-                toBeTakenOver = (Map<Character, Map<String, List<EntryTableEntry>>>) obj;
-                this.node.takeOverEntries(toBeTakenOver);
-            }
+    @POST
+    @Path("/NewEntries")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public Response newEntries(InputStream body, @HeaderParam(CODEC_HEADER) String codecName) {
+        Object obj;
+        try {
+            obj = decode(codecOf(codecName), body);
+        } catch (IOException e) {
+            logger.warn("Unable to decode offered entries", e);
+            return Response.status(Response.Status.BAD_REQUEST).build();
         }
 
-        int nodeId = id;
+        if (!(obj instanceof Map)) {
+            logger.warn("Unable to decode offered entries");
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        addEntries((Map<String, List<EntryTableEntry>>) obj);
+        return Response.status(200).build();
+    }
+
+    private void addEntries(Map<String, List<EntryTableEntry>> entries) {
+        logger.debug("Received {} keywords to index", entries.size());
+        entries.forEach((keyword, list) -> list.forEach(entry -> node.getEntryTable().addEntry(keyword, entry)));
+    }
+
+    @GET
+    @Path("/Query/{keyWord}")
+    public void query(@PathParam("keyWord") String key, @HeaderParam(CODEC_HEADER) String codec,
+            @Context Request request, @Suspended AsyncResponse response) {
+        Variant variant = request.selectVariant(VARIANTS);
+        MessageCodec messageCodec = codecOf(codec);
+        submit(response, () -> findAddresses(key, messageCodec, variant));
+    }
+
+    private Response findAddresses(String key, MessageCodec codec, Variant variant) {
+        List<EntryTableEntry> entries = node.getEntryTable().getEntriesByKyeword(key);
+        Set<InetSocketAddress> addresses = entries == null ? new HashSet<>() : entries.stream()
+                .map(entry -> node.findAddressOf(Integer.parseInt(entry.getNodeName())))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toSet());
+        return respond(variant, codec, addresses,
+                () -> addresses.stream().map(AddressDto::from).collect(Collectors.toList()));
+    }
+
+    /**
+     * Looks up many (keyword, file name) pairs in one request. The body is a <code>List&lt;String[]&gt;</code> of
+     * <pre>{keyword, fileName}</pre> pairs and the response is a <code>List&lt;Set&lt;InetSocketAddress&gt;&gt;</code>
+     * holding the nodes having the file, in the same order. Both are encoded with the codec named in the request.
+     */
+    @POST
+    @Path("/batch/query")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public void batchQuery(InputStream body, @HeaderParam(CODEC_HEADER) String codecName,
+            @Suspended AsyncResponse response) {
+        submit(response, () -> findInBatch(body, codecName));
+    }
 
-        // TODO: NEED to complete
-        // 1. Send my entries to this node
+    @SuppressWarnings("unchecked")
+    private Response findInBatch(InputStream body, String codecName) {
+        MessageCodec codec = codecOf(codecName);
+        Object obj;
         try {
-            return Response.ok(RequestUtils.buildObjectRequest(node.getEntryTable().getEntries())).build();
+            obj = decode(codec, body);
         } catch (IOException e) {
-            logger.error("Error occurred when responding to ping: {}", e);
-            return Response.serverError().build();
+            logger.warn("Unable to decode batch query", e);
+            return Response.status(Response.Status.BAD_REQUEST).build();
         }
 
-        // TODO: 11/2/17 Add the calling node to my routing table if not present
+        if (!(obj instanceof List)) {
+            logger.warn("Expected a list of lookups but received -> {}", obj);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
 
+        List<String[]> lookups = (List<String[]>) obj;
+        List<Set<InetSocketAddress>> results = new ArrayList<>(lookups.size());
+        for (String[] lookup : lookups) {
+            if (lookup == null || lookup.length != 2) {
+                logger.warn("Expected a keyword and a file name but received -> {}", Arrays.toString(lookup));
+                return Response.status(Response.Status.BAD_REQUEST).build();
+            }
+            results.add(findNodesHaving(lookup[0], lookup[1]));
+        }
 
+        logger.debug("Answering {} lookups in batch -> {}", lookups.size(), results);
+        StreamingOutput output = out -> codec.encode(results, out);
+        return Response.ok(output).build();
+    }
 
-        //        // 2. Also send any characters to be taken over to this one as well. If present
-        //        Optional<RoutingTableEntry> tableEntryOptional = this.node.getRoutingTable().findByNodeId(nodeId);
-        //        if (tableEntryOptional.isPresent()) {
-        //            handoverEntries(nodeId, tableEntryOptional.get().getAddress());
-        //
-        //            // 3. Send my routing table to that node as well
-        //            provideRoutingTable(tableEntryOptional.get().getAddress());
-        //        }
-        //
-        //        return Response.ok().build();
+    /**
+     * @return nodes having a file of the given name, as indexed under the given keyword
+     */
+    private Set<InetSocketAddress> findNodesHaving(String keyword, String fileName) {
+        if (keyword.isEmpty()) {
+            return new HashSet<>();
+        }
+
+        return node.getEntryTable().findEntries(keyword, fileName).stream()
+                .map(entry -> node.findAddressOf(Integer.parseInt(entry.getNodeName())))
+                .filter(Optional::isPresent)
+                .map(Optional::get)
+                .collect(Collectors.toSet());
     }
 
-    @GET
+    /**
+     * Takes over the entries handed over by the pinging node and responds with the changes to my entries since the
+     * given version. Both the request and the response bodies are encoded with the codec named in the request and are
+     * streamed, since they grow with the entry table.
+     */
+    @POST
+    @Path("/Ping/{id}")
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public void ping(InputStream body, @PathParam("id") int id,
+            @DefaultValue("0") @QueryParam("epoch") long epoch, @DefaultValue("0") @QueryParam("version") long version,
+            @HeaderParam(CODEC_HEADER) String codecName, @Suspended AsyncResponse response) {
+        submit(response, () -> takeOverAndRespond(body, id, epoch, version, codecName));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Response takeOverAndRespond(InputStream body, int id, long epoch, long version, String codecName) {
+        MessageCodec codec = codecOf(codecName);
+        Object obj;
+        try {
+            obj = decode(codec, body);
+        } catch (IOException e) {
+            logger.warn("Unable to decode the entries handed over by node -> {}", id, e);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
+        logger.debug("Received entries to take over from node -> {} : {}", id, obj);
+        if (obj != null) {
+            this.node.takeOverEntries((Map<String, List<EntryTableEntry>>) obj);
+        }
+
+        // TODO: 11/2/17 Add the calling node to my routing table if not present
+        EntryTableDelta delta = node.getEntryTable().getChangesSince(epoch, version);
+        StreamingOutput response = out -> codec.encode(delta, out);
+        return Response.ok(response).build();
+    }
+
+    @SuppressWarnings("unchecked")
+    @POST
     @Path("/Sync/{type}")
-    public Response sync(Map<Character, Map<String, List<EntryTableEntry>>> obj, @PathParam("type") String type) {
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public Response sync(InputStream body, @PathParam("type") String type,
+            @HeaderParam(CODEC_HEADER) String codecName) {
+        Object obj;
+        try {
+            obj = decode(codecOf(codecName), body);
+        } catch (IOException e) {
+            logger.warn("Unable to decode {} sync request", type, e);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+
         switch (type) {
             case TYPE_ENTRIES:
-                logger.debug("Received characters to be taken over -> {}", obj);
+                logger.debug("Received entries to be taken over -> {}", obj);
                 if (obj != null) {
-                    Map<Character, Map<String, List<EntryTableEntry>>> toBeTakenOver = obj;
+                    Map<String, List<EntryTableEntry>> toBeTakenOver =
+                            (Map<String, List<EntryTableEntry>>) obj;
                     this.node.takeOverEntries(toBeTakenOver);
                 }
                 break;
             case TYPE_ROUTING:
                 logger.debug("Received routing table -> {}", obj);
                 break;
+            default:
+                logger.warn("Unknown sync type -> {}", type);
+                return Response.status(Response.Status.NOT_FOUND).build();
         }
 
-        // retryOrTimeout(RESPONSE_OK, recipient);
         return Response.ok().build();
     }
 
     @GET
     @Path("/Keyword/{keyWord}")
-    public Response queryKeyword(@PathParam("keyWord") String key) {
+    public void queryKeyword(@PathParam("keyWord") String key, @HeaderParam(CODEC_HEADER) String codec,
+            @Context Request request, @Suspended AsyncResponse response) {
+        Variant variant = request.selectVariant(VARIANTS);
+        MessageCodec messageCodec = codecOf(codec);
+        submit(response, () -> findFiles(key, messageCodec, variant));
+    }
 
+    private Response findFiles(String key, MessageCodec codec, Variant variant) {
         String[] results = new String[0];
         results = searchEntryTableForKeyword(key);
         Set<String> finalResult = new HashSet<String> (Arrays.asList(results));
+        return respond(variant, codec, finalResult, () -> finalResult);
+    }
+
+    /**
+     * Builds the response in the variant negotiated based on the <pre>Accept</pre> header of the request. i.e: the
+     * result encoded by the codec named in the request, as {@link MediaType#APPLICATION_OCTET_STREAM}, or its JSON
+     * form.
+     *
+     * @param variant negotiated variant | null if none of the {@link #VARIANTS} are acceptable
+     * @param codec   codec named in the request. See {@link #codecOf(String)}
+     * @param result  result to be encoded
+     * @param json    builds the JSON form of the result
+     * @return response
+     */
+    private static Response respond(Variant variant, MessageCodec codec, Object result, Supplier<Object> json) {
+        if (variant == null) {
+            return Response.notAcceptable(VARIANTS).build();
+        }
+
+        if (MediaType.APPLICATION_OCTET_STREAM_TYPE.equals(variant.getMediaType())) {
+            StreamingOutput output = out -> codec.encode(result, out);
+            return Response.ok(output, variant).build();
+        }
+        return Response.ok(json.get(), variant).build();
+    }
 
+    /**
+     * @param codecName codec named in the request | null if none
+     * @return the codec | Java serialization if none was named
+     * @throws BadRequestException if the codec is unknown, which is answered with 400
+     */
+    private static MessageCodec codecOf(String codecName) {
         try {
-            return Response.ok(RequestUtils.buildObjectRequest(finalResult)).build();
-        } catch (IOException e) {
-            logger.error("Error occurred when searching for keyword -> {} : {}", e);
-            return Response.serverError().build();
+            return RequestUtils.getCodec(codecName);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejecting request: {}", e.getMessage());
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes the object in the request body and reads whatever follows it, so that the connection can be kept alive
+     * for the next request of the client.
+     */
+    private static Object decode(MessageCodec codec, InputStream body) throws IOException {
+        Object obj = codec.decode(body);
+        byte[] buffer = new byte[256];
+        while (body.read(buffer) != -1) {
+            // Only the end of the chunked body is expected here
+        }
+        return obj;
+    }
+
+    /**
+     * Hands the request over to a worker, freeing the Jetty thread. Answers with 503 right away if the workers are
+     * saturated, or once the request timeout passes without a response.
+     *
+     * @param response suspended response
+     * @param handler  builds the response
+     */
+    private void submit(AsyncResponse response, Supplier<Response> handler) {
+        response.setTimeout(requestTimeoutMs, TimeUnit.MILLISECONDS);
+        response.setTimeoutHandler(timedOut -> {
+            logger.warn("Request wasn't served within {}ms", requestTimeoutMs);
+            timedOut.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+        });
+
+        try {
+            workers.execute(() -> {
+                try {
+                    response.resume(handler.get());
+                } catch (WebApplicationException e) {
+                    response.resume(e.getResponse());
+                } catch (Exception e) {
+                    logger.error("Error occurred when serving request", e);
+                    response.resume(Response.serverError().build());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Request queue is full. Rejecting request");
+            response.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
         }
     }
 
     private String[] searchEntryTableForKeyword(String keyword) {
-        char c = Character.toUpperCase(keyword.charAt(0));
-        List<EntryTableEntry> entryList = this.node.getEntryTable().getEntries().get(c).get(keyword);
+        List<EntryTableEntry> entryList;
+        try {
+            entryList = this.node.getEntryTable().searchEntries(keyword);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Ignoring invalid keyword pattern [{}]", keyword);
+            return new String[0];
+        }
         String[] resultArray = new String[entryList.size()];
         int i = 0;
         for (EntryTableEntry entry : entryList) {
-
-
-            for (RoutingTableEntry routingTableEntry : this.node.getRoutingTable().getEntries()) {
-
-                if (entry.getNodeName().equals(Integer.toString(routingTableEntry.getNodeId()))){
-                    resultArray[i] = entry.getFileName() + ":" + routingTableEntry.getAddress().getHostName() + ":" + routingTableEntry.getAddress().getPort();
-                    i++;
-                    break;
-                }
+            Optional<InetSocketAddress> address = this.node.findAddressOf(Integer.parseInt(entry.getNodeName()));
+            if (address.isPresent()) {
+                resultArray[i] = entry.getFileName() + ":" + address.get().getHostName() + ":" + address.get().getPort();
+                i++;
             }
-
         }
         return resultArray;
     }
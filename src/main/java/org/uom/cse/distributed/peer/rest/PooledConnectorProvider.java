@@ -0,0 +1,208 @@
+package org.uom.cse.distributed.peer.rest;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.IdleConnectionEvictor;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.client.spi.ConnectorProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.Configuration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides Jersey's Apache HttpClient connector, backed by a pool of persistent HTTP connections. At most a given
+ * number of connections are kept open to each peer and they are reused by the consecutive requests to that peer,
+ * instead of going through a TCP handshake per request. Counts the requests sent and the connections opened, from
+ * which the connection reuse can be derived.
+ * <p>
+ * The pool outlives the connectors provided, hence is released by {@link #close()} once the client is closed.
+ */
+public class PooledConnectorProvider implements ConnectorProvider, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledConnectorProvider.class);
+
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+    private final AtomicLong connectionsOpened = new AtomicLong(0);
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final RequestConfig requestConfig;
+    private final IdleConnectionEvictor evictor;
+    /** Runs asynchronous requests, which the Apache connector would send on the caller's thread */
+    private final ExecutorService asyncExecutor;
+
+    /**
+     * @param maxPerPeer       maximum number of connections kept open to a single peer
+     * @param maxTotal         maximum number of connections kept open altogether
+     * @param connectTimeoutMs time to wait for a connection to be established or to be leased from the pool
+     * @param readTimeoutMs    time to wait for data once connected
+     * @param idleTimeoutMs    connections idle for longer than this are closed
+     */
+    public PooledConnectorProvider(int maxPerPeer, int maxTotal, int connectTimeoutMs, int readTimeoutMs,
+            int idleTimeoutMs) {
+        if (maxPerPeer <= 0 || maxTotal < maxPerPeer) {
+            throw new IllegalArgumentException("Connections per peer should be positive and within the total");
+        }
+
+        HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory = (route, config) -> {
+            connectionsOpened.incrementAndGet();
+            logger.debug("Opening a new connection to -> {}", route.getTargetHost());
+            return ManagedHttpClientConnectionFactory.INSTANCE.create(route, config);
+        };
+
+        connectionManager = new PoolingHttpClientConnectionManager(connectionFactory);
+        connectionManager.setDefaultMaxPerRoute(maxPerPeer);
+        connectionManager.setMaxTotal(maxTotal);
+        // Peers come and go. Hence a connection idle for a while is checked before being reused
+        connectionManager.setValidateAfterInactivity(Math.min(idleTimeoutMs, connectTimeoutMs));
+
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMs)
+                .setConnectionRequestTimeout(connectTimeoutMs)
+                .setSocketTimeout(readTimeoutMs)
+                .build();
+
+        evictor = new IdleConnectionEvictor(connectionManager, idleTimeoutMs, TimeUnit.MILLISECONDS);
+        evictor.start();
+
+        AtomicInteger threadCount = new AtomicInteger(0);
+        asyncExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "rest-client-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param config configuration of the client to be created
+     * @return the given configuration, set to send requests through this pool
+     */
+    public ClientConfig configure(ClientConfig config) {
+        return config.connectorProvider(this)
+                .property(ApacheClientProperties.CONNECTION_MANAGER, connectionManager)
+                .property(ApacheClientProperties.CONNECTION_MANAGER_SHARED, true)
+                .property(ApacheClientProperties.REQUEST_CONFIG, requestConfig)
+                .property(ClientProperties.CONNECT_TIMEOUT, requestConfig.getConnectTimeout())
+                .property(ClientProperties.READ_TIMEOUT, requestConfig.getSocketTimeout());
+    }
+
+    @Override
+    public Connector getConnector(Client client, Configuration runtimeConfig) {
+        return new CountingConnector(new ApacheConnectorProvider().getConnector(client, runtimeConfig));
+    }
+
+    /**
+     * Closes the pooled connections. Connectors provided before can't be used afterwards.
+     */
+    @Override
+    public void close() {
+        evictor.shutdown();
+        asyncExecutor.shutdownNow();
+        connectionManager.shutdown();
+    }
+
+    /**
+     * @return number of requests sent, including the failed ones
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /**
+     * @return number of requests which were sent through a connection opened for an earlier request
+     */
+    public long getConnectionsReused() {
+        return Math.max(0, requests.get() - failures.get() - connectionsOpened.get());
+    }
+
+    /**
+     * @return leased and idle connections of each peer. For diagnostics
+     */
+    public Map<String, PoolStats> getPeerStats() {
+        Map<String, PoolStats> stats = new HashMap<>();
+        connectionManager.getRoutes()
+                .forEach(route -> stats.put(route.getTargetHost().toHostString(), connectionManager.getStats(route)));
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[requests: %d, failures: %d, opened: %d, reused: %d, pool: %s]", getRequestCount(),
+                getFailureCount(), getConnectionsOpened(), getConnectionsReused(), connectionManager.getTotalStats());
+    }
+
+    /**
+     * Counts the requests sent through the Apache connector, and sends the asynchronous ones on the {@link
+     * #asyncExecutor}
+     */
+    private final class CountingConnector implements Connector {
+
+        private final Connector delegate;
+
+        private CountingConnector(Connector delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ClientResponse apply(ClientRequest request) {
+            requests.incrementAndGet();
+            try {
+                return delegate.apply(request);
+            } catch (ProcessingException e) {
+                failures.incrementAndGet();
+                throw e;
+            }
+        }
+
+        @Override
+        public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+            return asyncExecutor.submit(() -> {
+                try {
+                    callback.response(apply(request));
+                } catch (Throwable t) {
+                    callback.failure(t);
+                }
+            });
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+}
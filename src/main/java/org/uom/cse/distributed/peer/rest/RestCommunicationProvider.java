@@ -1,25 +1,49 @@
 package org.uom.cse.distributed.peer.rest;
 
+import org.glassfish.jersey.client.ClientConfig;
 import org.glassfish.jersey.client.JerseyClientBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.uom.cse.distributed.peer.Node;
 import org.uom.cse.distributed.peer.api.CommunicationProvider;
+import org.uom.cse.distributed.peer.api.EntryTableDelta;
 import org.uom.cse.distributed.peer.api.EntryTableEntry;
+import org.uom.cse.distributed.peer.api.MessageCodec;
+import org.uom.cse.distributed.peer.api.RangeLoad;
 import org.uom.cse.distributed.peer.api.RoutingTableEntry;
+import org.uom.cse.distributed.peer.rest.dto.AddressDto;
+import org.uom.cse.distributed.peer.rest.dto.EntryDto;
+import org.uom.cse.distributed.peer.rest.dto.NodeDto;
+import org.uom.cse.distributed.peer.rest.dto.RangeLoadDto;
 import org.uom.cse.distributed.peer.utils.RequestUtils;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.uom.cse.distributed.Constants.CODEC_HEADER;
+import static org.uom.cse.distributed.Constants.REST_CONNECT_TIMEOUT_MS;
+import static org.uom.cse.distributed.Constants.REST_IDLE_TIMEOUT_MS;
+import static org.uom.cse.distributed.Constants.REST_MAX_CONNECTIONS;
+import static org.uom.cse.distributed.Constants.REST_MAX_CONNECTIONS_PER_PEER;
+import static org.uom.cse.distributed.Constants.REST_READ_TIMEOUT_MS;
 
 /**
  * Created by Vithusha on 10/24/2017.
@@ -28,51 +52,96 @@ public class RestCommunicationProvider extends CommunicationProvider {
     /** Logger to log the events. */
     private static final Logger logger = LoggerFactory.getLogger(RestCommunicationProvider.class);
 
+    private final int maxConnectionsPerPeer;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final MediaType mediaType;
+
     private Node node;
+    private PooledConnectorProvider connectorProvider;
+    private Client client;
+
+    public RestCommunicationProvider() {
+        this(REST_MAX_CONNECTIONS_PER_PEER, REST_CONNECT_TIMEOUT_MS, REST_READ_TIMEOUT_MS,
+                MediaType.APPLICATION_OCTET_STREAM_TYPE);
+    }
+
+    /**
+     * @param maxConnectionsPerPeer maximum number of persistent connections kept open to a single peer
+     * @param connectTimeoutMs      time to wait for a connection to a peer
+     * @param readTimeoutMs         time to wait for a peer to respond
+     * @param mediaType             {@link MediaType#APPLICATION_JSON_TYPE} or {@link
+     *                              MediaType#APPLICATION_OCTET_STREAM_TYPE} to exchange objects encoded by the node's
+     *                              codec
+     */
+    public RestCommunicationProvider(int maxConnectionsPerPeer, int connectTimeoutMs, int readTimeoutMs,
+            MediaType mediaType) {
+        if (!MediaType.APPLICATION_JSON_TYPE.equals(mediaType)
+                && !MediaType.APPLICATION_OCTET_STREAM_TYPE.equals(mediaType)) {
+            throw new IllegalArgumentException("Unsupported media type: " + mediaType);
+        }
+
+        this.maxConnectionsPerPeer = maxConnectionsPerPeer;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.mediaType = mediaType;
+    }
+
 
     @Override
     public void start(Node node) {
         this.node = node;
         //this.queryHopCount = 1;
+        // A single client is shared by all the requests so that connections to peers are kept alive and reused
+        connectorProvider = new PooledConnectorProvider(maxConnectionsPerPeer,
+                Math.max(REST_MAX_CONNECTIONS, maxConnectionsPerPeer), connectTimeoutMs, readTimeoutMs,
+                REST_IDLE_TIMEOUT_MS);
+        client = JerseyClientBuilder.createClient(connectorProvider.configure(new ClientConfig()));
         logger.info("Communication provider -  started");
     }
 
     @Override
-    public void stop() { }
+    public void stop() {
+        if (client != null) {
+            client.close();
+            client = null;
+            connectorProvider.close();
+        }
+    }
+
+    /**
+     * @return provider of the connectors used to reach peers. For connection reuse metrics
+     */
+    public PooledConnectorProvider getConnectorProvider() {
+        return connectorProvider;
+    }
 
     @Override
     public boolean disconnect(InetSocketAddress peer) {
         return false;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
-    public Map<Character, Map<String, List<EntryTableEntry>>> notifyNewNode(InetSocketAddress peer, InetSocketAddress me, int nodeId) {
+    public Map<String, List<EntryTableEntry>> notifyNewNode(InetSocketAddress peer, InetSocketAddress me,
+            List<Integer> nodeIds) {
         UriBuilder url = UriBuilder.fromPath("NotifyNewNode")
                 .path(me.getAddress().getHostAddress())
                 .path(String.valueOf(me.getPort()))
-                .path(String.valueOf(nodeId))
+                .path(RequestUtils.joinNodeIds(nodeIds))
                 .scheme("http")
                 .host(peer.getAddress().getHostAddress())
                 .port(peer.getPort());
 
-        Client client = JerseyClientBuilder.createClient();
         try {
             logger.debug("Notifying new node to {} as message: {}", peer, url);
-            String response = client.target(url)
-                    .request(MediaType.APPLICATION_JSON)
-                    .get(String.class);
-            if (response != null) {
-                Object obj = RequestUtils.base64StringToObject(response);
-                logger.debug("Received entries to take over -> {}", obj);
-                if (obj != null) {
-                    return (Map<Character, Map<String, List<EntryTableEntry>>>) obj;
-                }
+            Map<String, List<EntryTableEntry>> entries = read(request(url).get(),
+                    new GenericType<Map<String, List<EntryDto>>>() { }, EntryDto::toKeywords);
+            logger.debug("Received entries to take over -> {}", entries);
+            if (entries != null) {
+                return entries;
             }
         } catch (Exception e) {
             logger.error("Error occurred when notifying new node to -> {} with message : {}", url, e);
-        } finally {
-            client.close();
         }
 
         return new HashMap<>();
@@ -87,23 +156,39 @@ public class RestCommunicationProvider extends CommunicationProvider {
                 .port(peer.getPort());
 
         EntryTableEntry entry = new EntryTableEntry(String.valueOf(node), file);
-        Client client = JerseyClientBuilder.createClient();
         try {
             logger.debug("Offering file to {} as message: {}", peer, url);
-            client.target(url)
-                    .request(MediaType.APPLICATION_JSON)
-                    .post(Entity.json(RequestUtils.buildObjectRequest(entry)));
+            // The response has to be closed for the connection to go back to the pool
+            request(url).post(entity(entry, () -> EntryDto.from(entry))).close();
             return true;
         } catch (Exception e) {
             logger.error("Error occurred when offering keyword -> {} to -> {} with message : {}", keyword, url, e);
-        } finally {
-            client.close();
         }
 
         return false;
     }
 
-    @SuppressWarnings("unchecked")
+    @Override
+    public boolean offerFiles(InetSocketAddress peer, Map<String, List<EntryTableEntry>> entries) {
+        UriBuilder url = UriBuilder.fromPath("NewEntries")
+                .scheme("http")
+                .host(peer.getAddress().getHostAddress())
+                .port(peer.getPort());
+
+        try {
+            logger.debug("Offering {} keywords to {} as message: {}", entries.size(), peer, url);
+            Response response = request(url).post(entity(entries, () -> EntryDto.fromKeywords(entries)));
+            int status = response.getStatus();
+            response.close();
+            return status == Response.Status.OK.getStatusCode();
+        } catch (Exception e) {
+            logger.error("Error occurred when offering keywords -> {} to -> {} with message : {}", entries.keySet(),
+                    url, e);
+        }
+
+        return false;
+    }
+
     @Override
     public Set<InetSocketAddress> searchFullFile(InetSocketAddress targetNode, String fileName, String keyword) {
         UriBuilder url = UriBuilder.fromPath("Query")
@@ -112,31 +197,64 @@ public class RestCommunicationProvider extends CommunicationProvider {
                 .host(targetNode.getAddress().getHostAddress())
                 .port(targetNode.getPort());
 
-        Client client = JerseyClientBuilder.createClient();
         try {
             logger.debug("Querying keyword {} in {}", keyword, url);
-            String response = client.target(url)
-                    .request(MediaType.APPLICATION_JSON)
-                    .get(String.class);
-
-            logger.debug("Received response : {}", response);
-            if (response != null) {
-                Object obj = RequestUtils.base64StringToObject(response);
-                logger.debug("Received entries for query {} -> {}", keyword, obj);
-                if (obj != null) {
-                    return (Set<InetSocketAddress>) obj;
-                }
-            }
+            Set<InetSocketAddress> addresses = read(request(url).get(), new GenericType<List<AddressDto>>() { },
+                    list -> list.stream().map(AddressDto::toAddress).collect(Collectors.toSet()));
+            logger.debug("Received entries for query {} -> {}", keyword, addresses);
+            return addresses;
         } catch (Exception e) {
             logger.error("Error occurred when notifying new node to -> {} with message : {}", url, e);
-        } finally {
-            client.close();
         }
 
         return null;
     }
 
+    /**
+     * Looks up all the keywords in a single request to the <pre>/batch/query</pre> endpoint.
+     */
     @SuppressWarnings("unchecked")
+    @Override
+    public Map<String, Set<InetSocketAddress>> searchFullFile(InetSocketAddress targetNode, String fileName,
+            Collection<String> keywords) {
+        UriBuilder url = UriBuilder.fromPath("batch")
+                .path("query")
+                .scheme("http")
+                .host(targetNode.getAddress().getHostAddress())
+                .port(targetNode.getPort());
+
+        List<String> keywordList = new ArrayList<>(keywords);
+        List<String[]> lookups = new ArrayList<>(keywordList.size());
+        keywordList.forEach(keyword -> lookups.add(new String[]{keyword, fileName}));
+
+        MessageCodec codec = this.node.getCodec();
+        StreamingOutput body = out -> codec.encode(lookups, out);
+        Map<String, Set<InetSocketAddress>> results = new HashMap<>();
+        try {
+            logger.debug("Querying keywords {} in {}", keywordList, url);
+            Response response = client.target(url)
+                    .request(MediaType.APPLICATION_OCTET_STREAM)
+                    .header(CODEC_HEADER, codec.getName())
+                    .post(Entity.entity(body, MediaType.APPLICATION_OCTET_STREAM));
+            try (InputStream in = response.readEntity(InputStream.class)) {
+                if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                    logger.warn("Batch query to {} failed with status {}", targetNode, response.getStatus());
+                    return results;
+                }
+
+                List<Set<InetSocketAddress>> addresses = (List<Set<InetSocketAddress>>) codec.decode(in);
+                logger.debug("Received entries for queries {} -> {}", keywordList, addresses);
+                for (int i = 0; i < keywordList.size() && i < addresses.size(); i++) {
+                    results.put(keywordList.get(i), addresses.get(i));
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error occurred when querying keywords {} in -> {} with message : {}", keywordList, url, e);
+        }
+
+        return results;
+    }
+
     @Override
     public Set<String> searchKeywordFile(InetSocketAddress targetNode, String keyword) {
         UriBuilder url = UriBuilder.fromPath("Keyword")
@@ -145,75 +263,91 @@ public class RestCommunicationProvider extends CommunicationProvider {
                 .host(targetNode.getAddress().getHostAddress())
                 .port(targetNode.getPort());
 
-        Client client = JerseyClientBuilder.createClient();
         try {
             logger.debug("Querying keyword {} in {}", keyword, url);
-            String response = client.target(url)
-                    .request(MediaType.APPLICATION_JSON)
-                    .get(String.class);
-
-            logger.debug("Received response : {}", response);
-            if (response != null) {
-                Object obj = RequestUtils.base64StringToObject(response);
-                logger.debug("Received entries for query {} -> {}", keyword, obj);
-                if (obj != null) {
-                    return (Set<String>) obj;
-                }
-            }
+            Set<String> files = read(request(url).get(), new GenericType<Set<String>>() { }, Function.identity());
+            logger.debug("Received entries for query {} -> {}", keyword, files);
+            return files;
         } catch (Exception e) {
             logger.error("Error occurred when notifying new node to -> {} with message : {}", url, e);
-        } finally {
-            client.close();
         }
 
         return  null;
     }
 
     @Override
-    public Map<Character, Map<String, List<EntryTableEntry>>> ping(InetSocketAddress peer,
-            Map<Character, Map<String, List<EntryTableEntry>>> toBeHandedOver) {
-        String base64 = null;
-        try {
-            base64 = RequestUtils.buildObjectRequest(toBeHandedOver);
-        } catch (IOException e) {
-            logger.error("Error occurred when encoding entries to be handed over to -> {}", peer, e);
-            throw new IllegalArgumentException("Unable to encode entries", e);
-        }
-
+    public EntryTableDelta ping(InetSocketAddress peer, long epoch, long version,
+            Map<String, List<EntryTableEntry>> toBeHandedOver) {
         UriBuilder url = UriBuilder.fromPath("Ping")
                 .path(String.valueOf(this.node.getNodeId()))
-                .path(base64)
+                .queryParam("epoch", epoch)
+                .queryParam("version", version)
                 .scheme("http")
                 .host(peer.getAddress().getHostAddress())
                 .port(peer.getPort());
 
-        Client client = JerseyClientBuilder.createClient();
+        // Entries are encoded straight to the connection and the changes are decoded straight from it
+        MessageCodec codec = this.node.getCodec();
+        StreamingOutput body = out -> codec.encode(toBeHandedOver, out);
         try {
             logger.debug("Pinging {} at {}", peer, url);
-//            Response response = client.target(url)
-//                    .request(MediaType.APPLICATION_JSON_TYPE)
-//                    .post(Entity.json(RequestUtils.buildObjectRequest(base64)));
-            String response = client.target(url)
-                    .request(MediaType.APPLICATION_JSON)
-                    .get(String.class);
-            logger.debug("Received response : {}", "");
-            if (response != null) {
-                Object obj = RequestUtils.base64StringToObject(response);
-                logger.debug("Received entries to take over -> {}", obj);
+            Response response = client.target(url)
+                    .request(MediaType.APPLICATION_OCTET_STREAM)
+                    .header(CODEC_HEADER, codec.getName())
+                    .post(Entity.entity(body, MediaType.APPLICATION_OCTET_STREAM));
+            try (InputStream in = response.readEntity(InputStream.class)) {
+                if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                    logger.warn("Ping to {} failed with status {}", peer, response.getStatus());
+                    return null;
+                }
+
+                Object obj = codec.decode(in);
+                logger.debug("Received entry table changes -> {}", obj);
                 if (obj != null) {
-                    return (Map<Character, Map<String, List<EntryTableEntry>>>) obj;
+                    return (EntryTableDelta) obj;
                 }
             }
         } catch (Exception e) {
             logger.error("Error occurred when connecting to -> {} with message : {}", url, e);
-        } finally {
-            client.close();
         }
 
         return null;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Sends the given object to the peer as a sync of the given type.
+     *
+     * @param peer   peer to be synced with
+     * @param type   {@link org.uom.cse.distributed.Constants#TYPE_ENTRIES} or {@link
+     *               org.uom.cse.distributed.Constants#TYPE_ROUTING}
+     * @param object entries to be taken over or the routing table
+     * @return true if the peer accepted it
+     */
+    public boolean sync(InetSocketAddress peer, String type, Object object) {
+        UriBuilder url = UriBuilder.fromPath("Sync")
+                .path(type)
+                .scheme("http")
+                .host(peer.getAddress().getHostAddress())
+                .port(peer.getPort());
+
+        MessageCodec codec = this.node.getCodec();
+        StreamingOutput body = out -> codec.encode(object, out);
+        try {
+            logger.debug("Syncing {} with {} at {}", type, peer, url);
+            Response response = client.target(url)
+                    .request()
+                    .header(CODEC_HEADER, codec.getName())
+                    .post(Entity.entity(body, MediaType.APPLICATION_OCTET_STREAM));
+            int status = response.getStatus();
+            response.close();
+            return status == Response.Status.OK.getStatusCode();
+        } catch (Exception e) {
+            logger.error("Error occurred when syncing {} with -> {} with message : {}", type, url, e);
+        }
+
+        return false;
+    }
+
     @Override
     public Set<RoutingTableEntry> connect(InetSocketAddress peer) {
         UriBuilder url = UriBuilder.fromPath("getRoutingTable")
@@ -221,26 +355,114 @@ public class RestCommunicationProvider extends CommunicationProvider {
                 .host(peer.getAddress().getHostAddress())
                 .port(peer.getPort());
 
-        Client client = JerseyClientBuilder.createClient();
         try {
             logger.debug("Connecting to {} at {}", peer, url);
-            String response = client.target(url)
-                    .request(MediaType.APPLICATION_JSON_TYPE)
-                    .get(String.class);
-            logger.debug("Received response : {}", response);
-            if (response != null) {
-                Object obj = RequestUtils.base64StringToObject(response);
-                logger.debug("Received routing table -> {}", obj);
-                if (obj != null) {
-                    return (Set<RoutingTableEntry>) obj;
-                }
-            }
+            Set<RoutingTableEntry> routingTable = read(request(url).get(), new GenericType<List<NodeDto>>() { },
+                    list -> list.stream().map(NodeDto::toEntry).collect(Collectors.toSet()));
+            logger.debug("Received routing table -> {}", routingTable);
+            return routingTable;
         } catch (Exception e) {
             logger.error("Error occurred when connecting to -> {} with message : {}", url, e);
-        } finally {
-            client.close();
         }
 
         return null;
     }
+
+    @Override
+    public List<RoutingTableEntry> findSuccessor(InetSocketAddress peer, int nodeId) {
+        UriBuilder url = UriBuilder.fromPath("FindSuccessor")
+                .path(String.valueOf(nodeId))
+                .scheme("http")
+                .host(peer.getAddress().getHostAddress())
+                .port(peer.getPort());
+
+        try {
+            logger.debug("Looking up the owner of {} at {}", nodeId, url);
+            List<RoutingTableEntry> hop = read(request(url).get(), new GenericType<List<NodeDto>>() { },
+                    list -> list.stream().map(NodeDto::toEntry).collect(Collectors.toList()));
+            logger.debug("Received next hop to the owner of {} -> {}", nodeId, hop);
+            if (hop != null) {
+                return hop;
+            }
+        } catch (Exception e) {
+            logger.error("Error occurred when looking up the owner of {} at -> {} with message : {}", nodeId, url, e);
+        }
+
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<RangeLoad> getLoad(InetSocketAddress peer) {
+        UriBuilder url = UriBuilder.fromPath("Load")
+                .scheme("http")
+                .host(peer.getAddress().getHostAddress())
+                .port(peer.getPort());
+
+        try {
+            logger.debug("Asking for the load at {}", url);
+            List<RangeLoad> load = read(request(url).get(), new GenericType<List<RangeLoadDto>>() { },
+                    list -> list.stream().map(RangeLoadDto::toLoad).collect(Collectors.toList()));
+            logger.debug("Received load of {} -> {}", peer, load);
+            if (load != null) {
+                return load;
+            }
+        } catch (Exception e) {
+            logger.error("Error occurred when asking for the load at -> {} with message : {}", url, e);
+        }
+
+        return new ArrayList<>();
+    }
+
+    /**
+     * @return a request to the given URL asking for the result in the configured media type
+     */
+    private Invocation.Builder request(UriBuilder url) {
+        return client.target(url)
+                .request(mediaType)
+                .header(CODEC_HEADER, this.node.getCodec().getName());
+    }
+
+    /**
+     * @param object object to be sent
+     * @param json   builds the JSON form of the object
+     * @return the object as a request body of the configured media type
+     */
+    private Entity<?> entity(Object object, Supplier<Object> json) {
+        if (MediaType.APPLICATION_JSON_TYPE.equals(mediaType)) {
+            return Entity.json(json.get());
+        }
+
+        MessageCodec codec = this.node.getCodec();
+        StreamingOutput body = out -> codec.encode(object, out);
+        return Entity.entity(body, MediaType.APPLICATION_OCTET_STREAM_TYPE);
+    }
+
+    /**
+     * Reads the result in the media type the peer responded with, and closes the response.
+     *
+     * @param response response of the peer
+     * @param jsonType type of the JSON form of the result
+     * @param fromJson converts the JSON form to the result
+     * @return result | null if the peer failed to respond with one
+     * @throws IOException if the result couldn't be decoded
+     */
+    @SuppressWarnings("unchecked")
+    private <T, D> T read(Response response, GenericType<D> jsonType, Function<D, T> fromJson) throws IOException {
+        try {
+            if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                logger.warn("Peer responded with status {}", response.getStatus());
+                return null;
+            }
+
+            if (MediaType.APPLICATION_OCTET_STREAM_TYPE.isCompatible(response.getMediaType())) {
+                try (InputStream in = response.readEntity(InputStream.class)) {
+                    return (T) this.node.getCodec().decode(in);
+                }
+            }
+            D json = response.readEntity(jsonType);
+            return json == null ? null : fromJson.apply(json);
+        } finally {
+            response.close();
+        }
+    }
 }
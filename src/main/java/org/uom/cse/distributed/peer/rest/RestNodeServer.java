@@ -1,9 +1,11 @@
 package org.uom.cse.distributed.peer.rest;
 
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.session.SessionHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.glassfish.jersey.server.ResourceConfig;
 import org.glassfish.jersey.servlet.ServletContainer;
 import org.slf4j.Logger;
@@ -11,8 +13,15 @@ import org.slf4j.LoggerFactory;
 import org.uom.cse.distributed.peer.Node;
 import org.uom.cse.distributed.peer.api.NodeServer;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * This Class provides the implementation of the server side, of each of the nodes.
+ * This Class provides the implementation of the server side, of each of the nodes. Lookups are suspended and handed
+ * over to a bounded pool of workers, freeing the Jetty thread. See {@link RestServerConfig} for the limits.
  *
  * @author Vithusha Aarabhi
  * @author Jayan Vidanapathirana
@@ -22,18 +31,46 @@ public class RestNodeServer implements NodeServer {
     private static final Logger logger = LoggerFactory.getLogger(RestNodeServer.class);
     private boolean started = false;
 
+    private final AtomicInteger workerCount = new AtomicInteger(0);
+    private final RestServerConfig config;
+
     private Server jettyServer;
+    private ExecutorService workers;
+
+    public RestNodeServer() {
+        this(new RestServerConfig());
+    }
+
+    public RestNodeServer(RestServerConfig config) {
+        config.validate();
+        this.config = config;
+    }
 
     @Override
     public void start(Node node) {
         if (started) {
             logger.warn("Listener already running");
         } else {
-            ResourceConfig config = new ResourceConfig();
-            config.register(new NodeController(node));
-            ServletHolder servlet = new ServletHolder(new ServletContainer(config));
+            int port = node.getPort();
+            workers = new ThreadPoolExecutor(config.getWorkerThreads(), config.getWorkerThreads(), 0L,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(config.getWorkerQueueSize()),
+                    r -> new Thread(r, "rest-worker-" + port + "-" + workerCount.getAndIncrement()));
+
+            ResourceConfig resourceConfig = new ResourceConfig();
+            resourceConfig.register(new NodeController(node, workers, config.getRequestTimeoutMs()));
+            ServletHolder servlet = new ServletHolder(new ServletContainer(resourceConfig));
+            servlet.setAsyncSupported(true);
+
+            // Connections arriving while all the threads are busy and the queue is full are rejected
+            QueuedThreadPool threadPool = new QueuedThreadPool(config.getMaxThreads(), config.getMinThreads(),
+                    config.getIdleTimeoutMs(), new ArrayBlockingQueue<>(config.getQueueSize()));
+            threadPool.setName("rest-" + port);
+            jettyServer = new Server(threadPool);
 
-            jettyServer = new Server(node.getPort());
+            ServerConnector connector = new ServerConnector(jettyServer, config.getAcceptors(), config.getSelectors());
+            connector.setPort(port);
+            connector.setIdleTimeout(config.getIdleTimeoutMs());
+            jettyServer.addConnector(connector);
 
             ServletContextHandler context = new ServletContextHandler(jettyServer, null);
             context.addServlet(servlet, "/*");
@@ -44,10 +81,12 @@ public class RestNodeServer implements NodeServer {
                 jettyServer.start();
             } catch (Exception e) {
                 logger.error("Error occurred when starting REST server due to", e);
+                workers.shutdownNow();
                 return;
             }
 
-            logger.info("REST Server started successfully ...");
+            started = true;
+            logger.info("REST Server started successfully with {} ...", config);
         }
     }
 
@@ -60,6 +99,7 @@ public class RestNodeServer implements NodeServer {
             } catch (Exception e) {
                 logger.error("Error occurred when stopping the REST server due to : {}", e.getMessage());
             }
+            workers.shutdownNow();
         }
     }
 
@@ -68,5 +108,7 @@ public class RestNodeServer implements NodeServer {
 
     }
 
-
+    public RestServerConfig getConfig() {
+        return config;
+    }
 }
@@ -0,0 +1,147 @@
+package org.uom.cse.distributed.peer.rest;
+
+import static org.uom.cse.distributed.Constants.REST_REQUEST_TIMEOUT_MS;
+import static org.uom.cse.distributed.Constants.REST_SERVER_ACCEPTORS;
+import static org.uom.cse.distributed.Constants.REST_SERVER_IDLE_TIMEOUT_MS;
+import static org.uom.cse.distributed.Constants.REST_SERVER_MAX_THREADS;
+import static org.uom.cse.distributed.Constants.REST_SERVER_MIN_THREADS;
+import static org.uom.cse.distributed.Constants.REST_SERVER_QUEUE_SIZE;
+import static org.uom.cse.distributed.Constants.REST_SERVER_SELECTORS;
+import static org.uom.cse.distributed.Constants.REST_WORKER_QUEUE_SIZE;
+import static org.uom.cse.distributed.Constants.REST_WORKER_THREADS;
+
+/**
+ * Threading and connection limits of a {@link RestNodeServer}. Jetty threads accept connections and parse requests,
+ * while the lookups ({@link NodeController#query}, {@link NodeController#queryKeyword}, {@link NodeController#ping})
+ * are handled by a separate bounded pool of workers. Both pools have bounded queues, hence a load spike is queued up to
+ * a known limit and rejected beyond it instead of piling up threads. Defaults are taken from the {@link
+ * org.uom.cse.distributed.Constants}.
+ */
+public class RestServerConfig {
+
+    private int maxThreads = REST_SERVER_MAX_THREADS;
+    private int minThreads = REST_SERVER_MIN_THREADS;
+    private int queueSize = REST_SERVER_QUEUE_SIZE;
+    private int acceptors = REST_SERVER_ACCEPTORS;
+    private int selectors = REST_SERVER_SELECTORS;
+    private int idleTimeoutMs = REST_SERVER_IDLE_TIMEOUT_MS;
+    private int workerThreads = REST_WORKER_THREADS;
+    private int workerQueueSize = REST_WORKER_QUEUE_SIZE;
+    private int requestTimeoutMs = REST_REQUEST_TIMEOUT_MS;
+
+    /**
+     * Checks whether the limits are consistent with each other.
+     *
+     * @throws IllegalArgumentException if not
+     */
+    public void validate() {
+        if (acceptors <= 0 || selectors <= 0) {
+            throw new IllegalArgumentException("Acceptors and selectors should be positive");
+        }
+        if (minThreads <= 0 || maxThreads < minThreads) {
+            throw new IllegalArgumentException("Jetty threads should be positive and min threads within max threads");
+        }
+        // Acceptors and selectors hold on to their threads. There should be some left to handle requests
+        if (maxThreads <= acceptors + selectors) {
+            throw new IllegalArgumentException(String.format("%d Jetty threads aren't enough for %d acceptors and " +
+                    "%d selectors", maxThreads, acceptors, selectors));
+        }
+        if (queueSize <= 0 || workerThreads <= 0 || workerQueueSize <= 0) {
+            throw new IllegalArgumentException("Queue sizes and worker threads should be positive");
+        }
+        if (idleTimeoutMs <= 0 || requestTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Timeouts should be positive");
+        }
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
+
+    public void setMinThreads(int minThreads) {
+        this.minThreads = minThreads;
+    }
+
+    /**
+     * @return number of connections which may wait for a Jetty thread
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    public void setAcceptors(int acceptors) {
+        this.acceptors = acceptors;
+    }
+
+    public int getSelectors() {
+        return selectors;
+    }
+
+    public void setSelectors(int selectors) {
+        this.selectors = selectors;
+    }
+
+    /**
+     * @return time after which an idle connection is closed by the server
+     */
+    public int getIdleTimeoutMs() {
+        return idleTimeoutMs;
+    }
+
+    public void setIdleTimeoutMs(int idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * @return number of lookups which may wait for a worker
+     */
+    public int getWorkerQueueSize() {
+        return workerQueueSize;
+    }
+
+    public void setWorkerQueueSize(int workerQueueSize) {
+        this.workerQueueSize = workerQueueSize;
+    }
+
+    /**
+     * @return time after which a lookup still waiting for a worker or still running is answered with 503
+     */
+    public int getRequestTimeoutMs() {
+        return requestTimeoutMs;
+    }
+
+    public void setRequestTimeoutMs(int requestTimeoutMs) {
+        this.requestTimeoutMs = requestTimeoutMs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[threads: %d-%d, queue: %d, acceptors: %d, selectors: %d, idle timeout: %dms, " +
+                        "workers: %d, worker queue: %d, request timeout: %dms]", minThreads, maxThreads, queueSize,
+                acceptors, selectors, idleTimeoutMs, workerThreads, workerQueueSize, requestTimeoutMs);
+    }
+}
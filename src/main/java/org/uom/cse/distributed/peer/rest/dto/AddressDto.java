@@ -0,0 +1,45 @@
+package org.uom.cse.distributed.peer.rest.dto;
+
+import java.net.InetSocketAddress;
+
+/**
+ * JSON form of an {@link InetSocketAddress}, i.e: a node having a file.
+ */
+public class AddressDto {
+
+    private String ip;
+    private int port;
+
+    public AddressDto() { }
+
+    public AddressDto(String ip, int port) {
+        this.ip = ip;
+        this.port = port;
+    }
+
+    public static AddressDto from(InetSocketAddress address) {
+        // Resolved addresses are sent as IPs so that the receiver doesn't have to resolve them again
+        String ip = address.getAddress() == null ? address.getHostString() : address.getAddress().getHostAddress();
+        return new AddressDto(ip, address.getPort());
+    }
+
+    public InetSocketAddress toAddress() {
+        return new InetSocketAddress(ip, port);
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public void setIp(String ip) {
+        this.ip = ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+}
@@ -0,0 +1,69 @@
+package org.uom.cse.distributed.peer.rest.dto;
+
+import org.uom.cse.distributed.peer.api.EntryTableEntry;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * JSON form of an {@link EntryTableEntry}. Also converts the keyword maps of the entry table to and from their JSON
+ * forms.
+ */
+public class EntryDto {
+
+    private String node;
+    private String file;
+
+    public EntryDto() { }
+
+    public EntryDto(String node, String file) {
+        this.node = node;
+        this.file = file;
+    }
+
+    public static EntryDto from(EntryTableEntry entry) {
+        return new EntryDto(entry.getNodeName(), entry.getFileName());
+    }
+
+    public EntryTableEntry toEntry() {
+        return new EntryTableEntry(node, file);
+    }
+
+    /**
+     * @param entries keyword -> entries
+     * @return keyword -> JSON form of the entries
+     */
+    public static Map<String, List<EntryDto>> fromKeywords(Map<String, List<EntryTableEntry>> entries) {
+        return convert(entries, EntryDto::from);
+    }
+
+    public static Map<String, List<EntryTableEntry>> toKeywords(Map<String, List<EntryDto>> entries) {
+        return convert(entries, EntryDto::toEntry);
+    }
+
+    private static <S, T> Map<String, List<T>> convert(Map<String, List<S>> entries, Function<S, T> converter) {
+        Map<String, List<T>> converted = new HashMap<>();
+        entries.forEach((keyword, list) -> converted.put(keyword,
+                list.stream().map(converter).collect(Collectors.toList())));
+        return converted;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public void setNode(String node) {
+        this.node = node;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+}
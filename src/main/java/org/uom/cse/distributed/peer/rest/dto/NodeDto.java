@@ -0,0 +1,56 @@
+package org.uom.cse.distributed.peer.rest.dto;
+
+import org.uom.cse.distributed.peer.api.RoutingTableEntry;
+
+import java.net.InetSocketAddress;
+
+/**
+ * JSON form of a {@link RoutingTableEntry}.
+ */
+public class NodeDto {
+
+    private int id;
+    private String ip;
+    private int port;
+
+    public NodeDto() { }
+
+    public NodeDto(int id, String ip, int port) {
+        this.id = id;
+        this.ip = ip;
+        this.port = port;
+    }
+
+    public static NodeDto from(RoutingTableEntry entry) {
+        AddressDto address = AddressDto.from(entry.getAddress());
+        return new NodeDto(entry.getNodeId(), address.getIp(), address.getPort());
+    }
+
+    public RoutingTableEntry toEntry() {
+        return new RoutingTableEntry(new InetSocketAddress(ip, port), id);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public void setIp(String ip) {
+        this.ip = ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+}
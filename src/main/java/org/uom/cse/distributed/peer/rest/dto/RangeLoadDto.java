@@ -0,0 +1,63 @@
+package org.uom.cse.distributed.peer.rest.dto;
+
+import org.uom.cse.distributed.peer.api.RangeLoad;
+
+/**
+ * JSON form of a {@link RangeLoad}.
+ */
+public class RangeLoadDto {
+
+    private int id;
+    private int from;
+    private int entries;
+    private int splitPoint;
+
+    public RangeLoadDto() { }
+
+    public RangeLoadDto(int id, int from, int entries, int splitPoint) {
+        this.id = id;
+        this.from = from;
+        this.entries = entries;
+        this.splitPoint = splitPoint;
+    }
+
+    public static RangeLoadDto from(RangeLoad load) {
+        return new RangeLoadDto(load.getNodeId(), load.getFrom(), load.getEntries(), load.getSplitPoint());
+    }
+
+    public RangeLoad toLoad() {
+        return new RangeLoad(id, from, entries, splitPoint);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public int getFrom() {
+        return from;
+    }
+
+    public void setFrom(int from) {
+        this.from = from;
+    }
+
+    public int getEntries() {
+        return entries;
+    }
+
+    public void setEntries(int entries) {
+        this.entries = entries;
+    }
+
+    public int getSplitPoint() {
+        return splitPoint;
+    }
+
+    public void setSplitPoint(int splitPoint) {
+        this.splitPoint = splitPoint;
+    }
+}
@@ -0,0 +1,358 @@
+package org.uom.cse.distributed.peer.utils;
+
+import org.uom.cse.distributed.peer.api.EntryTableDelta;
+import org.uom.cse.distributed.peer.api.EntryTableEntry;
+import org.uom.cse.distributed.peer.api.MessageCodec;
+import org.uom.cse.distributed.peer.api.RangeLoad;
+import org.uom.cse.distributed.peer.api.RoutingTableEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.uom.cse.distributed.Constants.CODEC_MAX_ELEMENTS;
+import static org.uom.cse.distributed.Constants.CODEC_MAX_STRING_BYTES;
+
+/**
+ * A compact, hand written binary {@link MessageCodec}. Every value is written as a one byte type tag followed by its
+ * content. Strings, collections and maps are length prefixed. Supported values are;
+ * <pre>
+ *     <ul>
+ *         <li>{@link RoutingTableEntry}, {@link EntryTableEntry}, {@link EntryTableDelta} and {@link RangeLoad}</li>
+ *         <li>{@link InetSocketAddress}, {@link String}, {@link Character} and {@link Integer}</li>
+ *         <li>{@link List}, {@link Set} and {@link Map} of the above. i.e: the entries handed over as
+ *         <code>Map&lt;String, List&lt;EntryTableEntry&gt;&gt;</code></li>
+ *         <li><code>String[]</code> and <code>InetSocketAddress[]</code></li>
+ *     </ul>
+ * </pre>
+ * Sizes read from the wire are checked against {@link org.uom.cse.distributed.Constants#CODEC_MAX_ELEMENTS} and
+ * {@link org.uom.cse.distributed.Constants#CODEC_MAX_STRING_BYTES}, and against the bytes left when decoding an
+ * in-memory payload. Collections of other streams grow as their elements arrive rather than being allocated up front.
+ * Hence a malformed payload fails with an {@link IOException} instead of exhausting the heap.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    public static final String NAME = "BIN";
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte CHARACTER = 2;
+    private static final byte INTEGER = 3;
+    private static final byte ADDRESS = 4;
+    private static final byte ROUTING_ENTRY = 5;
+    private static final byte ENTRY = 6;
+    private static final byte LIST = 7;
+    private static final byte SET = 8;
+    private static final byte MAP = 9;
+    private static final byte STRING_ARRAY = 10;
+    private static final byte ADDRESS_ARRAY = 11;
+    private static final byte DELTA = 12;
+    private static final byte RANGE_LOAD = 13;
+
+    /** Deepest nesting of collections expected. i.e: A delta of keyword -> entries maps */
+    private static final int MAX_DEPTH = 8;
+    /** Elements allocated up front for a collection read from a stream of unknown length */
+    private static final int UNSIZED_CAPACITY = 1024;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void encode(Object object, OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        write(dos, object);
+        dos.flush();
+    }
+
+    @Override
+    public Object decode(InputStream in) throws IOException {
+        return read(new Input(in), 0);
+    }
+
+    private void write(DataOutputStream out, Object object) throws IOException {
+        if (object == null) {
+            out.writeByte(NULL);
+        } else if (object instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) object);
+        } else if (object instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) object);
+        } else if (object instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) object);
+        } else if (object instanceof InetSocketAddress) {
+            out.writeByte(ADDRESS);
+            writeAddress(out, (InetSocketAddress) object);
+        } else if (object instanceof RoutingTableEntry) {
+            RoutingTableEntry entry = (RoutingTableEntry) object;
+            out.writeByte(ROUTING_ENTRY);
+            out.writeInt(entry.getNodeId());
+            writeAddress(out, entry.getAddress());
+        } else if (object instanceof EntryTableEntry) {
+            EntryTableEntry entry = (EntryTableEntry) object;
+            out.writeByte(ENTRY);
+            writeString(out, entry.getNodeName());
+            writeString(out, entry.getFileName());
+        } else if (object instanceof EntryTableDelta) {
+            EntryTableDelta delta = (EntryTableDelta) object;
+            out.writeByte(DELTA);
+            out.writeLong(delta.getEpoch());
+            out.writeLong(delta.getVersion());
+            out.writeBoolean(delta.isFull());
+            write(out, delta.getAdded());
+            write(out, delta.getRemoved());
+        } else if (object instanceof RangeLoad) {
+            RangeLoad load = (RangeLoad) object;
+            out.writeByte(RANGE_LOAD);
+            out.writeInt(load.getNodeId());
+            out.writeInt(load.getFrom());
+            out.writeInt(load.getEntries());
+            out.writeInt(load.getSplitPoint());
+        } else if (object instanceof Set) {
+            out.writeByte(SET);
+            writeCollection(out, (Collection<?>) object);
+        } else if (object instanceof Collection) {
+            out.writeByte(LIST);
+            writeCollection(out, (Collection<?>) object);
+        } else if (object instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            out.writeByte(MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(out, entry.getKey());
+                write(out, entry.getValue());
+            }
+        } else if (object instanceof String[]) {
+            String[] strings = (String[]) object;
+            out.writeByte(STRING_ARRAY);
+            out.writeInt(strings.length);
+            for (String string : strings) {
+                writeString(out, string);
+            }
+        } else if (object instanceof InetSocketAddress[]) {
+            InetSocketAddress[] addresses = (InetSocketAddress[]) object;
+            out.writeByte(ADDRESS_ARRAY);
+            out.writeInt(addresses.length);
+            for (InetSocketAddress address : addresses) {
+                writeAddress(out, address);
+            }
+        } else {
+            throw new IOException("Unsupported type: " + object.getClass().getName());
+        }
+    }
+
+    private Object read(Input in, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Values are nested deeper than " + MAX_DEPTH);
+        }
+
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case CHARACTER:
+                return in.readChar();
+            case INTEGER:
+                return in.readInt();
+            case ADDRESS:
+                return readAddress(in);
+            case ROUTING_ENTRY:
+                int nodeId = in.readInt();
+                return new RoutingTableEntry(readAddress(in), nodeId);
+            case ENTRY:
+                String nodeName = readString(in);
+                return new EntryTableEntry(nodeName, readString(in));
+            case DELTA: {
+                long epoch = in.readLong();
+                long version = in.readLong();
+                boolean full = in.readBoolean();
+                Map<String, List<EntryTableEntry>> added = readEntries(in, depth + 1);
+                Map<String, List<EntryTableEntry>> removed = readEntries(in, depth + 1);
+                return new EntryTableDelta(epoch, version, full, added, removed);
+            }
+            case RANGE_LOAD:
+                return new RangeLoad(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            case LIST: {
+                int size = in.readSize(CODEC_MAX_ELEMENTS, 1);
+                List<Object> list = new ArrayList<>(in.capacityFor(size));
+                for (int i = 0; i < size; i++) {
+                    list.add(read(in, depth + 1));
+                }
+                return list;
+            }
+            case SET: {
+                int size = in.readSize(CODEC_MAX_ELEMENTS, 1);
+                Set<Object> set = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    set.add(read(in, depth + 1));
+                }
+                return set;
+            }
+            case MAP: {
+                int size = in.readSize(CODEC_MAX_ELEMENTS, 2);
+                Map<Object, Object> map = new HashMap<>();
+                for (int i = 0; i < size; i++) {
+                    Object key = read(in, depth + 1);
+                    map.put(key, read(in, depth + 1));
+                }
+                return map;
+            }
+            case STRING_ARRAY: {
+                int size = in.readSize(CODEC_MAX_ELEMENTS, Integer.BYTES);
+                List<String> strings = new ArrayList<>(in.capacityFor(size));
+                for (int i = 0; i < size; i++) {
+                    strings.add(readString(in));
+                }
+                return strings.toArray(new String[0]);
+            }
+            case ADDRESS_ARRAY: {
+                int size = in.readSize(CODEC_MAX_ELEMENTS, Integer.BYTES);
+                List<InetSocketAddress> addresses = new ArrayList<>(in.capacityFor(size));
+                for (int i = 0; i < size; i++) {
+                    addresses.add(readAddress(in));
+                }
+                return addresses.toArray(new InetSocketAddress[0]);
+            }
+            default:
+                throw new IOException("Unknown type tag: " + type);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, List<EntryTableEntry>> readEntries(Input in, int depth) throws IOException {
+        Object entries = read(in, depth);
+        if (entries != null && !(entries instanceof Map)) {
+            throw new IOException("Entries of a delta should be a map: " + entries.getClass().getName());
+        }
+        return (Map<String, List<EntryTableEntry>>) entries;
+    }
+
+    private void writeCollection(DataOutputStream out, Collection<?> collection) throws IOException {
+        out.writeInt(collection.size());
+        for (Object object : collection) {
+            write(out, object);
+        }
+    }
+
+    /**
+     * Strings are written as the length of the UTF-8 bytes followed by the bytes. -1 represents null.
+     */
+    private void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString(Input in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+
+        byte[] bytes = new byte[in.checkSize(length, CODEC_MAX_STRING_BYTES, 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Addresses are written as the host string, port and the raw IP (if resolved) so that reading them back doesn't
+     * need a DNS lookup.
+     */
+    private void writeAddress(DataOutputStream out, InetSocketAddress address) throws IOException {
+        if (address == null) {
+            writeString(out, null);
+            return;
+        }
+
+        writeString(out, address.getHostString());
+        out.writeShort(address.getPort());
+        if (address.isUnresolved()) {
+            out.writeByte(0);
+        } else {
+            byte[] ip = address.getAddress().getAddress();
+            out.writeByte(ip.length);
+            out.write(ip);
+        }
+    }
+
+    private InetSocketAddress readAddress(Input in) throws IOException {
+        String host = readString(in);
+        if (host == null) {
+            return null;
+        }
+
+        int port = in.readUnsignedShort();
+        int ipLength = in.readUnsignedByte();
+        if (ipLength == 0) {
+            return InetSocketAddress.createUnresolved(host, port);
+        }
+
+        byte[] ip = new byte[ipLength];
+        in.readFully(ip);
+        return new InetSocketAddress(InetAddress.getByAddress(host, ip), port);
+    }
+
+    /**
+     * Checks the sizes read from the wire before anything is allocated for them. Only an in-memory payload tells how
+     * many bytes are left. Sizes read from other streams are bounded by the limits alone.
+     */
+    private static final class Input extends DataInputStream {
+
+        private final boolean sized;
+
+        private Input(InputStream in) {
+            super(in);
+            this.sized = in instanceof ByteArrayInputStream;
+        }
+
+        /**
+         * @param max       largest size accepted
+         * @param bytesEach fewest bytes taken by each element
+         * @return size read
+         * @throws IOException if the size is negative, larger than the max or larger than the bytes left
+         */
+        private int readSize(int max, int bytesEach) throws IOException {
+            return checkSize(readInt(), max, bytesEach);
+        }
+
+        private int checkSize(int size, int max, int bytesEach) throws IOException {
+            if (size < 0 || size > max) {
+                throw new IOException("Size " + size + " is not within 0 - " + max);
+            }
+            if (sized && (long) size * bytesEach > available()) {
+                throw new IOException("Size " + size + " needs more than the " + available() + " bytes left");
+            }
+            return size;
+        }
+
+        /**
+         * @return elements to be allocated up front for a collection of the given size
+         */
+        private int capacityFor(int size) {
+            return sized ? size : Math.min(size, UNSIZED_CAPACITY);
+        }
+    }
+}
@@ -1,84 +1,91 @@
-/* 
+/*
  * <Paste your header here>
  */
 package org.uom.cse.distributed.peer.utils;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Locale;
 
-import static org.uom.cse.distributed.Constants.ADDRESSES_PER_CHARACTER;
-import static org.uom.cse.distributed.Constants.CHARACTER_SPACE_SIZE;
+import static org.uom.cse.distributed.Constants.RING_BITS;
+import static org.uom.cse.distributed.Constants.ROUTING_PREFIX_LENGTH;
 
+/**
+ * Maps keywords and node IDs onto a ring of <strong>2^{@link org.uom.cse.distributed.Constants#RING_BITS}</strong>
+ * positions, <strong>[1, 2^RING_BITS]</strong>. A keyword belongs to the first node at or after its position. Hence a
+ * node owns the positions in <strong>(predecessor, node]</strong>.
+ */
 public class HashUtils {
 
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
     private HashUtils() { }
 
     /**
-     * Converts the keyword into an integer which can later be used to determine the node in which this file's
-     * information is stored.
+     * Hashes the whole keyword, ignoring its case, onto the ring. Keywords are spread evenly regardless of how skewed
+     * their first letters are. Only the first {@link org.uom.cse.distributed.Constants#ROUTING_PREFIX_LENGTH}
+     * characters are hashed in prefix routing mode, so that a prefix at least that long is owned by a single node.
      *
-     * @param keyword keyword o be hashed
-     * @return matching node ID
+     * @param keyword keyword to be hashed
+     * @return position of the keyword in the ring. i.e: the node ID the keyword is matched against
      */
     public static int keywordToNodeId(String keyword) {
-        char c = Character.toUpperCase(keyword.charAt(0));
-        int index;
-        if (Character.isLetter(c)) {
-            index = (int) c - (int) 'A' + 10 + 1;
-        } else if (Character.isDigit(c)) {
-            index = (int) c - (int) '0' + 1;
-        } else {
-            throw new UnsupportedOperationException(c + " is not a letter or a digit");
+        String normalized = keyword.toLowerCase(Locale.ROOT);
+        int length = ROUTING_PREFIX_LENGTH > 0 ? Math.min(ROUTING_PREFIX_LENGTH, normalized.length())
+                : normalized.length();
+        // FNV-1a, then MurmurHash3's finalizer since FNV alone leaves the high bits poorly mixed for short keywords
+        int hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < length; i++) {
+            hash = (hash ^ normalized.charAt(i)) * FNV_PRIME;
         }
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
 
-        index = index * ADDRESSES_PER_CHARACTER;
-
-        return index;
+        return (hash >>> (Integer.SIZE - RING_BITS)) + 1;
     }
 
-    public static char nodeIdToChar(int nodeId) {
-        return nodeIdToChar(nodeId, false);
+    /**
+     * @return number of positions in the ring
+     */
+    public static int ringSize() {
+        return 1 << RING_BITS;
     }
 
-    private static char nodeIdToChar(int nodeId, boolean reduced) {
-        if (!reduced) {
-            nodeId = nodeId / ADDRESSES_PER_CHARACTER - 1;
-        }
+    /**
+     * @param nodeId   a position in the ring
+     * @param distance number of positions to move clockwise
+     * @return the position <code>distance</code> ahead of the given one, wrapping around the ring
+     */
+    public static int moveAhead(int nodeId, long distance) {
+        return (int) ((nodeId - 1 + distance) % ringSize()) + 1;
+    }
 
-        if (nodeId < 10) {
-            return (char) (nodeId + (int) '0');
-        } else {
-            return (char) (nodeId + (int) 'A' - 10);
-        }
+    /**
+     * @param from a position in the ring
+     * @param to   another position in the ring
+     * @return number of positions to move clockwise from <code>from</code> to reach <code>to</code>. i.e: Within
+     * <strong>[1, 2^RING_BITS]</strong>, a full turn if both are the same
+     */
+    public static long distance(int from, int to) {
+        long distance = ((long) to - from) & (ringSize() - 1L);
+        return distance == 0 ? ringSize() : distance;
     }
 
     /**
-     * Finds the characters that should be undertaken by the node given by <code>nodeId</code>. <code>predecessor</code>
-     * is the predecessor available for that node.
-     * <p>
-     * WARNING!!! - This method ommits the current node. Therefore, should do calculations for the current node
-     * separately
+     * Checks whether a position falls within the range owned by a node, given its predecessor. i.e: <strong>(from,
+     * to]</strong> going clockwise around the ring. The whole ring if both ends are the same.
      *
-     * @param nodeId      ID of the node
-     * @param predecessor predecessor of that node
-     * @return list of characters belonging to the node.
+     * @param nodeId position to be checked
+     * @param from   predecessor. Excluded
+     * @param to     node. Included
+     * @return true if within the range
      */
-    public static Set<Character> findCharactersOf(int nodeId, int predecessor) {
-        predecessor = predecessor / ADDRESSES_PER_CHARACTER - 1;
-        predecessor = predecessor < CHARACTER_SPACE_SIZE - 1 ? predecessor + 1 : 0;
-        nodeId = nodeId / ADDRESSES_PER_CHARACTER - 1;
-
-        Set<Character> characters = new HashSet<>();
-
-        while (predecessor != nodeId) {
-            // Then all characters
-            characters.add(nodeIdToChar(predecessor, true));
-            predecessor++;
-            if (predecessor == CHARACTER_SPACE_SIZE) {
-                predecessor = 0;
-            }
+    public static boolean isBetween(int nodeId, int from, int to) {
+        if (from < to) {
+            return nodeId > from && nodeId <= to;
         }
-
-        return characters;
+        return nodeId > from || nodeId <= to;
     }
 }
@@ -0,0 +1,38 @@
+package org.uom.cse.distributed.peer.utils;
+
+import org.uom.cse.distributed.peer.api.MessageCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link MessageCodec} based on Java serialization. This is what every node understands.
+ */
+public class JavaMessageCodec implements MessageCodec {
+
+    public static final String NAME = "JAVA";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void encode(Object object, OutputStream out) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(out);
+        oos.writeObject(object);
+        oos.flush();
+    }
+
+    @Override
+    public Object decode(InputStream in) throws IOException {
+        try {
+            return new ObjectInputStream(in).readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class received", e);
+        }
+    }
+}
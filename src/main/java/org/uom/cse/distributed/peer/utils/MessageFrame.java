@@ -0,0 +1,314 @@
+package org.uom.cse.distributed.peer.utils;
+
+import org.uom.cse.distributed.peer.api.Command;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.uom.cse.distributed.Constants.CODEC_SEPARATOR;
+import static org.uom.cse.distributed.Constants.CORRELATION_PREFIX;
+
+/**
+ * A <pre>[#${requestId}[:${codec}] ]${length} ${command} ${args}</pre> frame parsed in place from the bytes it was
+ * received in. The length counts the bytes of the frame starting from the length field itself and bounds the frame;
+ * anything after it is ignored. Arguments are read through a cursor ({@link #nextToken()}, {@link #nextInt()}, {@link
+ * #remaining()}...) so that only the values actually needed are ever copied out of the buffer.
+ * <p>
+ * The buffer must not be modified while the frame is in use.
+ */
+public final class MessageFrame {
+
+    private static final byte SPACE = ' ';
+    private static final byte PREFIX = (byte) CORRELATION_PREFIX.charAt(0);
+    private static final byte SEPARATOR = (byte) CODEC_SEPARATOR;
+
+    private final ByteBuffer buffer;
+    private final String requestId;
+    private final String codecName;
+    private final int start;
+    private final int end;
+    private final int length;
+    private final int commandStart;
+    private final int commandEnd;
+    private final Command command;
+    private int position;
+
+    private MessageFrame(ByteBuffer buffer, String requestId, String codecName, int start, int end, int length,
+            int commandStart, int commandEnd) {
+        this.buffer = buffer;
+        this.requestId = requestId;
+        this.codecName = codecName;
+        this.start = start;
+        this.end = end;
+        this.length = length;
+        this.commandStart = commandStart;
+        this.commandEnd = commandEnd;
+        this.command = Command.match(buffer, commandStart, commandEnd);
+        this.position = Math.min(commandEnd + 1, end);
+    }
+
+    /**
+     * Parses the frame held by the remaining bytes of the buffer. The position of the buffer is not changed.
+     *
+     * @param buffer buffer holding a single frame
+     * @return parsed frame
+     * @throws IllegalArgumentException if the frame is malformed or shorter than its length says
+     */
+    public static MessageFrame parse(ByteBuffer buffer) {
+        int limit = buffer.limit();
+        int position = buffer.position();
+
+        String requestId = null;
+        String codecName = null;
+        if (position < limit && buffer.get(position) == PREFIX) {
+            int headerEnd = indexOf(buffer, SPACE, position + 1, limit);
+            if (headerEnd == limit) {
+                throw new IllegalArgumentException("Correlation header is not followed by a frame");
+            }
+
+            int separator = indexOf(buffer, SEPARATOR, position + 1, headerEnd);
+            requestId = decode(buffer, position + 1, separator);
+            if (separator < headerEnd) {
+                codecName = decode(buffer, separator + 1, headerEnd);
+            }
+            position = headerEnd + 1;
+        }
+
+        int start = position;
+        int length = 0;
+        while (position < limit && buffer.get(position) != SPACE) {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9 || length > (Integer.MAX_VALUE - digit) / 10) {
+                throw new IllegalArgumentException("Invalid length field in frame");
+            }
+            length = length * 10 + digit;
+            position++;
+        }
+
+        if (position == start) {
+            throw new IllegalArgumentException("Frame doesn't start with a length");
+        }
+        if (length > limit - start) {
+            throw new IllegalArgumentException(String.format("Frame is truncated. Expected %d bytes, found %d",
+                    length, limit - start));
+        }
+
+        int end = start + length;
+        int commandStart = position + 1;
+        if (commandStart >= end) {
+            throw new IllegalArgumentException("Frame doesn't contain a command");
+        }
+
+        int commandEnd = indexOf(buffer, SPACE, commandStart, end);
+        return new MessageFrame(buffer, requestId, codecName, start, end, length, commandStart, commandEnd);
+    }
+
+    /**
+     * Computes the length field of a frame built around the given message. i.e: the number of bytes taken by
+     * <pre>${length} ${message}</pre> when the message is UTF-8 encoded. The length field takes at least 4 digits.
+     *
+     * @param message command and arguments of the frame
+     * @return value of the length field
+     */
+    public static int frameLength(CharSequence message) {
+        int bytes = utf8Length(message);
+        int digits = 4;
+        long capacity = 10000;
+        while (bytes + digits + 1 >= capacity) {
+            digits++;
+            capacity *= 10;
+        }
+        return bytes + digits + 1;
+    }
+
+    private static int utf8Length(CharSequence message) {
+        int bytes = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < message.length()
+                    && Character.isLowSurrogate(message.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Checks whether the remaining bytes of the buffer are exactly the given ASCII string. Used to recognize bare
+     * responses such as {@link org.uom.cse.distributed.Constants#RESPONSE_FAILURE} without decoding them.
+     *
+     * @param buffer buffer to be checked
+     * @param value  expected value
+     * @return true if equal
+     */
+    public static boolean equalsAscii(ByteBuffer buffer, String value) {
+        if (buffer.remaining() != value.length()) {
+            return false;
+        }
+
+        int position = buffer.position();
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer.get(position + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the next space separated argument | null if there are no more arguments
+     */
+    public String nextToken() {
+        if (position >= end) {
+            return null;
+        }
+
+        int tokenEnd = indexOf(buffer, SPACE, position, end);
+        String token = decode(buffer, position, tokenEnd);
+        position = Math.min(tokenEnd + 1, end);
+        return token;
+    }
+
+    /**
+     * @return the next argument parsed as an int
+     * @throws IllegalArgumentException if there are no more arguments or if the argument is not a number
+     */
+    public int nextInt() {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Argument is out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * @return the next argument parsed as a long
+     * @throws IllegalArgumentException if there are no more arguments or if the argument is not a number
+     */
+    public long nextLong() {
+        if (position >= end) {
+            throw new IllegalArgumentException("Expected a number but reached the end of frame");
+        }
+
+        int tokenEnd = indexOf(buffer, SPACE, position, end);
+        int i = position;
+        boolean negative = buffer.get(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == tokenEnd) {
+            throw new IllegalArgumentException("Expected a number but found: " + decode(buffer, position, tokenEnd));
+        }
+
+        long value = 0;
+        for (; i < tokenEnd; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                throw new IllegalArgumentException("Expected a number but found: "
+                        + decode(buffer, position, tokenEnd));
+            }
+            value = value * 10 + digit;
+        }
+
+        position = Math.min(tokenEnd + 1, end);
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return a view of the arguments not read yet. Shares the bytes of the frame
+     */
+    public ByteBuffer remaining() {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(end);
+        view.position(position);
+        return view.slice();
+    }
+
+    /**
+     * @return the arguments not read yet, as a string. Consumes them
+     */
+    public String remainingAsString() {
+        String remaining = decode(buffer, position, end);
+        position = end;
+        return remaining;
+    }
+
+    public boolean hasRemaining() {
+        return position < end;
+    }
+
+    /**
+     * @return the command of the frame | null if it isn't a known {@link Command}
+     */
+    public Command getCommand() {
+        return command;
+    }
+
+    /**
+     * @return the command as it appeared in the frame. Useful when the command is unknown
+     */
+    public String getCommandName() {
+        return decode(buffer, commandStart, commandEnd);
+    }
+
+    /**
+     * @return the value of the length field
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return request ID of the correlation header | null if the frame wasn't correlated
+     */
+    public String getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @return codec named in the correlation header | null if none
+     */
+    public String getCodecName() {
+        return codecName;
+    }
+
+    public boolean isCorrelated() {
+        return requestId != null;
+    }
+
+    /**
+     * @return the frame (without the correlation header) as a string. For logging
+     */
+    @Override
+    public String toString() {
+        return decode(buffer, start, end);
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + from, to - from, StandardCharsets.UTF_8);
+        }
+
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -6,20 +6,30 @@ package org.uom.cse.distributed.peer.utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.uom.cse.distributed.Constants;
+import org.uom.cse.distributed.peer.api.Command;
+import org.uom.cse.distributed.peer.api.MessageCodec;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.uom.cse.distributed.Constants.CODEC_SEPARATOR;
 
 /**
  * A utility class to send requests to destinations/peers.
@@ -30,44 +40,134 @@ public class RequestUtils {
 
     private static final Logger logger = LoggerFactory.getLogger(RequestUtils.class);
 
+    private static final MessageCodec JAVA_CODEC = new JavaMessageCodec();
+    private static final Map<String, MessageCodec> codecs = new LinkedHashMap<>();
+    private static final int MAX_CODEC_NAME_LENGTH = 16;
+
+    static {
+        codecs.put(JavaMessageCodec.NAME, JAVA_CODEC);
+        codecs.put(BinaryMessageCodec.NAME, new BinaryMessageCodec());
+    }
+
     private RequestUtils() { }
 
+    /**
+     * Finds the codec registered under the given name, in any case. Java serialization is used when no name is given,
+     * since every node understands it. Unknown names are rejected rather than taken as Java serialization, so that a
+     * peer can't make us deserialize Java objects by naming some other codec.
+     *
+     * @param name name of the codec | null if none was given
+     * @return matching codec | the {@link JavaMessageCodec} if no name was given
+     * @throws IllegalArgumentException if no codec is registered under the name
+     */
+    public static MessageCodec getCodec(String name) {
+        if (name == null) {
+            return JAVA_CODEC;
+        }
+
+        MessageCodec codec = codecs.get(name.toUpperCase(Locale.ROOT));
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown codec: " + name);
+        }
+        return codec;
+    }
+
+    /**
+     * @return names of the codecs registered
+     */
+    public static Set<String> getCodecNames() {
+        return Collections.unmodifiableSet(codecs.keySet());
+    }
+
     /**
      * Sends the UDP request through the given {@link DatagramSocket}. This is a blocking method call.
      *
      * @param datagramSocket datagram socket
-     * @throws IOException sending failures
+     * @return the response frame
+     * @throws IOException sending failures or a malformed response
      */
-    public static String sendRequest(DatagramSocket datagramSocket, String request,
+    public static MessageFrame sendRequest(DatagramSocket datagramSocket, String request,
             InetAddress address, int port) throws IOException {
         logger.debug("Sending request: '{}' to bootstrap server", request);
 
         // Create a datagram packet to send to the Boostrap server
-        DatagramPacket datagramPacket = new DatagramPacket(request.getBytes(), request.length(), address, port);
+        byte[] data = request.getBytes(StandardCharsets.UTF_8);
+        DatagramPacket datagramPacket = new DatagramPacket(data, data.length, address, port);
         // Send to bootstrap server
         datagramSocket.send(datagramPacket);
-        logger.debug("Datagram packet sent, listening for response", request);
-        // Start listening to Bootstrap Server Response. First 4 bytes are read first to identify length of message.
-        byte[] buffer = new byte[65536];
+        logger.debug("Datagram packet sent, listening for response");
+        // Start listening to Bootstrap Server Response. The length field bounds the frame within the datagram
+        byte[] buffer = new byte[Constants.DATAGRAM_BUFFER_SIZE];
         DatagramPacket incoming = new DatagramPacket(buffer, buffer.length);
         datagramSocket.receive(incoming);
 
-        return new String(incoming.getData(), 0, incoming.getLength());
+        try {
+            return MessageFrame.parse(ByteBuffer.wrap(incoming.getData(), 0, incoming.getLength()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed response received", e);
+        }
     }
 
     /**
-     * Sends the UDP request through the given {@link DatagramSocket}. This is a blocking method call.
+     * Encodes the given object using Java serialization into a Base64 string.
      *
-     * @throws IOException sending failures
+     * @throws IOException encoding failures
+     * @see #buildObjectRequest(Object, MessageCodec)
      */
     public static String buildObjectRequest(Object requestObject) throws IOException {
-        //create a Byte Stream out of the object
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(6400);
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(requestObject);
-        return Base64.getEncoder().encodeToString(baos.toByteArray());
+        return buildObjectRequest(requestObject, JAVA_CODEC);
+    }
+
+    /**
+     * Encodes the given object using the given codec into a Base64 string. Anything other than Java serialization is
+     * prefixed with the name of the codec (<pre>${codec}:${base64}</pre>) so that the receiver can pick the correct
+     * codec when decoding. Java serialized payloads are left as they were for older nodes.
+     *
+     * @param requestObject object to be encoded
+     * @param codec         codec to be used
+     * @return encoded string
+     * @throws IOException encoding failures
+     */
+    public static String buildObjectRequest(Object requestObject, MessageCodec codec) throws IOException {
+        return toBase64(encodeObject(requestObject, codec));
+    }
+
+    /**
+     * Encodes the given object using the given codec into raw bytes prefixed with the name of the codec (<pre>
+     * ${codec}:${bytes}</pre>). For payloads which don't travel within text messages, hence need not be inflated by
+     * Base64. i.e: The ones fetched over TCP by {@link org.uom.cse.distributed.peer.BulkTransfer}.
+     *
+     * @param object object to be encoded
+     * @param codec  codec to be used
+     * @return encoded bytes
+     * @throws IOException encoding failures
+     * @see #decodeObject(ByteBuffer)
+     */
+    public static byte[] encodeObject(Object object, MessageCodec codec) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(6400);
+        out.write((codec.getName() + CODEC_SEPARATOR).getBytes(StandardCharsets.US_ASCII));
+        codec.encode(object, out);
+        return out.toByteArray();
     }
 
+    /**
+     * Converts an object encoded by {@link #encodeObject(Object, MessageCodec)} into the string built by {@link
+     * #buildObjectRequest(Object, MessageCodec)}, for sending it within a text message.
+     *
+     * @param encoded encoded bytes
+     * @return encoded string
+     */
+    public static String toBase64(byte[] encoded) {
+        int index = indexOfSeparator(ByteBuffer.wrap(encoded));
+        String name = new String(encoded, 0, index, StandardCharsets.US_ASCII);
+        ByteBuffer base64 = Base64.getEncoder().encode(ByteBuffer.wrap(encoded, index + 1, encoded.length - index - 1));
+        String payload = new String(base64.array(), base64.arrayOffset(), base64.remaining(),
+                StandardCharsets.US_ASCII);
+        if (JavaMessageCodec.NAME.equals(name)) {
+            return payload;
+        }
+        return name + CODEC_SEPARATOR + payload;
+    }
 
     /**
      * Sends the UDP request through the given {@link DatagramSocket}. This is a blocking method call.
@@ -80,7 +180,8 @@ public class RequestUtils {
         logger.debug("Sending response to recipient {}:{}", address, port);
 
         // Create a datagram packet to send to the recipient
-        DatagramPacket datagramPacket = new DatagramPacket(response.getBytes(), response.length(), address, port);
+        byte[] data = response.getBytes(StandardCharsets.UTF_8);
+        DatagramPacket datagramPacket = new DatagramPacket(data, data.length, address, port);
         // Send to recipient
         datagramSocket.send(datagramPacket);
         logger.debug("Datagram packet sent to {}:{}", address, port);
@@ -92,18 +193,14 @@ public class RequestUtils {
      * @param response response received from the bootstrap server
      * @return list of peers received
      */
-    public static List<InetSocketAddress> processRegisterResponse(String response) {
+    public static List<InetSocketAddress> processRegisterResponse(MessageFrame response) {
         logger.debug("Processing response : {}", response);
 
-        StringTokenizer st = new StringTokenizer(response, " ");
-        logger.debug("Response length: {}", st.nextToken());
-        String status = st.nextToken();
-
-        if (!Constants.REGOK.equals(status)) {
+        if (response.getCommand() != Command.REGOK) {
             throw new IllegalStateException(Constants.REGOK + " not received");
         }
 
-        int code = Integer.parseInt(st.nextToken());
+        int code = response.nextInt();
 
         List<InetSocketAddress> peers = null;
 
@@ -116,8 +213,8 @@ public class RequestUtils {
             case 2:
                 logger.info("Successful - Found 1/2 other nodes in the network");
                 peers = new ArrayList<>();
-                while (st.hasMoreTokens()) {
-                    peers.add(new InetSocketAddress(st.nextToken(), Integer.parseInt(st.nextToken())));
+                while (response.hasRemaining()) {
+                    peers.add(new InetSocketAddress(response.nextToken(), response.nextInt()));
                 }
                 break;
             case 9999:
@@ -145,18 +242,14 @@ public class RequestUtils {
      * @param response response received
      * @return true if successful
      */
-    public static boolean processUnregisterResponse(String response) {
+    public static boolean processUnregisterResponse(MessageFrame response) {
         logger.debug("Processing unregister response : {}", response);
 
-        StringTokenizer st = new StringTokenizer(response, " ");
-        logger.debug("Response length: {}", st.nextToken());
-        String status = st.nextToken();
-
-        if (!Constants.UNROK.equals(status)) {
+        if (response.getCommand() != Command.UNROK) {
             throw new IllegalStateException(Constants.UNROK + " not received");
         }
 
-        int code = Integer.parseInt(st.nextToken());
+        int code = response.nextInt();
 
         List<InetSocketAddress> peers = new ArrayList<>();
 
@@ -172,32 +265,136 @@ public class RequestUtils {
     }
 
     /**
-     * Builds the message to the format <pre>%4d %s</pre> which will be the actual request sent to the Bootstrap server
+     * Builds the message to the format <pre>%04d %s</pre> which will be the actual request sent to the Bootstrap server
+     * or to a peer. The length counts the bytes of the whole message as it goes on the wire (UTF-8), including the
+     * length field itself.
      *
      * @param request Request to be included in the message
      * @return formatted message
+     * @see MessageFrame#frameLength(CharSequence)
      */
     public static String buildRequest(String request) {
-        return String.format(Constants.MSG_FORMAT, request.length() + 5, request);
+        String length = Integer.toString(MessageFrame.frameLength(request));
+        StringBuilder builder = new StringBuilder(request.length() + Math.max(length.length(), 4) + 1);
+        for (int i = length.length(); i < 4; i++) {
+            builder.append('0');
+        }
+        return builder.append(length).append(' ').append(request).toString();
+    }
+
+    /**
+     * @param nodeIds node IDs of the positions of a node
+     * @return IDs separated by commas. e.g: <pre>12,345,6789</pre>
+     */
+    public static String joinNodeIds(List<Integer> nodeIds) {
+        return nodeIds.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    /**
+     * Counterpart of {@link #joinNodeIds(List)}
+     *
+     * @param nodeIds IDs separated by commas
+     * @return node IDs
+     * @throws NumberFormatException if an ID is not a number
+     */
+    public static List<Integer> parseNodeIds(String nodeIds) {
+        return Stream.of(nodeIds.split(",")).map(Integer::valueOf).collect(Collectors.toList());
     }
 
     /**
-     * Converts a Base64 string to a java object. This is the deserialization process.
+     * Converts a Base64 string to a java object. This is the deserialization process. The codec is picked based on the
+     * prefix added by {@link #buildObjectRequest(Object, MessageCodec)}.
      *
      * @param base64 Base64 string
      * @return Deserialized object
      */
     public static Object base64StringToObject(String base64) {
-        if (base64.equals("")){
+        return base64ToObject(ByteBuffer.wrap(base64.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Same as {@link #base64StringToObject(String)}, but decodes the Base64 bytes straight from the given buffer (i.e:
+     * the remaining arguments of a received {@link MessageFrame}) without building a string out of them.
+     *
+     * @param base64 buffer holding the Base64 payload. Its position is not changed
+     * @return Deserialized object
+     */
+    public static Object base64ToObject(ByteBuffer base64) {
+        if (!base64.hasRemaining()) {
             return new Object();
         }
-        byte[] received = Base64.getDecoder().decode(base64);
-        ByteArrayInputStream bais = new ByteArrayInputStream(received);
-        try (ObjectInputStream in = new ObjectInputStream(bais)) {
-            return in.readObject();
+
+        // Base64 never contains the separator. Therefore, if present, what's before it is the name of the codec
+        MessageCodec codec = JAVA_CODEC;
+        ByteBuffer payload = base64.duplicate();
+        int index = indexOfSeparator(payload);
+        if (index > payload.position()) {
+            byte[] name = new byte[index - payload.position()];
+            payload.get(name);
+            try {
+                codec = getCodec(new String(name, StandardCharsets.US_ASCII));
+            } catch (IllegalArgumentException e) {
+                logger.error("Discarding a Base64 payload: {}", e.getMessage());
+                return null;
+            }
+            payload.position(index + 1);
+        }
+
+        ByteBuffer received;
+        try {
+            received = Base64.getDecoder().decode(payload);
+        } catch (IllegalArgumentException e) {
+            logger.error("Error occurred when decoding a Base64 payload", e);
+            return null;
+        }
+        return decode(codec, received);
+    }
+
+    /**
+     * Counterpart of {@link #encodeObject(Object, MessageCodec)}
+     *
+     * @param encoded buffer holding the encoded bytes. Its position is not changed
+     * @return decoded object | null if decoding failed
+     */
+    public static Object decodeObject(ByteBuffer encoded) {
+        ByteBuffer payload = encoded.duplicate();
+        int index = indexOfSeparator(payload);
+        if (index < 0) {
+            logger.error("Discarding a payload of {} bytes without a codec", payload.remaining());
+            return null;
+        }
+
+        byte[] name = new byte[index - payload.position()];
+        payload.get(name);
+        payload.position(index + 1);
+        MessageCodec codec;
+        try {
+            codec = getCodec(new String(name, StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            logger.error("Discarding a payload of {} bytes: {}", payload.remaining(), e.getMessage());
+            return null;
+        }
+        return decode(codec, payload);
+    }
+
+    private static Object decode(MessageCodec codec, ByteBuffer payload) {
+        try (ByteArrayInputStream in = new ByteArrayInputStream(payload.array(),
+                payload.arrayOffset() + payload.position(), payload.remaining())) {
+            return codec.decode(in);
         } catch (Exception e) {
-            logger.error("Error occurred when obtaining routing table", e);
+            logger.error("Error occurred when decoding a payload of {} bytes", payload.remaining(), e);
             return null;
         }
     }
+
+    private static int indexOfSeparator(ByteBuffer buffer) {
+        // Codec names are short. Hence there is no need to scan the whole payload
+        int end = Math.min(buffer.limit(), buffer.position() + MAX_CODEC_NAME_LENGTH + 1);
+        for (int i = buffer.position(); i < end; i++) {
+            if (buffer.get(i) == CODEC_SEPARATOR) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
@@ -1,14 +1,17 @@
 package org.uom.cse.distributed.server;
 
 import org.uom.cse.distributed.Constants;
+import org.uom.cse.distributed.peer.api.Command;
+import org.uom.cse.distributed.peer.utils.MessageFrame;
+import org.uom.cse.distributed.peer.utils.RequestUtils;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.StringTokenizer;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -48,7 +51,6 @@ public class BootstrapServer {
 
     private void doProcessing() {
         DatagramSocket sock = null;
-        String s;
         List<Neighbour> nodes = new ArrayList<>();
 
         try {
@@ -56,28 +58,32 @@ public class BootstrapServer {
 
             echo("Bootstrap Server created at 55555. Waiting for incoming data...");
 
+            byte[] buffer = new byte[Constants.DATAGRAM_BUFFER_SIZE];
+            DatagramPacket incoming = new DatagramPacket(buffer, buffer.length);
             while (started) {
-                byte[] buffer = new byte[65536];
-                DatagramPacket incoming = new DatagramPacket(buffer, buffer.length);
+                incoming.setLength(buffer.length);
                 sock.receive(incoming);
 
-                byte[] data = incoming.getData();
-                s = new String(data, 0, incoming.getLength());
+                MessageFrame request;
+                try {
+                    request = MessageFrame.parse(ByteBuffer.wrap(incoming.getData(), 0, incoming.getLength()));
+                } catch (IllegalArgumentException e) {
+                    echo(incoming.getAddress().getHostAddress() + " : " + incoming.getPort() + " - Malformed: "
+                            + e.getMessage());
+                    continue;
+                }
 
                 //echo the details of incoming data - client ip : client port - client message
-                echo(incoming.getAddress().getHostAddress() + " : " + incoming.getPort() + " - " + s);
-
-                StringTokenizer st = new StringTokenizer(s, " ");
+                echo(incoming.getAddress().getHostAddress() + " : " + incoming.getPort() + " - " + request);
 
-                String length = st.nextToken();
-                String command = st.nextToken();
+                Command command = request.getCommand();
 
-                if (command.equals("REG")) {
+                if (command == Command.REG) {
                     String reply = "REGOK ";
 
-                    String ip = st.nextToken();
-                    int port = Integer.parseInt(st.nextToken());
-                    String username = st.nextToken();
+                    String ip = request.nextToken();
+                    int port = request.nextInt();
+                    String username = request.nextToken();
                     if (nodes.size() == 0) {
                         reply += "0";
                         nodes.add(new Neighbour(ip, port, username));
@@ -116,30 +122,30 @@ public class BootstrapServer {
                         }
                     }
 
-                    reply = String.format("%04d", reply.length() + 5) + " " + reply;
+                    reply = RequestUtils.buildRequest(reply);
 
                     DatagramPacket dpReply = new DatagramPacket(reply.getBytes(), reply.getBytes().length,
                             incoming.getAddress(), incoming.getPort());
                     sock.send(dpReply);
-                } else if (command.equals("UNREG")) {
-                    String ip = st.nextToken();
-                    int port = Integer.parseInt(st.nextToken());
-                    String username = st.nextToken();
+                } else if (command == Command.UNREG) {
+                    String ip = request.nextToken();
+                    int port = request.nextInt();
+                    String username = request.nextToken();
                     for (int i = 0; i < nodes.size(); i++) {
                         if (nodes.get(i).getPort() == port) {
                             nodes.remove(i);
-                            String reply = "0012 UNROK 0";
+                            String reply = RequestUtils.buildRequest(Constants.UNROK + " 0");
                             DatagramPacket dpReply = new DatagramPacket(reply.getBytes(), reply.getBytes().length,
                                     incoming.getAddress(), incoming.getPort());
                             sock.send(dpReply);
                         }
                     }
-                } else if (command.equals("ECHO")) {
+                } else if (command == Command.ECHO) {
                     for (int i = 0; i < nodes.size(); i++) {
                         echo(nodes.get(i).getIp() + " " + nodes.get(i).getPort() + " " +
                                 nodes.get(i).getUsername());
                     }
-                    String reply = "0012 ECHOK 0";
+                    String reply = RequestUtils.buildRequest(Constants.ECHOK + " 0");
                     DatagramPacket dpReply = new DatagramPacket(reply.getBytes(), reply.getBytes().length,
                             incoming.getAddress(), incoming.getPort());
                     sock.send(dpReply);
@@ -0,0 +1,67 @@
+package org.uom.cse.distributed;
+
+import org.testng.Assert;
+import org.uom.cse.distributed.peer.Node;
+import org.uom.cse.distributed.peer.api.EntryTableEntry;
+import org.uom.cse.distributed.peer.api.RoutingTable;
+import org.uom.cse.distributed.peer.api.RoutingTableEntry;
+import org.uom.cse.distributed.peer.utils.HashUtils;
+
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.uom.cse.distributed.peer.api.State.CONFIGURED;
+
+/**
+ * Checks shared by the tests running a network of nodes
+ */
+final class PeerTestUtils {
+
+    private PeerTestUtils() { }
+
+    /**
+     * Checks that each keyword of each file of a configured node is indexed at the node owning the keyword, and that
+     * nothing else is indexed.
+     */
+    static void checkEntries(List<Node> nodes) {
+        RoutingTable routingTable = new RoutingTable();
+        Map<Integer, Node> configured = new HashMap<>();
+        nodes.stream().filter(node -> node.getState() == CONFIGURED).forEach(node -> {
+            routingTable.addEntry(new RoutingTableEntry(new InetSocketAddress(node.getIpAddress(), node.getPort()),
+                    node.getNodeId()));
+            configured.put(node.getNodeId(), node);
+        });
+        if (configured.isEmpty()) {
+            return;
+        }
+
+        // Keywords and files are matched in any case. Hence a keyword repeated in a file is indexed once
+        Set<String> offered = new HashSet<>();
+        for (Node node : configured.values()) {
+            for (String file : node.getMyFiles()) {
+                for (String keyword : file.split(" ")) {
+                    offered.add(String.format("%s|%s|%d", keyword.toLowerCase(), file.toLowerCase(),
+                            node.getNodeId()));
+
+                    int hash = HashUtils.keywordToNodeId(keyword);
+                    Optional<RoutingTableEntry> owner = routingTable.findNodeOrSuccessor(hash);
+                    Assert.assertTrue(owner.isPresent());
+                    List<EntryTableEntry> entries = configured.get(owner.get().getNodeId()).getEntryTable()
+                            .findEntries(keyword, file);
+                    Assert.assertTrue(entries.stream().anyMatch(entry -> entry.getNodeName()
+                                    .equals(String.valueOf(node.getNodeId()))),
+                            String.format("%s(%d) of %d is not indexed at %d", keyword, hash, node.getNodeId(),
+                                    owner.get().getNodeId()));
+                }
+            }
+        }
+
+        int indexed = configured.values().stream().mapToInt(node -> node.getEntryTable().getEntryCount()).sum();
+        Assert.assertEquals(indexed, offered.size(), "Entries indexed across nodes");
+    }
+}
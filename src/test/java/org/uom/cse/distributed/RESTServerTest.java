@@ -19,7 +19,6 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -77,8 +76,8 @@ public class RESTServerTest {
         nodes.stream()
                 .sorted(Comparator.comparingInt(Node::getNodeId))
                 .forEach(node -> {
-                    logger.info("{} -> {}\t: Characters -> {}", node.getNodeId(), node.getMyChar(),
-                            node.getEntryTable().getEntries().keySet());
+                    logger.info("{}\t: Keywords -> {}, Entries -> {}", node.getNodeId(),
+                            node.getEntryTable().getKeywordCount(), node.getEntryTable().getEntryCount());
                 });
 
         RoutingTable routingTable = new RoutingTable();
@@ -93,16 +92,15 @@ public class RESTServerTest {
                 continue;
             }
 
-            Set<Character> characters = HashUtils.findCharactersOf(node.getNodeId(), myPredecessor.get().getNodeId());
-            characters.add(node.getMyChar());
-            logger.debug("{}({}) -> {}", node.getNodeId(), node.getMyChar(), characters);
-            for (Character character : characters) {
-                Assert.assertTrue(node.getEntryTable().getEntries().containsKey(character),
-                        String.format("%d -> %s", node.getNodeId(), character));
-            }
-
-            Assert.assertEquals(characters.size(), node.getEntryTable().getEntries().size());
+            int from = myPredecessor.get().getNodeId();
+            node.getEntryTable().getEntries().keySet().forEach(keyword -> {
+                int hash = HashUtils.keywordToNodeId(keyword);
+                Assert.assertTrue(HashUtils.isBetween(hash, from, node.getNodeId()),
+                        String.format("%d -> %s(%d)", node.getNodeId(), keyword, hash));
+            });
         }
+
+        PeerTestUtils.checkEntries(nodes);
     }
 
     @AfterMethod
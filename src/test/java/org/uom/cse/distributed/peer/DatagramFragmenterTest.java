@@ -0,0 +1,240 @@
+package org.uom.cse.distributed.peer;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.uom.cse.distributed.Constants.DATAGRAM_FRAGMENT_SIZE;
+import static org.uom.cse.distributed.Constants.FRAGMENT_MAX_NAKS;
+import static org.uom.cse.distributed.Constants.FRAGMENT_NAK_DELAY_MS;
+import static org.uom.cse.distributed.Constants.FRAGMENT_TIMEOUT_MS;
+
+public class DatagramFragmenterTest {
+
+    private static final InetSocketAddress SENDER = new InetSocketAddress("127.0.0.1", 32050);
+    private static final InetSocketAddress RECEIVER = new InetSocketAddress("127.0.0.1", 32051);
+
+    /** Datagrams put on the wire by each side */
+    private final List<byte[]> sent = new ArrayList<>();
+    private final List<byte[]> requested = new ArrayList<>();
+
+    private DatagramFragmenter sender;
+    private DatagramFragmenter receiver;
+
+    @BeforeMethod
+    public void setUp() {
+        sent.clear();
+        requested.clear();
+        sender = new DatagramFragmenter("sender", (data, peer) -> {
+            Assert.assertEquals(peer, RECEIVER);
+            sent.add(data);
+        });
+        receiver = new DatagramFragmenter("receiver", (data, peer) -> {
+            Assert.assertEquals(peer, SENDER);
+            requested.add(data);
+        });
+    }
+
+    @Test
+    public void testSmallMessageIsSentAsItIs() throws IOException {
+        sender.send("SER Harry 1", RECEIVER);
+        Assert.assertEquals(sent.size(), 1);
+        Assert.assertEquals(new String(sent.get(0), StandardCharsets.UTF_8), "SER Harry 1");
+
+        byte[] buffer = ("junk" + "SER Harry 1").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer message = receiver.receive(buffer, 4, buffer.length - 4, SENDER);
+        Assert.assertNotNull(message);
+        Assert.assertEquals(string(message), "SER Harry 1");
+    }
+
+    @Test
+    public void testReassembly() throws IOException {
+        // Multi-byte characters are split across fragments
+        String message = message(3 * DATAGRAM_FRAGMENT_SIZE - 10);
+        sender.send(message, RECEIVER);
+        Assert.assertEquals(sent.size(), 3);
+
+        Assert.assertNull(receive(sent.get(0)));
+        Assert.assertNull(receive(sent.get(1)));
+        Assert.assertEquals(string(receive(sent.get(2))), message);
+    }
+
+    @Test
+    public void testDuplicateAndOutOfOrderFragments() throws IOException {
+        String message = message(4 * DATAGRAM_FRAGMENT_SIZE);
+        sender.send(message, RECEIVER);
+        Assert.assertEquals(sent.size(), 4);
+
+        Assert.assertNull(receive(sent.get(3)));
+        Assert.assertNull(receive(sent.get(1)));
+        Assert.assertNull(receive(sent.get(3)));
+        Assert.assertNull(receive(sent.get(0)));
+        Assert.assertNull(receive(sent.get(1)));
+        Assert.assertEquals(string(receive(sent.get(2))), message);
+
+        // Fragments retransmitted after the message was reassembled are ignored
+        for (byte[] fragment : sent) {
+            Assert.assertNull(receive(fragment));
+        }
+    }
+
+    @Test
+    public void testFragmentsOfDifferentPeersAreKeptApart() throws IOException {
+        String message = message(2 * DATAGRAM_FRAGMENT_SIZE);
+        sender.send(message, RECEIVER);
+
+        InetSocketAddress other = new InetSocketAddress("127.0.0.1", 32052);
+        Assert.assertNull(receiver.receive(sent.get(0), 0, sent.get(0).length, other));
+        Assert.assertNull(receive(sent.get(1)));
+        Assert.assertEquals(string(receive(sent.get(0))), message);
+    }
+
+    @Test
+    public void testFragmentCountChangingMidMessage() throws IOException {
+        String message = message(3 * DATAGRAM_FRAGMENT_SIZE);
+        sender.send(message, RECEIVER);
+        long messageId = messageIdOf(sent.get(0));
+
+        Assert.assertNull(receive(sent.get(0)));
+        // Same message claiming to have 2 fragments, which would complete it otherwise
+        Assert.assertNull(receive(fragment(messageId, 1, 2, "x")));
+        Assert.assertNull(receive(sent.get(1)));
+        Assert.assertEquals(string(receive(sent.get(2))), message);
+    }
+
+    @Test
+    public void testMalformedFragmentsAreDiscarded() {
+        Assert.assertNull(receive(fragment(1, 2, 2, "x")));
+        Assert.assertNull(receive(fragment(1, -1, 2, "x")));
+        Assert.assertNull(receive(fragment(1, 0, 0, "x")));
+        Assert.assertNull(receive("FRAG 1 0 2".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNull(receive("FRAG x 0 2 abc".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNull(receive("FRAG 99999999999999999999 0 2 abc".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNull(receive("FRAGNAK 1".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertNull(receive("FRAGNAK 1 a,b".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertTrue(requested.isEmpty());
+    }
+
+    @Test
+    public void testSelectiveRetransmit() throws IOException {
+        String message = message(5 * DATAGRAM_FRAGMENT_SIZE);
+        sender.send(message, RECEIVER);
+        List<byte[]> fragments = new ArrayList<>(sent);
+        sent.clear();
+        long messageId = messageIdOf(fragments.get(0));
+
+        // Fragments 1 and 3 are lost
+        long start = System.currentTimeMillis();
+        Assert.assertNull(receive(fragments.get(0)));
+        Assert.assertNull(receive(fragments.get(2)));
+        Assert.assertNull(receive(fragments.get(4)));
+
+        // Nothing is asked for until the message stops progressing
+        receiver.checkIncomplete(start);
+        Assert.assertTrue(requested.isEmpty());
+        receiver.checkIncomplete(start + FRAGMENT_NAK_DELAY_MS + 1000);
+        Assert.assertEquals(requested.size(), 1);
+        String nak = new String(requested.get(0), StandardCharsets.UTF_8);
+        Assert.assertEquals(nak, "FRAGNAK " + messageId + " 1,3");
+
+        // The sender resends the missing fragments only. Indices out of range are skipped
+        Assert.assertNull(sender.receive(requested.get(0), 0, requested.get(0).length, RECEIVER));
+        Assert.assertEquals(sent.size(), 2);
+        Assert.assertEquals(sent.get(0), fragments.get(1));
+        Assert.assertEquals(sent.get(1), fragments.get(3));
+
+        sent.clear();
+        byte[] outOfRange = ("FRAGNAK " + messageId + " 3,5,-1").getBytes(StandardCharsets.UTF_8);
+        Assert.assertNull(sender.receive(outOfRange, 0, outOfRange.length, RECEIVER));
+        Assert.assertEquals(sent, Collections.singletonList(fragments.get(3)));
+
+        Assert.assertNull(receive(fragments.get(3)));
+        Assert.assertEquals(string(receive(fragments.get(1))), message);
+    }
+
+    @Test
+    public void testIncompleteMessageExpires() throws IOException {
+        String message = message(3 * DATAGRAM_FRAGMENT_SIZE);
+        sender.send(message, RECEIVER);
+        List<byte[]> fragments = new ArrayList<>(sent);
+        sent.clear();
+
+        long start = System.currentTimeMillis();
+        Assert.assertNull(receive(fragments.get(0)));
+
+        // Asks a limited number of times
+        for (int i = 1; i <= FRAGMENT_MAX_NAKS + 2; i++) {
+            receiver.checkIncomplete(start + i * (FRAGMENT_NAK_DELAY_MS + 1L));
+        }
+        Assert.assertEquals(requested.size(), FRAGMENT_MAX_NAKS);
+
+        // Dropped once timed out. Fragments arriving later can't complete it
+        receiver.checkIncomplete(start + FRAGMENT_TIMEOUT_MS + 100 * (FRAGMENT_NAK_DELAY_MS + 1000L));
+        Assert.assertNull(receive(fragments.get(1)));
+        Assert.assertNull(receive(fragments.get(2)));
+
+        // The sender has let go of the fragments by then
+        sender.checkIncomplete(start + FRAGMENT_TIMEOUT_MS + 1000);
+        byte[] nak = requested.get(0);
+        Assert.assertNull(sender.receive(nak, 0, nak.length, RECEIVER));
+        Assert.assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void testReassembledMessagesAreForgottenAfterTimeout() throws IOException {
+        String message = message(2 * DATAGRAM_FRAGMENT_SIZE);
+        sender.send(message, RECEIVER);
+        Assert.assertNull(receive(sent.get(0)));
+        Assert.assertEquals(string(receive(sent.get(1))), message);
+
+        receiver.checkIncomplete(System.currentTimeMillis() + FRAGMENT_TIMEOUT_MS + 1000);
+        Assert.assertNull(receive(sent.get(0)));
+        Assert.assertEquals(string(receive(sent.get(1))), message);
+    }
+
+    private ByteBuffer receive(byte[] datagram) {
+        return receiver.receive(datagram, 0, datagram.length, SENDER);
+    }
+
+    /**
+     * @return message of exactly the given number of bytes, made of characters of 1 to 4 bytes
+     */
+    private static String message(int bytes) {
+        StringBuilder message = new StringBuilder("SYNC ");
+        String[] characters = {"a", "\u00ef", "\u65e5", "\ud83d\ude00"};
+        int length = message.length();
+        for (int i = 0; length < bytes; i++) {
+            String character = characters[i % characters.length];
+            int size = character.getBytes(StandardCharsets.UTF_8).length;
+            if (length + size > bytes) {
+                character = "a";
+                size = 1;
+            }
+            message.append(character);
+            length += size;
+        }
+        return message.toString();
+    }
+
+    private static byte[] fragment(long messageId, int index, int count, String bytes) {
+        return ("FRAG " + messageId + " " + index + " " + count + " " + bytes).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long messageIdOf(byte[] fragment) {
+        return Long.parseLong(new String(fragment, 0, 64, StandardCharsets.UTF_8).split(" ")[1]);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        Assert.assertNotNull(buffer);
+        return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(),
+                StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,180 @@
+package org.uom.cse.distributed.peer;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.uom.cse.distributed.peer.api.EntryTable;
+import org.uom.cse.distributed.peer.api.EntryTableEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class FileEntryTableStorageTest {
+
+    private File directory;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("entries").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.stream(files).forEach(File::delete);
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testTornTailRecordIsIgnored() throws IOException {
+        FileEntryTableStorage storage = recovered(new ArrayList<>());
+        storage.append(true, "Harry", new EntryTableEntry("1", "Harry Potter"));
+        storage.append(false, "Glee", new EntryTableEntry("2", "Glee"));
+        storage.flush();
+
+        // A crash while writing the next record leaves a part of it behind
+        File segment = lastSegment();
+        long length = segment.length();
+        storage.append(true, "Potter", new EntryTableEntry("3", "Harry Potter"));
+        storage.close();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(length + 11);
+        }
+
+        List<String> replayed = new ArrayList<>();
+        recovered(replayed).close();
+        Assert.assertEquals(replayed, Arrays.asList("+Harry 1:Harry Potter", "-Glee 2:Glee"));
+
+        // Changes made after recovering are replayed along with the ones before the torn record
+        storage = recovered(new ArrayList<>());
+        storage.append(true, "Late", new EntryTableEntry("4", "Late"));
+        storage.close();
+        replayed.clear();
+        recovered(replayed).close();
+        Assert.assertEquals(replayed, Arrays.asList("+Harry 1:Harry Potter", "-Glee 2:Glee", "+Late 4:Late"));
+    }
+
+    @Test
+    public void testCorruptSnapshotIsSetAside() throws IOException {
+        EntryTable table = new EntryTable();
+        table.open(new FileEntryTableStorage(directory));
+        table.addEntry("Harry", new EntryTableEntry("1", "Harry Potter"));
+        table.checkpoint();
+        table.addEntry("Glee", new EntryTableEntry("2", "Glee"));
+        // Killed. The change made after the checkpoint is in the log only
+
+        File snapshot = new File(directory, "entries.snapshot");
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        List<String> replayed = new ArrayList<>();
+        recovered(replayed).close();
+        Assert.assertEquals(replayed, Collections.singletonList("+Glee 2:Glee"));
+        Assert.assertTrue(new File(directory, "entries.snapshot.corrupt").exists());
+        Assert.assertFalse(snapshot.exists());
+
+        // The table recovers what is left and checkpoints it
+        EntryTable recovered = new EntryTable();
+        recovered.open(new FileEntryTableStorage(directory));
+        Assert.assertEquals(recovered.getEntryCount(), 1);
+        Assert.assertNotNull(recovered.getEntriesByKyeword("glee"));
+        Assert.assertTrue(snapshot.exists());
+        recovered.close();
+    }
+
+    @Test
+    public void testCrashBetweenRotateAndCompact() throws IOException {
+        FileEntryTableStorage storage = recovered(new ArrayList<>());
+        EntryTable table = new EntryTable();
+        table.addEntry("Harry", new EntryTableEntry("1", "Harry Potter"));
+        storage.append(true, "Harry", new EntryTableEntry("1", "Harry Potter"));
+        storage.rotate();
+        storage.append(true, "Glee", new EntryTableEntry("2", "Glee"));
+        storage.flush();
+        // Killed before the snapshot is written. Both segments are replayed
+
+        List<String> replayed = new ArrayList<>();
+        storage = recovered(replayed);
+        Assert.assertEquals(replayed, Arrays.asList("+Harry 1:Harry Potter", "+Glee 2:Glee"));
+        Assert.assertFalse(new File(directory, "entries.snapshot").exists());
+
+        // The snapshot is written, but the node is killed before the segments it covers are deleted
+        storage.rotate();
+        List<File> covered = segments();
+        covered.remove(covered.size() - 1);
+        for (File segment : covered) {
+            Files.copy(segment.toPath(), new File(segment.getPath() + ".bak").toPath());
+        }
+        table.addEntry("Glee", new EntryTableEntry("2", "Glee"));
+        storage.compact(table.snapshot());
+        for (File segment : covered) {
+            Assert.assertFalse(segment.exists());
+            Files.move(new File(segment.getPath() + ".bak").toPath(), segment.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // Covered segments are deleted rather than replayed on top of the snapshot
+        replayed.clear();
+        storage.close();
+        recovered(replayed).close();
+        Assert.assertEquals(replayed.size(), 2);
+        Assert.assertTrue(replayed.containsAll(Arrays.asList("+Harry 1:Harry Potter", "+Glee 2:Glee")));
+        for (File segment : covered) {
+            Assert.assertFalse(segment.exists());
+        }
+    }
+
+    @Test
+    public void testClearThenRecover() throws IOException {
+        EntryTable table = new EntryTable();
+        table.open(new FileEntryTableStorage(directory));
+        table.addEntry("Harry", new EntryTableEntry("1", "Harry Potter"));
+        table.checkpoint();
+        table.addEntry("Glee", new EntryTableEntry("2", "Glee"));
+
+        table.clear();
+        table.addEntry("Potter", new EntryTableEntry("3", "Harry Potter"));
+        // Killed. Nothing from before clearing comes back
+
+        List<String> replayed = new ArrayList<>();
+        recovered(replayed).close();
+        Assert.assertEquals(replayed, Collections.singletonList("+Potter 3:Harry Potter"));
+    }
+
+    /**
+     * @param replayed receives each change replayed, as <code>(+|-)keyword node:file</code>
+     */
+    private FileEntryTableStorage recovered(List<String> replayed) throws IOException {
+        FileEntryTableStorage storage = new FileEntryTableStorage(directory);
+        storage.recover((added, keyword, entry) -> replayed.add((added ? "+" : "-") + keyword + " "
+                + entry.getNodeName() + ":" + entry.getFileName()));
+        return storage;
+    }
+
+    private List<File> segments() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        Assert.assertNotNull(files);
+        List<File> segments = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private File lastSegment() {
+        List<File> segments = segments();
+        return segments.get(segments.size() - 1);
+    }
+}
@@ -0,0 +1,114 @@
+package org.uom.cse.distributed.peer;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+
+public class ResponseCacheTest {
+
+    private static final InetSocketAddress SENDER = new InetSocketAddress("127.0.0.1", 32050);
+    private static final InetSocketAddress OTHER = new InetSocketAddress("127.0.0.1", 32051);
+
+    @Test
+    public void testCompletedResponseIsReplayed() {
+        ResponseCache cache = new ResponseCache(10, 1000);
+        Assert.assertNull(cache.begin(SENDER, "1", 0));
+        cache.complete(SENDER, "1", "#1 0010 OK");
+        // Only the first response is the one the sender waits for
+        cache.complete(SENDER, "1", "#1 0014 FAILED");
+        cache.finish(SENDER, "1");
+
+        ResponseCache.Entry earlier = cache.begin(SENDER, "1", 10);
+        Assert.assertNotNull(earlier);
+        Assert.assertEquals(earlier.getResponse(), "#1 0010 OK");
+        Assert.assertSame(cache.begin(SENDER, "1", 20), earlier);
+
+        // Same request ID from another sender, or another request ID from the same sender, is a new request
+        Assert.assertNull(cache.begin(OTHER, "1", 30));
+        Assert.assertNull(cache.begin(SENDER, "2", 30));
+        Assert.assertEquals(cache.size(), 3);
+    }
+
+    @Test
+    public void testRetryInProgressIsIgnored() {
+        ResponseCache cache = new ResponseCache(10, 1000);
+        Assert.assertNull(cache.begin(SENDER, "1", 0));
+
+        ResponseCache.Entry inProgress = cache.begin(SENDER, "1", 10);
+        Assert.assertNotNull(inProgress);
+        Assert.assertNull(inProgress.getResponse());
+
+        // The retry sees the response once the first attempt completes
+        cache.complete(SENDER, "1", "#1 0010 OK");
+        Assert.assertEquals(inProgress.getResponse(), "#1 0010 OK");
+    }
+
+    @Test
+    public void testRequestWithoutResponseIsForgotten() {
+        ResponseCache cache = new ResponseCache(10, 1000);
+        Assert.assertNull(cache.begin(SENDER, "1", 0));
+        Assert.assertNull(cache.begin(SENDER, "2", 0));
+        cache.complete(SENDER, "2", "#2 0010 OK");
+
+        cache.finish(SENDER, "1");
+        cache.finish(SENDER, "2");
+        Assert.assertEquals(cache.size(), 1);
+        // A retry is handled from scratch
+        Assert.assertNull(cache.begin(SENDER, "1", 10));
+        Assert.assertNotNull(cache.begin(SENDER, "2", 10));
+
+        // Responses to requests which weren't begun, or were forgotten, aren't remembered
+        cache.complete(OTHER, "1", "#1 0010 OK");
+        cache.finish(OTHER, "1");
+        Assert.assertNull(cache.begin(OTHER, "1", 20));
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        ResponseCache cache = new ResponseCache(10, 100);
+        Assert.assertNull(cache.begin(SENDER, "1", 0));
+        cache.complete(SENDER, "1", "#1 0010 OK");
+        Assert.assertNull(cache.begin(SENDER, "2", 50));
+        cache.complete(SENDER, "2", "#2 0010 OK");
+
+        Assert.assertNotNull(cache.begin(SENDER, "1", 100));
+        Assert.assertEquals(cache.size(), 2);
+
+        // Past the TTL of the first only
+        Assert.assertNull(cache.begin(OTHER, "3", 101));
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertNotNull(cache.begin(SENDER, "2", 150));
+        Assert.assertNull(cache.begin(SENDER, "1", 151));
+
+        Assert.assertNull(cache.begin(SENDER, "4", 1000));
+        Assert.assertEquals(cache.size(), 1);
+    }
+
+    @Test
+    public void testOldestEntriesAreEvicted() {
+        ResponseCache cache = new ResponseCache(3, 1000);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNull(cache.begin(SENDER, String.valueOf(i), i));
+            cache.complete(SENDER, String.valueOf(i), "OK " + i);
+        }
+
+        Assert.assertNull(cache.begin(SENDER, "3", 3));
+        cache.complete(SENDER, "3", "OK 3");
+        Assert.assertEquals(cache.size(), 3);
+        // Replaying doesn't make an entry any younger
+        Assert.assertNotNull(cache.begin(SENDER, "1", 4));
+        Assert.assertNull(cache.begin(SENDER, "4", 5));
+
+        Assert.assertEquals(cache.size(), 3);
+        Assert.assertNull(cache.begin(SENDER, "0", 6));
+        Assert.assertEquals(cache.size(), 3);
+        Assert.assertEquals(cache.begin(SENDER, "3", 7).getResponse(), "OK 3");
+        Assert.assertNull(cache.begin(SENDER, "4", 8).getResponse());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSizeShouldBePositive() {
+        new ResponseCache(0, 1000);
+    }
+}
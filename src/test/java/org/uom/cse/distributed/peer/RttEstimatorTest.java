@@ -0,0 +1,104 @@
+package org.uom.cse.distributed.peer;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.uom.cse.distributed.Constants.INITIAL_RTO_MS;
+import static org.uom.cse.distributed.Constants.MAX_RTO_MS;
+import static org.uom.cse.distributed.Constants.MIN_RTO_MS;
+import static org.uom.cse.distributed.Constants.RTO_JITTER;
+
+public class RttEstimatorTest {
+
+    private static final InetSocketAddress PEER = new InetSocketAddress("127.0.0.1", 32050);
+    private static final InetSocketAddress OTHER = new InetSocketAddress("127.0.0.1", 32051);
+
+    private RttEstimator estimator;
+
+    @BeforeMethod
+    public void setUp() {
+        estimator = new RttEstimator();
+    }
+
+    @Test
+    public void testSmoothedEstimate() {
+        Assert.assertEquals(estimator.getRto(PEER), INITIAL_RTO_MS);
+
+        // The first sample sets SRTT and half of it as RTTVAR
+        Assert.assertTrue(estimator.record(PEER, 100, 1));
+        assertEstimate(100, 50, 300);
+
+        // RTTVAR = 3/4 * 50 + 1/4 * |100 - 200|, SRTT = 7/8 * 100 + 1/8 * 200
+        estimator.record(PEER, 200, 1);
+        assertEstimate(112.5, 62.5, 363);
+
+        estimator.record(PEER, 112.5, 1);
+        assertEstimate(112.5, 46.875, 300);
+        Assert.assertEquals(estimator.getEstimates().get(PEER).getSamples(), 3);
+        Assert.assertEquals(estimator.getRto(OTHER), INITIAL_RTO_MS);
+
+        estimator.remove(PEER);
+        Assert.assertEquals(estimator.getRto(PEER), INITIAL_RTO_MS);
+    }
+
+    @Test
+    public void testRtoIsBounded() {
+        estimator.record(PEER, 1, 1);
+        Assert.assertEquals(estimator.getRto(PEER), MIN_RTO_MS);
+
+        estimator.record(OTHER, MAX_RTO_MS, 1);
+        Assert.assertEquals(estimator.getRto(OTHER), MAX_RTO_MS);
+    }
+
+    @Test
+    public void testRetransmittedRequestsAreNotMeasured() {
+        estimator.record(PEER, 100, 1);
+
+        // The response may be to any of the attempts. Hence the estimate is left as it is
+        Assert.assertFalse(estimator.record(PEER, 4000, 2));
+        Assert.assertFalse(estimator.record(PEER, 4000, 3));
+        Assert.assertFalse(estimator.record(OTHER, 4000, 2));
+        assertEstimate(100, 50, 300);
+        Assert.assertEquals(estimator.getEstimates().get(PEER).getSamples(), 1);
+        Assert.assertFalse(estimator.getEstimates().containsKey(OTHER));
+    }
+
+    @Test
+    public void testBackoff() {
+        estimator.record(PEER, 100, 1);
+        for (int i = 0; i < 100; i++) {
+            // 300ms, doubled with each attempt
+            assertTimeout(estimator.getTimeout(PEER, 0), 300);
+            assertTimeout(estimator.getTimeout(PEER, 1), 600);
+            assertTimeout(estimator.getTimeout(PEER, 3), 2400);
+            assertTimeout(estimator.getTimeout(OTHER, 1), 2 * INITIAL_RTO_MS);
+        }
+    }
+
+    @Test
+    public void testBackoffIsCapped() {
+        estimator.record(PEER, 100, 1);
+        for (int i = 0; i < 100; i++) {
+            // Jitter too is within the cap, even when the backoff alone is just below it
+            long timeout = estimator.getTimeout(PEER, 4);
+            Assert.assertTrue(timeout >= 16 * 300 && timeout <= MAX_RTO_MS, String.valueOf(timeout));
+            Assert.assertEquals(estimator.getTimeout(OTHER, 3), MAX_RTO_MS);
+            Assert.assertEquals(estimator.getTimeout(PEER, 5), MAX_RTO_MS);
+            Assert.assertEquals(estimator.getTimeout(PEER, Integer.MAX_VALUE), MAX_RTO_MS);
+        }
+    }
+
+    private void assertEstimate(double srtt, double rttvar, long rto) {
+        RttEstimator.Estimate estimate = estimator.getEstimates().get(PEER);
+        Assert.assertEquals(estimate.getSrtt(), srtt, 1e-9);
+        Assert.assertEquals(estimate.getRttvar(), rttvar, 1e-9);
+        Assert.assertEquals(estimator.getRto(PEER), rto);
+    }
+
+    private static void assertTimeout(long timeout, long backoff) {
+        Assert.assertTrue(timeout >= backoff && timeout <= backoff * (1 + RTO_JITTER), timeout + " for " + backoff);
+    }
+}
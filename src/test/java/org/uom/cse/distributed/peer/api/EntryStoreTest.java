@@ -0,0 +1,268 @@
+package org.uom.cse.distributed.peer.api;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class EntryStoreTest {
+
+    @Test
+    public void testKeywordsAreCaseInsensitive() {
+        EntryStore store = new EntryStore(false);
+        Assert.assertEquals(store.add("Harry", entry("1", "Harry Potter")), "Harry");
+        Assert.assertNull(store.add("HARRY", entry("1", "harry potter")));
+        Assert.assertEquals(store.add("harry", entry("2", "HARRY POTTER")), "Harry");
+
+        // The spellings stored first are read back
+        Assert.assertEquals(store.get("hArRy"), Arrays.asList(entry("1", "Harry Potter"), entry("2", "Harry Potter")));
+        Assert.assertEquals(store.getTermCount(), 1);
+        Assert.assertEquals(store.getEntryCount(), 2);
+
+        Assert.assertEquals(store.remove("HARRY", entry("1", "HARRY POTTER")), "Harry");
+        Assert.assertNull(store.remove("harry", entry("1", "Harry Potter")));
+        Assert.assertEquals(store.get("harry"), Collections.singletonList(entry("2", "Harry Potter")));
+
+        // Spelled as added anew, once the previous spelling is gone
+        Assert.assertEquals(store.remove("Harry", entry("2", "Harry Potter")), "Harry");
+        Assert.assertNull(store.get("harry"));
+        Assert.assertEquals(store.add("HARRY", entry("2", "harry potter")), "HARRY");
+        Assert.assertEquals(store.get("harry"), Collections.singletonList(entry("2", "harry potter")));
+    }
+
+    @Test
+    public void testFindEntriesOfFile() {
+        EntryStore store = new EntryStore(false);
+        // Files sorting before and after the one looked up, on nodes sorting differently as text and as numbers
+        for (String node : Arrays.asList("5", "10", "1", "3")) {
+            store.add("Glee", entry(node, "Glee"));
+            store.add("Glee", entry(node, "A Glee"));
+            store.add("Glee", entry(node, "Glee 2"));
+        }
+        store.add("Club", entry("7", "Glee"));
+
+        Assert.assertEquals(store.find("GLEE", "glee"), Arrays.asList(entry("1", "Glee"), entry("3", "Glee"),
+                entry("5", "Glee"), entry("10", "Glee")));
+        Assert.assertEquals(store.find("glee", "A GLEE").size(), 4);
+        Assert.assertEquals(store.find("club", "Glee"), Collections.singletonList(entry("7", "Glee")));
+        Assert.assertEquals(store.find("club", "A Glee"), Collections.emptyList());
+        Assert.assertEquals(store.find("glee", "Glee 3"), Collections.emptyList());
+        Assert.assertEquals(store.find("potter", "Glee"), Collections.emptyList());
+
+        store.remove("glee", entry("5", "glee"));
+        Assert.assertEquals(store.find("Glee", "Glee"), Arrays.asList(entry("1", "Glee"), entry("3", "Glee"),
+                entry("10", "Glee")));
+    }
+
+    @Test
+    public void testFileNameIsReleasedWithItsLastEntry() {
+        EntryStore store = new EntryStore(false);
+        store.add("Harry", entry("1", "Harry Potter"));
+        store.add("Potter", entry("1", "HARRY POTTER"));
+        store.add("Potter", entry("2", "harry potter"));
+        // Adding an entry already there holds no reference
+        store.add("Harry", entry("1", "Harry Potter"));
+        Assert.assertEquals(store.getFileCount(), 1);
+
+        store.remove("Harry", entry("1", "Harry Potter"));
+        store.remove("Potter", entry("1", "Harry Potter"));
+        Assert.assertEquals(store.getFileCount(), 1);
+        // Removing an entry not there releases nothing
+        store.remove("Harry", entry("2", "Harry Potter"));
+        Assert.assertEquals(store.getFileCount(), 1);
+
+        store.remove("potter", entry("2", "Harry Potter"));
+        Assert.assertEquals(store.getFileCount(), 0);
+        Assert.assertEquals(store.getTermCount(), 0);
+
+        // A name released is stored with the next spelling
+        store.add("Potter", entry("3", "HARRY potter"));
+        Assert.assertEquals(store.get("potter"), Collections.singletonList(entry("3", "HARRY potter")));
+    }
+
+    @Test
+    public void testEntryCount() {
+        EntryStore store = new EntryStore(true);
+        store.add("Harry", entry("1", "Harry Potter"));
+        store.add("Harry", entry("1", "Harry Potter"));
+        store.add("Potter", entry("1", "Harry Potter"));
+        store.add("Glee", entry("2", "Glee"));
+        Assert.assertEquals(store.getEntryCount(), 3);
+
+        store.remove("Glee", entry("3", "Glee"));
+        store.remove("Glee", entry("2", "Harry Potter"));
+        store.remove("Lost", entry("2", "Glee"));
+        store.remove("Glee", entry("node", "Glee"));
+        Assert.assertEquals(store.getEntryCount(), 3);
+
+        try {
+            store.add("Glee", entry("node", "Glee"));
+            Assert.fail("Added an entry of a node name which is not a node ID");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            store.add("Glee", entry("4294967296", "Glee"));
+            Assert.fail("Added an entry of a node ID out of range");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        Assert.assertEquals(store.getEntryCount(), 3);
+        Assert.assertEquals(countEntries(store), 3);
+
+        store.remove("glee", entry("2", "glee"));
+        Assert.assertEquals(store.getEntryCount(), 2);
+        Assert.assertEquals(store.getTermCount(), 2);
+
+        store.clear();
+        Assert.assertEquals(store.getEntryCount(), 0);
+        Assert.assertEquals(store.getTermCount(), 0);
+        Assert.assertEquals(store.getFileCount(), 0);
+        Assert.assertTrue(store.search(KeywordPattern.parse("harr*")).isEmpty());
+    }
+
+    @Test
+    public void testConcurrentChangesKeepCountsConsistent() throws Exception {
+        AtomicInteger net = new AtomicInteger();
+        EntryStore store = new EntryStore(true, (terms, added, keyword, entry) -> net.addAndGet(added ? 1 : -1));
+        String[] keywords = {"Harry", "harry", "Potter", "Glee", "GLEE", "Lost"};
+        String[] files = {"Harry Potter", "harry potter", "Glee", "Lost"};
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 4; thread++) {
+            Random random = new Random(thread);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    String keyword = keywords[random.nextInt(keywords.length)];
+                    String file = files[random.nextInt(files.length)];
+                    EntryTableEntry entry = entry(String.valueOf(random.nextInt(4)), file);
+                    if (random.nextBoolean()) {
+                        store.add(keyword, entry);
+                    } else {
+                        store.remove(keyword, entry);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        Assert.assertEquals(store.getEntryCount(), countEntries(store));
+        Assert.assertEquals(store.getEntryCount(), net.get());
+
+        // Every file name left is referred to by an entry, and every term by the index
+        Set<String> referred = new HashSet<>();
+        store.forEachTerm((keyword, position, entries) -> store.get(keyword)
+                .forEach(entry -> referred.add(EntryStore.normalize(entry.getFileName()))));
+        Assert.assertEquals(store.getFileCount(), referred.size());
+        Assert.assertEquals(store.search(KeywordPattern.parse("*e*")).size(), countTerms(store, "e"));
+    }
+
+    @Test
+    public void testListenerIsToldOfEachChange() {
+        List<String> changes = new ArrayList<>();
+        EntryStore store = new EntryStore(false, (terms, added, keyword, entry) -> {
+            // The terms given are the ones the change was published with
+            if (added) {
+                Assert.assertNotNull(terms.get(EntryStore.normalize(keyword)));
+            }
+            changes.add((added ? "+" : "-") + keyword + " " + entry);
+        });
+
+        store.add("Harry", entry("1", "Harry Potter"));
+        store.add("HARRY", entry("1", "Harry Potter"));
+        store.add("harry", entry("2", "Harry Potter"));
+        store.remove("harry", entry("1", "harry potter"));
+        store.remove("harry", entry("3", "Harry Potter"));
+        Assert.assertEquals(changes, Arrays.asList("+Harry " + entry("1", "Harry Potter"),
+                "+Harry " + entry("2", "Harry Potter"), "-Harry " + entry("1", "harry potter")));
+
+        // Not told of clearing
+        store.clear();
+        Assert.assertEquals(changes.size(), 3);
+    }
+
+    @Test
+    public void testTermsReadAreNotChangedLater() {
+        EntryStore store = new EntryStore(false);
+        store.add("Harry", entry("1", "Harry Potter"));
+        TermMap before = store.getTerms();
+
+        store.add("Harry", entry("2", "Harry Potter"));
+        store.add("Glee", entry("2", "Glee"));
+        store.remove("Harry", entry("1", "Harry Potter"));
+
+        Assert.assertEquals(before.size(), 1);
+        Assert.assertEquals(before.get("harry").toEntries(), Collections.singletonList(entry("1", "Harry Potter")));
+        Assert.assertNull(before.get("glee"));
+        Assert.assertEquals(store.getTerms().size(), 2);
+    }
+
+    @Test
+    public void testSearch() {
+        EntryStore store = new EntryStore(true);
+        store.add("Harry", entry("1", "Harry Potter"));
+        store.add("Harrison", entry("2", "Ford"));
+        store.add("Potter", entry("1", "Harry Potter"));
+
+        Map<String, List<EntryTableEntry>> expected = new HashMap<>();
+        expected.put("Harry", Collections.singletonList(entry("1", "Harry Potter")));
+        expected.put("Harrison", Collections.singletonList(entry("2", "Ford")));
+        Assert.assertEquals(store.search(KeywordPattern.parse("HARR*")), expected);
+        Assert.assertEquals(store.search(KeywordPattern.parse("*otte*")).keySet(),
+                Collections.singleton("Potter"));
+        Assert.assertEquals(store.search(KeywordPattern.parse("harry")).keySet(), Collections.singleton("Harry"));
+
+        // Terms removed are no longer found
+        store.remove("potter", entry("1", "Harry Potter"));
+        Assert.assertTrue(store.search(KeywordPattern.parse("*otte*")).isEmpty());
+
+        // Only whole keywords are looked up without an index
+        EntryStore unindexed = new EntryStore(false);
+        unindexed.add("Harry", entry("1", "Harry Potter"));
+        Assert.assertEquals(unindexed.search(KeywordPattern.parse("harry")).keySet(), Collections.singleton("Harry"));
+        try {
+            unindexed.search(KeywordPattern.parse("harr*"));
+            Assert.fail("Searched for a prefix without an index");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    private static int countEntries(EntryStore store) {
+        int[] count = {0};
+        store.forEachTerm((keyword, position, entries) -> count[0] += entries);
+        return count[0];
+    }
+
+    private static int countTerms(EntryStore store, String text) {
+        int[] count = {0};
+        store.forEachTerm((keyword, position, entries) -> {
+            if (EntryStore.normalize(keyword).contains(text)) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    private static EntryTableEntry entry(String node, String file) {
+        return new EntryTableEntry(node, file);
+    }
+}
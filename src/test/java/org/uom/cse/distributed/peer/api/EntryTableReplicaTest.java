@@ -0,0 +1,41 @@
+package org.uom.cse.distributed.peer.api;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class EntryTableReplicaTest {
+
+    @Test
+    public void testMalformedEntriesAreSkipped() {
+        EntryTableReplica replica = new EntryTableReplica();
+        Map<String, List<EntryTableEntry>> added = new HashMap<>();
+        added.put("Harry", Arrays.asList(new EntryTableEntry("node", "Harry Potter"),
+                new EntryTableEntry("1", "Harry Potter"), new EntryTableEntry("4294967296", "Harry Potter"),
+                new EntryTableEntry(), new EntryTableEntry("2", "Harry Potter")));
+        added.put("Glee", Collections.singletonList(new EntryTableEntry("-1", "Glee")));
+        added.put(null, Collections.singletonList(new EntryTableEntry("3", "Lost")));
+        replica.apply(new EntryTableDelta(7, 3, true, added, null));
+
+        // The rest of the delta is applied, up to its version
+        Assert.assertEquals(replica.getEpoch(), 7);
+        Assert.assertEquals(replica.getVersion(), 3);
+        Assert.assertEquals(replica.getEntries(), Collections.singletonMap("Harry", Arrays.asList(
+                new EntryTableEntry("1", "Harry Potter"), new EntryTableEntry("2", "Harry Potter"))));
+
+        Map<String, List<EntryTableEntry>> removed = new HashMap<>();
+        removed.put("Harry", Arrays.asList(new EntryTableEntry("node", "Harry Potter"),
+                new EntryTableEntry("1", "Harry Potter"), new EntryTableEntry()));
+        removed.put(null, Collections.singletonList(new EntryTableEntry("2", "Harry Potter")));
+        replica.apply(new EntryTableDelta(7, 4, false, null, removed));
+
+        Assert.assertEquals(replica.getVersion(), 4);
+        Assert.assertEquals(replica.getEntries(), Collections.singletonMap("Harry",
+                Collections.singletonList(new EntryTableEntry("2", "Harry Potter"))));
+    }
+}
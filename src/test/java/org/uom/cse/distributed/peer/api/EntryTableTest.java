@@ -0,0 +1,137 @@
+package org.uom.cse.distributed.peer.api;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.uom.cse.distributed.Constants.ENTRY_TABLE_CHANGE_LOG_SIZE;
+
+public class EntryTableTest {
+
+    @Test
+    public void testFullDeltaWhenChangesAreNotLogged() {
+        EntryTable table = new EntryTable();
+        table.addEntry("Harry", new EntryTableEntry("1", "Harry Potter"));
+        table.addEntry("Glee", new EntryTableEntry("2", "Glee"));
+        long epoch = table.getEpoch();
+        Assert.assertEquals(table.getVersion(), 2);
+
+        assertFull(table.getChangesSince(0, 0), table);
+        assertFull(table.getChangesSince(epoch + 1, 1), table);
+        // A version the table hasn't reached
+        assertFull(table.getChangesSince(epoch, 3), table);
+
+        EntryTableDelta delta = table.getChangesSince(epoch, 1);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(delta.getAdded(), Collections.singletonMap("Glee",
+                Collections.singletonList(new EntryTableEntry("2", "Glee"))));
+        Assert.assertTrue(table.getChangesSince(epoch, 2).isEmpty());
+
+        // Versions older than the log
+        for (int i = 0; i < ENTRY_TABLE_CHANGE_LOG_SIZE; i++) {
+            table.addEntry("term" + i, new EntryTableEntry("3", "Term " + i));
+        }
+        assertFull(table.getChangesSince(epoch, 1), table);
+        delta = table.getChangesSince(epoch, 2);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(delta.getAdded().size(), ENTRY_TABLE_CHANGE_LOG_SIZE);
+
+        // A new epoch, even though the version carries on
+        long version = table.getVersion();
+        table.clear();
+        Assert.assertNotEquals(table.getEpoch(), epoch);
+        Assert.assertEquals(table.getVersion(), version);
+        delta = table.getChangesSince(epoch, version);
+        assertFull(delta, table);
+        Assert.assertTrue(delta.getAdded().isEmpty());
+        Assert.assertTrue(table.getChangesSince(table.getEpoch(), version).isEmpty());
+    }
+
+    @Test
+    public void testLastChangeWins() {
+        EntryTable table = new EntryTable();
+        table.addEntry("Harry", new EntryTableEntry("1", "Harry Potter"));
+        table.addEntry("Glee", new EntryTableEntry("2", "Glee"));
+        long epoch = table.getEpoch();
+        long since = table.getVersion();
+
+        // Added then removed, in another case. Changes are logged as spelled in the table
+        table.addEntry("Lost", new EntryTableEntry("3", "Lost"));
+        table.removeEntry("LOST", new EntryTableEntry("3", "lost"));
+        // Removed then added back
+        table.removeEntry("Harry", new EntryTableEntry("1", "Harry Potter"));
+        table.addEntry("harry", new EntryTableEntry("1", "harry potter"));
+        // Removed, added and removed again
+        table.removeEntry("Glee", new EntryTableEntry("2", "Glee"));
+        table.addEntry("Glee", new EntryTableEntry("2", "Glee"));
+        table.removeEntry("Glee", new EntryTableEntry("2", "Glee"));
+        Assert.assertEquals(table.getVersion(), since + 7);
+
+        EntryTableDelta delta = table.getChangesSince(epoch, since);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(delta.getVersion(), since + 7);
+        Assert.assertEquals(delta.getAdded(), Collections.singletonMap("harry",
+                Collections.singletonList(new EntryTableEntry("1", "harry potter"))));
+        Map<String, List<EntryTableEntry>> removed = new HashMap<>();
+        removed.put("Lost", Collections.singletonList(new EntryTableEntry("3", "lost")));
+        removed.put("Glee", Collections.singletonList(new EntryTableEntry("2", "Glee")));
+        Assert.assertEquals(delta.getRemoved(), removed);
+    }
+
+    @Test
+    public void testReplicaConverges() {
+        Random random = new Random(7);
+        EntryTable table = new EntryTable();
+        EntryTableReplica replica = new EntryTableReplica();
+        for (int round = 0; round < 50; round++) {
+            if (round % 20 == 19) {
+                table.clear();
+            }
+
+            for (int i = random.nextInt(30); i > 0; i--) {
+                int term = random.nextInt(20);
+                String keyword = random.nextBoolean() ? "Term" + term : "TERM" + term;
+                EntryTableEntry entry = new EntryTableEntry(String.valueOf(random.nextInt(3)), "File " + term);
+                if (random.nextInt(3) > 0) {
+                    table.addEntry(keyword, entry);
+                } else {
+                    table.removeEntry(keyword, entry);
+                }
+            }
+
+            EntryTableDelta delta = table.getChangesSince(replica.getEpoch(), replica.getVersion());
+            Assert.assertEquals(delta.isFull(), round == 0 || round % 20 == 19);
+            replica.apply(delta);
+            Assert.assertEquals(replica.getEpoch(), table.getEpoch());
+            Assert.assertEquals(replica.getVersion(), table.getVersion());
+            Assert.assertEquals(asSets(replica.getEntries()), asSets(table.getEntries()));
+            Assert.assertEquals(replica.getEntryCount(), table.getEntryCount());
+        }
+    }
+
+    private static void assertFull(EntryTableDelta delta, EntryTable table) {
+        Assert.assertTrue(delta.isFull());
+        Assert.assertEquals(delta.getEpoch(), table.getEpoch());
+        Assert.assertEquals(delta.getVersion(), table.getVersion());
+        Assert.assertEquals(asSets(delta.getAdded()), asSets(table.getEntries()));
+        Assert.assertTrue(delta.getRemoved().isEmpty());
+    }
+
+    /**
+     * @return entries by normalized keyword, regardless of their order. A keyword whose entries were all removed and
+     * added back in another case may be spelled either way, since only the last change to each entry is sent
+     */
+    private static Map<String, Set<EntryTableEntry>> asSets(Map<String, List<EntryTableEntry>> entries) {
+        Map<String, Set<EntryTableEntry>> sets = new HashMap<>();
+        entries.forEach((keyword, list) -> Assert.assertNull(sets.put(EntryStore.normalize(keyword),
+                new HashSet<>(list)), keyword));
+        return sets;
+    }
+}
@@ -0,0 +1,113 @@
+package org.uom.cse.distributed.peer.api;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.uom.cse.distributed.Constants.KEYWORD_NGRAM_LENGTH;
+
+public class KeywordIndexTest {
+
+    @Test
+    public void testPrefixRangeBoundaries() {
+        KeywordIndex index = index("har", "harr", "harry", "harrz", "hars", "ha", "hb", "harr\uffff", "harr\uffffx",
+                "hars\u0000");
+
+        Assert.assertEquals(find(index, "harr*"), set("harr", "harry", "harrz", "harr\uffff", "harr\uffffx"));
+        Assert.assertEquals(find(index, "har*"), set("har", "harr", "harry", "harrz", "hars", "harr\uffff",
+                "harr\uffffx", "hars\u0000"));
+        Assert.assertEquals(find(index, "hars*"), set("hars", "hars\u0000"));
+        Assert.assertEquals(find(index, "harry*"), set("harry"));
+        Assert.assertEquals(find(index, "harryp*"), set());
+        Assert.assertEquals(find(index, "h*"), set("har", "harr", "harry", "harrz", "hars", "ha", "hb", "harr\uffff",
+                "harr\uffffx", "hars\u0000"));
+        Assert.assertEquals(find(index, "harr\uffff*"), set("harr\uffff", "harr\uffffx"));
+    }
+
+    @Test
+    public void testSuccessor() {
+        Assert.assertEquals(KeywordIndex.successorOf("harr"), "hars");
+        Assert.assertEquals(KeywordIndex.successorOf("harr\uffff"), "hars");
+        Assert.assertEquals(KeywordIndex.successorOf("h\uffff\uffff"), "i");
+        Assert.assertNull(KeywordIndex.successorOf("\uffff\uffff"));
+
+        KeywordIndex index = index("\uffff", "\uffff\uffff", "\uffffa", "z");
+        Assert.assertEquals(find(index, "\uffff*"), set("\uffff", "\uffff\uffff", "\uffffa"));
+    }
+
+    @Test
+    public void testInfix() {
+        KeywordIndex index = index("harry", "harrison", "potter", "sharr", "ar", "a", "glee");
+
+        // Shorter than an n-gram. Looked for in all the keywords
+        Assert.assertTrue("ar".length() < KEYWORD_NGRAM_LENGTH);
+        Assert.assertEquals(find(index, "*ar*"), set("harry", "harrison", "sharr", "ar"));
+        Assert.assertEquals(find(index, "*a*"), set("harry", "harrison", "sharr", "ar", "a"));
+        Assert.assertEquals(find(index, "*x*"), set());
+
+        // As long as an n-gram and longer. Looked for among the keywords sharing the n-grams
+        Assert.assertEquals(find(index, "*arr*"), set("harry", "harrison", "sharr"));
+        Assert.assertEquals(find(index, "*harr*"), set("harry", "harrison", "sharr"));
+        Assert.assertEquals(find(index, "*arri*"), set("harrison"));
+        Assert.assertEquals(find(index, "*otte*"), set("potter"));
+        // Has all the n-grams of a keyword but isn't within it
+        Assert.assertEquals(find(index, "*arrarr*"), set());
+        Assert.assertEquals(find(index, "*xyz*"), set());
+        // As long as the keyword
+        Assert.assertEquals(find(index, "*glee*"), set("glee"));
+        // A leading wildcard alone is taken as an infix
+        Assert.assertEquals(find(index, "*rry"), set("harry"));
+    }
+
+    @Test
+    public void testExact() {
+        KeywordIndex index = index("harry", "ha");
+        Assert.assertEquals(find(index, "Harry"), set("harry"));
+        Assert.assertEquals(find(index, "ha"), set("ha"));
+        Assert.assertEquals(find(index, "harr"), set());
+    }
+
+    @Test
+    public void testRemove() {
+        KeywordIndex index = index("harry", "harrison", "sharr");
+        index.remove("harry");
+        index.remove("potter");
+        Assert.assertEquals(find(index, "harr*"), set("harrison"));
+        Assert.assertEquals(find(index, "*arr*"), set("harrison", "sharr"));
+        Assert.assertEquals(find(index, "*rry*"), set());
+        Assert.assertEquals(find(index, "*ry*"), set());
+
+        // n-grams shared by the keywords left are kept
+        index.remove("harrison");
+        Assert.assertEquals(find(index, "*arr*"), set("sharr"));
+        index.remove("sharr");
+        Assert.assertEquals(find(index, "*arr*"), set());
+        Assert.assertEquals(index.getHeapFootprint(), 0);
+
+        index.add("harry");
+        Assert.assertEquals(find(index, "*arr*"), set("harry"));
+        index.clear();
+        Assert.assertEquals(find(index, "*arr*"), set());
+        Assert.assertEquals(find(index, "h*"), set());
+    }
+
+    private static KeywordIndex index(String... keywords) {
+        KeywordIndex index = new KeywordIndex();
+        for (String keyword : keywords) {
+            index.add(keyword);
+        }
+        return index;
+    }
+
+    private static Set<String> find(KeywordIndex index, String pattern) {
+        return new HashSet<>(index.find(KeywordPattern.parse(pattern)));
+    }
+
+    private static Set<String> set(String... keywords) {
+        return keywords.length == 0 ? Collections.emptySet() : new HashSet<>(Arrays.asList(keywords));
+    }
+}
@@ -0,0 +1,119 @@
+package org.uom.cse.distributed.peer.api;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.uom.cse.distributed.Constants;
+import org.uom.cse.distributed.peer.utils.HashUtils;
+
+import java.util.OptionalInt;
+
+public class KeywordPatternTest {
+
+    @Test
+    public void testParse() {
+        assertParsed("Harry", KeywordPattern.Kind.EXACT, "harry");
+        assertParsed("  Harry ", KeywordPattern.Kind.EXACT, "harry");
+        assertParsed("a*", KeywordPattern.Kind.PREFIX, "a");
+        assertParsed("HARR**", KeywordPattern.Kind.PREFIX, "harr");
+        assertParsed("*a*", KeywordPattern.Kind.INFIX, "a");
+        assertParsed("**Otte***", KeywordPattern.Kind.INFIX, "otte");
+        // Wildcards within the text are taken as they are
+        assertParsed("Ha*ry", KeywordPattern.Kind.EXACT, "ha*ry");
+    }
+
+    @Test
+    public void testLeadingWildcardAloneIsInfix() {
+        KeywordPattern pattern = assertParsed("*a", KeywordPattern.Kind.INFIX, "a");
+        Assert.assertEquals(pattern.toString(), "*a*");
+
+        pattern = KeywordPattern.parse("*otter");
+        Assert.assertTrue(pattern.matches("Potter"));
+        Assert.assertTrue(pattern.matches("Potters"));
+        Assert.assertFalse(pattern.matches("Otte"));
+    }
+
+    @Test
+    public void testNothingButWildcardsIsRejected() {
+        for (String pattern : new String[]{"*", "**", " * ", "", "  ", null}) {
+            try {
+                KeywordPattern parsed = KeywordPattern.parse(pattern);
+                Assert.fail("Parsed '" + pattern + "' as " + parsed);
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testMatches() {
+        KeywordPattern exact = KeywordPattern.parse("harry");
+        Assert.assertTrue(exact.matches("HARRY"));
+        Assert.assertFalse(exact.matches("Harrison"));
+
+        KeywordPattern prefix = KeywordPattern.parse("Harr*");
+        Assert.assertTrue(prefix.matches("harr"));
+        Assert.assertTrue(prefix.matches("HARRISON"));
+        Assert.assertFalse(prefix.matches("Har"));
+        Assert.assertFalse(prefix.matches("Sharry"));
+
+        KeywordPattern infix = KeywordPattern.parse("*ARR*");
+        Assert.assertTrue(infix.matches("arr"));
+        Assert.assertTrue(infix.matches("Sharry"));
+        Assert.assertFalse(infix.matches("Potter"));
+    }
+
+    @Test
+    public void testToStringIsParsedBack() {
+        for (String pattern : new String[]{"Harry", "Harr*", "*otte*", "*otter", "**a**"}) {
+            KeywordPattern parsed = KeywordPattern.parse(pattern);
+            KeywordPattern reparsed = KeywordPattern.parse(parsed.toString());
+            Assert.assertEquals(reparsed.getKind(), parsed.getKind());
+            Assert.assertEquals(reparsed.getText(), parsed.getText());
+        }
+    }
+
+    @Test
+    public void testPositionWithoutPrefixRouting() {
+        int length = Constants.ROUTING_PREFIX_LENGTH;
+        Constants.ROUTING_PREFIX_LENGTH = 0;
+        try {
+            Assert.assertEquals(KeywordPattern.parse("Harry").getPosition(),
+                    OptionalInt.of(HashUtils.keywordToNodeId("harry")));
+            // Keywords are spread by their whole text, hence any node may own the ones matching the others
+            Assert.assertFalse(KeywordPattern.parse("Harry*").getPosition().isPresent());
+            Assert.assertFalse(KeywordPattern.parse("*arry*").getPosition().isPresent());
+        } finally {
+            Constants.ROUTING_PREFIX_LENGTH = length;
+        }
+    }
+
+    @Test
+    public void testPositionWithPrefixRouting() {
+        int length = Constants.ROUTING_PREFIX_LENGTH;
+        Constants.ROUTING_PREFIX_LENGTH = 3;
+        try {
+            int position = HashUtils.keywordToNodeId("har");
+            Assert.assertEquals(KeywordPattern.parse("Harry").getPosition(), OptionalInt.of(position));
+            Assert.assertEquals(KeywordPattern.parse("Har*").getPosition(), OptionalInt.of(position));
+            Assert.assertEquals(KeywordPattern.parse("Harrison*").getPosition(), OptionalInt.of(position));
+            // Owned by the node of each keyword matching it
+            Assert.assertEquals(HashUtils.keywordToNodeId("Harrison"), position);
+
+            // Too short to tell which node owns the keywords
+            Assert.assertFalse(KeywordPattern.parse("Ha*").getPosition().isPresent());
+            Assert.assertFalse(KeywordPattern.parse("*Harry*").getPosition().isPresent());
+            // A whole keyword is owned by a single node even when it is short
+            Assert.assertEquals(KeywordPattern.parse("Ha").getPosition(),
+                    OptionalInt.of(HashUtils.keywordToNodeId("ha")));
+        } finally {
+            Constants.ROUTING_PREFIX_LENGTH = length;
+        }
+    }
+
+    private static KeywordPattern assertParsed(String pattern, KeywordPattern.Kind kind, String text) {
+        KeywordPattern parsed = KeywordPattern.parse(pattern);
+        Assert.assertEquals(parsed.getKind(), kind);
+        Assert.assertEquals(parsed.getText(), text);
+        return parsed;
+    }
+}
@@ -0,0 +1,186 @@
+package org.uom.cse.distributed.peer.api;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+public class TermMapTest {
+
+    /** Terms having the same {@link String#hashCode()} */
+    private static final String[] COLLIDING = {"AaAa", "AaBB", "BBAa", "BBBB"};
+
+    private final Set<String> probed = new LinkedHashSet<>();
+
+    @Test
+    public void testCollidingTermsShareABucket() {
+        Assert.assertEquals("Aa".hashCode(), "BB".hashCode());
+        Map<String, EntryStore.Postings> expected = new HashMap<>();
+        TermMap map = TermMap.EMPTY;
+
+        map = put(map, expected, "Aa");
+        map = put(map, expected, "BB");
+        map = put(map, expected, "glee");
+        for (String term : COLLIDING) {
+            map = put(map, expected, term);
+        }
+
+        // Replaced within the bucket. Putting the same postings again changes nothing
+        map = put(map, expected, "AaBB");
+        Assert.assertSame(map.with("AaBB", expected.get("AaBB")), map);
+        Assert.assertSame(map.without("BBAb"), map);
+        Assert.assertSame(map.without("Ab"), map);
+
+        // Shrinks down to a single leaf, which is still found and can take a colliding term again
+        map = remove(map, expected, "BBAa");
+        map = remove(map, expected, "AaAa");
+        map = remove(map, expected, "BBBB");
+        map = remove(map, expected, "BB");
+        map = put(map, expected, "BBAa");
+        map = remove(map, expected, "AaBB");
+        map = remove(map, expected, "BBAa");
+        map = remove(map, expected, "Aa");
+        map = remove(map, expected, "glee");
+        Assert.assertSame(map, TermMap.EMPTY);
+    }
+
+    @Test
+    public void testTermsSharingHashPrefixesAreMergedDeep() {
+        Map<String, EntryStore.Postings> expected = new HashMap<>();
+        TermMap map = TermMap.EMPTY;
+
+        // Hashes equal in all but the last 2 bits, hence apart only at the deepest level
+        String[] deepest = sharingLowBits("deep", 30, null);
+        map = put(map, expected, deepest[0]);
+        map = put(map, expected, deepest[1]);
+        map = put(map, expected, "glee");
+
+        // A term next to a bucket, merged with the bucket a few levels below
+        String[] nextToBucket = sharingLowBits("bucket", 15, "Aa");
+        map = put(map, expected, "Aa");
+        map = put(map, expected, "BB");
+        map = put(map, expected, nextToBucket[1]);
+        Assert.assertEquals(TermMap.hash(nextToBucket[1]) & ((1 << 15) - 1), TermMap.hash("Aa") & ((1 << 15) - 1));
+
+        // The leaf left beside the removed one is pulled up, and found at the shallower level
+        map = remove(map, expected, deepest[0]);
+        assertShallowest(map, expected);
+        map = put(map, expected, deepest[0]);
+        map = remove(map, expected, deepest[1]);
+        assertShallowest(map, expected);
+
+        // Likewise for the leaf a bucket shrinks to
+        map = remove(map, expected, nextToBucket[1]);
+        map = put(map, expected, nextToBucket[1]);
+        map = remove(map, expected, "BB");
+        assertShallowest(map, expected);
+        map = remove(map, expected, "Aa");
+        assertShallowest(map, expected);
+
+        map = remove(map, expected, deepest[0]);
+        map = remove(map, expected, "glee");
+        map = remove(map, expected, nextToBucket[1]);
+        Assert.assertSame(map, TermMap.EMPTY);
+    }
+
+    @Test
+    public void testVersionsAreIndependent() {
+        Random random = new Random(42);
+        List<String> terms = new ArrayList<>(Arrays.asList(COLLIDING));
+        terms.addAll(Arrays.asList("Aa", "BB", "harry", "potter", "glee"));
+        terms.addAll(Arrays.asList(sharingLowBits("deep", 30, null)));
+        terms.addAll(Arrays.asList(sharingLowBits("bucket", 15, "Aa")));
+        terms.addAll(Arrays.asList(sharingLowBits("shallow", 10, "harry")));
+        for (int i = 0; i < 200; i++) {
+            terms.add("term" + i);
+        }
+
+        List<TermMap> versions = new ArrayList<>();
+        List<Map<String, EntryStore.Postings>> contents = new ArrayList<>();
+        Map<String, EntryStore.Postings> expected = new HashMap<>();
+        TermMap map = TermMap.EMPTY;
+        for (int i = 0; i < 5000; i++) {
+            String term = terms.get(random.nextInt(terms.size()));
+            map = random.nextInt(3) > 0 ? put(map, expected, term) : remove(map, expected, term);
+            if (i % 100 == 0) {
+                versions.add(map);
+                contents.add(new HashMap<>(expected));
+            }
+        }
+
+        for (int i = 0; i < versions.size(); i++) {
+            assertContent(versions.get(i), contents.get(i));
+        }
+    }
+
+    private TermMap put(TermMap map, Map<String, EntryStore.Postings> expected, String term) {
+        EntryStore.Postings postings = new EntryStore.Postings(term);
+        expected.put(term, postings);
+        probed.add(term);
+
+        TermMap with = map.with(term, postings);
+        assertContent(with, expected);
+        return with;
+    }
+
+    private TermMap remove(TermMap map, Map<String, EntryStore.Postings> expected, String term) {
+        expected.remove(term);
+        probed.add(term);
+
+        TermMap without = map.without(term);
+        assertContent(without, expected);
+        return without;
+    }
+
+    private void assertContent(TermMap map, Map<String, EntryStore.Postings> expected) {
+        Assert.assertEquals(map.size(), expected.size());
+        for (String term : probed) {
+            Assert.assertSame(map.get(term), expected.get(term), term);
+        }
+
+        Map<String, EntryStore.Postings> visited = new HashMap<>();
+        map.forEach((term, postings) -> Assert.assertNull(visited.put(term, postings), "Visited twice: " + term));
+        Assert.assertEquals(visited, expected);
+    }
+
+    /**
+     * Asserts that the trie is laid out as if the terms were added to an empty map, i.e: that no branch is left
+     * holding a single leaf
+     */
+    private static void assertShallowest(TermMap map, Map<String, EntryStore.Postings> expected) {
+        TermMap added = TermMap.EMPTY;
+        for (Map.Entry<String, EntryStore.Postings> entry : expected.entrySet()) {
+            added = added.with(entry.getKey(), entry.getValue());
+        }
+        Assert.assertEquals(map.getHeapFootprint(), added.getHeapFootprint());
+    }
+
+    /**
+     * @return 2 distinct terms whose hashes are equal in the given number of low bits, the first being the given one if
+     * any
+     */
+    private static String[] sharingLowBits(String prefix, int bits, String first) {
+        int mask = (1 << bits) - 1;
+        // Terms counted up share most of their hash bits. Hence random ones, which run into each other sooner
+        Random random = new Random(bits);
+        Map<Integer, String> seen = new HashMap<>();
+        if (first != null) {
+            seen.put(TermMap.hash(first) & mask, first);
+        }
+        while (true) {
+            String term = prefix + Long.toString(random.nextLong() & Long.MAX_VALUE, Character.MAX_RADIX);
+            int hash = TermMap.hash(term);
+            String other = first == null ? seen.putIfAbsent(hash & mask, term) : seen.get(hash & mask);
+            if (other != null && TermMap.hash(other) != hash) {
+                return new String[]{other, term};
+            }
+        }
+    }
+}
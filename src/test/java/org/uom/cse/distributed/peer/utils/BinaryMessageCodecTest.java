@@ -0,0 +1,215 @@
+package org.uom.cse.distributed.peer.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.uom.cse.distributed.Constants;
+import org.uom.cse.distributed.peer.api.EntryTableDelta;
+import org.uom.cse.distributed.peer.api.EntryTableEntry;
+import org.uom.cse.distributed.peer.api.MessageCodec;
+import org.uom.cse.distributed.peer.api.RangeLoad;
+import org.uom.cse.distributed.peer.api.RoutingTableEntry;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+public class BinaryMessageCodecTest {
+
+    private static final byte LIST = 7;
+    private static final byte MAP = 9;
+    private static final byte STRING_ARRAY = 10;
+    private static final byte STRING = 1;
+    private static final byte DELTA = 12;
+
+    private final BinaryMessageCodec codec = new BinaryMessageCodec();
+
+    @Test
+    public void testEntryTableRoundTrip() throws IOException {
+        Map<String, List<EntryTableEntry>> table = new HashMap<>();
+        table.put("Harry", Arrays.asList(new EntryTableEntry("12", "Harry Potter"),
+                new EntryTableEntry("34", "Harry Potter")));
+        table.put("Na\u00efve", Collections.singletonList(new EntryTableEntry("56", "Na\u00efve \u65e5\u672c")));
+
+        Assert.assertEquals(roundTrip(table), table);
+    }
+
+    @Test
+    public void testDeltaRoundTrip() throws IOException {
+        Map<String, List<EntryTableEntry>> added = new HashMap<>();
+        added.put("Glee", Collections.singletonList(new EntryTableEntry("1", "Glee")));
+        EntryTableDelta delta = (EntryTableDelta) roundTrip(new EntryTableDelta(7L, 42L, true, added, null));
+
+        Assert.assertEquals(delta.getEpoch(), 7L);
+        Assert.assertEquals(delta.getVersion(), 42L);
+        Assert.assertTrue(delta.isFull());
+        Assert.assertEquals(delta.getAdded(), added);
+        Assert.assertTrue(delta.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void testValuesRoundTrip() throws IOException {
+        InetSocketAddress resolved = new InetSocketAddress("127.0.0.1", 32050);
+        InetSocketAddress unresolved = InetSocketAddress.createUnresolved("peer.local", 32051);
+
+        Assert.assertNull(roundTrip(null));
+        Assert.assertEquals(roundTrip(""), "");
+        Assert.assertEquals(roundTrip('x'), 'x');
+        Assert.assertEquals(roundTrip(-5), -5);
+        Assert.assertEquals(roundTrip(resolved), resolved);
+        Assert.assertEquals(roundTrip(unresolved), unresolved);
+        Assert.assertEquals(roundTrip(new RoutingTableEntry(resolved, 99)), new RoutingTableEntry(resolved, 99));
+        Assert.assertEquals(roundTrip(new HashSet<>(Arrays.asList("a", "b"))),
+                new HashSet<>(Arrays.asList("a", "b")));
+        Assert.assertEquals((String[]) roundTrip(new String[]{"a", null, "c"}), new String[]{"a", null, "c"});
+        Assert.assertEquals((InetSocketAddress[]) roundTrip(new InetSocketAddress[]{resolved, unresolved}),
+                new InetSocketAddress[]{resolved, unresolved});
+
+        RangeLoad load = (RangeLoad) roundTrip(new RangeLoad(10, 2, 30, 6));
+        Assert.assertEquals(load.getNodeId(), 10);
+        Assert.assertEquals(load.getFrom(), 2);
+        Assert.assertEquals(load.getEntries(), 30);
+        Assert.assertEquals(load.getSplitPoint(), 6);
+    }
+
+    @Test
+    public void testTruncatedPayloadsAreRejected() throws IOException {
+        Map<String, List<EntryTableEntry>> added = new HashMap<>();
+        added.put("Glee", Arrays.asList(new EntryTableEntry("1", "Glee"), new EntryTableEntry("2", "Glee")));
+        byte[] bytes = encode(new EntryTableDelta(1L, 2L, false, added, new HashMap<>()));
+
+        for (int length = 0; length < bytes.length; length++) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            assertRejected(new ByteArrayInputStream(truncated));
+            assertRejected(new BufferedInputStream(new ByteArrayInputStream(truncated)));
+        }
+    }
+
+    @Test
+    public void testHostileSizesAreRejected() throws IOException {
+        assertRejected(payload(LIST, Integer.MAX_VALUE));
+        assertRejected(payload(LIST, -1));
+        assertRejected(payload(MAP, Constants.CODEC_MAX_ELEMENTS + 1));
+        assertRejected(payload(STRING_ARRAY, Integer.MAX_VALUE));
+        assertRejected(payload(STRING, Integer.MAX_VALUE));
+        assertRejected(payload(STRING, -2));
+        assertRejected(payload(STRING, Constants.CODEC_MAX_STRING_BYTES + 1));
+        // Sizes within the limits, claiming more than what follows
+        assertRejected(payload(LIST, 1000));
+        assertRejected(payload(STRING, 1000));
+        assertRejected(payload((byte) 99, 0));
+    }
+
+    @Test
+    public void testHostileSizesAreRejectedFromStreams() throws IOException {
+        // Streams don't tell how many bytes are left. Nothing but what arrives should be allocated
+        assertRejected(new BufferedInputStream(payload(LIST, Constants.CODEC_MAX_ELEMENTS)));
+        assertRejected(new BufferedInputStream(payload(STRING_ARRAY, Constants.CODEC_MAX_ELEMENTS)));
+        assertRejected(new BufferedInputStream(payload(STRING, Constants.CODEC_MAX_STRING_BYTES)));
+        assertRejected(new BufferedInputStream(payload(LIST, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void testMalformedStructuresAreRejected() throws IOException {
+        // Lists nested deeper than any real payload
+        ByteArrayOutputStream nested = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(nested);
+        for (int i = 0; i < 10000; i++) {
+            out.writeByte(LIST);
+            out.writeInt(1);
+        }
+        out.writeByte(0);
+        assertRejected(new ByteArrayInputStream(nested.toByteArray()));
+
+        // A delta whose added entries are not a map
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        out = new DataOutputStream(delta);
+        out.writeByte(DELTA);
+        out.writeLong(1L);
+        out.writeLong(1L);
+        out.writeBoolean(true);
+        codec.encode(new ArrayList<>(), out);
+        codec.encode(null, out);
+        assertRejected(new ByteArrayInputStream(delta.toByteArray()));
+    }
+
+    @Test
+    public void testRawAndBase64Forms() throws IOException {
+        Map<String, List<EntryTableEntry>> entries = new HashMap<>();
+        entries.put("Glee", Arrays.asList(new EntryTableEntry("1", "Glee"), new EntryTableEntry("2", "Na\u00efve")));
+
+        byte[] raw = RequestUtils.encodeObject(entries, codec);
+        Assert.assertEquals(RequestUtils.decodeObject(ByteBuffer.wrap(raw)), entries);
+        String base64 = RequestUtils.buildObjectRequest(entries, codec);
+        Assert.assertEquals(RequestUtils.toBase64(raw), base64);
+        Assert.assertEquals(RequestUtils.base64StringToObject(base64), entries);
+        // The raw form spares the third Base64 adds
+        Assert.assertTrue(raw.length * 4 <= 3 * base64.length() + 12);
+
+        // Java serialized payloads are sent in Base64 without the name of the codec
+        MessageCodec java = RequestUtils.getCodec(JavaMessageCodec.NAME);
+        raw = RequestUtils.encodeObject(entries, java);
+        Assert.assertEquals(RequestUtils.decodeObject(ByteBuffer.wrap(raw)), entries);
+        Assert.assertEquals(RequestUtils.toBase64(raw), RequestUtils.buildObjectRequest(entries, java));
+        Assert.assertEquals(RequestUtils.base64StringToObject(RequestUtils.toBase64(raw)), entries);
+
+        Assert.assertNull(RequestUtils.decodeObject(ByteBuffer.wrap(Arrays.copyOf(raw, raw.length - 1))));
+        Assert.assertNull(RequestUtils.decodeObject(ByteBuffer.wrap(new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    public void testUnknownCodecIsRejected() throws IOException {
+        Assert.assertSame(RequestUtils.getCodec("bin"), RequestUtils.getCodec(BinaryMessageCodec.NAME));
+        try {
+            MessageCodec unknown = RequestUtils.getCodec("XML");
+            Assert.fail("Unknown codec was resolved to " + unknown.getName());
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        byte[] raw = RequestUtils.encodeObject(Collections.singletonList("Glee"), codec);
+        System.arraycopy("XYZ".getBytes(StandardCharsets.US_ASCII), 0, raw, 0, BinaryMessageCodec.NAME.length());
+        Assert.assertNull(RequestUtils.decodeObject(ByteBuffer.wrap(raw)));
+        Assert.assertNull(RequestUtils.base64StringToObject("XYZ" + Constants.CODEC_SEPARATOR + "AAAA"));
+    }
+
+    private Object roundTrip(Object object) throws IOException {
+        return codec.decode(new ByteArrayInputStream(encode(object)));
+    }
+
+    private byte[] encode(Object object) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(object, out);
+        return out.toByteArray();
+    }
+
+    private static InputStream payload(byte type, int size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeInt(size);
+        out.writeInt(0);
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    private void assertRejected(InputStream in) {
+        try {
+            Object decoded = codec.decode(in);
+            Assert.fail("Malformed payload was decoded as " + decoded);
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.uom.cse.distributed.peer.utils;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.uom.cse.distributed.peer.api.Command;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class MessageFrameTest {
+
+    @Test
+    public void testCorrelationHeader() {
+        MessageFrame frame = parse("#42:binary " + RequestUtils.buildRequest("PING 1 2 3"));
+        Assert.assertTrue(frame.isCorrelated());
+        Assert.assertEquals(frame.getRequestId(), "42");
+        Assert.assertEquals(frame.getCodecName(), "binary");
+        Assert.assertEquals(frame.getCommand(), Command.PING);
+        Assert.assertEquals(frame.nextInt(), 1);
+        Assert.assertEquals(frame.nextLong(), 2L);
+        Assert.assertEquals(frame.nextToken(), "3");
+        Assert.assertFalse(frame.hasRemaining());
+        Assert.assertNull(frame.nextToken());
+        Assert.assertEquals(frame.toString(), "0015 PING 1 2 3");
+
+        // Request ID without a codec
+        frame = parse("#42 " + RequestUtils.buildRequest("GETRTBL"));
+        Assert.assertEquals(frame.getRequestId(), "42");
+        Assert.assertNull(frame.getCodecName());
+        Assert.assertEquals(frame.getCommand(), Command.GET_ROUTING_TABLE);
+
+        // No header
+        frame = parse(RequestUtils.buildRequest("GETRTBL"));
+        Assert.assertFalse(frame.isCorrelated());
+        Assert.assertNull(frame.getRequestId());
+        Assert.assertNull(frame.getCodecName());
+
+        assertMalformed("#42");
+        assertMalformed("#42:binary");
+    }
+
+    @Test
+    public void testLengthCountsBytes() {
+        // 2, 3 and 4 (a surrogate pair) bytes per character in UTF-8
+        String keyword = "na\u00efve\u65e5\u672c\ud83d\ude00";
+        String request = "KEYWORD " + keyword;
+        String built = RequestUtils.buildRequest(request);
+        int bytes = built.getBytes(StandardCharsets.UTF_8).length;
+
+        Assert.assertEquals(MessageFrame.frameLength(request), bytes);
+        Assert.assertEquals(Integer.parseInt(built.substring(0, 4)), bytes);
+
+        MessageFrame frame = parse(built);
+        Assert.assertEquals(frame.getLength(), bytes);
+        Assert.assertEquals(frame.getCommand(), Command.KEYWORD);
+        Assert.assertEquals(frame.nextToken(), keyword);
+        Assert.assertFalse(frame.hasRemaining());
+    }
+
+    @Test
+    public void testLengthFieldGrowsBeyondFourDigits() {
+        StringBuilder request = new StringBuilder("SYNC ");
+        for (int i = 0; i < 10000; i++) {
+            request.append('x');
+        }
+        String built = RequestUtils.buildRequest(request.toString());
+        Assert.assertEquals(built.indexOf(' '), 5);
+        Assert.assertEquals(parse(built).getLength(), built.length());
+
+        // A message which takes exactly 9999 bytes with a 4 digit length field
+        StringBuilder exact = new StringBuilder("SYNC ");
+        while (exact.length() < 9999 - 5) {
+            exact.append('x');
+        }
+        Assert.assertEquals(MessageFrame.frameLength(exact), 9999);
+        exact.append('x');
+        Assert.assertEquals(MessageFrame.frameLength(exact), 10001);
+    }
+
+    @Test
+    public void testTruncatedFrameIsRejected() {
+        String built = RequestUtils.buildRequest("PING 1 2 3");
+        for (int length = 0; length < built.length(); length++) {
+            assertMalformed(built.substring(0, length));
+        }
+        assertMalformed("#7:binary " + built.substring(0, built.length() - 1));
+    }
+
+    @Test
+    public void testBytesBeyondTheLengthAreIgnored() {
+        MessageFrame frame = parse(RequestUtils.buildRequest("PING 1 2") + " 3 garbage");
+        Assert.assertEquals(frame.nextInt(), 1);
+        Assert.assertEquals(frame.nextInt(), 2);
+        Assert.assertFalse(frame.hasRemaining());
+        Assert.assertEquals(frame.remaining().remaining(), 0);
+    }
+
+    @Test
+    public void testOversizeLengthIsRejected() {
+        assertMalformed("99999 PING 1");
+        assertMalformed("99999999999999999999 PING 1");
+        assertMalformed("0004 PING");
+        assertMalformed("0005 PING");
+        assertMalformed("12a4 PING");
+        assertMalformed(" PING");
+        assertMalformed("");
+    }
+
+    @Test
+    public void testUnknownCommand() {
+        MessageFrame frame = parse(RequestUtils.buildRequest("PINGX 1"));
+        Assert.assertNull(frame.getCommand());
+        Assert.assertEquals(frame.getCommandName(), "PINGX");
+
+        frame = parse(RequestUtils.buildRequest("PIN 1"));
+        Assert.assertNull(frame.getCommand());
+        Assert.assertEquals(frame.getCommandName(), "PIN");
+
+        frame = parse(RequestUtils.buildRequest("ping 1"));
+        Assert.assertNull(frame.getCommand());
+
+        // A longer command sharing its first bytes with a shorter one
+        frame = parse(RequestUtils.buildRequest("REGOK 0"));
+        Assert.assertEquals(frame.getCommand(), Command.REGOK);
+    }
+
+    @Test
+    public void testArguments() {
+        MessageFrame frame = parse(RequestUtils.buildRequest("QUERY -5 x 2147483648 rest of it"));
+        Assert.assertEquals(frame.nextInt(), -5);
+        try {
+            frame.nextInt();
+            Assert.fail("Parsed a token as a number");
+        } catch (IllegalArgumentException e) {
+            // Expected. The token is not consumed
+        }
+        Assert.assertEquals(frame.nextToken(), "x");
+        try {
+            frame.nextInt();
+            Assert.fail("Parsed a number out of the range of int");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        Assert.assertEquals(frame.remainingAsString(), "rest of it");
+        Assert.assertFalse(frame.hasRemaining());
+    }
+
+    @Test
+    public void testParsesFromThePositionOfTheBuffer() {
+        byte[] bytes = ("junk" + RequestUtils.buildRequest("PING 1")).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(4);
+        MessageFrame frame = MessageFrame.parse(buffer);
+        Assert.assertEquals(frame.getCommand(), Command.PING);
+        Assert.assertEquals(frame.nextInt(), 1);
+        Assert.assertEquals(buffer.position(), 4);
+
+        // Direct buffers are read in place too
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        direct.position(4);
+        Assert.assertEquals(MessageFrame.parse(direct).toString(), RequestUtils.buildRequest("PING 1"));
+    }
+
+    @Test
+    public void testEqualsAscii() {
+        Assert.assertTrue(MessageFrame.equalsAscii(bytes("FAILED"), "FAILED"));
+        Assert.assertFalse(MessageFrame.equalsAscii(bytes("FAILED "), "FAILED"));
+        Assert.assertFalse(MessageFrame.equalsAscii(bytes("FAILEX"), "FAILED"));
+    }
+
+    private static MessageFrame parse(String frame) {
+        return MessageFrame.parse(bytes(frame));
+    }
+
+    private static ByteBuffer bytes(String frame) {
+        return ByteBuffer.wrap(frame.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertMalformed(String frame) {
+        try {
+            MessageFrame parsed = parse(frame);
+            Assert.fail("Malformed frame was parsed as " + parsed);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}